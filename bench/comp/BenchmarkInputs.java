@@ -0,0 +1,162 @@
+package comp;
+
+import java.io.*;
+import java.util.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope; //not comp.Scope
+
+import comp.nodes.NodeProgram;
+
+/**
+ * The programs the benchmarks compile, with the input of every phase built
+ * ahead of time: the text for the tokenizer, the tokens for the parser, the
+ * tree for semantic checking, the checked tree for code generation and the
+ * instructions for rendering. A benchmark then measures its own phase and
+ * nothing before it.
+ * <p>
+ * A program is either the name of a file in <code>tests/code_gen_tests</code>
+ * (another directory can be given with <code>-Dblaise.tests=DIR</code>) or
+ * <code>synthetic-N</code>, a program with N procedures made up by the
+ * {@link ProgramGenerator}. Synthetic programs come from a fixed seed, so
+ * every run measures the same code.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkInputs {
+
+	/** Where named programs are read from. */
+	public static final String TESTS = System.getProperty("blaise.tests", "tests/code_gen_tests");
+
+	/** The seed of every synthetic program. */
+	public static final long SEED = 6502;
+
+	@Param({ "fibs", "primes", "testEntireLanguage", "synthetic-50", "synthetic-500" })
+	public String program;
+
+	private String _text;
+	private Token[] _tokens;
+	private int[] _lines;
+	private NodeProgram _tree;
+	private int _nodes;
+	private SemanticVisitor _semantic;
+	private List<Instruction> _instructions;
+	private int _instructionCount;
+
+	/**
+	 * Builds the input of every phase, once per trial.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		_text = load(program);
+
+		List<Token> tokens = new ArrayList<Token>();
+		List<Integer> lines = new ArrayList<Integer>();
+		Tokenizer tokenizer = new Tokenizer(new StringReader(_text));
+		Token token;
+		do {
+			token = tokenizer.getToken();
+			tokens.add(token);
+			lines.add(tokenizer.currentLine());
+		} while (token.getType() != TokenType.EOF);
+		_tokens = tokens.toArray(new Token[tokens.size()]);
+		_lines = new int[lines.size()];
+		for (int i = 0; i < _lines.length; i++)
+			_lines[i] = lines.get(i);
+
+		_tree = new Parser(new StringReader(_text)).parse();
+		_nodes = CompileStats.countNodes(_tree);
+
+		_semantic = new SemanticVisitor();
+		_tree.visit(_semantic);
+
+		MIPSCodeGenerator codegen = new MIPSCodeGenerator();
+		_tree.visit(new CodeGenVisitor(codegen, _semantic.getBlockSizes(), _semantic.getProcedures()));
+		_instructions = codegen.getInstructions();
+		_instructionCount = CompileStats.countInstructions(_instructions);
+	}
+
+	/**
+	 * The source of the program.
+	 */
+	public String getText() {
+		return _text;
+	}
+
+	/**
+	 * A tokenizer that hands out the program's tokens without scanning it.
+	 */
+	public Tokenizer replayTokens() {
+		return new ReplayTokenizer(_tokens, _lines);
+	}
+
+	/**
+	 * The number of tokens in the program, not counting EOF.
+	 */
+	public int getTokenCount() {
+		return _tokens.length - 1;
+	}
+
+	/**
+	 * The parsed program. Semantic checking and code generation leave the
+	 * tree as it is, so it can be visited again and again.
+	 */
+	public NodeProgram getTree() {
+		return _tree;
+	}
+
+	public int getNodeCount() {
+		return _nodes;
+	}
+
+	/**
+	 * What semantic checking found out about the tree: the block sizes and
+	 * procedures code generation needs.
+	 */
+	public SemanticVisitor getSemantic() {
+		return _semantic;
+	}
+
+	/**
+	 * The code generated for the program, without optimizations.
+	 */
+	public List<Instruction> getInstructions() {
+		return _instructions;
+	}
+
+	/**
+	 * The number of real instructions in the code, leaving out labels,
+	 * directives and comments.
+	 */
+	public int getInstructionCount() {
+		return _instructionCount;
+	}
+
+	/**
+	 * Makes up a program with the given number of procedures and the
+	 * {@link ProgramGenerator}'s other defaults.
+	 */
+	public static String synthetic(int procedures) {
+		ProgramGenerator generator = new ProgramGenerator(SEED);
+		generator.setProcedures(procedures);
+		return generator.generate();
+	}
+
+	/**
+	 * Reads a named program or makes up a synthetic one.
+	 */
+	public static String load(String name) throws IOException {
+		if (name.startsWith("synthetic-"))
+			return synthetic(Integer.parseInt(name.substring("synthetic-".length())));
+		Reader in = new InputStreamReader(new FileInputStream(new File(TESTS, name + ".bl")), "ISO-8859-1");
+		try {
+			StringBuilder text = new StringBuilder();
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+				text.append(buffer, 0, read);
+			return text.toString();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package comp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope; //not comp.Scope
+
+/**
+ * Measures how fast the {@link CodeGenVisitor} and
+ * {@link RegisterCodeGenVisitor} generate code for a checked program, in
+ * programs and instructions per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class CodeGenBenchmark {
+
+	/**
+	 * The instructions emitted, reported per second next to the programs.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long instructions;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			instructions = 0;
+		}
+	}
+
+	@Benchmark
+	public MIPSCodeGenerator stack(BenchmarkInputs inputs, Counters counters) throws Exception {
+		MIPSCodeGenerator codegen = new MIPSCodeGenerator();
+		SemanticVisitor semantic = inputs.getSemantic();
+		inputs.getTree().visit(new CodeGenVisitor(codegen, semantic.getBlockSizes(), semantic.getProcedures()));
+		counters.instructions += CompileStats.countInstructions(codegen.getInstructions());
+		return codegen;
+	}
+
+	@Benchmark
+	public MIPSCodeGenerator registers(BenchmarkInputs inputs, Counters counters) throws Exception {
+		MIPSCodeGenerator codegen = new MIPSCodeGenerator();
+		SemanticVisitor semantic = inputs.getSemantic();
+		inputs.getTree().visit(new RegisterCodeGenVisitor(codegen, semantic.getBlockSizes(),
+				semantic.getProcedures(), true));
+		counters.instructions += CompileStats.countInstructions(codegen.getInstructions());
+		return codegen;
+	}
+}
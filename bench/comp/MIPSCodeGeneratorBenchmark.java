@@ -0,0 +1,41 @@
+package comp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope; //not comp.Scope
+
+/**
+ * Measures how fast the {@link MIPSCodeGenerator} renders generated code as
+ * MAL text, in programs and instructions per second. The code is generated
+ * beforehand.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class MIPSCodeGeneratorBenchmark {
+
+	/**
+	 * The instructions rendered, reported per second next to the programs.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long instructions;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			instructions = 0;
+		}
+	}
+
+	@Benchmark
+	public String render(BenchmarkInputs inputs, Counters counters) {
+		MIPSCodeGenerator codegen = new MIPSCodeGenerator();
+		codegen.setInstructions(inputs.getInstructions());
+		counters.instructions += inputs.getInstructionCount();
+		return codegen.render();
+	}
+}
@@ -0,0 +1,46 @@
+package comp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope; //not comp.Scope
+
+import comp.nodes.NodeProgram;
+
+/**
+ * Measures how fast the {@link Parser} builds a tree, in programs and nodes
+ * per second. The tokens are read beforehand and replayed, so the tokenizer
+ * is not measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class ParserBenchmark {
+
+	/**
+	 * The tokens consumed and nodes built, reported per second next to the
+	 * programs.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long tokens;
+		public long nodes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			tokens = 0;
+			nodes = 0;
+		}
+	}
+
+	@Benchmark
+	public NodeProgram parse(BenchmarkInputs inputs, Counters counters) throws Exception {
+		NodeProgram tree = new Parser(inputs.replayTokens()).parse();
+		counters.tokens += inputs.getTokenCount();
+		counters.nodes += inputs.getNodeCount();
+		return tree;
+	}
+}
@@ -0,0 +1,33 @@
+package comp;
+
+import java.io.StringReader;
+
+/**
+ * A Tokenizer that hands out tokens read earlier instead of scanning text,
+ * so that the parser can be measured without the tokenizer. The tokens must
+ * end with EOF.
+ */
+class ReplayTokenizer extends Tokenizer {
+
+	private final Token[] _tokens;
+	private final int[] _lines; //line of each token, for error messages
+	private int _next;
+
+	ReplayTokenizer(Token[] tokens, int[] lines) {
+		super(new StringReader(""));
+		_tokens = tokens;
+		_lines = lines;
+	}
+
+	public Token getToken() {
+		return _tokens[_next++];
+	}
+
+	public int currentLine() {
+		return _next == 0 ? 1 : _lines[_next - 1];
+	}
+
+	public int getTokenCount() {
+		return Math.min(_next, _tokens.length - 1);
+	}
+}
@@ -0,0 +1,24 @@
+package comp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how long the {@link SemanticVisitor} takes to check a parsed
+ * program, in microseconds per program.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class SemanticBenchmark {
+
+	@Benchmark
+	public SemanticVisitor check(BenchmarkInputs inputs) throws Exception {
+		SemanticVisitor semantic = new SemanticVisitor();
+		inputs.getTree().visit(semantic);
+		return semantic;
+	}
+}
@@ -0,0 +1,42 @@
+package comp;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope; //not comp.Scope
+
+/**
+ * Measures how fast the {@link Tokenizer} scans a program, in programs and
+ * tokens per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class TokenizerBenchmark {
+
+	/**
+	 * The tokens scanned, reported per second next to the programs.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long tokens;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			tokens = 0;
+		}
+	}
+
+	@Benchmark
+	public int tokenize(BenchmarkInputs inputs, Counters counters) throws Exception {
+		Tokenizer tokenizer = new Tokenizer(new StringReader(inputs.getText()));
+		while (tokenizer.getToken().getType() != TokenType.EOF)
+			;
+		counters.tokens += tokenizer.getTokenCount();
+		return tokenizer.getTokenCount();
+	}
+}
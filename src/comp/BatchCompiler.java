@@ -0,0 +1,247 @@
+package comp;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Compiles many Blaise files in one JVM, several at a time. Every file gets
+ * its own {@link Compilation}, and with it its own Parser, SemanticVisitor,
+ * CodeGenVisitor and MIPSCodeGenerator, so nothing one compilation does
+ * (labels handed out, procedures declared, errors found) can leak into
+ * another. What a compilation prints is captured and reported with its
+ * result, in the order the files were given, however the workers interleave.
+ * <p>
+ * A file that fails to compile does not stop the batch; its error is recorded
+ * in its {@link Result}.
+ */
+public class BatchCompiler {
+
+	/**
+	 * The outcome of compiling one file.
+	 */
+	public static class Result {
+		private final String _source;
+		private final String _target;
+		private String _error;
+		private String _output;
+		private CompileStats _stats;
+		private boolean _cached;
+
+		private Result(String source, String target) {
+			_source = source;
+			_target = target;
+		}
+
+		public String getSource() {
+			return _source;
+		}
+
+		public String getTarget() {
+			return _target;
+		}
+
+		public boolean succeeded() {
+			return _error == null;
+		}
+
+		/**
+		 * The error message, or null if the file compiled.
+		 */
+		public String getError() {
+			return _error;
+		}
+
+		/**
+		 * Everything the compilation printed: reports of the optional stages.
+		 */
+		public String getOutput() {
+			return _output;
+		}
+
+		public CompileStats getStats() {
+			return _stats;
+		}
+
+		/**
+		 * Whether the code came from the cache rather than being compiled.
+		 */
+		public boolean wasCached() {
+			return _cached;
+		}
+	}
+
+	private final CompilerOptions _options;
+	private final CompileCache _cache;
+
+	/**
+	 * Create a batch compiler. The number of workers, the output directory
+	 * and the cache are taken from the options, as are the stages each
+	 * compilation runs.
+	 */
+	public BatchCompiler(CompilerOptions options) {
+		_options = options;
+		_cache = Compiler.openCache(options);
+	}
+
+	/**
+	 * The cache the workers share, or null if there is none.
+	 */
+	public CompileCache getCache() {
+		return _cache;
+	}
+
+	/**
+	 * Expands the arguments of a batch into the files to compile. A directory
+	 * stands for all the .bl files under it, in name order; an argument
+	 * starting with '@' names a file listing one source per line; anything
+	 * else is a source itself.
+	 */
+	public static List<String> findSources(List<String> args) throws IOException {
+		List<String> _sources = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("@")) {
+				BufferedReader in = new BufferedReader(new FileReader(arg.substring(1)));
+				try {
+					String line;
+					while ((line = in.readLine()) != null) {
+						line = line.trim();
+						if (line.length() > 0)
+							_sources.add(line);
+					}
+				} finally {
+					in.close();
+				}
+			} else if (new File(arg).isDirectory()) {
+				addDirectory(new File(arg), _sources);
+			} else {
+				_sources.add(arg);
+			}
+		}
+		return _sources;
+	}
+
+	private static void addDirectory(File dir, List<String> sources) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.isDirectory())
+				addDirectory(file, sources);
+			else if (file.getName().endsWith(".bl"))
+				sources.add(file.getPath());
+		}
+	}
+
+	/**
+	 * Gets the MAL file a source compiles to: the source with its .bl
+	 * extension replaced by .mal, in the output directory if there is one.
+	 */
+	public String getTarget(String source) {
+		File file = new File(source);
+		String name = file.getName();
+		if (name.endsWith(".bl"))
+			name = name.substring(0, name.length() - ".bl".length());
+		name += ".mal";
+		File dir = _options.getOutputDirectory() != null
+				? new File(_options.getOutputDirectory()) : file.getParentFile();
+		return new File(dir, name).getPath();
+	}
+
+	/**
+	 * Compiles every source and waits for all of them.
+	 *
+	 * @return One result per source, in the same order
+	 * @throws IllegalArgumentException If two sources would write the same MAL file
+	 */
+	public List<Result> compile(List<String> sources) throws InterruptedException {
+		Set<String> _targets = new HashSet<String>();
+		for (String source : sources) {
+			if (!_targets.add(getTarget(source)))
+				throw new IllegalArgumentException("More than one source compiles to " + getTarget(source));
+		}
+		if (_options.getOutputDirectory() != null)
+			new File(_options.getOutputDirectory()).mkdirs();
+
+		ExecutorService pool = Executors.newFixedThreadPool(_options.getJobs());
+		try {
+			List<Future<Result>> _futures = new ArrayList<Future<Result>>();
+			for (final String source : sources) {
+				_futures.add(pool.submit(new Callable<Result>() {
+					public Result call() {
+						return compileOne(source);
+					}
+				}));
+			}
+			List<Result> _results = new ArrayList<Result>();
+			for (Future<Result> future : _futures) {
+				try {
+					_results.add(future.get());
+				} catch (ExecutionException e) {
+					throw new InternalException("Batch worker failed: " + e.getCause());
+				}
+			}
+			return _results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	//runs on a worker: everything the compilation touches is created here
+	private Result compileOne(String source) {
+		Result result = new Result(source, getTarget(source));
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(buffer);
+		Compilation compilation = new Compilation(source, result._target, _options);
+		compilation.setOutput(out);
+		compilation.setCache(_cache);
+		compilation.setDebugFiles(result._target + ".gv.txt", result._target + ".png");
+		try {
+			compilation.run();
+		} catch (LexicalException e) {
+			result._error = e.getMessage();
+		} catch (SyntaxException e) {
+			result._error = e.getMessage();
+		} catch (VisitorException e) {
+			result._error = e.getMessage();
+		} catch (IOException e) {
+			result._error = e.getMessage();
+		} catch (RuntimeException e) {
+			result._error = "Internal compiler error: " + e;
+		} catch (StackOverflowError e) {
+			result._error = "Program is nested too deeply to compile";
+		}
+		out.flush();
+		result._output = buffer.toString();
+		result._stats = compilation.getStats();
+		result._cached = compilation.isCached();
+		return result;
+	}
+
+	/**
+	 * Prints the output of each compilation followed by one line per file
+	 * saying whether it compiled, and a count of both.
+	 */
+	public static void printSummary(List<Result> results, PrintStream out) {
+		int failed = 0;
+		for (Result result : results) {
+			if (result._output.length() > 0) {
+				out.println("== " + result._source);
+				out.print(result._output);
+			}
+		}
+		for (Result result : results) {
+			if (result.succeeded()) {
+				out.println(String.format("ok      %s -> %s (%.1f ms%s)", result._source,
+						result._target, result._stats.getTotalNanos() / 1e6,
+						result._cached ? ", cached" : ""));
+			} else {
+				failed++;
+				out.println("FAILED  " + result._source + ": " + result._error.trim());
+			}
+		}
+		out.println("\n" + (results.size() - failed) + " of " + results.size()
+				+ " files compiled, " + failed + " failed.");
+	}
+}
@@ -0,0 +1,103 @@
+package comp;
+
+import comp.nodes.*;
+
+import java.util.*;
+
+/**
+ * Records which procedures of a program call which. Built by walking the
+ * syntax tree, so it describes the program as it is at that moment; build a
+ * new one after a pass that adds or removes calls.
+ * <p>
+ * A procedure that calls nothing is a leaf: it never overwrites its return
+ * address, so it does not need to save it.
+ */
+public class CallGraph extends DepthFirstVisitor {
+
+	private Map<String, Set<String>> _callees; //procedures each procedure calls, in order of first call
+	private Map<String, Set<String>> _callers; //procedures that call each procedure
+	private String _currentProcedure;
+
+	/**
+	 * Build the call graph of a program.
+	 */
+	public CallGraph(NodeProgram program) throws VisitorException {
+		_callees = new LinkedHashMap<String, Set<String>>();
+		_callers = new HashMap<String, Set<String>>();
+		checkAndVisit(program);
+	}
+
+	/**
+	 * Gets the names of the procedures, in the order they are declared.
+	 */
+	public List<String> getProcedures() {
+		return new ArrayList<String>(_callees.keySet());
+	}
+
+	/**
+	 * Gets the procedures called by the given one, in the order of their
+	 * first call in its body. Empty for procedures that are not in the program.
+	 */
+	public Set<String> getCallees(String proc) {
+		Set<String> _result = _callees.get(proc);
+		return _result == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(_result);
+	}
+
+	/**
+	 * Gets the procedures that call the given one.
+	 */
+	public Set<String> getCallers(String proc) {
+		Set<String> _result = _callers.get(proc);
+		return _result == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(_result);
+	}
+
+	/**
+	 * Whether the procedure calls no procedure at all.
+	 */
+	public boolean isLeaf(String proc) {
+		return getCallees(proc).isEmpty();
+	}
+
+	/**
+	 * Whether the procedure can end up calling itself, directly or through
+	 * other procedures.
+	 */
+	public boolean isRecursive(String proc) {
+		Set<String> _seen = new HashSet<String>();
+		Deque<String> _work = new ArrayDeque<String>(getCallees(proc));
+		while (!_work.isEmpty()) {
+			String _next = _work.pop();
+			if (_next.equals(proc))
+				return true;
+			if (_seen.add(_next))
+				_work.addAll(getCallees(_next));
+		}
+		return false;
+	}
+
+	private void call(String callee) {
+		_callees.get(_currentProcedure).add(callee);
+		Set<String> _set = _callers.get(callee);
+		if (_set == null) {
+			_set = new LinkedHashSet<String>();
+			_callers.put(callee, _set);
+		}
+		_set.add(_currentProcedure);
+	}
+
+	public void handleNodeProc(NodeProc node) throws VisitorException {
+		_currentProcedure = node.identifier();
+		_callees.put(_currentProcedure, new LinkedHashSet<String>());
+		super.handleNodeProc(node);
+	}
+
+	public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+		call(node.identifier());
+		super.handleNodeExprProcCall(node);
+	}
+
+	public void handleNodeInstrProcCall(NodeInstrProcCall node) throws VisitorException {
+		call(node.identifier());
+		super.handleNodeInstrProcCall(node);
+	}
+}
@@ -2,6 +2,7 @@ package comp;
 
 import comp.nodes.*;
 
+import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -18,10 +19,13 @@ import java.util.Set;
  */
 public class CodeGenVisitor implements Visitor {
 	
-	private MIPSCodeGenerator _codegen;
-	private HashMap<String,Integer> _blockSizes; //Represents the global variables
-	private HashMap<String, Procedure> _procedures;
-	private String _currentProcedure = "main"; //needed for accessing variables in _procedures
+	protected MIPSCodeGenerator _codegen;
+	protected HashMap<String,Integer> _blockSizes; //Represents the global variables
+	protected HashMap<String, Procedure> _procedures;
+	protected String _currentProcedure = "main"; //needed for accessing variables in _procedures
+	protected Set<Register> _savedRegisters; //registers the current procedure saves on entry
+	private TailCallScan _calls; //the calls the current procedure makes, so leaves can skip saving $ra
+	private String _bodyLabel; //start of the body of the current procedure, if it calls itself in tail position
 
     /**
      * Create a new <code>CodeGenVisitor</code>. Uses the given {@link
@@ -54,12 +58,174 @@ public class CodeGenVisitor implements Visitor {
 		_codegen.genText();	
 	}
 	
-	private void checkAndVisit(Node node) throws VisitorException{
+	protected void checkAndVisit(Node node) throws VisitorException{
         if (node != null)
             node.visit(this);
         else throw new VisitorException("This is not supposed to happen, but a node is missing something");
 	}
 	
+	//Generates code for an expression and leaves its value in the given register.
+	//Expressions push their value on the stack, so this visits the expression
+	//and pops the result. Subclasses that keep values in registers override this.
+	protected void genExpression(NodeExpr expr, Register target) throws VisitorException {
+		checkAndVisit(expr);
+		_codegen.genPop(target);
+	}
+	
+	//Generates code that jumps to the label when the condition evaluates to
+	//jumpIfTrue and falls through otherwise. Comparisons branch on their
+	//operands directly instead of building a 0/1 value, and And/Or/Not become
+	//chains of branches that skip the right side as soon as the outcome is known.
+	protected void genCondition(NodeExpr cond, boolean jumpIfTrue, String label) throws VisitorException {
+		if (cond instanceof NodeRelationAnd) {
+			NodeRelationAnd _and = (NodeRelationAnd) cond;
+			if (jumpIfTrue) { //left false means the whole thing is false
+				String _skipLabel = _codegen.getNextLabel();
+				genCondition(_and.leftChild(), false, _skipLabel);
+				genCondition(_and.rightChild(), true, label);
+				_codegen.genLabel(_skipLabel);
+			} else {
+				genCondition(_and.leftChild(), false, label);
+				genCondition(_and.rightChild(), false, label);
+			}
+		} else if (cond instanceof NodeRelationOr) {
+			NodeRelationOr _or = (NodeRelationOr) cond;
+			if (jumpIfTrue) {
+				genCondition(_or.leftChild(), true, label);
+				genCondition(_or.rightChild(), true, label);
+			} else { //left true means the whole thing is true
+				String _skipLabel = _codegen.getNextLabel();
+				genCondition(_or.leftChild(), true, _skipLabel);
+				genCondition(_or.rightChild(), false, label);
+				_codegen.genLabel(_skipLabel);
+			}
+		} else if (cond instanceof NodeRelationNot) {
+			genCondition(((NodeRelationNot) cond).relation(), !jumpIfTrue, label);
+		} else if (cond instanceof NodeExprTrue || cond instanceof NodeExprFalse) {
+			if ((cond instanceof NodeExprTrue) == jumpIfTrue) {
+				_codegen.genJump(label); //always taken; otherwise nothing to do
+			}
+		} else if (cond instanceof NodeRelationLessThan) {
+			NodeRelationLessThan _rel = (NodeRelationLessThan) cond;
+			genCompare(Instruction.Opcode.BLT, _rel.leftChild(), _rel.rightChild(), jumpIfTrue, label);
+		} else if (cond instanceof NodeRelationLessThanEqual) {
+			NodeRelationLessThanEqual _rel = (NodeRelationLessThanEqual) cond;
+			genCompare(Instruction.Opcode.BLE, _rel.leftChild(), _rel.rightChild(), jumpIfTrue, label);
+		} else if (cond instanceof NodeRelationGreaterThan) {
+			NodeRelationGreaterThan _rel = (NodeRelationGreaterThan) cond;
+			genCompare(Instruction.Opcode.BGT, _rel.leftChild(), _rel.rightChild(), jumpIfTrue, label);
+		} else if (cond instanceof NodeRelationGreaterThanEqual) {
+			NodeRelationGreaterThanEqual _rel = (NodeRelationGreaterThanEqual) cond;
+			genCompare(Instruction.Opcode.BGE, _rel.leftChild(), _rel.rightChild(), jumpIfTrue, label);
+		} else if (cond instanceof NodeRelationEqual) {
+			NodeRelationEqual _rel = (NodeRelationEqual) cond;
+			genCompare(Instruction.Opcode.BEQ, _rel.leftChild(), _rel.rightChild(), jumpIfTrue, label);
+		} else { //a boolean variable, array element or procedure result
+			genExpression(cond, Register.T0);
+			if (jumpIfTrue) {
+				_codegen.genJumpNotEqualToZero(Register.T0, label);
+			} else {
+				_codegen.genJumpEqualToZero(Register.T0, label);
+			}
+		}
+	}
+
+	//Generates a branch to the label taken when (left op right) == jumpIfTrue,
+	//where op is the branch opcode for the relation. A constant operand is
+	//compared as an immediate instead of being loaded into a register.
+	private void genCompare(Instruction.Opcode op, NodeExpr left, NodeExpr right,
+			boolean jumpIfTrue, String label) throws VisitorException {
+		if (!jumpIfTrue) {
+			op = negateBranch(op);
+		}
+		if (left instanceof NodeExprInt && !(right instanceof NodeExprInt)) {
+			NodeExpr _swap = left; //put the constant on the right
+			left = right;
+			right = _swap;
+			op = swapBranch(op);
+		}
+		if (right instanceof NodeExprInt) {
+			genExpression(left, Register.T0);
+			genBranch(op, Register.T0, ((NodeExprInt) right).value(), label);
+		} else {
+			Register[] _regs = genComparison(left, right);
+			genBranch(op, _regs[0], _regs[1], label);
+		}
+	}
+
+	//Evaluates both operands of a comparison and returns the registers holding
+	//the left and right values. Expressions push their values, so both are
+	//visited in order and then popped.
+	protected Register[] genComparison(NodeExpr left, NodeExpr right) throws VisitorException {
+		checkAndVisit(left);
+		checkAndVisit(right);
+		_codegen.genPop(Register.T1); //right child
+		_codegen.genPop(Register.T0); //left child
+		return new Register[] { Register.T0, Register.T1 };
+	}
+
+	//the branch taken exactly when the given one is not
+	private static Instruction.Opcode negateBranch(Instruction.Opcode op) {
+		switch (op) {
+		case BLT: return Instruction.Opcode.BGE;
+		case BGE: return Instruction.Opcode.BLT;
+		case BLE: return Instruction.Opcode.BGT;
+		case BGT: return Instruction.Opcode.BLE;
+		case BEQ: return Instruction.Opcode.BNE;
+		case BNE: return Instruction.Opcode.BEQ;
+		default: throw new InternalException("Not a comparison branch: " + op);
+		}
+	}
+
+	//the branch that tests the same relation with its operands swapped
+	private static Instruction.Opcode swapBranch(Instruction.Opcode op) {
+		switch (op) {
+		case BLT: return Instruction.Opcode.BGT;
+		case BGT: return Instruction.Opcode.BLT;
+		case BLE: return Instruction.Opcode.BGE;
+		case BGE: return Instruction.Opcode.BLE;
+		default: return op;
+		}
+	}
+
+	//writes the comparison branch op $reg1, $reg2, label
+	private void genBranch(Instruction.Opcode op, Register reg1, Register reg2, String label) {
+		switch (op) {
+		case BLT: _codegen.genJumpLessThan(reg1, reg2, label); break;
+		case BLE: _codegen.genJumpLessEq(reg1, reg2, label); break;
+		case BGT: _codegen.genJumpGreaterThan(reg1, reg2, label); break;
+		case BGE: _codegen.genJumpGreaterEq(reg1, reg2, label); break;
+		case BEQ: _codegen.genJumpEq(reg1, reg2, label); break;
+		case BNE: _codegen.genJumpNotEq(reg1, reg2, label); break;
+		default: throw new InternalException("Not a comparison branch: " + op);
+		}
+	}
+
+	//writes the comparison branch op $reg, val, label, using beqz/bnez against zero
+	private void genBranch(Instruction.Opcode op, Register reg, int val, String label) {
+		switch (op) {
+		case BLT: _codegen.genJumpLessThan(reg, val, label); break;
+		case BLE: _codegen.genJumpLessEq(reg, val, label); break;
+		case BGT: _codegen.genJumpGreaterThan(reg, val, label); break;
+		case BGE: _codegen.genJumpGreaterEq(reg, val, label); break;
+		case BEQ:
+			if (val == 0) {
+				_codegen.genJumpEqualToZero(reg, label);
+			} else {
+				_codegen.genJumpEq(reg, val, label);
+			}
+			break;
+		case BNE:
+			if (val == 0) {
+				_codegen.genJumpNotEqualToZero(reg, label);
+			} else {
+				_codegen.genJumpNotEq(reg, val, label);
+			}
+			break;
+		default: throw new InternalException("Not a comparison branch: " + op);
+		}
+	}
+	
 	public void handleNodeVarDeclSingle(NodeVarDeclSingle node) throws VisitorException {
 		// Nothing to do
 	}
@@ -89,8 +255,7 @@ public class CodeGenVisitor implements Visitor {
 		NodeExpr _index = node.index();
 		checkAndVisit(_index);
 		_codegen.genPop(Register.T0); //get index for array
-		_codegen.genLoadI(Register.T1, 4);
-		_codegen.genTimes(Register.T0, Register.T1);
+		_codegen.genTimesI(Register.T0, Register.T0, 4, Register.T1);
 		if (_blockSizes.containsKey(_id)) { //was a global variable, so just use label
 			_codegen.genLoadIndirect(Register.T1, _id, Register.T0);
 			_codegen.genPush(Register.T1);
@@ -113,15 +278,31 @@ public class CodeGenVisitor implements Visitor {
 	//looks up the variable in the procedure and pushes the value at
 	//the frame pointer by the offset location of the variable.
 	public void handleNodeExprVar(NodeExprVar node) throws VisitorException {
-		String _variableName = node.identifier();
-		if (_blockSizes.containsKey(_variableName)) { //was global, so use label
-			_codegen.genLoad(Register.T0, _variableName);
-			_codegen.genPush(Register.T0);
+		genLoadVariable(node.identifier(), Register.T0);
+		_codegen.genPush(Register.T0);
+	}
+
+	//Loads a single variable into the given register. Globals are loaded from
+	//their label and locals from their offset from the frame pointer.
+	protected void genLoadVariable(String id, Register target) throws VisitorException {
+		if (_blockSizes.containsKey(id)) { //was global, so use label
+			_codegen.genLoad(target, id);
+		} else {
+			Procedure _thisProcedure = _procedures.get(_currentProcedure);
+			int offset = _thisProcedure.lookup(id); //not global, so use offset
+			_codegen.genLoadWithOffset(target, offset, Register.FP);
+		}
+	}
+
+	//Stores the given register into a single variable, the same way
+	//genLoadVariable loads it.
+	protected void genStoreVariable(String id, Register source) throws VisitorException {
+		if (_blockSizes.containsKey(id)) {
+			_codegen.genStore(source, id); //store value to label
 		} else {
 			Procedure _thisProcedure = _procedures.get(_currentProcedure);
-			int offset = _thisProcedure.lookup(_variableName); //not global, so use offset
-			_codegen.genLoadWithOffset(Register.T0, offset, Register.FP);
-			_codegen.genPush(Register.T0);
+			int _offset = _thisProcedure.lookup(id);
+			_codegen.genStoreWithOffset(source, _offset, Register.FP); //store value to location in frame
 		}
 	}
 
@@ -155,8 +336,19 @@ public class CodeGenVisitor implements Visitor {
 	}
 
 	//This method visits both children of the times node, pops them from the stack,
-	//performs a multiply operation on them, and then pushes the result to the stack
+	//performs a multiply operation on them, and then pushes the result to the stack.
+	//When either child is a constant, only the other one is visited, and the
+	//multiplication by the constant is left to genTimesI.
 	public void handleNodeExprTimes(NodeExprTimes node) throws VisitorException {
+		if (node.rightChild() instanceof NodeExprInt || node.leftChild() instanceof NodeExprInt) {
+			boolean _constantRight = node.rightChild() instanceof NodeExprInt;
+			NodeExprInt _constant = (NodeExprInt) (_constantRight ? node.rightChild() : node.leftChild());
+			checkAndVisit(_constantRight ? node.leftChild() : node.rightChild());
+			_codegen.genPop(Register.A0);
+			_codegen.genTimesI(Register.A0, Register.A0, _constant.value(), Register.T0);
+			_codegen.genPush(Register.A0);
+			return;
+		}
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_codegen.genPop(Register.A0); 
@@ -166,8 +358,16 @@ public class CodeGenVisitor implements Visitor {
 	}
 
 	//This method visits both children of the divide node, pops them from the stack,
-	//performs a division operation on them, and then pushes the result to the stack
+	//performs a division operation on them, and then pushes the result to the stack.
+	//Division by a constant is left to genDivideI.
 	public void handleNodeExprDivide(NodeExprDivide node) throws VisitorException {
+		if (node.rightChild() instanceof NodeExprInt) {
+			checkAndVisit(node.leftChild());
+			_codegen.genPop(Register.A1);
+			_codegen.genDivideI(Register.A1, Register.A1, ((NodeExprInt) node.rightChild()).value(), Register.T0);
+			_codegen.genPush(Register.A1);
+			return;
+		}
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_codegen.genPop(Register.A0); 
@@ -177,8 +377,17 @@ public class CodeGenVisitor implements Visitor {
 	}
 
 	//This method visits both children of the mod node, pops them from the stack,
-	//performs a mod operation on them, and then pushes the result to the stack
+	//performs a mod operation on them, and then pushes the result to the stack.
+	//The remainder of a constant is left to genModI.
 	public void handleNodeExprMod(NodeExprMod node) throws VisitorException {
+		if (node.rightChild() instanceof NodeExprInt) {
+			checkAndVisit(node.leftChild());
+			_codegen.genPop(Register.A1);
+			_codegen.genModI(Register.A1, Register.A1, ((NodeExprInt) node.rightChild()).value(),
+					Register.T0, Register.T1);
+			_codegen.genPush(Register.A1);
+			return;
+		}
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_codegen.genPop(Register.A0); 
@@ -204,8 +413,7 @@ public class CodeGenVisitor implements Visitor {
 		checkAndVisit(node.expression()); //visit expression
 		_codegen.genPop(Register.T1); //pop expression
 		_codegen.genPop(Register.T0); //pop index
-		_codegen.genLoadI(Register.T2, 4);
-		_codegen.genTimes(Register.T0, Register.T2);
+		_codegen.genTimesI(Register.T0, Register.T0, 4, Register.T2);
 		if (_blockSizes.containsKey(_id)) { //global variable, so use label
 			_codegen.genStoreIndirect(Register.T1, _id, Register.T0);
 		} else {
@@ -227,15 +435,8 @@ public class CodeGenVisitor implements Visitor {
 	public void handleNodeInstrAssignSingle(NodeInstrAssignSingle node) throws VisitorException {
 		String _id = node.identifier();
 		NodeExpr _expr = node.expression();
-		checkAndVisit(_expr);
-		_codegen.genPop(Register.S0); //contains value of the expression
-		if (_blockSizes.containsKey(_id)) {
-			_codegen.genStore(Register.S0, _id); //store value to label
-		} else {
-			Procedure _thisProcedure = _procedures.get(_currentProcedure);
-			int _offset = _thisProcedure.lookup(_id);
-			_codegen.genStoreWithOffset(Register.S0, _offset, Register.FP); //store value to location in frame
-		}
+		genExpression(_expr, Register.T0); //contains value of the expression
+		genStoreVariable(_id, Register.T0);
 	}
 
 	//this method visits the instructions of an instruction block
@@ -244,48 +445,35 @@ public class CodeGenVisitor implements Visitor {
 	}
 
 	
-	//This method handles an if-then instruction. It places a start label and 
-	//then visits the relation. If the relation returns false (indicated by a zero),
-	//it branches to the end label. If the relation is true, it visits the then-
-	//instructions before generating the end label.
+	//This method handles an if-then instruction. It branches past the then-
+	//instructions when the relation is false, and otherwise falls into them.
 	public void handleNodeInstrIfthen(NodeInstrIfthen node) throws VisitorException {
-		String _startLabel = _codegen.getNextLabel();
 		String _endLabel = _codegen.getNextLabel();
-		_codegen.genLabel(_startLabel);
-		checkAndVisit(node.relation()); //check relation
-		_codegen.genPop(Register.S0); //if false, jump to end
-		_codegen.genJumpEqualToZero(Register.S0, _endLabel);
-		checkAndVisit(node.thenInstruction()); //else, evaluate else
+		genCondition(node.relation(), false, _endLabel); //if false, jump to end
+		checkAndVisit(node.thenInstruction()); //else, evaluate then
 		_codegen.genLabel(_endLabel);
 	}
 
 	
-	//This method handles an if-then-else instruction. It places a start label and 
-	//then visits the relation. If the relation returns false (indicated by a zero),
-	//it branches to the else label. If the relation is true, it visits the then-
-	//instructions before jumping to the end. The else label is then generated,
+	//This method handles an if-then-else instruction. It branches to the else
+	//label when the relation is false. If the relation is true, it falls into the then-
+	//instructions and jumps to the end after them. The else label is then generated,
 	//and the else instructions are visited. The end label is then generated.
 	public void handleNodeInstrIfthenelse(NodeInstrIfthenelse node) throws VisitorException {
-		String _startLabel = _codegen.getNextLabel();
 		String _elseLabel = _codegen.getNextLabel();
 		String _endLabel = _codegen.getNextLabel();
-		_codegen.genLabel(_startLabel);
-		checkAndVisit(node.relation()); //check relation
-		_codegen.genPop(Register.S0); //if false, jump to else
-		_codegen.genJumpEqualToZero(Register.S0, _elseLabel);
+		genCondition(node.relation(), false, _elseLabel); //if false, jump to else
 		checkAndVisit(node.thenInstruction());//if true, evaluate then-instructions, then jump to end
 		_codegen.genJump(_endLabel);
 		_codegen.genLabel(_elseLabel); //false, so evaluate else instructions
 		checkAndVisit(node.elseInstruction());
-		_codegen.genJump(_endLabel); 
 		_codegen.genLabel(_endLabel);
 	}
 
 	//this method handles the output instruction by visiting the instruction,
 	//putting the result in A0, then making a syscall for output
 	public void handleNodeInstrOutput(NodeInstrOutput node) throws VisitorException {
-		checkAndVisit(node.expression());
-		_codegen.genPop(Register.A0);
+		genExpression(node.expression(), Register.A0);
 		_codegen.genOutput();
 	}
 
@@ -300,10 +488,8 @@ public class CodeGenVisitor implements Visitor {
 	public void handleNodeInstrInputArray(NodeInstrInputArray node) throws VisitorException {
 		String _id = node.identifier();
 		_codegen.genInput();
-		checkAndVisit(node.index()); //visit index
-		_codegen.genPop(Register.T0);
-		_codegen.genLoadI(Register.T2, 4);
-		_codegen.genTimes(Register.T0, Register.T2);
+		genExpression(node.index(), Register.T0); //visit index
+		_codegen.genTimesI(Register.T0, Register.T0, 4, Register.T2);
 		if (_blockSizes.containsKey(_id)) { //global variable, so use label
 			_codegen.genStoreIndirect(Register.V0, _id, Register.T0); 
 		} else {
@@ -324,22 +510,19 @@ public class CodeGenVisitor implements Visitor {
 	public void handleNodeInstrInputSingle(NodeInstrInputSingle node) throws VisitorException {
 		String _id = node.identifier();
 		_codegen.genInput();
-		if (_blockSizes.containsKey(_id)) { //global variable, so use label
-			_codegen.genStore(Register.V0, _id);
-		} else {
-			Procedure _thisProcedure = _procedures.get(_currentProcedure);
-			int offset = _thisProcedure.lookup(_id); //local variable, so use offset from fp
-			_codegen.genStoreWithOffset(Register.V0, offset, Register.FP);
-		}
+		genStoreVariable(_id, Register.V0);
 	}
 	
 	//This method first visits the return expression. It then restores the necessary registers
 	//before pushing the result to the stack and jumping from the procedure.
 	public void handleNodeInstrReturnExpr(NodeInstrReturnExpr node) throws VisitorException {	
 		NodeExpr _returnExpression = node.expression();
-		checkAndVisit(_returnExpression); //visit return
-		_codegen.genPop(Register.T0); //pop result
-		_codegen.genRestoreRegisters(); //restore registers
+		if (isTailCall(_returnExpression)) {
+			genTailCall((NodeExprProcCall) _returnExpression);
+			return;
+		}
+		genExpression(_returnExpression, Register.T0); //visit return
+		_codegen.genRestoreRegisters(_savedRegisters); //restore registers
 		Procedure _thisProcedure = _procedures.get(_currentProcedure);
 		_codegen.genLoadI(Register.T1, _thisProcedure.getSize()); 
 		_codegen.genPlus(Register.SP, Register.T1); //make room for result
@@ -349,49 +532,108 @@ public class CodeGenVisitor implements Visitor {
 	}
 	
 
-	//this method handles a while instruction. To do so, it visits the relation. If the 
-	//relation is false, it jumps to the end. If it is true, it visits the instructions
-	//and then does an unconditional jump back to the beginning of the loop.
+	//Whether a returned expression is a call that can reuse the frame of the
+	//current procedure: the arguments of the callee have to fit where the
+	//arguments and locals of the current procedure are.
+	private boolean isTailCall(NodeExpr expr) {
+		if (!(expr instanceof NodeExprProcCall)) {
+			return false;
+		}
+		Procedure _callee = _procedures.get(((NodeExprProcCall) expr).identifier());
+		Procedure _thisProcedure = _procedures.get(_currentProcedure);
+		return 4 * _callee.getArgList().size() <= _thisProcedure.getSize();
+	}
+
+	//Generates a call in tail position without growing the stack. The new
+	//arguments go over the variables of the current procedure, which are dead
+	//by then. A procedure calling itself jumps back to the start of its body,
+	//its registers still saved. Any other procedure is jumped to once the
+	//frame has been popped down to the arguments, so it returns straight to
+	//our caller and leaves its result where ours was expected.
+	private void genTailCall(NodeExprProcCall call) throws VisitorException {
+		Procedure _thisProcedure = _procedures.get(_currentProcedure);
+		int _args = call.arguments().size();
+		genTailCallArguments(call);
+		if (call.identifier().equals(_currentProcedure)) {
+			_codegen.genJump(_bodyLabel);
+		} else {
+			_codegen.genRestoreRegisters(_savedRegisters);
+			int _drop = _thisProcedure.getSize() - 4 * _args; //pop all but the arguments
+			if (_drop > 0) {
+				_codegen.genLoadI(Register.T1, _drop);
+				_codegen.genPlus(Register.SP, Register.T1);
+			}
+			_codegen.genJump(_codegen.getProcLabel(call.identifier()));
+		}
+	}
+
+	//Evaluates the arguments of a tail call and stores them with
+	//genStoreTailCallArgument. Every argument is pushed before any is stored,
+	//since they may read the variables being overwritten.
+	protected void genTailCallArguments(NodeExprProcCall call) throws VisitorException {
+		checkAndVisit(call.arguments());
+		for (int i = call.arguments().size() - 1; i >= 0; i--) {
+			_codegen.genPop(Register.T0);
+			genStoreTailCallArgument(call, i, Register.T0);
+		}
+	}
+
+	//Stores argument i of a tail call. A procedure calling itself stores it
+	//in the variable of the argument, wherever that is kept; otherwise it goes
+	//in the frame slot the caller would have pushed it to, counting down from
+	//the first argument of the current procedure.
+	protected void genStoreTailCallArgument(NodeExprProcCall call, int i, Register value) throws VisitorException {
+		Procedure _thisProcedure = _procedures.get(_currentProcedure);
+		if (call.identifier().equals(_currentProcedure)) {
+			genStoreVariable(_thisProcedure.getArgList().get(i), value);
+		} else {
+			int _first = _thisProcedure.getSavedBytes() + _thisProcedure.getSize();
+			_codegen.genStoreWithOffset(value, _first - 4 * i, Register.FP);
+		}
+	}
+
+	//this method handles a while instruction. The condition is tested at the bottom
+	//of the loop, so each iteration costs one conditional branch: the method jumps
+	//to the test first, and the test branches back to the start of the instructions
+	//while the relation is true.
 	public void handleNodeInstrWhile(NodeInstrWhile node) throws VisitorException {
 		String _startLabel = _codegen.getNextLabel();
-		String _endLabel = _codegen.getNextLabel();
+		String _testLabel = _codegen.getNextLabel();
+		_codegen.genJump(_testLabel); //check the condition before the first iteration
 		_codegen.genLabel(_startLabel);
-		checkAndVisit(node.relation());
-		_codegen.genPop(Register.S0);
-		_codegen.genJumpEqualToZero(Register.S0, _endLabel); //if condition not true, skip to end
 		checkAndVisit(node.instruction()); //generate instructions
-		_codegen.genJump(_startLabel); //jump back to the beginning to check condition again
-		_codegen.genLabel(_endLabel);
+		_codegen.genLabel(_testLabel);
+		genCondition(node.relation(), true, _startLabel); //if condition true, loop again
 	}
 	
 	//visits a list of instructions
 	public void handleNodeListInstrCons(NodeListInstrCons node) throws VisitorException {
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		for (NodeInstr instr : node)
+			checkAndVisit(instr);
 	}
 	
 	//visits a list of variable declarations
 	public void handleNodeListVarDeclCons(NodeListVarDeclCons node) throws VisitorException {
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		for (NodeVarDecl decl : node)
+			checkAndVisit(decl);
 	}
 	
 	//visits a list of procedures
 	public void handleNodeListProcCons(NodeListProcCons node) throws VisitorException {
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		for (NodeProc proc : node)
+			checkAndVisit(proc);
 	}
 	
 	//visits a list of procedure arguments
 	public void handleNodeListProcDeclArgCons(NodeListProcDeclArgCons node) throws VisitorException {
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		for (NodeProcDeclArg arg : node)
+			checkAndVisit(arg);
 	}
 	
 	//visits a list of procedure arguments
 	public void handleNodeListProcCallArgCons(NodeListProcCallArgCons node) throws VisitorException {
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		for (NodeProcCallArg arg : node)
+			checkAndVisit(arg);
 	}
 
 	//handles a null node
@@ -461,22 +703,72 @@ public class CodeGenVisitor implements Visitor {
 		String _procLabel = _codegen.getProcLabel(_procedureName);
 		_codegen.genLabel(_procLabel); 
 		Procedure _thisProcedure = _procedures.get(_procedureName);
+		_calls = new TailCallScan(node);
+		_bodyLabel = _calls.callsItself() ? _codegen.getNextLabel() : null;
+		_savedRegisters = getSavedRegisters(node);
+		_thisProcedure.finish(4 * _savedRegisters.size()); //variables sit right above the saved registers
+		int _firstInstruction = _codegen.getInstructions().size();
 		int _allocateRoom = (_thisProcedure.getSize() - _thisProcedure.getArgList().size() * 4);
 		_codegen.genLoadI(Register.T0, _allocateRoom); 
 		_codegen.genMinus(Register.SP, Register.T0); //make room for frame on the stack
-		_codegen.genSaveRegisters();
+		_codegen.genSaveRegisters(_savedRegisters);
 		_codegen.genMove(Register.FP, Register.SP); //update frame pointer
+		genProcedureEntry(node);
+		if (_bodyLabel != null) {
+			_codegen.genLabel(_bodyLabel); //tail calls to itself jump back here
+		}
 		checkAndVisit(node.argumentList()); //visit arguments
 		checkAndVisit(_procedureInstructions); //visit instructions
-		_codegen.genRestoreRegisters(); //restore registers
+		_codegen.genRestoreRegisters(_savedRegisters); //restore registers
 		_codegen.genLoadI(Register.T1, _thisProcedure.getSize());  
 		_codegen.genPlus(Register.SP, Register.T1);
 		_codegen.genLoadI(Register.T0, 0);
 		_codegen.genMinusI(Register.SP, 4);
 		_codegen.genStoreWithOffset(Register.T0, 4, Register.SP);  //default to returning zero
 		_codegen.genReturnFromProcedure();
+		checkSavedRegisters(_firstInstruction);
 
 	}
+	//Returns the registers a procedure has to save on entry: the frame pointer,
+	//which every procedure moves, the return address unless the procedure only
+	//makes tail calls or none at all, and whatever saved registers the
+	//generated code writes to.
+	protected Set<Register> getSavedRegisters(NodeProc node) {
+		Set<Register> _saved = EnumSet.of(Register.FP);
+		if (_calls.makesCalls()) {
+			_saved.add(Register.RA);
+		}
+		_saved.addAll(getOverwrittenRegisters());
+		return _saved;
+	}
+
+	//The saved registers the code of the current procedure writes to. The
+	//stack-based expression handlers use $s0 and $s1 as scratch registers.
+	protected Set<Register> getOverwrittenRegisters() {
+		return EnumSet.of(Register.S0, Register.S1);
+	}
+
+	//Makes sure the procedure generated from the given instruction on saves
+	//every callee-saved register it writes to.
+	private void checkSavedRegisters(int firstInstruction) {
+		int _saved = Instruction.mask(_savedRegisters.toArray(new Register[0]));
+		int _calleeSaved = Instruction.mask(MIPSCodeGenerator.getSavedRegisters().toArray(new Register[0]));
+		List<Instruction> _code = _codegen.getInstructions();
+		for (int i = firstInstruction; i < _code.size(); i++) {
+			int _written = _code.get(i).getDefinitions() & _calleeSaved & ~_saved;
+			if (_written != 0) {
+				throw new InternalException("Procedure " + _currentProcedure
+						+ " writes to a register it does not save: " + _code.get(i));
+			}
+		}
+	}
+
+	//Called once the frame of a procedure has been set up, before its body.
+	//The arguments are already in the frame, so there is nothing to do here;
+	//subclasses that keep variables elsewhere move them in.
+	protected void genProcedureEntry(NodeProc node) throws VisitorException {
+	}
+
 	//This method handles procedures when they are used in expressions. It pushes 
 	//each argument to the stack and then jumps to the procedure.
 	public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
@@ -560,60 +852,69 @@ public class CodeGenVisitor implements Visitor {
 	}
 
 	
-	//this method handles an And node. It first visits the left child--if it is false,
-	//it jumps to the end label. It then resets the value of a register that will ultimately
-	//be pushed to the stack back to zero--this way, if the right child is false, we can
-	//still push the same register. It then visits the right child and jumps to the end
-	//if it is false or changes the register that will be pushed to true before getting
-	//to the end.
+	//conditions, the only place And, Or and Not are allowed, are compiled
+	//straight into branches by genCondition, which never visits these
 	public void handleNodeRelationAnd(NodeRelationAnd node) throws VisitorException {
-		String _endLabel = _codegen.getNextLabel();
-		checkAndVisit(node.leftChild());
-		_codegen.genPop(Register.S0);
-		_codegen.genJumpEqualToZero(Register.S0, _endLabel); //if left is false, go to end
-		_codegen.genLoadI(Register.S0, 0); //reset $s0 to 0 so that it can be returned no matter what
-		checkAndVisit(node.rightChild()); 
-		_codegen.genPop(Register.S1);
-		_codegen.genJumpEqualToZero(Register.S1, _endLabel); //if right is false, go to end
-		_codegen.genLoadI(Register.S0, 1); //both were true, so push 1
-		_codegen.genLabel(_endLabel);
-		_codegen.genPush(Register.S0);
+		throw new InternalException("conditions are compiled by genCondition");
 	}
 
-	//this method handles an Or node. It first visits the left child--if it is true,
-	//it jumps to the end label. It then resets the value of a register that will ultimately
-	//be pushed to the stack back to one--this way, if the right child is true, we can
-	//still push the same register. It then visits the right child and jumps to the end
-	//if it is true or changes the register that will be pushed to false before getting
-	//to the end.
 	public void handleNodeRelationOr(NodeRelationOr node) throws VisitorException {
-		String _endLabel = _codegen.getNextLabel();
-		checkAndVisit(node.leftChild());
-		_codegen.genPop(Register.S0);
-		_codegen.genJumpNotEqualToZero(Register.S0, _endLabel); //if left is true, go to end
-		_codegen.genLoadI(Register.S0, 1); //reset register
-		checkAndVisit(node.rightChild());
-		_codegen.genPop(Register.S1);
-		_codegen.genJumpNotEqualToZero(Register.S1, _endLabel); //if right is true, go to end
-		_codegen.genLoadI(Register.S0, 0); //both were false, so push 0
-		_codegen.genLabel(_endLabel);
-		_codegen.genPush(Register.S0);
+		throw new InternalException("conditions are compiled by genCondition");
 	}
 
-	//this method handles an Not node. It first visits the relation--if it is true, it jumps
-	//to a label that will turn it to false. If it is false, the register that will be returned
-	//gets set to one and then the method jumps to the end label.
 	public void handleNodeRelationNot(NodeRelationNot node) throws VisitorException {
-		String _turnToZero = _codegen.getNextLabel();
-		String _endLabel = _codegen.getNextLabel();
-		checkAndVisit(node.relation());
-		_codegen.genPop(Register.S0);
-		_codegen.genJumpNotEqualToZero(Register.S0, _turnToZero); //was true, so turn $s0 to 0
-		_codegen.genLoadI(Register.S0, 1); //was false, so set $s0 to 1
-		_codegen.genJump(_endLabel); //jump to end
-		_codegen.genLabel(_turnToZero);
-		_codegen.genLoadI(Register.S0, 0); //set to false
-		_codegen.genLabel(_endLabel);
-		_codegen.genPush(Register.S0);
+		throw new InternalException("conditions are compiled by genCondition");
+	}
+
+	/**
+	 * Finds the calls a procedure makes, telling the tail calls that
+	 * {@link CodeGenVisitor} turns into jumps from the ones that need a
+	 * <code>jal</code>. Looks at the procedure being generated, so it has to be
+	 * built once the current procedure is set.
+	 */
+	private class TailCallScan extends DepthFirstVisitor {
+		private boolean _makesCalls; //whether any call overwrites $ra
+		private boolean _callsItself; //whether the procedure calls itself in tail position
+
+		public TailCallScan(NodeProc node) throws VisitorException {
+			checkAndVisit(node.instruction());
+		}
+
+		/**
+		 * Whether the procedure makes any call that is not a tail call.
+		 */
+		public boolean makesCalls() {
+			return _makesCalls;
+		}
+
+		/**
+		 * Whether the procedure returns a call to itself somewhere.
+		 */
+		public boolean callsItself() {
+			return _callsItself;
+		}
+
+		public void handleNodeInstrReturnExpr(NodeInstrReturnExpr node) throws VisitorException {
+			NodeExpr _expr = node.expression();
+			if (isTailCall(_expr)) {
+				NodeExprProcCall _call = (NodeExprProcCall) _expr;
+				if (_call.identifier().equals(_currentProcedure)) {
+					_callsItself = true;
+				}
+				checkAndVisit(_call.arguments());
+			} else {
+				super.handleNodeInstrReturnExpr(node);
+			}
+		}
+
+		public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+			_makesCalls = true;
+			super.handleNodeExprProcCall(node);
+		}
+
+		public void handleNodeInstrProcCall(NodeInstrProcCall node) throws VisitorException {
+			_makesCalls = true;
+			super.handleNodeInstrProcCall(node);
+		}
 	}
 }
@@ -0,0 +1,436 @@
+package comp;
+
+import java.io.*;
+
+import comp.nodes.NodeProgram;
+
+/**
+ * One run of the compiler over one Blaise file. The work is split into
+ * {@link Stage}s that run in a fixed order; the ones the
+ * {@link CompilerOptions} do not ask for are skipped. By default only parsing,
+ * semantic checking, code generation and writing the MAL file run. Tree
+ * printing, Graphviz output and rendering it with <code>dot</code> are
+ * debugging aids and have to be turned on.
+ * <p>
+ * Each stage is measured in the {@link CompileStats} of the compilation.
+ */
+public class Compilation {
+
+	/**
+	 * The steps of a compilation, in the order they run.
+	 */
+	public enum Stage {
+		/** Reads the file into a syntax tree. */
+		PARSE("parse") {
+			void run(Compilation c) throws LexicalException, IOException, SyntaxException, VisitorException {
+				Parser parser = c._sourceText != null
+						? new Parser(new StringReader(c._sourceText)) : new Parser(c._source);
+				c._program = parser.parse();
+				c._stats.count("tokens", parser.getTokenCount());
+				c._stats.count("nodes", CompileStats.countNodes(c._program));
+			}
+		},
+
+		/** Checks the tree and lays out globals and procedure frames. */
+		SEMANTIC("semantic") {
+			void run(Compilation c) throws VisitorException {
+				c._semantic = new SemanticVisitor();
+				c._program.visit(c._semantic);
+			}
+		},
+
+		/** Replaces calls to small procedures by their body, and checks the result again. */
+		INLINE("inline") {
+			boolean isEnabled(Compilation c) {
+				return c._options.getInlineBudget() > 0;
+			}
+
+			void run(Compilation c) throws VisitorException {
+				InliningVisitor inliner = new InliningVisitor(c._semantic, c._options.getInlineBudget());
+				c._program = inliner.inline(c._program);
+				c._semantic = new SemanticVisitor();
+				c._program.visit(c._semantic);
+				c._stats.count("inlined", inliner.getInlineCount());
+				c._stats.count("nodes", CompileStats.countNodes(c._program));
+			}
+		},
+
+		/** Computes constant expressions now that the tree is known to be well-formed. */
+		FOLD("fold") {
+			boolean isEnabled(Compilation c) {
+				return c._options.foldConstants();
+			}
+
+			void run(Compilation c) throws VisitorException {
+				ConstantFoldingVisitor folder = new ConstantFoldingVisitor();
+				c._program = folder.fold(c._program);
+				c._stats.count("folds", folder.getFoldCount());
+				c._stats.count("nodes", CompileStats.countNodes(c._program));
+			}
+		},
+
+		/** Computes loop-invariant expressions before their loops. */
+		LICM("licm") {
+			boolean isEnabled(Compilation c) {
+				return c._options.hoistInvariants();
+			}
+
+			void run(Compilation c) throws VisitorException {
+				LoopInvariantVisitor hoister = new LoopInvariantVisitor(c._semantic);
+				c._program = hoister.hoist(c._program);
+				c._semantic = new SemanticVisitor();
+				c._program.visit(c._semantic);
+				c._stats.count("hoisted", hoister.getHoistCount());
+				c._stats.count("nodes", CompileStats.countNodes(c._program));
+			}
+		},
+
+		/** Reuses values computed more than once in a block. */
+		CSE("cse") {
+			boolean isEnabled(Compilation c) {
+				return c._options.numberValues();
+			}
+
+			void run(Compilation c) throws VisitorException {
+				ValueNumberingVisitor numbering = new ValueNumberingVisitor(c._semantic);
+				c._program = numbering.number(c._program);
+				c._semantic = new SemanticVisitor();
+				c._program.visit(c._semantic);
+				c._stats.count("reused", numbering.getReuseCount());
+				c._stats.count("nodes", CompileStats.countNodes(c._program));
+			}
+		},
+
+		/** Prints the syntax tree, for debugging. */
+		PRINT("print") {
+			boolean isEnabled(Compilation c) {
+				return c._options.printTree();
+			}
+
+			void run(Compilation c) throws VisitorException {
+				c._program.visit(new PrintingVisitor(c._out));
+			}
+		},
+
+		/** Writes the syntax tree as a Graphviz graph, for debugging. */
+		GRAPHVIZ("graphviz") {
+			boolean isEnabled(Compilation c) {
+				return c._options.graphviz();
+			}
+
+			void run(Compilation c) throws VisitorException {
+				GraphvizVisitor graphviz = new GraphvizVisitor(c._graphvizFile);
+				c._program.visit(graphviz);
+				graphviz.finish();
+			}
+		},
+
+		/** Renders the Graphviz graph to a png file with dot. */
+		PNG("png") {
+			boolean isEnabled(Compilation c) {
+				return c._options.png();
+			}
+
+			void run(Compilation c) throws IOException {
+				Process dot = Runtime.getRuntime().exec(
+						new String[] { "dot", "-Tpng", "-o", c._pngFile, c._graphvizFile });
+				try {
+					if (dot.waitFor() != 0)
+						c._out.println("dot failed to render " + c._pngFile);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		},
+
+		/** Generates the code. */
+		CODEGEN("codegen") {
+			void run(Compilation c) throws VisitorException {
+				c._codegen = new MIPSCodeGenerator();
+				//We'll need to pass some information from Semantic analysis to Codegen,
+				//such as the frame and variable information we've collected
+				CodeGenVisitor visitor;
+				if (c._options.useRegisters())
+					visitor = new RegisterCodeGenVisitor(c._codegen, c._semantic.getBlockSizes(),
+							c._semantic.getProcedures(), c._options.allocateLocals());
+				else
+					visitor = new CodeGenVisitor(c._codegen, c._semantic.getBlockSizes(),
+							c._semantic.getProcedures());
+				c._program.visit(visitor);
+				c._stats.count("instructions", CompileStats.countInstructions(c._codegen.getInstructions()));
+			}
+		},
+
+		/** Cleans up the generated code. */
+		PEEPHOLE("peephole") {
+			boolean isEnabled(Compilation c) {
+				return c._options.getPeepholeRules() != null;
+			}
+
+			void run(Compilation c) {
+				PeepholeOptimizer optimizer = new PeepholeOptimizer(c._options.getPeepholeRules());
+				c._codegen.setInstructions(optimizer.optimize(c._codegen.getInstructions()));
+				c._stats.count("removed", optimizer.getTotalRemoved());
+				c._stats.count("instructions", CompileStats.countInstructions(c._codegen.getInstructions()));
+				optimizer.printReport(c._out);
+			}
+		},
+
+		/** Prints the control-flow graph of each procedure, for debugging. */
+		DUMP_CFG("cfg") {
+			boolean isEnabled(Compilation c) {
+				return c._options.dumpCfg();
+			}
+
+			void run(Compilation c) {
+				for (ControlFlowGraph cfg : ControlFlowGraph.build(c._codegen.getInstructions()))
+					cfg.dump(c._out);
+			}
+		},
+
+		/** Writes the code to the MAL file, if there is one. */
+		WRITE("write") {
+			boolean isEnabled(Compilation c) {
+				return c._target != null;
+			}
+
+			void run(Compilation c) throws IOException {
+				c._codegen.writeToFile(c._target);
+			}
+		};
+
+		private final String _name;
+
+		Stage(String name) {
+			_name = name;
+		}
+
+		/**
+		 * Whether the stage runs in the given compilation. The stages that
+		 * produce the code always run.
+		 */
+		boolean isEnabled(Compilation c) {
+			return true;
+		}
+
+		abstract void run(Compilation c) throws LexicalException, IOException,
+				SyntaxException, VisitorException;
+
+		public String toString() {
+			return _name;
+		}
+	}
+
+	/** The file the Graphviz stage writes by default. */
+	public static final String GRAPHVIZ_FILE = "parse_tree.gv.txt";
+
+	/** The file the png stage renders by default. */
+	public static final String PNG_FILE = "graph.png";
+
+	private final String _source;
+	private final String _target;
+	private final CompilerOptions _options;
+	private final CompileStats _stats;
+	private String _sourceText;
+	private PrintStream _out;
+	private String _graphvizFile;
+	private String _pngFile;
+
+	private NodeProgram _program;
+	private SemanticVisitor _semantic;
+	private MIPSCodeGenerator _codegen;
+	private CompileCache _cache;
+	private boolean _cached;
+	private String _code;
+
+	/**
+	 * Set up the compilation of a Blaise file.
+	 *
+	 * @param source The Blaise file to read
+	 * @param target The MAL file to write, or null to only leave the code in
+	 *            {@link #getCode()}
+	 * @param options What to run besides the required stages
+	 */
+	public Compilation(String source, String target, CompilerOptions options) {
+		_source = source;
+		_target = target;
+		_options = options;
+		_stats = new CompileStats(source);
+		_out = System.out;
+		_graphvizFile = GRAPHVIZ_FILE;
+		_pngFile = PNG_FILE;
+	}
+
+	/**
+	 * Compiles the given text instead of reading the source file. The source
+	 * name is still used in reports.
+	 */
+	public void setSourceText(String text) {
+		_sourceText = text;
+	}
+
+	/**
+	 * Sends the reports of the debugging and optimizing stages somewhere other
+	 * than standard output.
+	 */
+	public void setOutput(PrintStream out) {
+		_out = out;
+	}
+
+	/**
+	 * Writes the Graphviz file and its picture somewhere other than
+	 * {@link #GRAPHVIZ_FILE} and {@link #PNG_FILE}, so that compilations
+	 * running side by side do not overwrite each other's.
+	 */
+	public void setDebugFiles(String graphvizFile, String pngFile) {
+		_graphvizFile = graphvizFile;
+		_pngFile = pngFile;
+	}
+
+	/**
+	 * Looks the source up in a cache before compiling it, and stores the
+	 * result there afterwards. Only used if the options allow it.
+	 */
+	public void setCache(CompileCache cache) {
+		_cache = cache;
+	}
+
+	/**
+	 * Runs every enabled stage in order, measuring each. With a cache, a
+	 * source compiled before with the same options only has its code and
+	 * messages replayed and written.
+	 */
+	public void run() throws LexicalException, IOException, SyntaxException, VisitorException {
+		byte[] source = _cache != null && _options.cacheable() ? readSource() : null;
+		if (source == null) {
+			runStages();
+			return;
+		}
+
+		_stats.begin("cache");
+		String key;
+		CompileCache.Entry entry;
+		try {
+			key = CompileCache.key(source, _options);
+			entry = _cache.get(key);
+			_stats.count(entry != null ? "hit" : "miss", 1);
+		} finally {
+			_stats.end();
+		}
+		if (entry != null) {
+			_cached = true;
+			_code = entry.getCode();
+			_out.print(entry.getOutput());
+			if (_target != null) {
+				_stats.begin(Stage.WRITE.toString());
+				try {
+					writeCode();
+				} finally {
+					_stats.end();
+				}
+			}
+			return;
+		}
+
+		//capture what the stages print so that a hit can print it again
+		PrintStream out = _out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		_out = new PrintStream(printed, true, "UTF-8");
+		try {
+			runStages();
+		} finally {
+			_out = out;
+			out.print(printed.toString("UTF-8"));
+		}
+		_cache.put(key, getCode(), printed.toString("UTF-8"));
+	}
+
+	private void runStages() throws LexicalException, IOException, SyntaxException, VisitorException {
+		for (Stage stage : Stage.values()) {
+			if (!stage.isEnabled(this))
+				continue;
+			_stats.begin(stage.toString());
+			try {
+				stage.run(this);
+			} finally {
+				_stats.end();
+			}
+		}
+	}
+
+	//the bytes to hash for the cache, or null to compile without it
+	private byte[] readSource() throws IOException {
+		if (_sourceText != null)
+			return _sourceText.getBytes("UTF-8");
+		File file = new File(_source);
+		if (!file.isFile())
+			return null; //let the parser report it
+		byte[] bytes = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(bytes);
+		} finally {
+			in.close();
+		}
+		return bytes;
+	}
+
+	//writes the code the way MIPSCodeGenerator.writeToFile() does
+	private void writeCode() throws IOException {
+		Writer out = new BufferedWriter(new FileWriter(_target));
+		try {
+			out.write(_code);
+			out.write("\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * The syntax tree, once parsed (and inlined, folded, hoisted from and numbered, if enabled).
+	 */
+	public NodeProgram getProgram() {
+		return _program;
+	}
+
+	/**
+	 * The generated code, once the code generation stage has run. Null when
+	 * the code came from the cache.
+	 */
+	public MIPSCodeGenerator getCodeGenerator() {
+		return _codegen;
+	}
+
+	/**
+	 * The text of the MAL file, once compiled, whether generated or taken from
+	 * the cache.
+	 */
+	public String getCode() {
+		if (_code == null && _codegen != null)
+			_code = _codegen.render();
+		return _code;
+	}
+
+	/**
+	 * Whether the code was taken from the cache.
+	 */
+	public boolean isCached() {
+		return _cached;
+	}
+
+	public CompileStats getStats() {
+		return _stats;
+	}
+
+	public String getSource() {
+		return _source;
+	}
+
+	public String getTarget() {
+		return _target;
+	}
+
+	public CompilerOptions getOptions() {
+		return _options;
+	}
+}
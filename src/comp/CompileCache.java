@@ -0,0 +1,318 @@
+package comp;
+
+import java.io.*;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Remembers the code generated for a source so that compiling the same source
+ * again can skip straight to writing the MAL file. Entries live in a directory
+ * and are addressed by a SHA-256 hash of everything that determines the
+ * result:
+ * <ul>
+ * <li>the bytes of the source,</li>
+ * <li>the options that change the code or what the compiler prints (see
+ * {@link CompilerOptions#getCacheKey()}),</li>
+ * <li>and the compiler itself: the names, sizes and times of its class
+ * files, so rebuilding the compiler invalidates every entry without anyone
+ * having to remember to bump a version.</li>
+ * </ul>
+ * Each entry is a <code>.mal</code> file with the code and a
+ * <code>.out</code> file with what the compiler printed while producing it.
+ * When the entries take more than the size limit, the least recently used are
+ * deleted.
+ * <p>
+ * One cache may be shared by the workers of a batch or a server; its methods
+ * are synchronized. Several processes may share a directory too: entries are
+ * written to a temporary file and renamed into place, and a missing file is
+ * just a miss.
+ */
+public class CompileCache {
+
+	/** Where the cache lives unless told otherwise. */
+	public static final String DEFAULT_DIRECTORY =
+			new File(System.getProperty("user.home"), ".blaise-cache").getPath();
+
+	/** How many bytes the cache may take unless told otherwise. */
+	public static final long DEFAULT_SIZE = 64L * 1024 * 1024;
+
+	/** Changes when the layout of the entries does. */
+	private static final String FORMAT = "blaise-cache 1";
+
+	private static String _compilerFingerprint;
+
+	/**
+	 * What the cache holds for a key.
+	 */
+	public static class Entry {
+		private final String _code;
+		private final String _output;
+
+		private Entry(String code, String output) {
+			_code = code;
+			_output = output;
+		}
+
+		/**
+		 * The text of the MAL file.
+		 */
+		public String getCode() {
+			return _code;
+		}
+
+		/**
+		 * What the compiler printed while generating the code.
+		 */
+		public String getOutput() {
+			return _output;
+		}
+	}
+
+	private final File _directory;
+	private final long _maxBytes;
+	private LinkedHashMap<String, Long> _entries; //size of each entry, least recently used first
+	private long _bytes;
+	private int _hits;
+	private int _misses;
+	private int _evictions;
+
+	/**
+	 * Open a cache, creating its directory if need be.
+	 *
+	 * @param directory Where the entries are kept
+	 * @param maxBytes How many bytes the entries may take
+	 */
+	public CompileCache(String directory, long maxBytes) {
+		_directory = new File(directory);
+		_maxBytes = maxBytes;
+	}
+
+	/**
+	 * Computes the key of a compilation.
+	 *
+	 * @param source The bytes of the Blaise source
+	 * @param options The options it is compiled with
+	 */
+	public static String key(byte[] source, CompilerOptions options) {
+		MessageDigest digest = sha256();
+		update(digest, FORMAT + "\n" + getCompilerFingerprint() + "\n" + options.getCacheKey() + "\n");
+		digest.update(source);
+		return hex(digest.digest());
+	}
+
+	/**
+	 * Looks up a key, counting a hit or a miss.
+	 *
+	 * @return The entry, or null if there is none
+	 */
+	public synchronized Entry get(String key) {
+		load();
+		File mal = file(key, ".mal");
+		File out = file(key, ".out");
+		try {
+			Entry entry = new Entry(read(mal), read(out));
+			long now = System.currentTimeMillis();
+			mal.setLastModified(now);
+			out.setLastModified(now);
+			//the entry may be new to us, written by another process since load()
+			long size = mal.length() + out.length();
+			Long old = _entries.remove(key);
+			_entries.put(key, size);
+			_bytes += size - (old == null ? 0 : old);
+			_hits++;
+			return entry;
+		} catch (IOException e) {
+			_misses++;
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the result of a compilation, then evicts the least recently used
+	 * entries until the cache fits in its limit again (the new one too, if it
+	 * is bigger than the limit by itself). A result that cannot
+	 * be stored is silently dropped; the cache is only an optimization.
+	 */
+	public synchronized void put(String key, String code, String output) {
+		load();
+		try {
+			write(file(key, ".out"), output);
+			write(file(key, ".mal"), code);
+		} catch (IOException e) {
+			return;
+		}
+		Long old = _entries.remove(key);
+		if (old != null)
+			_bytes -= old;
+		long size = file(key, ".mal").length() + file(key, ".out").length();
+		_entries.put(key, size);
+		_bytes += size;
+
+		Iterator<Map.Entry<String, Long>> oldest = _entries.entrySet().iterator();
+		while (_bytes > _maxBytes && oldest.hasNext()) {
+			Map.Entry<String, Long> entry = oldest.next();
+			file(entry.getKey(), ".mal").delete();
+			file(entry.getKey(), ".out").delete();
+			_bytes -= entry.getValue();
+			oldest.remove();
+			_evictions++;
+		}
+	}
+
+	public synchronized int getHits() {
+		return _hits;
+	}
+
+	public synchronized int getMisses() {
+		return _misses;
+	}
+
+	public synchronized int getEvictions() {
+		return _evictions;
+	}
+
+	/**
+	 * Prints one line with the hits, misses and evictions so far and how full
+	 * the cache is.
+	 */
+	public synchronized void printStats(PrintStream out) {
+		load();
+		out.println("Compile cache: " + _hits + " hits, " + _misses + " misses, "
+				+ _evictions + " evicted; " + _entries.size() + " entries, "
+				+ _bytes + " of " + _maxBytes + " bytes in " + _directory);
+	}
+
+	//reads what is already in the directory, oldest first, on first use
+	private void load() {
+		if (_entries != null)
+			return;
+		_entries = new LinkedHashMap<String, Long>();
+		_bytes = 0;
+		_directory.mkdirs();
+		File[] files = _directory.listFiles();
+		if (files == null)
+			return;
+		final Map<String, Long> used = new HashMap<String, Long>();
+		Map<String, Long> sizes = new HashMap<String, Long>();
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.endsWith(".mal"))
+				continue;
+			String key = name.substring(0, name.length() - ".mal".length());
+			File out = file(key, ".out");
+			if (!out.isFile())
+				continue;
+			used.put(key, file.lastModified());
+			sizes.put(key, file.length() + out.length());
+		}
+		List<String> keys = new ArrayList<String>(used.keySet());
+		Collections.sort(keys, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return used.get(a).compareTo(used.get(b));
+			}
+		});
+		for (String key : keys) {
+			_entries.put(key, sizes.get(key));
+			_bytes += sizes.get(key);
+		}
+	}
+
+	private File file(String key, String extension) {
+		return new File(_directory, key + extension);
+	}
+
+	private static String read(File file) throws IOException {
+		Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			StringBuilder text = new StringBuilder();
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+				text.append(buffer, 0, read);
+			return text.toString();
+		} finally {
+			in.close();
+		}
+	}
+
+	//writes beside the entry and renames, so no reader sees half a file
+	private void write(File file, String text) throws IOException {
+		File temp = File.createTempFile("entry", ".tmp", _directory);
+		Writer out = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Cannot store " + file);
+			}
+		}
+	}
+
+	/**
+	 * A hash describing the class files the compiler was loaded from,
+	 * computed once. Empty when the classes do not come from a file at all.
+	 */
+	static synchronized String getCompilerFingerprint() {
+		if (_compilerFingerprint == null) {
+			MessageDigest digest = sha256();
+			CodeSource code = CompileCache.class.getProtectionDomain().getCodeSource();
+			URL location = code == null ? null : code.getLocation();
+			if (location != null && "file".equals(location.getProtocol())) {
+				try {
+					fingerprint(new File(location.toURI()), digest);
+				} catch (Exception e) {
+					update(digest, location.toString());
+				}
+			}
+			_compilerFingerprint = hex(digest.digest());
+		}
+		return _compilerFingerprint;
+	}
+
+	//hashes the name, size and modification time of a jar, or of the class
+	//files under a directory in name order; reading them all would cost more
+	//than most compilations
+	private static void fingerprint(File file, MessageDigest digest) {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			if (files == null)
+				return;
+			Arrays.sort(files);
+			for (File child : files)
+				fingerprint(child, digest);
+		} else if (file.getName().endsWith(".class") || file.getName().endsWith(".jar")) {
+			update(digest, file.getName() + " " + file.length() + " " + file.lastModified() + "\n");
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new InternalException("SHA-256 is not available: " + e.getMessage());
+		}
+	}
+
+	private static void update(MessageDigest digest, String text) {
+		try {
+			digest.update(text.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new InternalException("UTF-8 is not available");
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes)
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return hex.toString();
+	}
+}
@@ -0,0 +1,129 @@
+package comp;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Compiles a file on a running {@link CompileServer}. It takes the same
+ * arguments as {@link Compiler} and prints the same messages, but only loads
+ * enough of Java to talk to the server, which already has the compiler warm.
+ * <p>
+ * <pre>
+ * java comp.CompileClient [--port=N] [options] &lt;blaise file&gt; [&lt;mal file&gt;]
+ * java comp.CompileClient [--port=N] --shutdown
+ * </pre>
+ * A blaise file of "-" sends standard input. Without a MAL file the code is
+ * printed to standard output and the compiler's messages go to standard
+ * error. Unlike the compiler, the client exits with status 1 when the program
+ * does not compile, and 2 when there is no server to ask.
+ * <p>
+ * Each request carries the token the server wrote to a file in the user's
+ * home directory, so only the user who started the server can use it.
+ */
+public class CompileClient {
+
+	/**
+	 * No instantiation is allowed, so disable the default constructor.
+	 */
+	private CompileClient() throws NoSuchMethodException {
+		throw new NoSuchMethodException("Instantiation of CompileClient not allowed.");
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = CompileServer.DEFAULT_PORT;
+		boolean shutdown = false;
+		List<String> options = new ArrayList<String>();
+		List<String> files = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("--port="))
+				port = Integer.parseInt(arg.substring("--port=".length()));
+			else if (arg.equals("--shutdown"))
+				shutdown = true;
+			else if (arg.startsWith("-") && !arg.equals("-") && files.isEmpty())
+				options.add(arg);
+			else
+				files.add(arg);
+		}
+		if (!shutdown && (files.isEmpty() || files.size() > 2)) {
+			System.err.println("\nUsage: java comp.CompileClient [--port=N] [options] <blaise file> [<mal file>]\n"
+					+ "       java comp.CompileClient [--port=N] --shutdown\n"
+					+ "Options are those of comp.Compiler.");
+			System.exit(1);
+		}
+
+		String token;
+		try {
+			token = CompileServer.readToken(port);
+		} catch (IOException e) {
+			System.err.println("No token for a compile server on port " + port + " (" + e.getMessage()
+					+ "); start one as this user with java comp.Compiler --server");
+			System.exit(2);
+			return;
+		}
+		Socket socket;
+		try {
+			socket = new Socket(InetAddress.getByName(null), port);
+		} catch (ConnectException e) {
+			System.err.println("No compile server on port " + port
+					+ "; start one with java comp.Compiler --server");
+			System.exit(2);
+			return;
+		}
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+			out.write(CompileServer.HEADER + "\n");
+			out.write("token " + token + "\n");
+			if (shutdown) {
+				out.write("shutdown\n");
+			} else {
+				for (String option : options)
+					out.write("option " + option + "\n");
+				if (files.get(0).equals("-"))
+					CompileServer.writeText(out, "content", readAll(new InputStreamReader(System.in)));
+				else
+					out.write("source " + new File(files.get(0)).getAbsolutePath() + "\n");
+				if (files.size() > 1)
+					out.write("target " + new File(files.get(1)).getAbsolutePath() + "\n");
+			}
+			out.write("end\n");
+			out.flush();
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			if (!CompileServer.HEADER.equals(in.readLine()))
+				throw new IOException("Not a compile server on port " + port);
+			boolean ok = false;
+			String output = "";
+			String mal = null;
+			String line;
+			while ((line = in.readLine()) != null && !line.equals("end")) {
+				if (line.startsWith("status "))
+					ok = line.equals("status ok");
+				else if (line.startsWith("output "))
+					output = CompileServer.readText(in, line.substring("output ".length()));
+				else if (line.startsWith("mal "))
+					mal = CompileServer.readText(in, line.substring("mal ".length()));
+			}
+			if (mal != null) {
+				System.err.print(output);
+				System.out.print(mal);
+			} else {
+				System.out.print(output);
+			}
+			System.out.flush();
+			if (!ok)
+				System.exit(1);
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static String readAll(Reader in) throws IOException {
+		StringBuilder text = new StringBuilder();
+		char[] buffer = new char[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0)
+			text.append(buffer, 0, read);
+		return text.toString();
+	}
+}
@@ -0,0 +1,387 @@
+package comp;
+
+import java.io.*;
+import java.net.*;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps a compiler running so that editors and builds do not pay for starting
+ * a JVM and loading the compiler on every file. Start it with
+ * <code>java comp.Compiler --server</code> and send it requests with
+ * {@link CompileClient}.
+ * <p>
+ * The server only listens on the loopback interface, since a request names
+ * files for it to read and write. Any process on the machine can connect to
+ * it there, so requests must also carry a token that only the user who
+ * started the server can read: the server makes up a new one each time it
+ * starts and writes it to <code>~/.blaise-server-PORT</code>, readable by
+ * that user alone, and deletes it when it stops. A request with the token
+ * can read and overwrite any file the server's user can, and stop the
+ * server, so the token is as good as that user's password on this machine
+ * and the file must not be shared. Lines are read with a length limit and
+ * connections that go quiet are closed, 5 seconds before the token and a
+ * minute after it, so that no one can tie up the server by sending endless
+ * lines or nothing at all. Each connection carries one request, and
+ * up to <code>-jN</code> requests are compiled at a time, each in its own
+ * {@link Compilation}. Started with <code>--cache</code>, the server answers
+ * every request it can from one shared {@link CompileCache}.
+ * <p>
+ * Requests and responses are lines of UTF-8 text, so the server can also be
+ * driven by hand. A request is
+ *
+ * <pre>
+ * BLAISE 1
+ * token &lt;the token&gt;
+ * option &lt;compiler option&gt;     (any number, e.g. "option -O")
+ * source &lt;path of a .bl file&gt;  (or "content &lt;n&gt;", a newline and n characters of source)
+ * target &lt;path of a .mal file&gt; (optional; without it the code is sent back)
+ * end
+ * </pre>
+ *
+ * or <code>shutdown</code> in place of the source, to stop the server. The
+ * response is
+ *
+ * <pre>
+ * BLAISE 1
+ * status ok|error
+ * output &lt;n&gt;                  (a newline and the n characters the compiler printed)
+ * mal &lt;n&gt;                     (only without a target: a newline and the code)
+ * end
+ * </pre>
+ */
+public class CompileServer {
+
+	/** The port the server listens on unless told otherwise. */
+	public static final int DEFAULT_PORT = 6502;
+
+	/** The first line of every request and response. */
+	static final String HEADER = "BLAISE 1";
+
+	/** The longest text block, in characters, either side accepts. */
+	static final int MAX_TEXT = 1 << 24;
+
+	//limits on what an unauthenticated connection can make the server read
+	private static final int MAX_HEADER_LINE = 256; //the header and token lines
+	private static final int HEADER_TIMEOUT = 5000; //ms to send them
+
+	//limits on an authenticated request
+	private static final int MAX_LINE = 8192; //an option, source or target line
+	private static final int MAX_LINES = 1024;
+	private static final int REQUEST_TIMEOUT = 60000; //ms of silence before giving up
+
+	private final int _port;
+	private final int _jobs;
+	private final CompileCache _cache;
+	private ServerSocket _socket;
+	private String _token;
+	private volatile boolean _stopping;
+
+	/**
+	 * Create a server.
+	 *
+	 * @param port The local port to listen on
+	 * @param jobs How many requests to compile at a time
+	 * @param cache The cache requests that ask for one share, or null
+	 */
+	public CompileServer(int port, int jobs, CompileCache cache) {
+		_port = port;
+		_jobs = jobs;
+		_cache = cache;
+	}
+
+	/**
+	 * Accepts and answers requests until a shutdown request arrives.
+	 *
+	 * @throws IOException If the port cannot be listened on
+	 */
+	public void serve() throws IOException {
+		_socket = new ServerSocket(_port, 50, InetAddress.getByName(null));
+		File tokenFile = tokenFile(_socket.getLocalPort());
+		try {
+			_token = writeToken(tokenFile);
+		} catch (IOException e) {
+			_socket.close();
+			throw e;
+		}
+		System.out.println("Compile server listening on port " + _socket.getLocalPort());
+		ExecutorService pool = Executors.newFixedThreadPool(_jobs);
+		try {
+			while (!_stopping) {
+				final Socket client;
+				try {
+					client = _socket.accept();
+				} catch (SocketException e) {
+					if (_stopping)
+						break;
+					throw e;
+				}
+				pool.execute(new Runnable() {
+					public void run() {
+						handle(client);
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			_socket.close();
+			tokenFile.delete();
+		}
+		if (_cache != null)
+			_cache.printStats(System.out);
+		System.out.println("Compile server stopped");
+	}
+
+	/**
+	 * Stops accepting requests. Requests already accepted are still answered.
+	 */
+	public void stop() {
+		_stopping = true;
+		try {
+			if (_socket != null)
+				_socket.close();
+		} catch (IOException e) {
+			//closing only serves to wake up accept()
+		}
+	}
+
+	/**
+	 * The file the token of the server on the given port is kept in.
+	 */
+	static File tokenFile(int port) {
+		return new File(System.getProperty("user.home"), ".blaise-server-" + port);
+	}
+
+	/**
+	 * Reads the token of the server on the given port.
+	 *
+	 * @throws IOException If there is no token to read, or it cannot be read
+	 */
+	static String readToken(int port) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(tokenFile(port)), "UTF-8"));
+		try {
+			String token = in.readLine();
+			if (token == null)
+				throw new IOException("No token in " + tokenFile(port));
+			return token;
+		} finally {
+			in.close();
+		}
+	}
+
+	//makes up a new token and writes it to a file only this user may read
+	private static String writeToken(File file) throws IOException {
+		byte[] random = new byte[16];
+		new SecureRandom().nextBytes(random);
+		StringBuilder token = new StringBuilder();
+		for (byte b : random)
+			token.append(String.format("%02x", b & 0xff));
+
+		//the file is made private before the token goes in
+		file.delete();
+		if (!file.createNewFile())
+			throw new IOException("Could not create " + file);
+		boolean restricted = file.setReadable(false, false) && file.setWritable(false, false)
+				&& file.setReadable(true, true) && file.setWritable(true, true);
+		if (!restricted) {
+			file.delete();
+			throw new IOException("Could not make " + file + " private");
+		}
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(token + "\n");
+		} finally {
+			out.close();
+		}
+		return token.toString();
+	}
+
+	//whether a request line carries the token, compared in constant time
+	private boolean isToken(String line) throws UnsupportedEncodingException {
+		return line != null && line.startsWith("token ")
+				&& MessageDigest.isEqual(line.substring("token ".length()).getBytes("UTF-8"), _token.getBytes("UTF-8"));
+	}
+
+	//answers one connection; never throws, so a bad request cannot stop the server
+	private void handle(Socket client) {
+		try {
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+				Writer out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), "UTF-8"));
+				try {
+					answer(client, in, out);
+				} catch (RuntimeException e) {
+					respond(out, false, "Internal server error: " + e + "\n", null);
+				}
+				out.flush();
+			} finally {
+				client.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Compile server: " + e.getMessage());
+		}
+	}
+
+	//a connection that stops sending gets a SocketTimeoutException, which
+	//closes it, so idle connections cannot hold on to the workers
+	private void answer(Socket client, BufferedReader in, Writer out) throws IOException {
+		client.setSoTimeout(HEADER_TIMEOUT);
+		if (!HEADER.equals(readLine(in, MAX_HEADER_LINE))) {
+			respond(out, false, "Not a compile request\n", null);
+			return;
+		}
+		if (!isToken(readLine(in, MAX_HEADER_LINE))) {
+			respond(out, false, "Bad or missing token; it is in " + tokenFile(_socket.getLocalPort()) + "\n", null);
+			return;
+		}
+		client.setSoTimeout(REQUEST_TIMEOUT);
+		List<String> options = new ArrayList<String>();
+		String source = null;
+		String content = null;
+		String target = null;
+		String line;
+		int lines = 0;
+		while ((line = readLine(in, MAX_LINE)) != null && !line.equals("end")) {
+			if (++lines > MAX_LINES) {
+				respond(out, false, "Too many request lines\n", null);
+				return;
+			} else if (line.startsWith("option ")) {
+				options.add(line.substring("option ".length()));
+			} else if (line.startsWith("source ")) {
+				source = line.substring("source ".length());
+			} else if (line.startsWith("content ")) {
+				try {
+					content = readText(in, line.substring("content ".length()));
+				} catch (IOException e) {
+					respond(out, false, e.getMessage() + "\n", null);
+					return;
+				}
+			} else if (line.startsWith("target ")) {
+				target = line.substring("target ".length());
+			} else if (line.equals("shutdown")) {
+				respond(out, true, "Compile server stopping\n", null);
+				stop();
+				return;
+			} else {
+				respond(out, false, "Bad request line: " + line + "\n", null);
+				return;
+			}
+		}
+		if (source == null && content == null) {
+			respond(out, false, "The request names no source\n", null);
+			return;
+		}
+
+		CompilerOptions compilerOptions = new CompilerOptions();
+		try {
+			String[] args = options.toArray(new String[options.size()]);
+			int end = compilerOptions.parse(args, 0);
+			if (end != args.length)
+				throw new IllegalArgumentException("Not an option: " + args[end]);
+			if (compilerOptions.batch() || compilerOptions.server())
+				throw new IllegalArgumentException("--batch and --server cannot be requested");
+			if (compilerOptions.getCacheDirectory() != null)
+				throw new IllegalArgumentException("The cache is chosen when starting the server");
+		} catch (IllegalArgumentException e) {
+			respond(out, false, e.getMessage() + "\n", null);
+			return;
+		}
+
+		Compilation compilation = new Compilation(source != null ? source : "<request>", target, compilerOptions);
+		if (content != null)
+			compilation.setSourceText(content);
+		compilation.setCache(_cache);
+		if (target != null)
+			compilation.setDebugFiles(target + ".gv.txt", target + ".png");
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream report = new PrintStream(buffer, true, "UTF-8");
+		boolean ok;
+		try {
+			ok = Compiler.compile(compilation, report);
+		} catch (IOException e) {
+			report.println(e.getMessage());
+			ok = false;
+		} catch (RuntimeException e) {
+			report.println("Internal compiler error: " + e);
+			ok = false;
+		} catch (StackOverflowError e) {
+			report.println("Program is nested too deeply to compile");
+			ok = false;
+		}
+		report.flush();
+		String mal = ok && target == null ? compilation.getCode() + "\n" : null;
+		respond(out, ok, buffer.toString("UTF-8"), mal);
+	}
+
+	private static void respond(Writer out, boolean ok, String output, String mal) throws IOException {
+		out.write(HEADER + "\n");
+		out.write("status " + (ok ? "ok" : "error") + "\n");
+		writeText(out, "output", output);
+		if (mal != null)
+			writeText(out, "mal", mal);
+		out.write("end\n");
+	}
+
+	/**
+	 * Writes a block of text: its keyword and length on one line, then the
+	 * text and a newline.
+	 */
+	static void writeText(Writer out, String keyword, String text) throws IOException {
+		out.write(keyword + " " + text.length() + "\n");
+		out.write(text);
+		out.write("\n");
+	}
+
+	/**
+	 * Reads a line of at most the given number of characters, without its
+	 * line terminator, or returns null at the end of the stream. Unlike
+	 * {@link BufferedReader#readLine()}, it does not buffer a line of any
+	 * length the other side cares to send.
+	 *
+	 * @throws IOException If the line is longer
+	 */
+	static String readLine(BufferedReader in, int max) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0 && c != '\n') {
+			if (line.length() == max)
+				throw new IOException("Request line longer than " + max + " characters");
+			line.append((char) c);
+		}
+		if (c < 0 && line.length() == 0)
+			return null;
+		if (line.length() > 0 && line.charAt(line.length() - 1) == '\r')
+			line.setLength(line.length() - 1);
+		return line.toString();
+	}
+
+	/**
+	 * Reads the text of a block whose length has been read, and the newline
+	 * after it.
+	 *
+	 * @throws IOException If the length is not a number from 0 to
+	 *             {@link #MAX_TEXT}, or the text is cut short
+	 */
+	static String readText(BufferedReader in, String length) throws IOException {
+		int count;
+		try {
+			count = Integer.parseInt(length.trim());
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad length: " + length);
+		}
+		if (count < 0 || count > MAX_TEXT)
+			throw new IOException("Bad length: " + length);
+		char[] text = new char[count];
+		int read = 0;
+		while (read < count) {
+			int n = in.read(text, read, count - read);
+			if (n < 0)
+				throw new IOException("Connection closed in the middle of a message");
+			read += n;
+		}
+		readLine(in, MAX_HEADER_LINE);
+		return new String(text);
+	}
+}
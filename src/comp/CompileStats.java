@@ -0,0 +1,260 @@
+package comp;
+
+import comp.nodes.Node;
+import comp.nodes.NodeList;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Measures the phases of one compilation. Each phase records its wall time
+ * and the bytes the compiling thread allocated while it ran, plus whatever
+ * counts the driver attaches to it (tokens read, syntax tree nodes,
+ * instructions emitted and so on).
+ * <p>
+ * Call {@link #begin(String)} and {@link #end()} around each phase, then
+ * {@link #print(PrintStream)} for a table or {@link #toJson()} for a record
+ * that scripts can compare across releases. Allocated bytes are -1 when the
+ * JVM cannot measure them.
+ */
+public class CompileStats {
+
+	/**
+	 * The measurements of one phase.
+	 */
+	public static class Phase {
+		private final String _name;
+		private long _nanos;
+		private long _bytes;
+		private final Map<String, Long> _counts;
+
+		private Phase(String name) {
+			_name = name;
+			_counts = new LinkedHashMap<String, Long>();
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		/**
+		 * Wall time of the phase, in nanoseconds.
+		 */
+		public long getNanos() {
+			return _nanos;
+		}
+
+		/**
+		 * Bytes allocated by the compiling thread during the phase, or -1.
+		 */
+		public long getAllocatedBytes() {
+			return _bytes;
+		}
+
+		/**
+		 * The counts attached to the phase, in the order they were added.
+		 */
+		public Map<String, Long> getCounts() {
+			return Collections.unmodifiableMap(_counts);
+		}
+	}
+
+	private final String _source;
+	private final List<Phase> _phases;
+	private Phase _current;
+	private long _startNanos;
+	private long _startBytes;
+
+	/**
+	 * Create an empty set of measurements.
+	 *
+	 * @param source The file being compiled, for the report
+	 */
+	public CompileStats(String source) {
+		_source = source;
+		_phases = new ArrayList<Phase>();
+	}
+
+	/**
+	 * Starts measuring a phase. Ends the current one first, if any.
+	 */
+	public void begin(String name) {
+		if (_current != null)
+			end();
+		_current = new Phase(name);
+		_startBytes = allocatedBytes();
+		_startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Stops measuring the current phase and returns it.
+	 */
+	public Phase end() {
+		if (_current == null)
+			throw new InternalException("CompileStats.end() called outside a phase");
+		long nanos = System.nanoTime() - _startNanos;
+		long bytes = allocatedBytes();
+		_current._nanos = nanos;
+		_current._bytes = (bytes < 0 || _startBytes < 0) ? -1 : bytes - _startBytes;
+		_phases.add(_current);
+		Phase ended = _current;
+		_current = null;
+		return ended;
+	}
+
+	/**
+	 * Attaches a count to the current phase, or to the one that ended last
+	 * if none is running.
+	 */
+	public void count(String what, long value) {
+		Phase phase = _current;
+		if (phase == null) {
+			if (_phases.isEmpty())
+				throw new InternalException("CompileStats.count() called before any phase");
+			phase = _phases.get(_phases.size() - 1);
+		}
+		phase._counts.put(what, value);
+	}
+
+	public List<Phase> getPhases() {
+		return Collections.unmodifiableList(_phases);
+	}
+
+	/**
+	 * The wall time of all finished phases together, in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		long total = 0;
+		for (Phase phase : _phases)
+			total += phase._nanos;
+		return total;
+	}
+
+	/**
+	 * The bytes allocated during all finished phases together, or -1.
+	 */
+	public long getTotalAllocatedBytes() {
+		long total = 0;
+		for (Phase phase : _phases) {
+			if (phase._bytes < 0)
+				return -1;
+			total += phase._bytes;
+		}
+		return total;
+	}
+
+	/**
+	 * Prints one line per phase with its time, allocation and counts.
+	 */
+	public void print(PrintStream out) {
+		out.println("Compile statistics for " + _source + ":");
+		for (Phase phase : _phases) {
+			StringBuilder line = new StringBuilder();
+			line.append(String.format("\t%-10s %9.3f ms %12s", phase._name,
+					phase._nanos / 1e6, bytes(phase._bytes)));
+			for (Map.Entry<String, Long> count : phase._counts.entrySet())
+				line.append("  ").append(count.getKey()).append('=').append(count.getValue());
+			out.println(line);
+		}
+		out.println(String.format("\t%-10s %9.3f ms %12s", "total",
+				getTotalNanos() / 1e6, bytes(getTotalAllocatedBytes())));
+	}
+
+	private static String bytes(long bytes) {
+		return bytes < 0 ? "n/a" : bytes + " B";
+	}
+
+	/**
+	 * Renders the measurements as a single JSON object:
+	 * <code>{"source": ..., "phases": [{"name": ..., "nanos": ...,
+	 * "allocatedBytes": ..., <i>counts</i>}, ...], "totalNanos": ...,
+	 * "totalAllocatedBytes": ...}</code>.
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"source\": ").append(quote(_source)).append(", \"phases\": [");
+		for (int i = 0; i < _phases.size(); i++) {
+			Phase phase = _phases.get(i);
+			if (i > 0)
+				json.append(", ");
+			json.append("{\"name\": ").append(quote(phase._name));
+			json.append(", \"nanos\": ").append(phase._nanos);
+			json.append(", \"allocatedBytes\": ").append(phase._bytes);
+			for (Map.Entry<String, Long> count : phase._counts.entrySet())
+				json.append(", ").append(quote(count.getKey())).append(": ").append(count.getValue());
+			json.append('}');
+		}
+		json.append("], \"totalNanos\": ").append(getTotalNanos());
+		json.append(", \"totalAllocatedBytes\": ").append(getTotalAllocatedBytes());
+		json.append('}');
+		return json.toString();
+	}
+
+	/**
+	 * Quotes a string for JSON.
+	 */
+	static String quote(String text) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '"': quoted.append("\\\""); break;
+			case '\\': quoted.append("\\\\"); break;
+			case '\n': quoted.append("\\n"); break;
+			case '\r': quoted.append("\\r"); break;
+			case '\t': quoted.append("\\t"); break;
+			default:
+				if (c < ' ')
+					quoted.append(String.format("\\u%04x", (int) c));
+				else
+					quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * Counts the nodes of a syntax tree.
+	 */
+	public static int countNodes(Node root) throws VisitorException {
+		final int[] count = { 0 };
+		DepthFirstVisitor counter = new DepthFirstVisitor() {
+			protected void checkAndVisit(Node node) throws VisitorException {
+				//a list is visited once, for all its cons nodes and its nil
+				if (node instanceof NodeList<?>)
+					count[0] += ((NodeList<?>) node).size() + 1;
+				else
+					count[0]++;
+				super.checkAndVisit(node);
+			}
+		};
+		if (root != null)
+			counter.checkAndVisit(root);
+		return count[0];
+	}
+
+	/**
+	 * Counts the real instructions in a list of code, leaving out labels,
+	 * directives, comments and blank lines.
+	 */
+	public static int countInstructions(List<Instruction> code) {
+		int count = 0;
+		for (Instruction line : code) {
+			if (line.isInstruction())
+				count++;
+		}
+		return count;
+	}
+
+	//bytes allocated so far by the current thread, or -1 if the JVM cannot tell
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
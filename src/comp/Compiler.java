@@ -1,18 +1,23 @@
 package comp;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
-
-import comp.nodes.NodeProgram;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * Main-method class for Compiler. Handles the five main steps needed to
- * compile:
+ * Main-method class for Compiler. Handles the main steps needed to
+ * compile, as the stages of a {@link Compilation}:
  *
  * <ol>
  * <li>Parse the input to a syntax tree</li>
  * <li>Check the semantics</li>
- * <li>Print out the syntax tree (for debuggging)</li>
+ * <li>Optionally fold constant expressions with a {@link ConstantFoldingVisitor}</li>
+ * <li>Optionally print out the syntax tree, write it out for Graphviz and
+ * render it (for debuggging)</li>
  * <li>Generate the code</li>
+ * <li>Optionally clean up the code with a {@link PeepholeOptimizer}</li>
  * <li>Output the code to the file</li>
  * </ol>
  * 
@@ -27,97 +32,161 @@ public class Compiler {
     private Compiler() throws NoSuchMethodException {
         throw new NoSuchMethodException("Instantiation of Compiler not allowed.");
     }
-    
-    /**
-     * Creates a png file to serve as a visual representation of the syntax tree.
-     * @param program The syntax tree be viewed.
-     * @throws VisitorException
-     * @throws IOException
-     */
-    private static void viewParseTree(NodeProgram program) throws VisitorException, IOException{
-    	GraphvizVisitor greVis = new GraphvizVisitor("parse_tree.gv.txt");
-        
-        if (program != null)
-        	program.visit(greVis);
-        
-        greVis.finish();
-        
-        Runtime.getRuntime().exec("dot -Tpng -o graph.png parse_tree.gv.txt");
-    }
 
     /**
      * Executes the compiler on a Blaise file, saving to a MAL file.
+     * <p>
+     * Options may be given before the file names; see
+     * {@link CompilerOptions#getUsage()}. Without any, the compiler only
+     * parses, checks, generates stack code and writes it out.
      * 
-     * @param args Blaise file (input), MAL file (output)
+     * @param args Options, Blaise file (input), MAL file (output)
      * @throws IOException
      *             If something goes wrong reading Blaise file or writing MAL
      *             file
-     * @throws LexicalException
-     *             If input contains lexical errors
-     * @throws SyntaxException
-     *             If input fails syntax checking
-     * @throws VisitorException
-     *             If something goes wrong while visiting the syntax tree
      */
-    public static void main(String args[]) throws LexicalException,
-            IOException, SyntaxException, VisitorException {
+    public static void main(String args[]) throws IOException {
 
-        if ((args.length < 2) || (args[0] == null) || (args[1] == null)) {
-            System.err.println("\n"
-                    + "Usage: java comp.Compiler <blaise file> <mal file>\n");
-            System.exit(1);
+        CompilerOptions options = new CompilerOptions();
+        int argIndex = 0;
+        try {
+            argIndex = options.parse(args, 0);
+        } catch (IllegalArgumentException e) {
+            System.err.println("\n" + e.getMessage());
+            printUsage();
+        }
+
+        if (options.batch()) {
+            compileBatch(options, Arrays.asList(args).subList(argIndex, args.length));
+            return;
+        }
+
+        if (options.server()) {
+            new CompileServer(options.getPort(), options.getJobs(), openCache(options)).serve();
+            return;
+        }
+
+        if ((args.length - argIndex < 2) || (args[argIndex] == null)
+                || (args[argIndex + 1] == null)) {
+            printUsage();
         }
 
         // pass these files to the Tokenizer and MIPSCodeGenerator
-        String blaiseFilename = args[0];
-        String malFilename = args[1];
+        String blaiseFilename = args[argIndex];
+        String malFilename = args[argIndex + 1];
 
-        // set up your compiler here.
+        Compilation compilation = new Compilation(blaiseFilename, malFilename, options);
+        CompileCache cache = openCache(options);
+        compilation.setCache(cache);
         try {
+            compile(compilation, System.out);
+            if (cache != null)
+                cache.printStats(System.out);
+        }
+        catch (FileNotFoundException e)
+        {
+        	 System.out.println(e.getMessage());
+        	 System.exit(1);
+        }
+
+    }
+
+    /**
+     * Opens the cache the options ask for, or returns null if they do not.
+     */
+    static CompileCache openCache(CompilerOptions options) {
+        if (options.getCacheDirectory() == null)
+            return null;
+        return new CompileCache(options.getCacheDirectory(), options.getCacheSize());
+    }
 
-        	// 1. parse the input
-        	Parser parser = new Parser(blaiseFilename);
-        	NodeProgram program = parser.parse();
-
-         SemanticVisitor sem_vis = new SemanticVisitor();
-         // 2. check semantics
-         if (program != null)
-             program.visit(sem_vis);
-
-         // 3. print out the syntax tree
-         if (program != null)
-             program.visit(new PrintingVisitor());
-            
-         // 4. Create a png file showing the syntax tree
-         viewParseTree(program);
-        
-         // 5. generate the code
-         MIPSCodeGenerator codegen = new MIPSCodeGenerator();
-
-	 
-         if (program != null)
-         	 //We'll need to pass some information from Semantic analysis to Codegen,
-         	 //such as the frame and variable information we've collected
-             program.visit(new CodeGenVisitor(codegen, sem_vis.getBlockSizes(), sem_vis.getProcedures()));
-
-         // 6. output the code to the file
-         codegen.writeToFile(malFilename);
-
-         System.out.println("\nCompilation was successful.\n");
+    /**
+     * Runs a compilation and prints what the command line prints: the reports
+     * of the optional stages, then either the first error found or a success
+     * message and the statistics asked for.
+     * 
+     * @return Whether the program compiled
+     * @throws FileNotFoundException If the Blaise file does not exist
+     * @throws IOException If the Blaise file or MAL file cannot be used
+     */
+    public static boolean compile(Compilation compilation, PrintStream out) throws IOException {
+        CompilerOptions options = compilation.getOptions();
+        compilation.setOutput(out);
+        try {
+            compilation.run();
+
+            out.println("\nCompilation was successful.\n");
+
+            if ("text".equals(options.getStatsFormat()))
+                compilation.getStats().print(out);
+            else if ("json".equals(options.getStatsFormat()))
+                out.println(compilation.getStats().toJson());
+            return true;
         }
         catch (LexicalException e)
         {
-        	 System.out.println(e.getMessage());
+        	 out.println(e.getMessage());
         }
         catch (SyntaxException e)
         {
-        	 System.out.println(e.getMessage());
+        	 out.println(e.getMessage());
         }
         catch (VisitorException e)
         {
-        	 System.out.println(e.getMessage());
+        	 out.println(e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Compiles every file the arguments name on a pool of workers, then
+     * prints what each printed and whether it compiled. Exits with status 1
+     * if any file failed.
+     */
+    private static void compileBatch(CompilerOptions options, List<String> args)
+            throws IOException {
+        if (args.isEmpty())
+            printUsage();
+        List<String> sources = BatchCompiler.findSources(args);
+        BatchCompiler batch = new BatchCompiler(options);
+        List<BatchCompiler.Result> results;
+        try {
+            results = batch.compile(sources);
+        } catch (IllegalArgumentException e) {
+            System.err.println("\n" + e.getMessage());
+            System.exit(1);
+            return;
+        } catch (InterruptedException e) {
+            System.err.println("\nBatch compilation interrupted.");
+            System.exit(1);
+            return;
         }
+        BatchCompiler.printSummary(results, System.out);
+        if (batch.getCache() != null)
+            batch.getCache().printStats(System.out);
+
+        boolean failed = false;
+        for (BatchCompiler.Result result : results) {
+            if ("text".equals(options.getStatsFormat()))
+                result.getStats().print(System.out);
+            else if ("json".equals(options.getStatsFormat()))
+                System.out.println(result.getStats().toJson());
+            failed |= !result.succeeded();
+        }
+        if (failed)
+            System.exit(1);
+    }
 
+    /**
+     * Prints how to invoke the compiler and exits.
+     */
+    private static void printUsage() {
+        System.err.println("\n"
+                + "Usage: java comp.Compiler [options] <blaise file> <mal file>\n"
+                + "       java comp.Compiler --batch [options] <files, directories or @lists>\n"
+                + "       java comp.Compiler --server [--port=N] [-jN]\n"
+                + CompilerOptions.getUsage());
+        System.exit(1);
     }
 
 }
@@ -0,0 +1,349 @@
+package comp;
+
+import java.util.*;
+
+/**
+ * The settings of one compilation, as given on the command line. Options come
+ * before the file names; see {@link #parse(String[], int)} and
+ * {@link #getUsage()} for the list.
+ */
+public class CompilerOptions {
+
+	private boolean _useRegisters;
+	private boolean _allocateLocals;
+	private boolean _foldConstants;
+	private int _inlineBudget;
+	private boolean _hoistInvariants;
+	private boolean _numberValues;
+	private Set<PeepholeOptimizer.Rule> _peepholeRules;
+	private boolean _printTree;
+	private boolean _graphviz;
+	private boolean _png;
+	private boolean _dumpCfg;
+	private String _statsFormat;
+	private boolean _batch;
+	private int _jobs;
+	private String _outputDirectory;
+	private boolean _server;
+	private int _port;
+	private String _cacheDirectory;
+	private long _cacheSize;
+
+	/**
+	 * Create options for a plain compilation: stack code, no optimizations
+	 * and no debugging output.
+	 */
+	public CompilerOptions() {
+		_jobs = Runtime.getRuntime().availableProcessors();
+		_port = CompileServer.DEFAULT_PORT;
+		_cacheSize = CompileCache.DEFAULT_SIZE;
+	}
+
+	/**
+	 * Reads options from <code>args</code>, starting at <code>start</code>,
+	 * up to the first argument that does not start with '-'.
+	 *
+	 * @return The index of the first argument that is not an option
+	 * @throws IllegalArgumentException If an option is not known
+	 */
+	public int parse(String[] args, int start) {
+		int index = start;
+		while (index < args.length && args[index] != null && args[index].startsWith("-")) {
+			parseOption(args[index++]);
+		}
+		return index;
+	}
+
+	private void parseOption(String option) {
+		if (option.equals("-r") || option.equals("--registers")) {
+			_useRegisters = true;
+		} else if (option.equals("-a") || option.equals("--allocate")) {
+			_useRegisters = true;
+			_allocateLocals = true;
+		} else if (option.equals("-f") || option.equals("--fold")) {
+			_foldConstants = true;
+		} else if (option.equals("-i") || option.equals("--inline")) {
+			_inlineBudget = InliningVisitor.DEFAULT_BUDGET;
+		} else if (option.startsWith("--inline=")) {
+			try {
+				_inlineBudget = Integer.parseInt(option.substring("--inline=".length()));
+			} catch (NumberFormatException e) {
+				_inlineBudget = -1;
+			}
+			if (_inlineBudget < 0)
+				throw new IllegalArgumentException("Bad inlining budget: " + option);
+		} else if (option.equals("-l") || option.equals("--licm")) {
+			_hoistInvariants = true;
+		} else if (option.equals("-c") || option.equals("--cse")) {
+			_numberValues = true;
+		} else if (option.equals("-O") || option.equals("--peephole")) {
+			_peepholeRules = EnumSet.allOf(PeepholeOptimizer.Rule.class);
+		} else if (option.startsWith("--peephole=")) {
+			_peepholeRules = EnumSet.noneOf(PeepholeOptimizer.Rule.class);
+			for (String name : option.substring("--peephole=".length()).split(",")) {
+				PeepholeOptimizer.Rule rule = PeepholeOptimizer.Rule.fromString(name);
+				if (rule == null)
+					throw new IllegalArgumentException("Unknown peephole rule: " + name);
+				_peepholeRules.add(rule);
+			}
+		} else if (option.equals("--print-tree")) {
+			_printTree = true;
+		} else if (option.equals("--graphviz")) {
+			_graphviz = true;
+		} else if (option.equals("--png")) {
+			_graphviz = true;
+			_png = true;
+		} else if (option.equals("--dump-cfg")) {
+			_dumpCfg = true;
+		} else if (option.equals("--stats")) {
+			_statsFormat = "text";
+		} else if (option.equals("--stats=json")) {
+			_statsFormat = "json";
+		} else if (option.equals("--batch")) {
+			_batch = true;
+		} else if (option.startsWith("--jobs=") || option.startsWith("-j")) {
+			String count = option.substring(option.startsWith("-j") ? 2 : "--jobs=".length());
+			try {
+				_jobs = Integer.parseInt(count);
+			} catch (NumberFormatException e) {
+				_jobs = 0;
+			}
+			if (_jobs < 1)
+				throw new IllegalArgumentException("Bad number of jobs: " + option);
+		} else if (option.startsWith("--out-dir=")) {
+			_outputDirectory = option.substring("--out-dir=".length());
+		} else if (option.equals("--cache")) {
+			_cacheDirectory = CompileCache.DEFAULT_DIRECTORY;
+		} else if (option.startsWith("--cache=")) {
+			_cacheDirectory = option.substring("--cache=".length());
+		} else if (option.startsWith("--cache-size=")) {
+			_cacheSize = parseSize(option.substring("--cache-size=".length()));
+			if (_cacheSize < 0)
+				throw new IllegalArgumentException("Bad cache size: " + option);
+		} else if (option.equals("--server")) {
+			_server = true;
+		} else if (option.startsWith("--port=")) {
+			try {
+				_port = Integer.parseInt(option.substring("--port=".length()));
+			} catch (NumberFormatException e) {
+				_port = -1;
+			}
+			if (_port < 0 || _port > 65535)
+				throw new IllegalArgumentException("Bad port: " + option);
+		} else {
+			throw new IllegalArgumentException("Unknown option: " + option);
+		}
+	}
+
+	//a number of bytes, optionally followed by K, M or G; -1 if it is not one
+	private static long parseSize(String size) {
+		long unit = 1;
+		String upper = size.toUpperCase();
+		if (upper.endsWith("K"))
+			unit = 1024;
+		else if (upper.endsWith("M"))
+			unit = 1024 * 1024;
+		else if (upper.endsWith("G"))
+			unit = 1024 * 1024 * 1024;
+		if (unit > 1)
+			size = size.substring(0, size.length() - 1);
+		try {
+			return Long.parseLong(size) * unit;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Describes the options, one per line.
+	 */
+	public static String getUsage() {
+		return "  -r, --registers        evaluate expressions in registers\n"
+				+ "  -a, --allocate         also keep procedure locals in registers (implies -r)\n"
+				+ "  -f, --fold             compute constant expressions at compile time\n"
+				+ "  -i, --inline[=N]       replace calls to procedures of at most N nodes by their\n"
+				+ "                         body (default " + InliningVisitor.DEFAULT_BUDGET + ")\n"
+				+ "  -l, --licm             compute loop-invariant expressions before the loop\n"
+				+ "  -c, --cse              reuse values computed more than once in a block\n"
+				+ "  -O, --peephole[=rules] run the peephole optimizer, or only the given rules\n"
+				+ "                         (" + Arrays.toString(PeepholeOptimizer.Rule.values()) + ")\n"
+				+ "  --print-tree           print the syntax tree\n"
+				+ "  --graphviz             write the syntax tree to parse_tree.gv.txt\n"
+				+ "  --png                  also render it to graph.png with dot\n"
+				+ "  --dump-cfg             print the control-flow graph of each procedure\n"
+				+ "  --stats[=json]         report time, allocation and sizes of each phase\n"
+				+ "  --batch                compile every file, directory (all .bl files in it)\n"
+				+ "                         or @list file given, instead of one file\n"
+				+ "  -jN, --jobs=N          compile N files at a time in batch mode\n"
+				+ "  --out-dir=DIR          write the MAL files of a batch to DIR\n"
+				+ "  --cache[=DIR]          reuse the code of sources compiled before, kept in DIR\n"
+				+ "                         (default " + CompileCache.DEFAULT_DIRECTORY + ")\n"
+				+ "  --cache-size=N[K|M|G]  how much the cache may hold (default 64M)\n"
+				+ "  --server               serve compile requests from CompileClient\n"
+				+ "  --port=N               the local port the server listens on (default "
+				+ CompileServer.DEFAULT_PORT + ")\n";
+	}
+
+	/**
+	 * Whether expressions are evaluated in registers, with a
+	 * {@link RegisterCodeGenVisitor}.
+	 */
+	public boolean useRegisters() {
+		return _useRegisters;
+	}
+
+	/**
+	 * Whether procedure locals are kept in registers, with a
+	 * {@link LinearScanAllocator}.
+	 */
+	public boolean allocateLocals() {
+		return _allocateLocals;
+	}
+
+	/**
+	 * Whether constant expressions are folded, with a
+	 * {@link ConstantFoldingVisitor}.
+	 */
+	public boolean foldConstants() {
+		return _foldConstants;
+	}
+
+	/**
+	 * The size, in nodes, of the largest procedure whose calls are inlined
+	 * with an {@link InliningVisitor}, or 0 to inline nothing.
+	 */
+	public int getInlineBudget() {
+		return _inlineBudget;
+	}
+
+	/**
+	 * Whether expressions that do not change in a loop are computed before
+	 * it, with a {@link LoopInvariantVisitor}.
+	 */
+	public boolean hoistInvariants() {
+		return _hoistInvariants;
+	}
+
+	/**
+	 * Whether values computed more than once in a block are reused, with a
+	 * {@link ValueNumberingVisitor}.
+	 */
+	public boolean numberValues() {
+		return _numberValues;
+	}
+
+	/**
+	 * The peephole rules to run, or null to skip the {@link PeepholeOptimizer}.
+	 */
+	public Set<PeepholeOptimizer.Rule> getPeepholeRules() {
+		return _peepholeRules;
+	}
+
+	/**
+	 * Whether the syntax tree is printed with a {@link PrintingVisitor}.
+	 */
+	public boolean printTree() {
+		return _printTree;
+	}
+
+	/**
+	 * Whether the syntax tree is written out with a {@link GraphvizVisitor}.
+	 */
+	public boolean graphviz() {
+		return _graphviz;
+	}
+
+	/**
+	 * Whether the Graphviz file is rendered to a picture.
+	 */
+	public boolean png() {
+		return _png;
+	}
+
+	/**
+	 * Whether the {@link ControlFlowGraph} of each procedure is printed.
+	 */
+	public boolean dumpCfg() {
+		return _dumpCfg;
+	}
+
+	/**
+	 * "text" or "json" to report {@link CompileStats}, or null for none.
+	 */
+	public String getStatsFormat() {
+		return _statsFormat;
+	}
+
+	/**
+	 * Whether the arguments after the options name many files to compile with
+	 * a {@link BatchCompiler}.
+	 */
+	public boolean batch() {
+		return _batch;
+	}
+
+	/**
+	 * How many files a batch compiles at a time. Defaults to the number of
+	 * processors.
+	 */
+	public int getJobs() {
+		return _jobs;
+	}
+
+	/**
+	 * Where a batch writes its MAL files, or null to write each next to its
+	 * Blaise file.
+	 */
+	public String getOutputDirectory() {
+		return _outputDirectory;
+	}
+
+	/**
+	 * Whether to run a {@link CompileServer} instead of compiling.
+	 */
+	public boolean server() {
+		return _server;
+	}
+
+	/**
+	 * The local port of the {@link CompileServer}.
+	 */
+	public int getPort() {
+		return _port;
+	}
+
+	/**
+	 * Where the {@link CompileCache} is kept, or null to not use one.
+	 */
+	public String getCacheDirectory() {
+		return _cacheDirectory;
+	}
+
+	/**
+	 * How many bytes the {@link CompileCache} may hold.
+	 */
+	public long getCacheSize() {
+		return _cacheSize;
+	}
+
+	/**
+	 * Describes the options that change the code generated or what the
+	 * compiler prints along the way, for the key of a {@link CompileCache}
+	 * entry. Options that only say how or where to compile are left out.
+	 */
+	public String getCacheKey() {
+		return "registers=" + _useRegisters + " allocate=" + _allocateLocals
+				+ " fold=" + _foldConstants + " inline=" + _inlineBudget + " licm=" + _hoistInvariants
+				+ " cse=" + _numberValues + " peephole=" + _peepholeRules
+				+ " print-tree=" + _printTree + " dump-cfg=" + _dumpCfg;
+	}
+
+	/**
+	 * Whether a compilation with these options can be answered from a
+	 * {@link CompileCache}. Not when it has to write Graphviz files, which the
+	 * cache does not keep.
+	 */
+	public boolean cacheable() {
+		return !_graphviz;
+	}
+}
@@ -0,0 +1,577 @@
+package comp;
+
+import comp.nodes.*;
+
+import java.util.*;
+
+/**
+ * Rewrites a semantically checked syntax tree so that expressions over
+ * constants are computed at compile time. Run it after {@link SemanticVisitor}
+ * and generate code from the tree {@link #fold(NodeProgram)} returns.
+ * <p>
+ * The pass:
+ * <ul>
+ * <li>folds arithmetic and relations whose operands are integer or boolean
+ * literals</li>
+ * <li>applies the identities <code>x+0</code>, <code>x-0</code>,
+ * <code>x*1</code>, <code>x/1</code>, <code>x*0</code>, <code>x%1</code> and
+ * their boolean counterparts for And/Or/Not</li>
+ * <li>drops if and while statements whose condition is a constant, keeping
+ * only the branch that runs</li>
+ * </ul>
+ * Anything that would behave differently at run time is left alone. Division
+ * or modulus by zero and additions or subtractions that overflow still trap,
+ * and an identity that throws away an operand is only applied when evaluating
+ * that operand can neither call a procedure nor trap.
+ * <p>
+ * Every handler leaves the rewritten node in <code>_result</code>. Nodes whose
+ * children did not change are reused rather than copied.
+ */
+public class ConstantFoldingVisitor implements Visitor {
+
+	private Node _result; //the rewritten version of the node just visited
+	private int _folds; //number of rewrites made so far
+
+	public ConstantFoldingVisitor() {
+		_result = null;
+		_folds = 0;
+	}
+
+	/**
+	 * Folds the constants in a program.
+	 *
+	 * @param program A program that has passed semantic checking
+	 * @return The rewritten program
+	 */
+	public NodeProgram fold(NodeProgram program) throws VisitorException {
+		return (NodeProgram) rewrite(program);
+	}
+
+	/**
+	 * Returns how many expressions and statements have been rewritten.
+	 */
+	public int getFoldCount() {
+		return _folds;
+	}
+
+	private Node rewrite(Node node) throws VisitorException {
+		if (node == null)
+			throw new VisitorException("This is not supposed to happen, but a node is missing something");
+		node.visit(this);
+		return _result;
+	}
+
+	private NodeExpr rewrite(NodeExpr node) throws VisitorException {
+		return (NodeExpr) rewrite((Node) node);
+	}
+
+	private NodeInstr rewrite(NodeInstr node) throws VisitorException {
+		return (NodeInstr) rewrite((Node) node);
+	}
+
+	//records a rewrite and makes it the result
+	private void folded(Node node) {
+		_folds++;
+		_result = node;
+	}
+
+	private static boolean isInt(NodeExpr expr) {
+		return expr instanceof NodeExprInt;
+	}
+
+	private static boolean isInt(NodeExpr expr, int value) {
+		return expr instanceof NodeExprInt && ((NodeExprInt) expr).value() == value;
+	}
+
+	private static int value(NodeExpr expr) {
+		return ((NodeExprInt) expr).value();
+	}
+
+	private static boolean isBool(NodeExpr expr) {
+		return expr instanceof NodeExprTrue || expr instanceof NodeExprFalse;
+	}
+
+	private static NodeExpr bool(boolean value) {
+		return value ? new NodeExprTrue() : new NodeExprFalse();
+	}
+
+	//Whether the expression can be dropped without changing what the program
+	//does: it calls no procedure and cannot trap on overflow or a zero divisor.
+	static boolean isPure(NodeExpr expr) {
+		if (expr instanceof NodeExprInt || expr instanceof NodeExprVar
+				|| isBool(expr)) {
+			return true;
+		} else if (expr instanceof NodeExprArrayVar) {
+			return isPure(((NodeExprArrayVar) expr).index());
+		} else if (expr instanceof NodeExprTimes) {
+			NodeExprTimes _times = (NodeExprTimes) expr;
+			return isPure(_times.leftChild()) && isPure(_times.rightChild());
+		} else if (expr instanceof NodeExprDivide) {
+			NodeExprDivide _div = (NodeExprDivide) expr;
+			return isSafeDivisor(_div.rightChild()) && isPure(_div.leftChild());
+		} else if (expr instanceof NodeExprMod) {
+			NodeExprMod _mod = (NodeExprMod) expr;
+			return isSafeDivisor(_mod.rightChild()) && isPure(_mod.leftChild());
+		} else if (expr instanceof NodeRelationLessThan) {
+			NodeRelationLessThan _rel = (NodeRelationLessThan) expr;
+			return isPure(_rel.leftChild()) && isPure(_rel.rightChild());
+		} else if (expr instanceof NodeRelationLessThanEqual) {
+			NodeRelationLessThanEqual _rel = (NodeRelationLessThanEqual) expr;
+			return isPure(_rel.leftChild()) && isPure(_rel.rightChild());
+		} else if (expr instanceof NodeRelationGreaterThan) {
+			NodeRelationGreaterThan _rel = (NodeRelationGreaterThan) expr;
+			return isPure(_rel.leftChild()) && isPure(_rel.rightChild());
+		} else if (expr instanceof NodeRelationGreaterThanEqual) {
+			NodeRelationGreaterThanEqual _rel = (NodeRelationGreaterThanEqual) expr;
+			return isPure(_rel.leftChild()) && isPure(_rel.rightChild());
+		} else if (expr instanceof NodeRelationEqual) {
+			NodeRelationEqual _rel = (NodeRelationEqual) expr;
+			return isPure(_rel.leftChild()) && isPure(_rel.rightChild());
+		} else if (expr instanceof NodeRelationAnd) {
+			NodeRelationAnd _rel = (NodeRelationAnd) expr;
+			return isPure(_rel.leftChild()) && isPure(_rel.rightChild());
+		} else if (expr instanceof NodeRelationOr) {
+			NodeRelationOr _rel = (NodeRelationOr) expr;
+			return isPure(_rel.leftChild()) && isPure(_rel.rightChild());
+		} else if (expr instanceof NodeRelationNot) {
+			return isPure(((NodeRelationNot) expr).relation());
+		}
+		return false; //procedure calls, and + and - since they trap on overflow
+	}
+
+	//a divisor that can never make div or rem trap
+	static boolean isSafeDivisor(NodeExpr expr) {
+		return isInt(expr) && value(expr) != 0 && value(expr) != -1;
+	}
+
+	//an empty block, standing in for a statement that was folded away
+	private static NodeInstr emptyInstruction() {
+		return new NodeInstrBlock(new NodeListInstrNil());
+	}
+
+	private static boolean isEmpty(NodeInstr instr) {
+		return instr instanceof NodeInstrBlock
+				&& ((NodeInstrBlock) instr).instructions() instanceof NodeListInstrNil;
+	}
+
+	public void handleNodeProgram(NodeProgram node) throws VisitorException {
+		NodeListProc _procs = (NodeListProc) rewrite(node.listProc());
+		_result = (_procs == node.listProc()) ? node : new NodeProgram(node.listVarDecl(), _procs);
+	}
+
+	//lists are rewritten element by element in a loop, and rebuilt only
+	//if some element changed
+	public void handleNodeListProcCons(NodeListProcCons node) throws VisitorException {
+		List<NodeProc> _procs = new ArrayList<NodeProc>();
+		boolean _changed = false;
+		for (NodeProc proc : node) {
+			NodeProc _proc = (NodeProc) rewrite(proc);
+			_changed |= _proc != proc;
+			_procs.add(_proc);
+		}
+		_result = _changed ? NodeListProc.of(_procs) : node;
+	}
+
+	public void handleNodeListProcNil(NodeListProcNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeProc(NodeProc node) throws VisitorException {
+		NodeInstr _instr = rewrite(node.instruction());
+		_result = (_instr == node.instruction()) ? node
+				: new NodeProc(node.identifier(), node.argumentList(), _instr);
+	}
+
+	public void handleNodeProcDeclArg(NodeProcDeclArg node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListProcDeclArgCons(NodeListProcDeclArgCons node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListProcDeclArgNil(NodeListProcDeclArgNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListVarDeclCons(NodeListVarDeclCons node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListVarDeclNil(NodeListVarDeclNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeVarDeclArray(NodeVarDeclArray node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeVarDeclSingle(NodeVarDeclSingle node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrDeclArray(NodeInstrDeclArray node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrDeclSingle(NodeInstrDeclSingle node) throws VisitorException {
+		_result = node;
+	}
+
+	//statements folded down to empty blocks are dropped from the list
+	public void handleNodeListInstrCons(NodeListInstrCons node) throws VisitorException {
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+		boolean _changed = false;
+		for (NodeInstr instr : node) {
+			NodeInstr _instr = rewrite(instr);
+			_changed |= _instr != instr;
+			if (!isEmpty(_instr) || isEmpty(instr)) //drop instructions that folded away
+				_instrs.add(_instr);
+		}
+		_result = _changed ? NodeListInstr.of(_instrs) : node;
+	}
+
+	public void handleNodeListInstrNil(NodeListInstrNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrBlock(NodeInstrBlock node) throws VisitorException {
+		NodeListInstr _list = (NodeListInstr) rewrite(node.instructions());
+		_result = (_list == node.instructions()) ? node : new NodeInstrBlock(_list);
+	}
+
+	public void handleNodeInstrAssignSingle(NodeInstrAssignSingle node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node
+				: new NodeInstrAssignSingle(node.identifier(), _expr);
+	}
+
+	public void handleNodeInstrAssignArray(NodeInstrAssignArray node) throws VisitorException {
+		NodeExpr _index = rewrite(node.index());
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_index == node.index() && _expr == node.expression()) ? node
+				: new NodeInstrAssignArray(node.identifier(), _index, _expr);
+	}
+
+	public void handleNodeInstrOutput(NodeInstrOutput node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeInstrOutput(_expr);
+	}
+
+	public void handleNodeInstrInputSingle(NodeInstrInputSingle node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrInputArray(NodeInstrInputArray node) throws VisitorException {
+		NodeExpr _index = rewrite(node.index());
+		_result = (_index == node.index()) ? node
+				: new NodeInstrInputArray(node.identifier(), _index);
+	}
+
+	public void handleNodeInstrReturnExpr(NodeInstrReturnExpr node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeInstrReturnExpr(_expr);
+	}
+
+	public void handleNodeInstrProcCall(NodeInstrProcCall node) throws VisitorException {
+		NodeListProcCallArg _args = (NodeListProcCallArg) rewrite(node.arguments());
+		_result = (_args == node.arguments()) ? node
+				: new NodeInstrProcCall(node.identifier(), _args);
+	}
+
+	//a constant condition leaves only the branch that runs
+	public void handleNodeInstrIfthen(NodeInstrIfthen node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _then = rewrite(node.thenInstruction());
+		if (_relation instanceof NodeExprTrue) {
+			folded(_then);
+		} else if (_relation instanceof NodeExprFalse) {
+			folded(emptyInstruction());
+		} else if (_relation == node.relation() && _then == node.thenInstruction()) {
+			_result = node;
+		} else {
+			_result = new NodeInstrIfthen(_relation, _then);
+		}
+	}
+
+	public void handleNodeInstrIfthenelse(NodeInstrIfthenelse node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _then = rewrite(node.thenInstruction());
+		NodeInstr _else = rewrite(node.elseInstruction());
+		if (_relation instanceof NodeExprTrue) {
+			folded(_then);
+		} else if (_relation instanceof NodeExprFalse) {
+			folded(_else);
+		} else if (_relation == node.relation() && _then == node.thenInstruction()
+				&& _else == node.elseInstruction()) {
+			_result = node;
+		} else {
+			_result = new NodeInstrIfthenelse(_relation, _then, _else);
+		}
+	}
+
+	//a loop that never runs goes away; while (true) is kept
+	public void handleNodeInstrWhile(NodeInstrWhile node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _instr = rewrite(node.instruction());
+		if (_relation instanceof NodeExprFalse) {
+			folded(emptyInstruction());
+		} else if (_relation == node.relation() && _instr == node.instruction()) {
+			_result = node;
+		} else {
+			_result = new NodeInstrWhile(_relation, _instr);
+		}
+	}
+
+	public void handleNodeListProcCallArgCons(NodeListProcCallArgCons node) throws VisitorException {
+		List<NodeProcCallArg> _args = new ArrayList<NodeProcCallArg>();
+		boolean _changed = false;
+		for (NodeProcCallArg arg : node) {
+			NodeProcCallArg _arg = (NodeProcCallArg) rewrite(arg);
+			_changed |= _arg != arg;
+			_args.add(_arg);
+		}
+		_result = _changed ? NodeListProcCallArg.of(_args) : node;
+	}
+
+	public void handleNodeListProcCallArgNil(NodeListProcCallArgNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeProcCallArg(NodeProcCallArg node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeProcCallArg(_expr);
+	}
+
+	public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+		NodeListProcCallArg _args = (NodeListProcCallArg) rewrite(node.arguments());
+		_result = (_args == node.arguments()) ? node
+				: new NodeExprProcCall(node.identifier(), _args);
+	}
+
+	public void handleNodeExprArrayVar(NodeExprArrayVar node) throws VisitorException {
+		NodeExpr _index = rewrite(node.index());
+		_result = (_index == node.index()) ? node
+				: new NodeExprArrayVar(node.identifier(), _index);
+	}
+
+	public void handleNodeExprVar(NodeExprVar node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprInt(NodeExprInt node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprTrue(NodeExprTrue node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprFalse(NodeExprFalse node) throws VisitorException {
+		_result = node;
+	}
+
+	//add traps on overflow, so only sums that fit are folded
+	public void handleNodeExprPlus(NodeExprPlus node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (isInt(_left) && isInt(_right)) {
+			long _sum = (long) value(_left) + value(_right);
+			if (_sum == (int) _sum) {
+				folded(new NodeExprInt((int) _sum));
+				return;
+			}
+		}
+		if (isInt(_right, 0)) {
+			folded(_left);
+		} else if (isInt(_left, 0)) {
+			folded(_right);
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeExprPlus(_left, _right);
+		}
+	}
+
+	//sub traps on overflow, so only differences that fit are folded
+	public void handleNodeExprMinus(NodeExprMinus node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (isInt(_left) && isInt(_right)) {
+			long _difference = (long) value(_left) - value(_right);
+			if (_difference == (int) _difference) {
+				folded(new NodeExprInt((int) _difference));
+				return;
+			}
+		}
+		if (isInt(_right, 0)) {
+			folded(_left);
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeExprMinus(_left, _right);
+		}
+	}
+
+	//mul keeps the low 32 bits without trapping, just like Java's *
+	public void handleNodeExprTimes(NodeExprTimes node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (isInt(_left) && isInt(_right)) {
+			folded(new NodeExprInt(value(_left) * value(_right)));
+		} else if (isInt(_right, 1)) {
+			folded(_left);
+		} else if (isInt(_left, 1)) {
+			folded(_right);
+		} else if ((isInt(_right, 0) && isPure(_left)) || (isInt(_left, 0) && isPure(_right))) {
+			folded(new NodeExprInt(0));
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeExprTimes(_left, _right);
+		}
+	}
+
+	//division by zero (and the overflowing MIN_VALUE / -1) is left for run time
+	public void handleNodeExprDivide(NodeExprDivide node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (isInt(_left) && isSafeDivisor(_right)) {
+			folded(new NodeExprInt(value(_left) / value(_right)));
+		} else if (isInt(_right, 1)) {
+			folded(_left);
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeExprDivide(_left, _right);
+		}
+	}
+
+	//Java's % takes the sign of the dividend, like rem
+	public void handleNodeExprMod(NodeExprMod node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (isInt(_left) && isSafeDivisor(_right)) {
+			folded(new NodeExprInt(value(_left) % value(_right)));
+		} else if (isInt(_right, 1) && isPure(_left)) {
+			folded(new NodeExprInt(0));
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeExprMod(_left, _right);
+		}
+	}
+
+	public void handleNodeRelationLessThan(NodeRelationLessThan node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (isInt(_left) && isInt(_right)) {
+			folded(bool(value(_left) < value(_right)));
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeRelationLessThan(_left, _right);
+		}
+	}
+
+	public void handleNodeRelationLessThanEqual(NodeRelationLessThanEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (isInt(_left) && isInt(_right)) {
+			folded(bool(value(_left) <= value(_right)));
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeRelationLessThanEqual(_left, _right);
+		}
+	}
+
+	public void handleNodeRelationGreaterThan(NodeRelationGreaterThan node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (isInt(_left) && isInt(_right)) {
+			folded(bool(value(_left) > value(_right)));
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeRelationGreaterThan(_left, _right);
+		}
+	}
+
+	public void handleNodeRelationGreaterThanEqual(NodeRelationGreaterThanEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (isInt(_left) && isInt(_right)) {
+			folded(bool(value(_left) >= value(_right)));
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeRelationGreaterThanEqual(_left, _right);
+		}
+	}
+
+	public void handleNodeRelationEqual(NodeRelationEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (isInt(_left) && isInt(_right)) {
+			folded(bool(value(_left) == value(_right)));
+		} else if (isBool(_left) && isBool(_right)) {
+			folded(bool(_left.getClass() == _right.getClass()));
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeRelationEqual(_left, _right);
+		}
+	}
+
+	//the right side of && only runs when the left is true
+	public void handleNodeRelationAnd(NodeRelationAnd node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (_left instanceof NodeExprFalse) {
+			folded(_left);
+		} else if (_left instanceof NodeExprTrue) {
+			folded(_right);
+		} else if (_right instanceof NodeExprTrue) {
+			folded(_left);
+		} else if (_right instanceof NodeExprFalse && isPure(_left)) {
+			folded(_right);
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeRelationAnd(_left, _right);
+		}
+	}
+
+	//the right side of || only runs when the left is false
+	public void handleNodeRelationOr(NodeRelationOr node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		if (_left instanceof NodeExprTrue) {
+			folded(_left);
+		} else if (_left instanceof NodeExprFalse) {
+			folded(_right);
+		} else if (_right instanceof NodeExprFalse) {
+			folded(_left);
+		} else if (_right instanceof NodeExprTrue && isPure(_left)) {
+			folded(_right);
+		} else if (_left == node.leftChild() && _right == node.rightChild()) {
+			_result = node;
+		} else {
+			_result = new NodeRelationOr(_left, _right);
+		}
+	}
+
+	public void handleNodeRelationNot(NodeRelationNot node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		if (isBool(_relation)) {
+			folded(bool(_relation instanceof NodeExprFalse));
+		} else if (_relation instanceof NodeRelationNot) {
+			folded(((NodeRelationNot) _relation).relation());
+		} else if (_relation == node.relation()) {
+			_result = node;
+		} else {
+			_result = new NodeRelationNot(_relation);
+		}
+	}
+}
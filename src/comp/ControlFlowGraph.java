@@ -0,0 +1,539 @@
+package comp;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * The control-flow graph of one procedure of generated code. The code is cut
+ * into {@link BasicBlock}s, straight-line runs that are only entered at the
+ * top and only left at the bottom, linked by the jumps and fall-throughs
+ * between them. On top of the blocks the graph computes dominators and the
+ * natural loops, nested into a tree.
+ * <p>
+ * Use {@link #build(List)} to get the graphs of every procedure in a
+ * program. A <code>jal</code> does not end a block, since the callee comes
+ * back to the next instruction, and a <code>jr</code> leaves the procedure.
+ * Blocks that cannot be reached from the entry, such as the default return
+ * after a procedure that always returns early, are kept but have no
+ * dominator and belong to no loop.
+ */
+public class ControlFlowGraph {
+
+	/**
+	 * A straight-line run of code. Control enters only at the first line and
+	 * leaves only after the last.
+	 */
+	public static class BasicBlock {
+		private final int _index;
+		private final List<Instruction> _code;
+		private final List<String> _labels;
+		private final List<BasicBlock> _successors;
+		private final List<BasicBlock> _predecessors;
+		private BasicBlock _idom;
+		private Loop _loop;
+
+		private BasicBlock(int index) {
+			_index = index;
+			_code = new ArrayList<Instruction>();
+			_labels = new ArrayList<String>();
+			_successors = new ArrayList<BasicBlock>();
+			_predecessors = new ArrayList<BasicBlock>();
+		}
+
+		/**
+		 * The position of the block in the procedure, starting at zero for
+		 * the entry.
+		 */
+		public int getIndex() {
+			return _index;
+		}
+
+		/**
+		 * Every line of the block, including labels, comments and blank
+		 * lines, in program order.
+		 */
+		public List<Instruction> getCode() {
+			return Collections.unmodifiableList(_code);
+		}
+
+		/**
+		 * The labels at the top of the block.
+		 */
+		public List<String> getLabels() {
+			return Collections.unmodifiableList(_labels);
+		}
+
+		/**
+		 * The last real instruction of the block, or null if it has none.
+		 */
+		public Instruction getLastInstruction() {
+			for (int i = _code.size() - 1; i >= 0; i--) {
+				if (_code.get(i).isInstruction())
+					return _code.get(i);
+			}
+			return null;
+		}
+
+		/**
+		 * How many real instructions the block holds.
+		 */
+		public int getInstructionCount() {
+			int count = 0;
+			for (Instruction line : _code) {
+				if (line.isInstruction())
+					count++;
+			}
+			return count;
+		}
+
+		public List<BasicBlock> getSuccessors() {
+			return Collections.unmodifiableList(_successors);
+		}
+
+		public List<BasicBlock> getPredecessors() {
+			return Collections.unmodifiableList(_predecessors);
+		}
+
+		/**
+		 * The closest block other than this one that every path from the
+		 * entry goes through, or null for the entry and unreachable blocks.
+		 */
+		public BasicBlock getImmediateDominator() {
+			return _idom;
+		}
+
+		/**
+		 * The innermost loop the block is in, or null.
+		 */
+		public Loop getLoop() {
+			return _loop;
+		}
+
+		/**
+		 * How many loops the block is nested in.
+		 */
+		public int getLoopDepth() {
+			return _loop == null ? 0 : _loop.getDepth();
+		}
+
+		public String toString() {
+			return "B" + _index;
+		}
+	}
+
+	/**
+	 * A natural loop: a header block and every block that can reach one of
+	 * the jumps back to it without going through the header.
+	 */
+	public static class Loop {
+		private final BasicBlock _header;
+		private final Set<BasicBlock> _blocks;
+		private final List<BasicBlock> _latches;
+		private Loop _parent;
+		private final List<Loop> _children;
+
+		private Loop(BasicBlock header) {
+			_header = header;
+			_blocks = new TreeSet<BasicBlock>(BLOCK_ORDER);
+			_latches = new ArrayList<BasicBlock>();
+			_children = new ArrayList<Loop>();
+			_blocks.add(header);
+		}
+
+		/**
+		 * The block every iteration starts at. It dominates the whole loop.
+		 */
+		public BasicBlock getHeader() {
+			return _header;
+		}
+
+		/**
+		 * The blocks of the loop, including those of nested loops, in
+		 * program order.
+		 */
+		public Set<BasicBlock> getBlocks() {
+			return Collections.unmodifiableSet(_blocks);
+		}
+
+		/**
+		 * The blocks that jump back to the header.
+		 */
+		public List<BasicBlock> getLatches() {
+			return Collections.unmodifiableList(_latches);
+		}
+
+		/**
+		 * The closest loop this one is nested in, or null.
+		 */
+		public Loop getParent() {
+			return _parent;
+		}
+
+		/**
+		 * The loops nested directly inside this one.
+		 */
+		public List<Loop> getChildren() {
+			return Collections.unmodifiableList(_children);
+		}
+
+		/**
+		 * How many loops this one is nested in, plus one.
+		 */
+		public int getDepth() {
+			return _parent == null ? 1 : _parent.getDepth() + 1;
+		}
+
+		public boolean contains(BasicBlock block) {
+			return _blocks.contains(block);
+		}
+
+		public String toString() {
+			return "loop at " + _header;
+		}
+	}
+
+	private static final Comparator<BasicBlock> BLOCK_ORDER = new Comparator<BasicBlock>() {
+		public int compare(BasicBlock a, BasicBlock b) {
+			return a._index - b._index;
+		}
+	};
+
+	private final String _name;
+	private final List<BasicBlock> _blocks;
+	private final List<Loop> _loops;
+	private final Map<BasicBlock, Integer> _order; //reverse postorder number of each reachable block
+
+	/**
+	 * Builds the graph of one procedure.
+	 *
+	 * @param name The name to show in dumps, usually the procedure label
+	 * @param code The code of the procedure, starting at its entry
+	 */
+	public ControlFlowGraph(String name, List<Instruction> code) {
+		_name = name;
+		_blocks = new ArrayList<BasicBlock>();
+		_loops = new ArrayList<Loop>();
+		_order = new HashMap<BasicBlock, Integer>();
+		splitBlocks(code);
+		linkBlocks();
+		computeDominators();
+		findLoops();
+	}
+
+	/**
+	 * Builds the graph of every procedure in a program. A procedure starts at
+	 * its <code>proc_</code> label, or at the <code>main</code> label right
+	 * before it, and runs up to the next procedure.
+	 *
+	 * @param program All the generated code, as from
+	 *            {@link MIPSCodeGenerator#getInstructions()}
+	 * @return One graph per procedure, in program order
+	 */
+	public static List<ControlFlowGraph> build(List<Instruction> program) {
+		List<ControlFlowGraph> graphs = new ArrayList<ControlFlowGraph>();
+		String name = null;
+		List<Instruction> code = null;
+		for (Instruction line : program) {
+			if (isProcedureStart(line) && (code == null || hasInstructions(code))) {
+				if (code != null)
+					graphs.add(new ControlFlowGraph(name, code));
+				name = line.getLabel();
+				code = new ArrayList<Instruction>();
+			} else if (isProcedureStart(line)) {
+				name = line.getLabel(); //main: is followed by its proc_ label
+			}
+			if (code != null)
+				code.add(line);
+		}
+		if (code != null)
+			graphs.add(new ControlFlowGraph(name, code));
+		return graphs;
+	}
+
+	private static boolean isProcedureStart(Instruction line) {
+		return line.getOpcode() == Instruction.Opcode.LABEL
+				&& (line.getLabel().startsWith("proc_") || line.getLabel().equals("main"));
+	}
+
+	private static boolean hasInstructions(List<Instruction> code) {
+		for (Instruction line : code) {
+			if (line.isInstruction())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The name of the procedure.
+	 */
+	public String getName() {
+		return _name;
+	}
+
+	/**
+	 * The block the procedure starts at.
+	 */
+	public BasicBlock getEntry() {
+		return _blocks.get(0);
+	}
+
+	/**
+	 * Every block, in program order.
+	 */
+	public List<BasicBlock> getBlocks() {
+		return Collections.unmodifiableList(_blocks);
+	}
+
+	/**
+	 * Every loop, outermost loops before the loops nested in them.
+	 */
+	public List<Loop> getLoops() {
+		return Collections.unmodifiableList(_loops);
+	}
+
+	/**
+	 * Whether the block can be reached from the entry.
+	 */
+	public boolean isReachable(BasicBlock block) {
+		return _order.containsKey(block);
+	}
+
+	/**
+	 * Whether every path from the entry to <code>b</code> goes through
+	 * <code>a</code>. A block dominates itself; unreachable blocks dominate
+	 * nothing and are dominated by nothing.
+	 */
+	public boolean dominates(BasicBlock a, BasicBlock b) {
+		if (!isReachable(a) || !isReachable(b))
+			return false;
+		for (BasicBlock block = b; block != null; block = block._idom) {
+			if (block == a)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Prints the blocks with their edges, dominators and loop depth, and
+	 * then the loops.
+	 */
+	public void dump(PrintStream out) {
+		out.println(_name + ": " + _blocks.size() + " blocks, " + _loops.size() + " loops");
+		for (BasicBlock block : _blocks) {
+			StringBuilder line = new StringBuilder("\t" + block);
+			if (!block._labels.isEmpty())
+				line.append(" ").append(block._labels);
+			line.append(": ").append(block.getInstructionCount()).append(" instructions");
+			line.append(", succ ").append(names(block._successors));
+			line.append(", pred ").append(names(block._predecessors));
+			if (!isReachable(block))
+				line.append(", unreachable");
+			else
+				line.append(", idom ").append(block._idom == null ? "-" : block._idom.toString());
+			line.append(", depth ").append(block.getLoopDepth());
+			out.println(line);
+		}
+		for (Loop loop : _loops) {
+			StringBuilder line = new StringBuilder("\t");
+			for (int i = 1; i < loop.getDepth(); i++)
+				line.append("  ");
+			line.append(loop).append(": ").append(names(new ArrayList<BasicBlock>(loop._blocks)));
+			line.append(", latches ").append(names(loop._latches));
+			out.println(line);
+		}
+	}
+
+	private static String names(List<BasicBlock> blocks) {
+		if (blocks.isEmpty())
+			return "-";
+		StringBuilder names = new StringBuilder();
+		for (BasicBlock block : blocks) {
+			if (names.length() > 0)
+				names.append(" ");
+			names.append(block);
+		}
+		return names.toString();
+	}
+
+	//Cuts the code into blocks. A label starts a block unless the block so far
+	//holds no instructions, and a jump or branch ends one.
+	private void splitBlocks(List<Instruction> code) {
+		BasicBlock current = newBlock();
+		boolean hasInstruction = false;
+		for (Instruction line : code) {
+			if (line.getOpcode() == Instruction.Opcode.LABEL) {
+				if (hasInstruction) {
+					current = newBlock();
+					hasInstruction = false;
+				}
+				current._labels.add(line.getLabel());
+			}
+			current._code.add(line);
+			if (line.isInstruction()) {
+				hasInstruction = true;
+				if (line.getTarget() != null || !line.fallsThrough()) {
+					current = newBlock();
+					hasInstruction = false;
+				}
+			}
+		}
+		//the lines after a final jump are not a block of their own
+		BasicBlock last = _blocks.get(_blocks.size() - 1);
+		if (_blocks.size() > 1 && !hasInstruction && last._labels.isEmpty()) {
+			_blocks.remove(_blocks.size() - 1);
+			_blocks.get(_blocks.size() - 1)._code.addAll(last._code);
+		}
+	}
+
+	private BasicBlock newBlock() {
+		BasicBlock block = new BasicBlock(_blocks.size());
+		_blocks.add(block);
+		return block;
+	}
+
+	private void linkBlocks() {
+		Map<String, BasicBlock> labels = new HashMap<String, BasicBlock>();
+		for (BasicBlock block : _blocks) {
+			for (String label : block._labels)
+				labels.put(label, block);
+		}
+		for (BasicBlock block : _blocks) {
+			Instruction last = block.getLastInstruction();
+			if (last != null && last.getTarget() != null) {
+				BasicBlock target = labels.get(last.getTarget());
+				if (target != null)
+					link(block, target);
+			}
+			if ((last == null || last.fallsThrough()) && block._index + 1 < _blocks.size())
+				link(block, _blocks.get(block._index + 1));
+		}
+	}
+
+	private static void link(BasicBlock from, BasicBlock to) {
+		if (!from._successors.contains(to)) {
+			from._successors.add(to);
+			to._predecessors.add(from);
+		}
+	}
+
+	//Numbers the reachable blocks in reverse postorder, then runs the
+	//iterative dominator algorithm of Cooper, Harvey and Kennedy.
+	private void computeDominators() {
+		List<BasicBlock> postorder = new ArrayList<BasicBlock>();
+		Set<BasicBlock> visited = new HashSet<BasicBlock>();
+		Deque<BasicBlock> stack = new ArrayDeque<BasicBlock>();
+		Deque<Integer> next = new ArrayDeque<Integer>();
+		stack.push(getEntry());
+		next.push(0);
+		visited.add(getEntry());
+		while (!stack.isEmpty()) {
+			BasicBlock block = stack.peek();
+			int i = next.pop();
+			if (i < block._successors.size()) {
+				next.push(i + 1);
+				BasicBlock succ = block._successors.get(i);
+				if (visited.add(succ)) {
+					stack.push(succ);
+					next.push(0);
+				}
+			} else {
+				stack.pop();
+				postorder.add(block);
+			}
+		}
+		List<BasicBlock> rpo = new ArrayList<BasicBlock>(postorder);
+		Collections.reverse(rpo);
+		for (int i = 0; i < rpo.size(); i++)
+			_order.put(rpo.get(i), i);
+
+		BasicBlock entry = getEntry();
+		entry._idom = entry;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock block : rpo) {
+				if (block == entry)
+					continue;
+				BasicBlock idom = null;
+				for (BasicBlock pred : block._predecessors) {
+					if (pred._idom == null)
+						continue;
+					idom = (idom == null) ? pred : intersect(pred, idom);
+				}
+				if (idom != block._idom) {
+					block._idom = idom;
+					changed = true;
+				}
+			}
+		}
+		entry._idom = null;
+	}
+
+	private BasicBlock intersect(BasicBlock a, BasicBlock b) {
+		while (a != b) {
+			while (_order.get(a) > _order.get(b))
+				a = a._idom;
+			while (_order.get(b) > _order.get(a))
+				b = b._idom;
+		}
+		return a;
+	}
+
+	//An edge to a block that dominates its source is a back edge. The loop of
+	//a header is everything that reaches one of its back edges without
+	//passing the header; loops are nested by containment.
+	private void findLoops() {
+		Map<BasicBlock, Loop> byHeader = new LinkedHashMap<BasicBlock, Loop>();
+		for (BasicBlock block : _blocks) {
+			for (BasicBlock succ : block._successors) {
+				if (!dominates(succ, block))
+					continue;
+				Loop loop = byHeader.get(succ);
+				if (loop == null) {
+					loop = new Loop(succ);
+					byHeader.put(succ, loop);
+				}
+				loop._latches.add(block);
+				Deque<BasicBlock> work = new ArrayDeque<BasicBlock>();
+				if (loop._blocks.add(block))
+					work.push(block);
+				while (!work.isEmpty()) {
+					for (BasicBlock pred : work.pop()._predecessors) {
+						if (isReachable(pred) && loop._blocks.add(pred))
+							work.push(pred);
+					}
+				}
+			}
+		}
+
+		List<Loop> bySize = new ArrayList<Loop>(byHeader.values());
+		Collections.sort(bySize, new Comparator<Loop>() {
+			public int compare(Loop a, Loop b) {
+				return b._blocks.size() - a._blocks.size();
+			}
+		});
+		for (int i = 0; i < bySize.size(); i++) {
+			Loop loop = bySize.get(i);
+			for (int j = i - 1; j >= 0; j--) {
+				if (bySize.get(j)._blocks.contains(loop._header)) {
+					loop._parent = bySize.get(j);
+					loop._parent._children.add(loop);
+					break;
+				}
+			}
+			for (BasicBlock block : loop._blocks)
+				block._loop = loop; //inner loops come later and win
+		}
+		//list outer loops before the loops nested in them
+		for (Loop loop : bySize) {
+			if (loop._parent == null)
+				addTree(loop);
+		}
+	}
+
+	private void addTree(Loop loop) {
+		_loops.add(loop);
+		for (Loop child : loop._children)
+			addTree(child);
+	}
+}
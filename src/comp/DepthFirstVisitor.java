@@ -0,0 +1,231 @@
+package comp;
+
+import comp.nodes.*;
+
+/**
+ * A {@link Visitor} that visits every node of a syntax tree and does nothing
+ * else. Children are visited in the order their code runs: the operands of an
+ * expression left to right, a condition before the instructions it guards,
+ * and the value of an assignment before the variable it is stored in.
+ * <p>
+ * Lists are walked with a loop over their elements, so long lists do not
+ * deepen the stack. The *Cons nodes after the first and the *Nil that ends a
+ * non-empty list are not visited themselves.
+ * <p>
+ * Analyses that only care about a few kinds of node extend this class and
+ * override the handlers for those, calling the inherited handler when they
+ * want the children visited as well.
+ */
+public abstract class DepthFirstVisitor implements Visitor {
+
+	/**
+	 * Visits the node, which must not be missing.
+	 */
+	protected void checkAndVisit(Node node) throws VisitorException {
+		if (node != null)
+			node.visit(this);
+		else
+			throw new VisitorException("This is not supposed to happen, but a node is missing something");
+	}
+
+	public void handleNodeProgram(NodeProgram node) throws VisitorException {
+		checkAndVisit(node.listVarDecl());
+		checkAndVisit(node.listProc());
+	}
+
+	public void handleNodeProc(NodeProc node) throws VisitorException {
+		checkAndVisit(node.argumentList());
+		checkAndVisit(node.instruction());
+	}
+
+	public void handleNodeProcDeclArg(NodeProcDeclArg node) throws VisitorException {
+	}
+
+	public void handleNodeProcCallArg(NodeProcCallArg node) throws VisitorException {
+		checkAndVisit(node.expression());
+	}
+
+	public void handleNodeVarDeclArray(NodeVarDeclArray node) throws VisitorException {
+	}
+
+	public void handleNodeVarDeclSingle(NodeVarDeclSingle node) throws VisitorException {
+	}
+
+	public void handleNodeInstrDeclArray(NodeInstrDeclArray node) throws VisitorException {
+	}
+
+	public void handleNodeInstrDeclSingle(NodeInstrDeclSingle node) throws VisitorException {
+	}
+
+	public void handleNodeInstrAssignArray(NodeInstrAssignArray node) throws VisitorException {
+		checkAndVisit(node.index());
+		checkAndVisit(node.expression());
+	}
+
+	public void handleNodeInstrAssignSingle(NodeInstrAssignSingle node) throws VisitorException {
+		checkAndVisit(node.expression());
+	}
+
+	public void handleNodeInstrBlock(NodeInstrBlock node) throws VisitorException {
+		checkAndVisit(node.instructions());
+	}
+
+	public void handleNodeInstrProcCall(NodeInstrProcCall node) throws VisitorException {
+		checkAndVisit(node.arguments());
+	}
+
+	public void handleNodeInstrIfthen(NodeInstrIfthen node) throws VisitorException {
+		checkAndVisit(node.relation());
+		checkAndVisit(node.thenInstruction());
+	}
+
+	public void handleNodeInstrIfthenelse(NodeInstrIfthenelse node) throws VisitorException {
+		checkAndVisit(node.relation());
+		checkAndVisit(node.thenInstruction());
+		checkAndVisit(node.elseInstruction());
+	}
+
+	public void handleNodeInstrOutput(NodeInstrOutput node) throws VisitorException {
+		checkAndVisit(node.expression());
+	}
+
+	public void handleNodeInstrInputArray(NodeInstrInputArray node) throws VisitorException {
+		checkAndVisit(node.index());
+	}
+
+	public void handleNodeInstrInputSingle(NodeInstrInputSingle node) throws VisitorException {
+	}
+
+	public void handleNodeInstrReturnExpr(NodeInstrReturnExpr node) throws VisitorException {
+		checkAndVisit(node.expression());
+	}
+
+	public void handleNodeInstrWhile(NodeInstrWhile node) throws VisitorException {
+		checkAndVisit(node.relation());
+		checkAndVisit(node.instruction());
+	}
+
+	public void handleNodeExprArrayVar(NodeExprArrayVar node) throws VisitorException {
+		checkAndVisit(node.index());
+	}
+
+	public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+		checkAndVisit(node.arguments());
+	}
+
+	public void handleNodeExprInt(NodeExprInt node) throws VisitorException {
+	}
+
+	public void handleNodeExprFalse(NodeExprFalse node) throws VisitorException {
+	}
+
+	public void handleNodeExprTrue(NodeExprTrue node) throws VisitorException {
+	}
+
+	public void handleNodeExprVar(NodeExprVar node) throws VisitorException {
+	}
+
+	public void handleNodeExprMinus(NodeExprMinus node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeExprPlus(NodeExprPlus node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeExprTimes(NodeExprTimes node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeExprDivide(NodeExprDivide node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeExprMod(NodeExprMod node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeRelationLessThan(NodeRelationLessThan node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeRelationLessThanEqual(NodeRelationLessThanEqual node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeRelationEqual(NodeRelationEqual node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeRelationGreaterThanEqual(NodeRelationGreaterThanEqual node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeRelationGreaterThan(NodeRelationGreaterThan node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeRelationAnd(NodeRelationAnd node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeRelationOr(NodeRelationOr node) throws VisitorException {
+		checkAndVisit(node.leftChild());
+		checkAndVisit(node.rightChild());
+	}
+
+	public void handleNodeRelationNot(NodeRelationNot node) throws VisitorException {
+		checkAndVisit(node.relation());
+	}
+
+	public void handleNodeListInstrCons(NodeListInstrCons node) throws VisitorException {
+		for (NodeInstr instr : node)
+			checkAndVisit(instr);
+	}
+
+	public void handleNodeListInstrNil(NodeListInstrNil node) throws VisitorException {
+	}
+
+	public void handleNodeListProcCallArgCons(NodeListProcCallArgCons node) throws VisitorException {
+		for (NodeProcCallArg arg : node)
+			checkAndVisit(arg);
+	}
+
+	public void handleNodeListProcCallArgNil(NodeListProcCallArgNil node) throws VisitorException {
+	}
+
+	public void handleNodeListProcDeclArgCons(NodeListProcDeclArgCons node) throws VisitorException {
+		for (NodeProcDeclArg arg : node)
+			checkAndVisit(arg);
+	}
+
+	public void handleNodeListProcDeclArgNil(NodeListProcDeclArgNil node) throws VisitorException {
+	}
+
+	public void handleNodeListVarDeclCons(NodeListVarDeclCons node) throws VisitorException {
+		for (NodeVarDecl decl : node)
+			checkAndVisit(decl);
+	}
+
+	public void handleNodeListVarDeclNil(NodeListVarDeclNil node) throws VisitorException {
+	}
+
+	public void handleNodeListProcCons(NodeListProcCons node) throws VisitorException {
+		for (NodeProc proc : node)
+			checkAndVisit(proc);
+	}
+
+	public void handleNodeListProcNil(NodeListProcNil node) throws VisitorException {
+	}
+}
@@ -644,23 +644,28 @@ public class GraphvizVisitor implements Visitor {
 	 */
 	public void handleNodeListInstrCons(NodeListInstrCons node)
 	throws VisitorException {
-		try {
-			out.write(getIdentifier(node) + "[label=\"NodeListInstrCons"
-					+ "\"];");
-			out.newLine();
-			
-			out.write(getIdentifier(node) + " -> " + getIdentifier(node.head()) + ";");
-			out.newLine();
-			
-			out.write(getIdentifier(node) + " -> " + getIdentifier(node.tail()) + ";");
-			out.newLine();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.out.println(e);
+		NodeListInstr list = node;
+		while (list instanceof NodeListInstrCons) {
+			NodeListInstrCons cons = (NodeListInstrCons) list;
+			try {
+				out.write(getIdentifier(cons) + "[label=\"NodeListInstrCons"
+						+ "\"];");
+				out.newLine();
+				
+				out.write(getIdentifier(cons) + " -> " + getIdentifier(cons.head()) + ";");
+				out.newLine();
+				
+				out.write(getIdentifier(cons) + " -> " + getIdentifier(cons.tail()) + ";");
+				out.newLine();
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println(e);
+			}
+			
+			checkAndVisit(cons.head());
+			list = cons.tail();
 		}
-		
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		checkAndVisit(list);
 	}
 
 	/**
@@ -682,23 +687,28 @@ public class GraphvizVisitor implements Visitor {
 	 * Handles visiting a NodeListProcCons
 	 */
 	public void handleNodeListProcCons(NodeListProcCons node) throws VisitorException {
-		try {
-			out.write(getIdentifier(node) + "[label=\"NodeListProcCons"
-					+ "\"];");
-			out.newLine();
-			
-			out.write(getIdentifier(node) + " -> " + getIdentifier(node.head()) + ";");
-			out.newLine();
-			
-			out.write(getIdentifier(node) + " -> " + getIdentifier(node.tail()) + ";");
-			out.newLine();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.out.println(e);
+		NodeListProc list = node;
+		while (list instanceof NodeListProcCons) {
+			NodeListProcCons cons = (NodeListProcCons) list;
+			try {
+				out.write(getIdentifier(cons) + "[label=\"NodeListProcCons"
+						+ "\"];");
+				out.newLine();
+				
+				out.write(getIdentifier(cons) + " -> " + getIdentifier(cons.head()) + ";");
+				out.newLine();
+				
+				out.write(getIdentifier(cons) + " -> " + getIdentifier(cons.tail()) + ";");
+				out.newLine();
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println(e);
+			}
+			
+			checkAndVisit(cons.head());
+			list = cons.tail();
 		}
-		
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		checkAndVisit(list);
 	}
 	
 	/**
@@ -719,23 +729,28 @@ public class GraphvizVisitor implements Visitor {
 	 * Handles visiting a NodeListVarDeclCons
 	 */
 	public void handleNodeListVarDeclCons(NodeListVarDeclCons node) throws VisitorException {
-		try {
-			out.write(getIdentifier(node) + "[label=\"NodeListVarDeclCons"
-					+ "\"];");
-			out.newLine();
-			
-			out.write(getIdentifier(node) + " -> " + getIdentifier(node.head()) + ";");
-			out.newLine();
-			
-			out.write(getIdentifier(node) + " -> " + getIdentifier(node.tail()) + ";");
-			out.newLine();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.out.println(e);
+		NodeListVarDecl list = node;
+		while (list instanceof NodeListVarDeclCons) {
+			NodeListVarDeclCons cons = (NodeListVarDeclCons) list;
+			try {
+				out.write(getIdentifier(cons) + "[label=\"NodeListVarDeclCons"
+						+ "\"];");
+				out.newLine();
+				
+				out.write(getIdentifier(cons) + " -> " + getIdentifier(cons.head()) + ";");
+				out.newLine();
+				
+				out.write(getIdentifier(cons) + " -> " + getIdentifier(cons.tail()) + ";");
+				out.newLine();
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println(e);
+			}
+			
+			checkAndVisit(cons.head());
+			list = cons.tail();
 		}
-		
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		checkAndVisit(list);
 	}
 	
 	/**
@@ -756,23 +771,28 @@ public class GraphvizVisitor implements Visitor {
 	 * Handles visiting a NodeListProcDeclArgCons
 	 */
 	public void handleNodeListProcDeclArgCons(NodeListProcDeclArgCons node) throws VisitorException {
-		try {
-			out.write(getIdentifier(node) + "[label=\"NodeListProcDeclArgCons"
-					+ "\"];");
-			out.newLine();
-			
-			out.write(getIdentifier(node) + " -> " + getIdentifier(node.head()) + ";");
-			out.newLine();
-			
-			out.write(getIdentifier(node) + " -> " + getIdentifier(node.tail()) + ";");
-			out.newLine();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.out.println(e);
+		NodeListProcDeclArg list = node;
+		while (list instanceof NodeListProcDeclArgCons) {
+			NodeListProcDeclArgCons cons = (NodeListProcDeclArgCons) list;
+			try {
+				out.write(getIdentifier(cons) + "[label=\"NodeListProcDeclArgCons"
+						+ "\"];");
+				out.newLine();
+				
+				out.write(getIdentifier(cons) + " -> " + getIdentifier(cons.head()) + ";");
+				out.newLine();
+				
+				out.write(getIdentifier(cons) + " -> " + getIdentifier(cons.tail()) + ";");
+				out.newLine();
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println(e);
+			}
+			
+			checkAndVisit(cons.head());
+			list = cons.tail();
 		}
-		
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		checkAndVisit(list);
 	}
 	
 	/**
@@ -793,23 +813,28 @@ public class GraphvizVisitor implements Visitor {
 	 * Handles visiting a NodeListProcCallArgCons
 	 */
 	public void handleNodeListProcCallArgCons(NodeListProcCallArgCons node) throws VisitorException {
-		try {
-			out.write(getIdentifier(node) + "[label=\"NodeListProcCallArgCons"
-					+ "\"];");
-			out.newLine();
-			
-			out.write(getIdentifier(node) + " -> " + getIdentifier(node.head()) + ";");
-			out.newLine();
-			
-			out.write(getIdentifier(node) + " -> " + getIdentifier(node.tail()) + ";");
-			out.newLine();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.out.println(e);
+		NodeListProcCallArg list = node;
+		while (list instanceof NodeListProcCallArgCons) {
+			NodeListProcCallArgCons cons = (NodeListProcCallArgCons) list;
+			try {
+				out.write(getIdentifier(cons) + "[label=\"NodeListProcCallArgCons"
+						+ "\"];");
+				out.newLine();
+				
+				out.write(getIdentifier(cons) + " -> " + getIdentifier(cons.head()) + ";");
+				out.newLine();
+				
+				out.write(getIdentifier(cons) + " -> " + getIdentifier(cons.tail()) + ";");
+				out.newLine();
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println(e);
+			}
+			
+			checkAndVisit(cons.head());
+			list = cons.tail();
 		}
-		
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		checkAndVisit(list);
 	}
 	
 	/**
@@ -0,0 +1,954 @@
+package comp;
+
+import comp.nodes.*;
+
+import java.util.*;
+
+/**
+ * Rewrites a semantically checked syntax tree so that calls to small
+ * procedures are replaced by a copy of their body, saving the argument
+ * pushes, register saves and frame setup of the call. Run it after
+ * {@link SemanticVisitor}, then check the tree {@link #inline(NodeProgram)}
+ * returns again so that the frames of the callers make room for the copies.
+ * <p>
+ * A call is inlined when:
+ * <ul>
+ * <li>the procedure cannot end up calling itself, according to the
+ * {@link CallGraph} of the program</li>
+ * <li>the body of the procedure, once calls in it have been inlined, has at
+ * most <code>budget</code> nodes, and the caller has not grown by more than
+ * {@link #MAX_GROWTH} nodes already</li>
+ * <li>the call is a statement of its own, or it is the first call its
+ * statement evaluates and nothing evaluated before it can trap or read a
+ * global the procedure may assign. Calls in the condition of a while loop or
+ * on the right of &amp;&amp; and || are left alone, since they may run more
+ * than once or not at all.</li>
+ * </ul>
+ * Every other call stays a normal call.
+ * <p>
+ * A copy declares the arguments and locals of the procedure as
+ * <code>proc.N.name</code>, which no Blaise identifier can clash with.
+ * Arguments that are constants, or locals of the caller that the procedure
+ * does not assign to, are used directly instead. A return assigns its value
+ * to <code>proc.N.return</code>, which replaces the call in its statement. A
+ * return that is not the last thing the body does turns the statements after
+ * it into an else branch when it can; otherwise, as inside a loop, it also
+ * sets <code>proc.N.return.flag</code>, which skips the rest of the body and
+ * ends the loop.
+ * <p>
+ * Procedures are rewritten in the order they are declared, so the callees of
+ * a procedure have already had their own calls inlined when it is. Procedures
+ * other than main that are no longer called once their calls have been
+ * inlined are dropped.
+ */
+public class InliningVisitor implements Visitor {
+
+	/** The largest body, in nodes, inlined by default. */
+	public static final int DEFAULT_BUDGET = 64;
+
+	/** How many nodes the copies may add to a single procedure. */
+	public static final int MAX_GROWTH = 1024;
+
+	//whether running a statement returns from the procedure it is in
+	private enum Exit { NEVER, SOMETIMES, ALWAYS }
+
+	private final int _budget;
+	private final Set<String> _globals; //names of the global variables
+	private final Map<String, Procedure> _procedures; //from semantic analysis, for the arguments
+	private CallGraph _callGraph; //of the program before inlining
+	private Map<String, Set<String>> _writes; //globals each procedure may assign, through its callees too
+	private Map<String, NodeProc> _done; //procedures already rewritten
+	private Map<String, Integer> _sizes; //node counts of their bodies
+	private Node _result; //the rewritten version of the node just visited
+	private int _inlined; //calls inlined so far, which also numbers the copies
+	private int _growth; //nodes added to the procedure being rewritten
+
+	//set while copying the body of a procedure
+	private boolean _copying;
+	private Map<String, String> _renames; //new names of its arguments and locals
+	private Map<String, NodeExpr> _constants; //arguments that are constants
+	private String _resultName;
+	private String _flagName;
+	private boolean _wantResult; //whether the call is an expression
+	private boolean _resultUsed;
+	private boolean _flagUsed; //whether returns set the flag
+	private boolean _needsFlag; //whether the copy turned out to need it
+
+	//the call to replace, and what to replace it by
+	private NodeExprProcCall _target;
+	private NodeExpr _replacement;
+
+	/**
+	 * Set up the inlining of a program.
+	 *
+	 * @param semantic The semantic analysis of the program
+	 * @param budget The largest body, in nodes, that calls are inlined to
+	 */
+	public InliningVisitor(SemanticVisitor semantic, int budget) {
+		_budget = budget;
+		_globals = semantic.getBlockSizes().keySet();
+		_procedures = semantic.getProcedures();
+		_done = new HashMap<String, NodeProc>();
+		_sizes = new HashMap<String, Integer>();
+		_renames = Collections.emptyMap();
+		_constants = Collections.emptyMap();
+		_result = null;
+		_inlined = 0;
+	}
+
+	/**
+	 * Inlines the calls to small procedures in a program.
+	 *
+	 * @param program A program that has passed semantic checking
+	 * @return The rewritten program
+	 */
+	public NodeProgram inline(NodeProgram program) throws VisitorException {
+		return (NodeProgram) rewrite(program);
+	}
+
+	/**
+	 * Returns how many calls have been inlined.
+	 */
+	public int getInlineCount() {
+		return _inlined;
+	}
+
+	private Node rewrite(Node node) throws VisitorException {
+		if (node == null)
+			throw new VisitorException("This is not supposed to happen, but a node is missing something");
+		node.visit(this);
+		return _result;
+	}
+
+	private NodeExpr rewrite(NodeExpr node) throws VisitorException {
+		return (NodeExpr) rewrite((Node) node);
+	}
+
+	private NodeInstr rewrite(NodeInstr node) throws VisitorException {
+		return (NodeInstr) rewrite((Node) node);
+	}
+
+	private String rename(String id) {
+		String _name = _renames.get(id);
+		return _name != null ? _name : id;
+	}
+
+	//rewrites a statement that is not in a list, putting what it expands to
+	//in a block if that is more than one statement
+	private NodeInstr statement(NodeInstr instr) throws VisitorException {
+		return block(expand(rewrite(instr)));
+	}
+
+	private static NodeInstr block(List<NodeInstr> instrs) {
+		return instrs.size() == 1 ? instrs.get(0) : new NodeInstrBlock(NodeListInstr.of(instrs));
+	}
+
+	//the statements of a block, or the statement itself
+	private static List<NodeInstr> statements(NodeInstr instr) {
+		if (instr instanceof NodeInstrBlock)
+			return statements(((NodeInstrBlock) instr).instructions());
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+		_instrs.add(instr);
+		return _instrs;
+	}
+
+	private static List<NodeInstr> statements(NodeListInstr list) {
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+		for (NodeInstr instr : list)
+			_instrs.add(instr);
+		return _instrs;
+	}
+
+	private static Exit exit(NodeInstr instr) {
+		if (instr instanceof NodeInstrReturnExpr) {
+			return Exit.ALWAYS;
+		} else if (instr instanceof NodeInstrBlock) {
+			boolean _sometimes = false;
+			for (NodeInstr i : ((NodeInstrBlock) instr).instructions()) {
+				Exit _exit = exit(i);
+				if (_exit == Exit.ALWAYS)
+					return Exit.ALWAYS;
+				_sometimes |= _exit == Exit.SOMETIMES;
+			}
+			return _sometimes ? Exit.SOMETIMES : Exit.NEVER;
+		} else if (instr instanceof NodeInstrIfthen) {
+			return exit(((NodeInstrIfthen) instr).thenInstruction()) == Exit.NEVER ? Exit.NEVER : Exit.SOMETIMES;
+		} else if (instr instanceof NodeInstrIfthenelse) {
+			Exit _then = exit(((NodeInstrIfthenelse) instr).thenInstruction());
+			Exit _else = exit(((NodeInstrIfthenelse) instr).elseInstruction());
+			return _then == _else ? _then : Exit.SOMETIMES;
+		} else if (instr instanceof NodeInstrWhile) {
+			return exit(((NodeInstrWhile) instr).instruction()) == Exit.NEVER ? Exit.NEVER : Exit.SOMETIMES;
+		}
+		return Exit.NEVER;
+	}
+
+	//Whether calls to the procedure may be replaced by its body in the
+	//procedure being rewritten. Only procedures rewritten already qualify,
+	//which leaves out the procedure itself.
+	private boolean canInline(String id) {
+		Integer _size = _sizes.get(id);
+		return _size != null && _size <= _budget && _growth + _size <= MAX_GROWTH
+				&& !_callGraph.isRecursive(id);
+	}
+
+	//The statements a rewritten statement becomes. Calls the statement
+	//evaluates first are moved in front of it one at a time and replaced by
+	//their return value, and then a call that is the statement is replaced
+	//by the body.
+	private List<NodeInstr> expand(NodeInstr instr) throws VisitorException {
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+		if (!_copying) {
+			NodeExprProcCall _call;
+			while ((_call = hoistableCall(instr)) != null) {
+				String _value = copy(_call.identifier(), _call.arguments(), true, _instrs);
+				instr = replace(instr, _call, new NodeExprVar(_value));
+			}
+			if (instr instanceof NodeInstrProcCall && canInline(((NodeInstrProcCall) instr).identifier())) {
+				copy(((NodeInstrProcCall) instr).identifier(), ((NodeInstrProcCall) instr).arguments(), false, _instrs);
+				return _instrs;
+			}
+		}
+		_instrs.add(instr);
+		return _instrs;
+	}
+
+	//the expressions a statement evaluates itself, in the order it does
+	private static List<NodeExpr> operands(NodeInstr instr) {
+		List<NodeExpr> _exprs = new ArrayList<NodeExpr>();
+		if (instr instanceof NodeInstrAssignSingle) {
+			_exprs.add(((NodeInstrAssignSingle) instr).expression());
+		} else if (instr instanceof NodeInstrAssignArray) {
+			_exprs.add(((NodeInstrAssignArray) instr).index());
+			_exprs.add(((NodeInstrAssignArray) instr).expression());
+		} else if (instr instanceof NodeInstrOutput) {
+			_exprs.add(((NodeInstrOutput) instr).expression());
+		} else if (instr instanceof NodeInstrReturnExpr) {
+			_exprs.add(((NodeInstrReturnExpr) instr).expression());
+		} else if (instr instanceof NodeInstrIfthen) {
+			_exprs.add(((NodeInstrIfthen) instr).relation());
+		} else if (instr instanceof NodeInstrIfthenelse) {
+			_exprs.add(((NodeInstrIfthenelse) instr).relation());
+		} else if (instr instanceof NodeInstrInputArray) {
+			_exprs.add(((NodeInstrInputArray) instr).index());
+		} else if (instr instanceof NodeInstrProcCall) {
+			for (NodeProcCallArg arg : ((NodeInstrProcCall) instr).arguments())
+				_exprs.add(arg.expression());
+		}
+		return _exprs;
+	}
+
+	//The first call the statement evaluates, if it can be inlined and run
+	//before the rest of the statement; null otherwise.
+	private NodeExprProcCall hoistableCall(NodeInstr instr) throws VisitorException {
+		CallFinder _finder = new CallFinder();
+		for (NodeExpr expr : operands(instr))
+			_finder.search(expr);
+		NodeExprProcCall _call = _finder.getCall();
+		if (_call == null || _finder.mayTrap() || !canInline(_call.identifier()))
+			return null;
+		for (String read : _finder.getReads()) {
+			if (_writes.get(_call.identifier()).contains(read))
+				return null;
+		}
+		return _call;
+	}
+
+	//the statement with a call in its own expressions replaced by a value
+	private NodeInstr replace(NodeInstr instr, NodeExprProcCall call, NodeExpr value) throws VisitorException {
+		_target = call;
+		_replacement = value;
+		try {
+			if (instr instanceof NodeInstrAssignSingle) {
+				NodeInstrAssignSingle _assign = (NodeInstrAssignSingle) instr;
+				return new NodeInstrAssignSingle(_assign.identifier(), rewrite(_assign.expression()));
+			} else if (instr instanceof NodeInstrAssignArray) {
+				NodeInstrAssignArray _assign = (NodeInstrAssignArray) instr;
+				return new NodeInstrAssignArray(_assign.identifier(), rewrite(_assign.index()),
+						rewrite(_assign.expression()));
+			} else if (instr instanceof NodeInstrOutput) {
+				return new NodeInstrOutput(rewrite(((NodeInstrOutput) instr).expression()));
+			} else if (instr instanceof NodeInstrReturnExpr) {
+				return new NodeInstrReturnExpr(rewrite(((NodeInstrReturnExpr) instr).expression()));
+			} else if (instr instanceof NodeInstrIfthen) {
+				NodeInstrIfthen _if = (NodeInstrIfthen) instr;
+				return new NodeInstrIfthen(rewrite(_if.relation()), _if.thenInstruction());
+			} else if (instr instanceof NodeInstrIfthenelse) {
+				NodeInstrIfthenelse _if = (NodeInstrIfthenelse) instr;
+				return new NodeInstrIfthenelse(rewrite(_if.relation()), _if.thenInstruction(),
+						_if.elseInstruction());
+			} else if (instr instanceof NodeInstrInputArray) {
+				NodeInstrInputArray _input = (NodeInstrInputArray) instr;
+				return new NodeInstrInputArray(_input.identifier(), rewrite(_input.index()));
+			} else if (instr instanceof NodeInstrProcCall) {
+				NodeInstrProcCall _call = (NodeInstrProcCall) instr;
+				return new NodeInstrProcCall(_call.identifier(), (NodeListProcCallArg) rewrite(_call.arguments()));
+			}
+			throw new InternalException("no call to replace in " + instr.getClass().getSimpleName());
+		} finally {
+			_target = null;
+			_replacement = null;
+		}
+	}
+
+	//Appends a copy of the body of the procedure, called with the given
+	//arguments, to instrs. Returns the variable that holds its return value.
+	private String copy(String id, NodeListProcCallArg args, boolean wantResult, List<NodeInstr> instrs)
+			throws VisitorException {
+		NodeProc _proc = _done.get(id);
+		String _prefix = id + "." + (++_inlined) + ".";
+		Summary _summary = new Summary(_proc.instruction());
+
+		_renames = new HashMap<String, String>();
+		_constants = new HashMap<String, NodeExpr>();
+		List<NodeInstr> _decls = new ArrayList<NodeInstr>();
+		List<NodeInstr> _assigns = new ArrayList<NodeInstr>();
+		Iterator<NodeProcCallArg> _args = args.iterator();
+		for (String param : _procedures.get(id).getArgList()) {
+			NodeExpr _arg = _args.next().expression();
+			boolean _assigned = _summary.assigns(param);
+			if (!_assigned && _arg instanceof NodeExprInt) {
+				_constants.put(param, _arg);
+			} else if (!_assigned && _arg instanceof NodeExprVar
+					&& !_globals.contains(((NodeExprVar) _arg).identifier())) {
+				_renames.put(param, ((NodeExprVar) _arg).identifier()); //the body cannot change a local of the caller
+			} else {
+				_renames.put(param, _prefix + param);
+				_decls.add(new NodeInstrDeclSingle(_prefix + param));
+				_assigns.add(new NodeInstrAssignSingle(_prefix + param, _arg));
+			}
+		}
+		for (String local : _summary.getDeclared())
+			_renames.put(local, _prefix + local);
+
+		_copying = true;
+		_wantResult = wantResult;
+		_resultName = _prefix + "return";
+		_flagName = _prefix + "return.flag";
+		_resultUsed = false;
+		_flagUsed = false;
+		_needsFlag = false;
+		List<NodeInstr> _body;
+		try {
+			_body = lower(statements(_proc.instruction()));
+			if (_needsFlag) { //start over, with returns setting the flag
+				_resultUsed = false;
+				_flagUsed = true;
+				_body = lower(statements(_proc.instruction()));
+			}
+		} finally {
+			_copying = false;
+			_renames = Collections.emptyMap();
+			_constants = Collections.emptyMap();
+		}
+
+		instrs.addAll(_decls);
+		if (wantResult || _resultUsed)
+			instrs.add(new NodeInstrDeclSingle(_resultName));
+		if (_flagUsed)
+			instrs.add(new NodeInstrDeclSingle(_flagName));
+		instrs.addAll(_assigns);
+		if (_flagUsed)
+			instrs.add(new NodeInstrAssignSingle(_flagName, new NodeExprInt(0)));
+		instrs.addAll(_body);
+		_growth += _sizes.get(id);
+		return _resultName;
+	}
+
+	//Copies the statements of a list in the body being inlined. The
+	//statements after one that may return are only run if it did not: they
+	//become the other branch of an if that returns on one side, or are put
+	//under a test of the flag.
+	private List<NodeInstr> lower(List<NodeInstr> instrs) throws VisitorException {
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+		for (int i = 0; i < instrs.size(); i++) {
+			NodeInstr _instr = instrs.get(i);
+			Exit _exit = exit(_instr);
+			if (_instr instanceof NodeInstrReturnExpr) {
+				_instrs.addAll(returnStatements((NodeInstrReturnExpr) _instr));
+				break;
+			} else if (_exit == Exit.NEVER) {
+				_instrs.add(rewrite(_instr));
+				continue;
+			}
+			List<NodeInstr> _rest = instrs.subList(i + 1, instrs.size());
+			if (_exit == Exit.ALWAYS || _rest.isEmpty()) {
+				_instrs.add(rewrite(_instr));
+			} else if (_instr instanceof NodeInstrIfthen
+					&& exit(((NodeInstrIfthen) _instr).thenInstruction()) == Exit.ALWAYS) {
+				NodeInstrIfthen _if = (NodeInstrIfthen) _instr;
+				_instrs.add(new NodeInstrIfthenelse(rewrite(_if.relation()), rewrite(_if.thenInstruction()),
+						block(lower(_rest))));
+			} else if (_instr instanceof NodeInstrIfthenelse
+					&& exit(((NodeInstrIfthenelse) _instr).thenInstruction()) == Exit.ALWAYS
+					&& exit(((NodeInstrIfthenelse) _instr).elseInstruction()) == Exit.NEVER) {
+				NodeInstrIfthenelse _if = (NodeInstrIfthenelse) _instr;
+				List<NodeInstr> _else = new ArrayList<NodeInstr>();
+				_else.add(rewrite(_if.elseInstruction()));
+				_else.addAll(lower(_rest));
+				_instrs.add(new NodeInstrIfthenelse(rewrite(_if.relation()), rewrite(_if.thenInstruction()),
+						block(_else)));
+			} else if (_instr instanceof NodeInstrIfthenelse
+					&& exit(((NodeInstrIfthenelse) _instr).thenInstruction()) == Exit.NEVER
+					&& exit(((NodeInstrIfthenelse) _instr).elseInstruction()) == Exit.ALWAYS) {
+				NodeInstrIfthenelse _if = (NodeInstrIfthenelse) _instr;
+				List<NodeInstr> _then = new ArrayList<NodeInstr>();
+				_then.add(rewrite(_if.thenInstruction()));
+				_then.addAll(lower(_rest));
+				_instrs.add(new NodeInstrIfthenelse(rewrite(_if.relation()), block(_then),
+						rewrite(_if.elseInstruction())));
+			} else {
+				_instrs.add(rewrite(_instr));
+				_instrs.add(new NodeInstrIfthen(notReturned(), block(lower(_rest))));
+			}
+			break; //the rest has been copied, or never runs
+		}
+		return _instrs;
+	}
+
+	//what a return in the body being inlined becomes
+	private List<NodeInstr> returnStatements(NodeInstrReturnExpr node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+		if (_wantResult || !ConstantFoldingVisitor.isPure(_expr)) {
+			_instrs.add(new NodeInstrAssignSingle(_resultName, _expr));
+			_resultUsed = true;
+		}
+		if (_flagUsed)
+			_instrs.add(new NodeInstrAssignSingle(_flagName, new NodeExprInt(1)));
+		return _instrs;
+	}
+
+	//the condition that the body being inlined has not returned yet
+	private NodeExpr notReturned() {
+		_needsFlag = true;
+		return new NodeRelationEqual(new NodeExprVar(_flagName), new NodeExprInt(0));
+	}
+
+	//drops the procedures other than main that were called before inlining
+	//and are not anymore
+	private void removeUncalled(List<NodeProc> procs) throws VisitorException {
+		boolean _removed = true;
+		while (_removed) {
+			_removed = false;
+			CallGraph _graph = new CallGraph(new NodeProgram(new NodeListVarDeclNil(), NodeListProc.of(procs)));
+			for (Iterator<NodeProc> it = procs.iterator(); it.hasNext();) {
+				String _id = it.next().identifier();
+				if (!_id.equals("main") && _graph.getCallers(_id).isEmpty()
+						&& !_callGraph.getCallers(_id).isEmpty()) {
+					it.remove();
+					_removed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The variables a body assigns to or declares, and the procedures it
+	 * calls.
+	 */
+	static class Summary extends DepthFirstVisitor {
+		private Set<String> _assigned = new HashSet<String>();
+		private Set<String> _declared = new LinkedHashSet<String>();
+		private Set<String> _calls = new HashSet<String>();
+
+		Summary(NodeInstr body) throws VisitorException {
+			checkAndVisit(body);
+		}
+
+		boolean assigns(String id) {
+			return _assigned.contains(id);
+		}
+
+		Set<String> getAssigned() {
+			return _assigned;
+		}
+
+		Set<String> getDeclared() {
+			return _declared;
+		}
+
+		Set<String> getCalls() {
+			return _calls;
+		}
+
+		public void handleNodeInstrDeclArray(NodeInstrDeclArray node) throws VisitorException {
+			_declared.add(node.identifier());
+		}
+
+		public void handleNodeInstrDeclSingle(NodeInstrDeclSingle node) throws VisitorException {
+			_declared.add(node.identifier());
+		}
+
+		public void handleNodeInstrAssignArray(NodeInstrAssignArray node) throws VisitorException {
+			_assigned.add(node.identifier());
+			super.handleNodeInstrAssignArray(node);
+		}
+
+		public void handleNodeInstrAssignSingle(NodeInstrAssignSingle node) throws VisitorException {
+			_assigned.add(node.identifier());
+			super.handleNodeInstrAssignSingle(node);
+		}
+
+		public void handleNodeInstrInputArray(NodeInstrInputArray node) throws VisitorException {
+			_assigned.add(node.identifier());
+			super.handleNodeInstrInputArray(node);
+		}
+
+		public void handleNodeInstrInputSingle(NodeInstrInputSingle node) throws VisitorException {
+			_assigned.add(node.identifier());
+			super.handleNodeInstrInputSingle(node);
+		}
+
+		public void handleNodeInstrProcCall(NodeInstrProcCall node) throws VisitorException {
+			_calls.add(node.identifier());
+			super.handleNodeInstrProcCall(node);
+		}
+
+		public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+			_calls.add(node.identifier());
+			super.handleNodeExprProcCall(node);
+		}
+	}
+
+	/**
+	 * Finds the first call some expressions evaluate, and notes what is
+	 * evaluated before it: the variables read, and whether anything could
+	 * trap. The arguments of the call do not count, since they run before it
+	 * either way. A call that might not run is not found.
+	 */
+	private static class CallFinder extends DepthFirstVisitor {
+		private NodeExprProcCall _call;
+		private boolean _blocked; //the first call is on the right of && or ||
+		private int _conditional; //how many such right sides we are in
+		private Set<String> _reads = new HashSet<String>();
+		private boolean _mayTrap;
+
+		void search(NodeExpr expr) throws VisitorException {
+			checkAndVisit(expr);
+		}
+
+		NodeExprProcCall getCall() {
+			return _blocked ? null : _call;
+		}
+
+		Set<String> getReads() {
+			return _reads;
+		}
+
+		boolean mayTrap() {
+			return _mayTrap;
+		}
+
+		//stop looking once the call is found
+		protected void checkAndVisit(Node node) throws VisitorException {
+			if (_call == null && !_blocked)
+				super.checkAndVisit(node);
+		}
+
+		public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+			Set<String> _before = new HashSet<String>(_reads);
+			boolean _trapBefore = _mayTrap;
+			super.handleNodeExprProcCall(node);
+			if (_call != null || _blocked) {
+				return; //one of the arguments had the first call
+			} else if (_conditional > 0) {
+				_blocked = true;
+			} else {
+				_call = node;
+				_reads = _before;
+				_mayTrap = _trapBefore;
+			}
+		}
+
+		public void handleNodeExprVar(NodeExprVar node) throws VisitorException {
+			_reads.add(node.identifier());
+		}
+
+		public void handleNodeExprArrayVar(NodeExprArrayVar node) throws VisitorException {
+			super.handleNodeExprArrayVar(node);
+			_reads.add(node.identifier());
+		}
+
+		public void handleNodeExprPlus(NodeExprPlus node) throws VisitorException {
+			super.handleNodeExprPlus(node);
+			_mayTrap |= _call == null;
+		}
+
+		public void handleNodeExprMinus(NodeExprMinus node) throws VisitorException {
+			super.handleNodeExprMinus(node);
+			_mayTrap |= _call == null;
+		}
+
+		public void handleNodeExprDivide(NodeExprDivide node) throws VisitorException {
+			super.handleNodeExprDivide(node);
+			_mayTrap |= _call == null && !ConstantFoldingVisitor.isSafeDivisor(node.rightChild());
+		}
+
+		public void handleNodeExprMod(NodeExprMod node) throws VisitorException {
+			super.handleNodeExprMod(node);
+			_mayTrap |= _call == null && !ConstantFoldingVisitor.isSafeDivisor(node.rightChild());
+		}
+
+		public void handleNodeRelationAnd(NodeRelationAnd node) throws VisitorException {
+			checkAndVisit(node.leftChild());
+			_conditional++;
+			checkAndVisit(node.rightChild());
+			_conditional--;
+		}
+
+		public void handleNodeRelationOr(NodeRelationOr node) throws VisitorException {
+			checkAndVisit(node.leftChild());
+			_conditional++;
+			checkAndVisit(node.rightChild());
+			_conditional--;
+		}
+	}
+
+	/**
+	 * Works out which of the globals each procedure of a program may assign,
+	 * itself or through the procedures it calls. Since a procedure can only
+	 * call those declared before it, one pass in order is enough.
+	 */
+	static Map<String, Set<String>> globalWrites(NodeProgram program, Set<String> globals)
+			throws VisitorException {
+		Map<String, Set<String>> _writes = new HashMap<String, Set<String>>();
+		for (NodeProc proc : program.listProc()) {
+			Summary _summary = new Summary(proc.instruction());
+			Set<String> _set = new HashSet<String>();
+			for (String id : _summary.getAssigned()) {
+				if (globals.contains(id))
+					_set.add(id);
+			}
+			for (String callee : _summary.getCalls()) {
+				if (_writes.containsKey(callee))
+					_set.addAll(_writes.get(callee));
+			}
+			_writes.put(proc.identifier(), _set);
+		}
+		return _writes;
+	}
+
+	//Procedures are rewritten in order; the globals each may assign are
+	//worked out first, from the original bodies.
+	public void handleNodeProgram(NodeProgram node) throws VisitorException {
+		_callGraph = new CallGraph(node);
+		_writes = globalWrites(node, _globals);
+		NodeListProc _procs = (NodeListProc) rewrite(node.listProc());
+		_result = (_procs == node.listProc()) ? node : new NodeProgram(node.listVarDecl(), _procs);
+	}
+
+	public void handleNodeListProcCons(NodeListProcCons node) throws VisitorException {
+		List<NodeProc> _procs = new ArrayList<NodeProc>();
+		for (NodeProc proc : node) {
+			NodeProc _proc = (NodeProc) rewrite(proc);
+			_done.put(_proc.identifier(), _proc);
+			_sizes.put(_proc.identifier(), CompileStats.countNodes(_proc.instruction()));
+			_procs.add(_proc);
+		}
+		if (_inlined == 0) {
+			_result = node;
+			return;
+		}
+		removeUncalled(_procs);
+		_result = NodeListProc.of(_procs);
+	}
+
+	public void handleNodeListProcNil(NodeListProcNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeProc(NodeProc node) throws VisitorException {
+		_growth = 0;
+		NodeInstr _instr = statement(node.instruction());
+		_result = (_instr == node.instruction()) ? node
+				: new NodeProc(node.identifier(), node.argumentList(), _instr);
+	}
+
+	public void handleNodeProcDeclArg(NodeProcDeclArg node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListProcDeclArgCons(NodeListProcDeclArgCons node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListProcDeclArgNil(NodeListProcDeclArgNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListVarDeclCons(NodeListVarDeclCons node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListVarDeclNil(NodeListVarDeclNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeVarDeclArray(NodeVarDeclArray node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeVarDeclSingle(NodeVarDeclSingle node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrDeclArray(NodeInstrDeclArray node) throws VisitorException {
+		String _id = rename(node.identifier());
+		_result = (_id == node.identifier()) ? node : new NodeInstrDeclArray(_id, node.size());
+	}
+
+	public void handleNodeInstrDeclSingle(NodeInstrDeclSingle node) throws VisitorException {
+		String _id = rename(node.identifier());
+		_result = (_id == node.identifier()) ? node : new NodeInstrDeclSingle(_id);
+	}
+
+	//in a body being inlined, the returns decide how the list is copied;
+	//elsewhere each statement is replaced by what it expands to
+	public void handleNodeListInstrCons(NodeListInstrCons node) throws VisitorException {
+		if (_copying) {
+			_result = NodeListInstr.of(lower(statements(node)));
+			return;
+		}
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+		boolean _changed = false;
+		for (NodeInstr instr : node) {
+			List<NodeInstr> _expanded = expand(rewrite(instr));
+			_changed |= _expanded.size() != 1 || _expanded.get(0) != instr;
+			_instrs.addAll(_expanded);
+		}
+		_result = _changed ? NodeListInstr.of(_instrs) : node;
+	}
+
+	public void handleNodeListInstrNil(NodeListInstrNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrBlock(NodeInstrBlock node) throws VisitorException {
+		NodeListInstr _list = (NodeListInstr) rewrite(node.instructions());
+		_result = (_list == node.instructions()) ? node : new NodeInstrBlock(_list);
+	}
+
+	public void handleNodeInstrAssignSingle(NodeInstrAssignSingle node) throws VisitorException {
+		String _id = rename(node.identifier());
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_id == node.identifier() && _expr == node.expression()) ? node
+				: new NodeInstrAssignSingle(_id, _expr);
+	}
+
+	public void handleNodeInstrAssignArray(NodeInstrAssignArray node) throws VisitorException {
+		String _id = rename(node.identifier());
+		NodeExpr _index = rewrite(node.index());
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_id == node.identifier() && _index == node.index() && _expr == node.expression()) ? node
+				: new NodeInstrAssignArray(_id, _index, _expr);
+	}
+
+	public void handleNodeInstrOutput(NodeInstrOutput node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeInstrOutput(_expr);
+	}
+
+	public void handleNodeInstrInputSingle(NodeInstrInputSingle node) throws VisitorException {
+		String _id = rename(node.identifier());
+		_result = (_id == node.identifier()) ? node : new NodeInstrInputSingle(_id);
+	}
+
+	public void handleNodeInstrInputArray(NodeInstrInputArray node) throws VisitorException {
+		String _id = rename(node.identifier());
+		NodeExpr _index = rewrite(node.index());
+		_result = (_id == node.identifier() && _index == node.index()) ? node
+				: new NodeInstrInputArray(_id, _index);
+	}
+
+	//a return that is not in a list of the body being inlined, such as the
+	//whole branch of an if
+	public void handleNodeInstrReturnExpr(NodeInstrReturnExpr node) throws VisitorException {
+		if (_copying) {
+			_result = block(returnStatements(node));
+			return;
+		}
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeInstrReturnExpr(_expr);
+	}
+
+	public void handleNodeInstrProcCall(NodeInstrProcCall node) throws VisitorException {
+		NodeListProcCallArg _args = (NodeListProcCallArg) rewrite(node.arguments());
+		_result = (_args == node.arguments()) ? node
+				: new NodeInstrProcCall(node.identifier(), _args);
+	}
+
+	public void handleNodeInstrIfthen(NodeInstrIfthen node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _then = statement(node.thenInstruction());
+		_result = (_relation == node.relation() && _then == node.thenInstruction()) ? node
+				: new NodeInstrIfthen(_relation, _then);
+	}
+
+	public void handleNodeInstrIfthenelse(NodeInstrIfthenelse node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _then = statement(node.thenInstruction());
+		NodeInstr _else = statement(node.elseInstruction());
+		_result = (_relation == node.relation() && _then == node.thenInstruction()
+				&& _else == node.elseInstruction()) ? node
+				: new NodeInstrIfthenelse(_relation, _then, _else);
+	}
+
+	//a loop in the body being inlined that may return stops once it has
+	public void handleNodeInstrWhile(NodeInstrWhile node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _instr = statement(node.instruction());
+		if (_copying && exit(node.instruction()) != Exit.NEVER)
+			_relation = new NodeRelationAnd(notReturned(), _relation);
+		_result = (_relation == node.relation() && _instr == node.instruction()) ? node
+				: new NodeInstrWhile(_relation, _instr);
+	}
+
+	public void handleNodeListProcCallArgCons(NodeListProcCallArgCons node) throws VisitorException {
+		List<NodeProcCallArg> _args = new ArrayList<NodeProcCallArg>();
+		boolean _changed = false;
+		for (NodeProcCallArg arg : node) {
+			NodeProcCallArg _arg = (NodeProcCallArg) rewrite(arg);
+			_changed |= _arg != arg;
+			_args.add(_arg);
+		}
+		_result = _changed ? NodeListProcCallArg.of(_args) : node;
+	}
+
+	public void handleNodeListProcCallArgNil(NodeListProcCallArgNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeProcCallArg(NodeProcCallArg node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeProcCallArg(_expr);
+	}
+
+	public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+		if (node == _target) {
+			_result = _replacement;
+			return;
+		}
+		NodeListProcCallArg _args = (NodeListProcCallArg) rewrite(node.arguments());
+		_result = (_args == node.arguments()) ? node
+				: new NodeExprProcCall(node.identifier(), _args);
+	}
+
+	public void handleNodeExprArrayVar(NodeExprArrayVar node) throws VisitorException {
+		String _id = rename(node.identifier());
+		NodeExpr _index = rewrite(node.index());
+		_result = (_id == node.identifier() && _index == node.index()) ? node
+				: new NodeExprArrayVar(_id, _index);
+	}
+
+	public void handleNodeExprVar(NodeExprVar node) throws VisitorException {
+		NodeExpr _constant = _constants.get(node.identifier());
+		if (_constant != null) {
+			_result = _constant;
+			return;
+		}
+		String _id = rename(node.identifier());
+		_result = (_id == node.identifier()) ? node : new NodeExprVar(_id);
+	}
+
+	public void handleNodeExprInt(NodeExprInt node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprTrue(NodeExprTrue node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprFalse(NodeExprFalse node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprPlus(NodeExprPlus node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprPlus(_left, _right);
+	}
+
+	public void handleNodeExprMinus(NodeExprMinus node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprMinus(_left, _right);
+	}
+
+	public void handleNodeExprTimes(NodeExprTimes node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprTimes(_left, _right);
+	}
+
+	public void handleNodeExprDivide(NodeExprDivide node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprDivide(_left, _right);
+	}
+
+	public void handleNodeExprMod(NodeExprMod node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprMod(_left, _right);
+	}
+
+	public void handleNodeRelationLessThan(NodeRelationLessThan node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationLessThan(_left, _right);
+	}
+
+	public void handleNodeRelationLessThanEqual(NodeRelationLessThanEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationLessThanEqual(_left, _right);
+	}
+
+	public void handleNodeRelationGreaterThan(NodeRelationGreaterThan node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationGreaterThan(_left, _right);
+	}
+
+	public void handleNodeRelationGreaterThanEqual(NodeRelationGreaterThanEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationGreaterThanEqual(_left, _right);
+	}
+
+	public void handleNodeRelationEqual(NodeRelationEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationEqual(_left, _right);
+	}
+
+	public void handleNodeRelationAnd(NodeRelationAnd node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationAnd(_left, _right);
+	}
+
+	public void handleNodeRelationOr(NodeRelationOr node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationOr(_left, _right);
+	}
+
+	public void handleNodeRelationNot(NodeRelationNot node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		_result = (_relation == node.relation()) ? node : new NodeRelationNot(_relation);
+	}
+}
@@ -0,0 +1,717 @@
+package comp;
+
+import java.util.*;
+
+/**
+ * One line of generated MIPS code: an instruction, a label, a data directive,
+ * a comment or a blank line. Instructions are immutable; passes that rewrite
+ * code build new ones with the static factory methods.
+ * <p>
+ * Operands are kept by role rather than by position in the text:
+ * <ul>
+ * <li><code>dest</code> is the register written, if any</li>
+ * <li><code>source1</code> and <code>source2</code> are the registers read. For
+ * loads <code>source1</code> is the base register; for stores
+ * <code>source1</code> is the value and <code>source2</code> the base
+ * register</li>
+ * <li><code>immediate</code> is a constant operand, a memory offset or the
+ * number of words in a <code>.word</code> directive</li>
+ * <li><code>label</code> is a jump target, a memory label, the name of a
+ * defined label or the text of a comment</li>
+ * </ul>
+ *
+ * {@link #toString()} renders the line the way {@link MIPSCodeGenerator} writes
+ * it, and {@link #parse(String)} reads such a line back.
+ */
+public class Instruction {
+
+	/**
+	 * How an opcode's operands are laid out in the assembly text.
+	 */
+	public enum Format {
+		NONE,           // syscall
+		LOAD_IMMEDIATE, // li $d, imm
+		LOAD,           // lw $d, address
+		STORE,          // sw $s1, address
+		MOVE,           // move $d, $s1
+		ARITHMETIC,     // op $d, $s1, $s2 or op $d, $s1, imm
+		MULTIPLY,       // mult $s1, $s2
+		MOVE_FROM_HI,   // mfhi $d
+		JUMP,           // j label
+		JUMP_REGISTER,  // jr $s1
+		BRANCH_ZERO,    // beqz $s1, label
+		BRANCH,         // beq $s1, $s2, label or beq $s1, imm, label
+		LABEL,          // label:
+		DIRECTIVE,      // .data
+		WORD,           // label: .word 0:n
+		COMMENT,        // # text
+		BLANK           // empty line
+	}
+
+	/**
+	 * The MIPS instructions and pseudo-instructions the code generator emits,
+	 * plus the non-instruction lines of a MAL file.
+	 */
+	public enum Opcode {
+		LI("li", Format.LOAD_IMMEDIATE),
+		LW("lw", Format.LOAD),
+		SW("sw", Format.STORE),
+		MOVE("move", Format.MOVE),
+		ADD("add", Format.ARITHMETIC),
+		SUB("sub", Format.ARITHMETIC),
+		ADDU("addu", Format.ARITHMETIC),
+		SUBU("subu", Format.ARITHMETIC),
+		MUL("mul", Format.ARITHMETIC),
+		MULT("mult", Format.MULTIPLY),
+		MFHI("mfhi", Format.MOVE_FROM_HI),
+		DIV("div", Format.ARITHMETIC),
+		REM("rem", Format.ARITHMETIC),
+		SLL("sll", Format.ARITHMETIC),
+		SRA("sra", Format.ARITHMETIC),
+		SRL("srl", Format.ARITHMETIC),
+		ANDI("andi", Format.ARITHMETIC),
+		SEQ("seq", Format.ARITHMETIC),
+		SGE("sge", Format.ARITHMETIC),
+		SGT("sgt", Format.ARITHMETIC),
+		SLT("slt", Format.ARITHMETIC),
+		SLE("sle", Format.ARITHMETIC),
+		J("j", Format.JUMP),
+		JAL("jal", Format.JUMP),
+		JR("jr", Format.JUMP_REGISTER),
+		BEQZ("beqz", Format.BRANCH_ZERO),
+		BNEZ("bnez", Format.BRANCH_ZERO),
+		BEQ("beq", Format.BRANCH),
+		BNE("bne", Format.BRANCH),
+		BGE("bge", Format.BRANCH),
+		BLE("ble", Format.BRANCH),
+		BGT("bgt", Format.BRANCH),
+		BLT("blt", Format.BRANCH),
+		SYSCALL("syscall", Format.NONE),
+
+		LABEL(null, Format.LABEL),
+		DATA(".data", Format.DIRECTIVE),
+		TEXT(".text", Format.DIRECTIVE),
+		WORD(".word", Format.WORD),
+		COMMENT("#", Format.COMMENT),
+		BLANK("", Format.BLANK);
+
+		private final String _mnemonic;
+		private final Format _format;
+
+		Opcode(String mnemonic, Format format) {
+			_mnemonic = mnemonic;
+			_format = format;
+		}
+
+		public String getMnemonic() {
+			return _mnemonic;
+		}
+
+		public Format getFormat() {
+			return _format;
+		}
+
+		/**
+		 * Whether this opcode is a machine instruction, as opposed to a label,
+		 * directive, comment or blank line.
+		 */
+		public boolean isInstruction() {
+			return ordinal() < LABEL.ordinal();
+		}
+
+		/**
+		 * Finds the instruction with the given mnemonic, or returns null.
+		 */
+		public static Opcode fromMnemonic(String mnemonic) {
+			for (Opcode op : values()) {
+				if (op.isInstruction() && op._mnemonic.equals(mnemonic))
+					return op;
+			}
+			return null;
+		}
+	}
+
+	//registers a jal may overwrite: the callee is free to use all of them
+	private static final int CALL_CLOBBERS = mask(Register.V0, Register.V1,
+			Register.A0, Register.A1, Register.A2, Register.A3, Register.T0,
+			Register.T1, Register.T2, Register.T3, Register.T4, Register.T5,
+			Register.T6, Register.T7, Register.T8, Register.T9, Register.RA);
+
+	//registers a procedure must hand back to its caller when it returns
+	private static final int RETURN_LIVE = mask(Register.S0, Register.S1,
+			Register.S2, Register.S3, Register.S4, Register.S5, Register.S6,
+			Register.S7, Register.FP, Register.SP);
+
+	//lines without operands are shared
+	private static final Instruction SYSCALL = new Instruction(Opcode.SYSCALL, null, null, null, 0, false, null);
+	private static final Instruction DATA = new Instruction(Opcode.DATA, null, null, null, 0, false, null);
+	private static final Instruction TEXT = new Instruction(Opcode.TEXT, null, null, null, 0, false, null);
+	private static final Instruction BLANK = new Instruction(Opcode.BLANK, null, null, null, 0, false, null);
+
+	private final Opcode _opcode;
+	private final Register _dest;
+	private final Register _src1;
+	private final Register _src2;
+	private final int _imm;
+	private final boolean _hasImm;
+	private final String _label;
+
+	private Instruction(Opcode opcode, Register dest, Register src1,
+			Register src2, int imm, boolean hasImm, String label) {
+		_opcode = opcode;
+		_dest = dest;
+		_src1 = src1;
+		_src2 = src2;
+		_imm = imm;
+		_hasImm = hasImm;
+		_label = label;
+	}
+
+	/**
+	 * li $dest, value
+	 */
+	public static Instruction loadImmediate(Register dest, int value) {
+		return new Instruction(Opcode.LI, dest, null, null, value, true, null);
+	}
+
+	/**
+	 * move $dest, $src
+	 */
+	public static Instruction move(Register dest, Register src) {
+		return new Instruction(Opcode.MOVE, dest, src, null, 0, false, null);
+	}
+
+	/**
+	 * op $dest, $src1, $src2
+	 */
+	public static Instruction arithmetic(Opcode op, Register dest,
+			Register src1, Register src2) {
+		return new Instruction(op, dest, src1, src2, 0, false, null);
+	}
+
+	/**
+	 * op $dest, $src, value
+	 */
+	public static Instruction arithmetic(Opcode op, Register dest,
+			Register src, int value) {
+		return new Instruction(op, dest, src, null, value, true, null);
+	}
+
+	/**
+	 * mult $src1, $src2, which leaves the high word of the 64-bit product in
+	 * the HI register
+	 */
+	public static Instruction multiply(Register src1, Register src2) {
+		return new Instruction(Opcode.MULT, null, src1, src2, 0, false, null);
+	}
+
+	/**
+	 * mfhi $dest
+	 */
+	public static Instruction moveFromHi(Register dest) {
+		return new Instruction(Opcode.MFHI, dest, null, null, 0, false, null);
+	}
+
+	/**
+	 * lw $dest, label or lw $dest, label($index) when index is not null
+	 */
+	public static Instruction load(Register dest, String label, Register index) {
+		return new Instruction(Opcode.LW, dest, index, null, 0, false, label);
+	}
+
+	/**
+	 * lw $dest, offset($base)
+	 */
+	public static Instruction load(Register dest, int offset, Register base) {
+		return new Instruction(Opcode.LW, dest, base, null, offset, true, null);
+	}
+
+	/**
+	 * lw $dest, ($base)
+	 */
+	public static Instruction load(Register dest, Register base) {
+		return new Instruction(Opcode.LW, dest, base, null, 0, false, null);
+	}
+
+	/**
+	 * sw $src, label or sw $src, label($index) when index is not null
+	 */
+	public static Instruction store(Register src, String label, Register index) {
+		return new Instruction(Opcode.SW, null, src, index, 0, false, label);
+	}
+
+	/**
+	 * sw $src, offset($base)
+	 */
+	public static Instruction store(Register src, int offset, Register base) {
+		return new Instruction(Opcode.SW, null, src, base, offset, true, null);
+	}
+
+	/**
+	 * sw $src, ($base)
+	 */
+	public static Instruction store(Register src, Register base) {
+		return new Instruction(Opcode.SW, null, src, base, 0, false, null);
+	}
+
+	/**
+	 * j label or jal label
+	 */
+	public static Instruction jump(Opcode op, String label) {
+		return new Instruction(op, null, null, null, 0, false, label);
+	}
+
+	/**
+	 * jr $src
+	 */
+	public static Instruction jumpRegister(Register src) {
+		return new Instruction(Opcode.JR, null, src, null, 0, false, null);
+	}
+
+	/**
+	 * op $src, label, for beqz and bnez
+	 */
+	public static Instruction branch(Opcode op, Register src, String label) {
+		return new Instruction(op, null, src, null, 0, false, label);
+	}
+
+	/**
+	 * op $src1, $src2, label
+	 */
+	public static Instruction branch(Opcode op, Register src1, Register src2,
+			String label) {
+		return new Instruction(op, null, src1, src2, 0, false, label);
+	}
+
+	/**
+	 * op $src, value, label
+	 */
+	public static Instruction branch(Opcode op, Register src, int value,
+			String label) {
+		return new Instruction(op, null, src, null, value, true, label);
+	}
+
+	/**
+	 * syscall
+	 */
+	public static Instruction syscall() {
+		return SYSCALL;
+	}
+
+	/**
+	 * label:
+	 */
+	public static Instruction label(String name) {
+		return new Instruction(Opcode.LABEL, null, null, null, 0, false, name);
+	}
+
+	/**
+	 * .data or .text
+	 */
+	public static Instruction directive(Opcode op) {
+		return op == Opcode.DATA ? DATA : TEXT;
+	}
+
+	/**
+	 * label: .word 0:count
+	 */
+	public static Instruction word(String label, int count) {
+		return new Instruction(Opcode.WORD, null, null, null, count, true, label);
+	}
+
+	/**
+	 * # text
+	 */
+	public static Instruction comment(String text) {
+		return new Instruction(Opcode.COMMENT, null, null, null, 0, false, text);
+	}
+
+	/**
+	 * An empty line.
+	 */
+	public static Instruction blank() {
+		return BLANK;
+	}
+
+	/**
+	 * Reads one line of MAL in the form {@link #toString()} writes it.
+	 *
+	 * @param line A line of MAL, without its newline
+	 * @return The instruction on that line
+	 * @throws InternalException If the line is not something the code
+	 *             generator could have written
+	 */
+	public static Instruction parse(String line) {
+		String text = line.trim();
+		if (text.length() == 0)
+			return BLANK;
+		if (text.startsWith("#")) {
+			String comment = line.substring(line.indexOf('#') + 1);
+			if (comment.startsWith(" "))
+				comment = comment.substring(1);
+			return comment(comment);
+		}
+
+		int colon = text.indexOf(':');
+		if (colon > 0 && !containsWhitespace(text.substring(0, colon))) {
+			String name = text.substring(0, colon);
+			String rest = text.substring(colon + 1).trim();
+			if (rest.length() == 0)
+				return label(name);
+			if (rest.startsWith(".word")) {
+				String value = rest.substring(5).trim();
+				int count = 1;
+				int split = value.indexOf(':');
+				if (split >= 0) {
+					count = parseInt(value.substring(split + 1), line);
+					value = value.substring(0, split);
+				}
+				if (parseInt(value, line) != 0)
+					throw new InternalException("Only zero-filled words are supported: " + line);
+				return word(name, count);
+			}
+			throw new InternalException("Cannot parse MAL line: " + line);
+		}
+
+		if (text.equals(".data"))
+			return DATA;
+		if (text.equals(".text"))
+			return TEXT;
+
+		String[] parts = text.split("\\s+", 2);
+		Opcode op = Opcode.fromMnemonic(parts[0]);
+		if (op == null)
+			throw new InternalException("Unknown instruction: " + line);
+		String[] args = parts.length > 1 ? parts[1].split(",") : new String[0];
+		for (int i = 0; i < args.length; i++)
+			args[i] = args[i].trim();
+
+		switch (op.getFormat()) {
+		case NONE:
+			expectOperands(args, 0, line);
+			return SYSCALL;
+		case LOAD_IMMEDIATE:
+			expectOperands(args, 2, line);
+			return loadImmediate(parseRegister(args[0], line), parseInt(args[1], line));
+		case LOAD:
+		case STORE: {
+			expectOperands(args, 2, line);
+			Register reg = parseRegister(args[0], line);
+			String address = args[1];
+			Register base = null;
+			int paren = address.indexOf('(');
+			if (paren >= 0) {
+				if (!address.endsWith(")"))
+					throw new InternalException("Cannot parse address: " + line);
+				base = parseRegister(address.substring(paren + 1, address.length() - 1), line);
+				address = address.substring(0, paren);
+			}
+			String label = null;
+			int offset = 0;
+			boolean hasOffset = false;
+			if (address.length() > 0) {
+				if (Character.isDigit(address.charAt(0)) || address.charAt(0) == '-') {
+					offset = parseInt(address, line);
+					hasOffset = true;
+				} else {
+					label = address;
+				}
+			}
+			if (op.getFormat() == Format.LOAD)
+				return new Instruction(op, reg, base, null, offset, hasOffset, label);
+			return new Instruction(op, null, reg, base, offset, hasOffset, label);
+		}
+		case MOVE:
+			expectOperands(args, 2, line);
+			return move(parseRegister(args[0], line), parseRegister(args[1], line));
+		case ARITHMETIC: {
+			expectOperands(args, 3, line);
+			Register dest = parseRegister(args[0], line);
+			Register src = parseRegister(args[1], line);
+			if (args[2].startsWith("$"))
+				return arithmetic(op, dest, src, parseRegister(args[2], line));
+			return arithmetic(op, dest, src, parseInt(args[2], line));
+		}
+		case MULTIPLY:
+			expectOperands(args, 2, line);
+			return multiply(parseRegister(args[0], line), parseRegister(args[1], line));
+		case MOVE_FROM_HI:
+			expectOperands(args, 1, line);
+			return moveFromHi(parseRegister(args[0], line));
+		case JUMP:
+			expectOperands(args, 1, line);
+			return jump(op, args[0]);
+		case JUMP_REGISTER:
+			expectOperands(args, 1, line);
+			return jumpRegister(parseRegister(args[0], line));
+		case BRANCH_ZERO:
+			expectOperands(args, 2, line);
+			return branch(op, parseRegister(args[0], line), args[1]);
+		case BRANCH: {
+			expectOperands(args, 3, line);
+			Register src = parseRegister(args[0], line);
+			if (args[1].startsWith("$"))
+				return branch(op, src, parseRegister(args[1], line), args[2]);
+			return branch(op, src, parseInt(args[1], line), args[2]);
+		}
+		default:
+			throw new InternalException("Cannot parse MAL line: " + line);
+		}
+	}
+
+	public Opcode getOpcode() {
+		return _opcode;
+	}
+
+	public Register getDest() {
+		return _dest;
+	}
+
+	public Register getSource1() {
+		return _src1;
+	}
+
+	public Register getSource2() {
+		return _src2;
+	}
+
+	public int getImmediate() {
+		return _imm;
+	}
+
+	/**
+	 * Whether the immediate is an operand: the constant of an
+	 * <code>li</code>, arithmetic or branch instruction, or the offset of a
+	 * memory access.
+	 */
+	public boolean hasImmediate() {
+		return _hasImm;
+	}
+
+	public String getLabel() {
+		return _label;
+	}
+
+	/**
+	 * Whether this line is a machine instruction, as opposed to a label,
+	 * directive, comment or blank line.
+	 */
+	public boolean isInstruction() {
+		return _opcode.isInstruction();
+	}
+
+	/**
+	 * Whether control can continue to the next line after this instruction.
+	 */
+	public boolean fallsThrough() {
+		return _opcode != Opcode.J && _opcode != Opcode.JR;
+	}
+
+	/**
+	 * The label this instruction may jump to within the procedure, or null.
+	 * A <code>jal</code> is not counted, since the callee returns to the next
+	 * line.
+	 */
+	public String getTarget() {
+		Format format = _opcode.getFormat();
+		if (_opcode == Opcode.J || format == Format.BRANCH_ZERO
+				|| format == Format.BRANCH)
+			return _label;
+		return null;
+	}
+
+	/**
+	 * The registers this instruction reads, as a bit mask indexed by
+	 * {@link Register#ordinal()}. A <code>jr</code> also reads every register
+	 * its caller expects to get back.
+	 */
+	public int getUses() {
+		int uses = mask(_src1, _src2);
+		switch (_opcode) {
+		case JAL:
+			return mask(Register.SP, Register.FP);
+		case JR:
+			return uses | RETURN_LIVE;
+		case SYSCALL:
+			return mask(Register.V0, Register.A0);
+		default:
+			return uses;
+		}
+	}
+
+	/**
+	 * The registers this instruction may write, as a bit mask indexed by
+	 * {@link Register#ordinal()}.
+	 */
+	public int getDefinitions() {
+		switch (_opcode) {
+		case JAL:
+			return CALL_CLOBBERS;
+		case SYSCALL:
+			return mask(Register.V0);
+		default:
+			return mask(_dest);
+		}
+	}
+
+	/**
+	 * Builds a register bit mask, ignoring nulls.
+	 */
+	public static int mask(Register... regs) {
+		int mask = 0;
+		for (Register reg : regs) {
+			if (reg != null)
+				mask |= 1 << reg.ordinal();
+		}
+		return mask;
+	}
+
+	public boolean equals(Object other) {
+		if (!(other instanceof Instruction))
+			return false;
+		Instruction that = (Instruction) other;
+		return _opcode == that._opcode && _dest == that._dest
+				&& _src1 == that._src1 && _src2 == that._src2
+				&& _imm == that._imm && _hasImm == that._hasImm
+				&& (_label == null ? that._label == null : _label.equals(that._label));
+	}
+
+	public int hashCode() {
+		return Arrays.hashCode(new Object[] { _opcode, _dest, _src1, _src2,
+				_imm, _hasImm, _label });
+	}
+
+	/**
+	 * Renders this line as MAL, without a newline.
+	 */
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		appendTo(out);
+		return out.toString();
+	}
+
+	/**
+	 * Appends this line as MAL, without a newline, to the given builder.
+	 */
+	public void appendTo(StringBuilder out) {
+		Format format = _opcode.getFormat();
+		if (_opcode.isInstruction()) {
+			out.append('\t').append(_opcode.getMnemonic());
+			if (format == Format.NONE)
+				return;
+			out.append(format == Format.JUMP_REGISTER ? ' ' : '\t');
+		}
+		switch (format) {
+		case LOAD_IMMEDIATE:
+			register(out, _dest).append(", ").append(_imm);
+			break;
+		case LOAD:
+			register(out, _dest).append(", ");
+			address(out, _src1);
+			break;
+		case STORE:
+			register(out, _src1).append(", ");
+			address(out, _src2);
+			break;
+		case MOVE:
+			register(out, _dest).append(", ");
+			register(out, _src1);
+			break;
+		case ARITHMETIC:
+			register(out, _dest).append(", ");
+			register(out, _src1).append(", ");
+			secondOperand(out);
+			break;
+		case MULTIPLY:
+			register(out, _src1).append(", ");
+			register(out, _src2);
+			break;
+		case MOVE_FROM_HI:
+			register(out, _dest);
+			break;
+		case JUMP:
+			out.append(_label);
+			break;
+		case JUMP_REGISTER:
+			register(out, _src1);
+			break;
+		case BRANCH_ZERO:
+			register(out, _src1).append(", ").append(_label);
+			break;
+		case BRANCH:
+			register(out, _src1).append(", ");
+			secondOperand(out);
+			out.append(", ").append(_label);
+			break;
+		case LABEL:
+			out.append(_label).append(':');
+			break;
+		case DIRECTIVE:
+			out.append(_opcode.getMnemonic());
+			break;
+		case WORD:
+			if (_imm == 1)
+				out.append(_label).append(":\t.word 0");
+			else
+				out.append(_label).append(":\t.word\t0:").append(_imm);
+			break;
+		case COMMENT:
+			out.append("# ").append(_label);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static StringBuilder register(StringBuilder out, Register reg) {
+		return out.append('$').append(reg.toString());
+	}
+
+	//the register or immediate second source of an arithmetic or branch instruction
+	private void secondOperand(StringBuilder out) {
+		if (_hasImm)
+			out.append(_imm);
+		else
+			register(out, _src2);
+	}
+
+	//a memory operand: label, offset, label($base), offset($base) or ($base)
+	private void address(StringBuilder out, Register base) {
+		if (_label != null)
+			out.append(_label);
+		else if (_hasImm)
+			out.append(_imm);
+		if (base != null) {
+			out.append('(');
+			register(out, base).append(')');
+		}
+	}
+
+	private static boolean containsWhitespace(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (Character.isWhitespace(text.charAt(i)))
+				return true;
+		}
+		return false;
+	}
+
+	private static void expectOperands(String[] args, int count, String line) {
+		if (args.length != count)
+			throw new InternalException("Expected " + count + " operands: " + line);
+	}
+
+	private static Register parseRegister(String text, String line) {
+		Register reg = text.startsWith("$") ? Register.fromString(text.substring(1)) : null;
+		if (reg == null)
+			throw new InternalException("Bad register '" + text + "': " + line);
+		return reg;
+	}
+
+	private static int parseInt(String text, String line) {
+		try {
+			return Integer.parseInt(text.trim());
+		} catch (NumberFormatException e) {
+			throw new InternalException("Bad number '" + text + "': " + line);
+		}
+	}
+}
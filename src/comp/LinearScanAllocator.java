@@ -0,0 +1,188 @@
+package comp;
+
+import comp.nodes.*;
+
+import java.util.*;
+
+/**
+ * Picks the scalar locals and arguments of a procedure that live in the
+ * saved registers <code>$s0</code>-<code>$s7</code> instead of in the frame.
+ * <p>
+ * The procedure body is walked in source order and every reference to a
+ * variable gets the next position number. A variable's live interval runs
+ * from its first reference to its last; arguments are live from the start of
+ * the procedure. A variable referenced inside a while loop may carry its value
+ * around the back edge, so its interval is stretched to cover the whole loop.
+ * <p>
+ * The intervals are then allocated with linear scan: they are visited in
+ * order of their start, registers of intervals that have already ended are
+ * reused, and when all eight registers are taken the interval with the
+ * smallest weight is left in the frame. Each reference counts ten times as
+ * much for every loop it is nested in, so the variables of inner loops are the
+ * last to be spilled.
+ * <p>
+ * Arrays and globals are never allocated. The saved registers survive
+ * procedure calls, so a variable can stay in its register across a call.
+ */
+public class LinearScanAllocator extends DepthFirstVisitor {
+
+	//The registers variables are allocated to, in the order they are handed out
+	private static final Register[] REGISTERS = { Register.S0, Register.S1,
+		Register.S2, Register.S3, Register.S4, Register.S5, Register.S6,
+		Register.S7 };
+
+	//References nested deeper than this do not get any heavier
+	private static final int MAX_DEPTH = 6;
+
+	/**
+	 * The part of a procedure during which one variable holds a value.
+	 */
+	private static class Interval {
+		private final String _name;
+		private int _start;
+		private int _end;
+		private long _weight;
+		private Register _register;
+
+		private Interval(String name, int position) {
+			_name = name;
+			_start = position;
+			_end = position;
+		}
+	}
+
+	private Map<String, Interval> _intervals; //interval of every variable referenced so far
+	private Set<String> _scalars; //locals and arguments declared as single variables
+	private Set<String> _arrays; //locals declared as arrays somewhere in the procedure
+	private Deque<Set<String>> _loops; //variables referenced in each enclosing loop, innermost first
+	private int _position;
+
+	/**
+	 * Computes which variables of the procedure are kept in registers.
+	 *
+	 * @param proc The procedure to allocate; it must already have passed
+	 *            semantic checking
+	 * @return The register of every variable that is kept in one. Variables
+	 *         that are not in the map live in the frame as usual.
+	 */
+	public Map<String, Register> allocate(NodeProc proc) throws VisitorException {
+		_intervals = new LinkedHashMap<String, Interval>();
+		_scalars = new HashSet<String>();
+		_arrays = new HashSet<String>();
+		_loops = new ArrayDeque<Set<String>>();
+		_position = 0;
+		proc.visit(this);
+
+		List<Interval> _candidates = new ArrayList<Interval>();
+		for (Interval interval : _intervals.values()) {
+			if (_scalars.contains(interval._name) && !_arrays.contains(interval._name))
+				_candidates.add(interval);
+		}
+		return scan(_candidates);
+	}
+
+	//Linear scan over the intervals in order of their start
+	private Map<String, Register> scan(List<Interval> intervals) {
+		Collections.sort(intervals, new Comparator<Interval>() {
+			public int compare(Interval a, Interval b) {
+				return a._start - b._start;
+			}
+		});
+		List<Interval> _active = new ArrayList<Interval>();
+		Deque<Register> _free = new ArrayDeque<Register>(Arrays.asList(REGISTERS));
+		Map<String, Register> _allocation = new LinkedHashMap<String, Register>();
+
+		for (Interval current : intervals) {
+			//intervals that ended before this one starts give their registers back
+			for (Iterator<Interval> it = _active.iterator(); it.hasNext();) {
+				Interval active = it.next();
+				if (active._end < current._start) {
+					_free.push(active._register);
+					it.remove();
+				}
+			}
+			if (!_free.isEmpty()) {
+				current._register = _free.pop();
+				_active.add(current);
+				continue;
+			}
+			//no register left, so the lightest of the overlapping intervals stays in the frame
+			Interval _victim = current;
+			for (Interval active : _active) {
+				if (active._weight < _victim._weight)
+					_victim = active;
+			}
+			if (_victim != current) {
+				current._register = _victim._register;
+				_victim._register = null;
+				_active.remove(_victim);
+				_active.add(current);
+			}
+		}
+
+		for (Interval interval : intervals) {
+			if (interval._register != null)
+				_allocation.put(interval._name, interval._register);
+		}
+		return _allocation;
+	}
+
+	//Records a reference to a variable at the next position
+	private void reference(String name) {
+		int _here = ++_position;
+		Interval _interval = _intervals.get(name);
+		if (_interval == null) {
+			_interval = new Interval(name, _here);
+			_intervals.put(name, _interval);
+		}
+		_interval._end = _here;
+		_interval._weight += (long) Math.pow(10, Math.min(_loops.size(), MAX_DEPTH));
+		if (!_loops.isEmpty())
+			_loops.peek().add(name);
+	}
+
+	//arguments hold their value from the moment the procedure is entered
+	public void handleNodeProcDeclArg(NodeProcDeclArg node) throws VisitorException {
+		_scalars.add(node.identifier());
+		reference(node.identifier());
+	}
+
+	public void handleNodeInstrDeclSingle(NodeInstrDeclSingle node) throws VisitorException {
+		_scalars.add(node.identifier());
+	}
+
+	public void handleNodeInstrDeclArray(NodeInstrDeclArray node) throws VisitorException {
+		_arrays.add(node.identifier());
+	}
+
+	public void handleNodeExprVar(NodeExprVar node) throws VisitorException {
+		reference(node.identifier());
+	}
+
+	public void handleNodeInstrAssignSingle(NodeInstrAssignSingle node) throws VisitorException {
+		checkAndVisit(node.expression());
+		reference(node.identifier());
+	}
+
+	public void handleNodeInstrInputSingle(NodeInstrInputSingle node) throws VisitorException {
+		reference(node.identifier());
+	}
+
+	//every variable referenced in the loop is live for all of it, since its
+	//value may be used again in the next iteration
+	public void handleNodeInstrWhile(NodeInstrWhile node) throws VisitorException {
+		int _start = _position + 1;
+		_loops.push(new HashSet<String>());
+		checkAndVisit(node.relation());
+		checkAndVisit(node.instruction());
+		Set<String> _referenced = _loops.pop();
+		int _end = ++_position;
+		for (String name : _referenced) {
+			Interval _interval = _intervals.get(name);
+			_interval._start = Math.min(_interval._start, _start);
+			_interval._end = Math.max(_interval._end, _end);
+		}
+		if (!_loops.isEmpty())
+			_loops.peek().addAll(_referenced);
+	}
+}
@@ -0,0 +1,536 @@
+package comp;
+
+import comp.nodes.*;
+
+import java.util.*;
+
+/**
+ * Rewrites a semantically checked syntax tree so that expressions a while
+ * loop computes the same way on every pass are computed once, before the
+ * loop, into a variable the loop reads instead. Run it after
+ * {@link SemanticVisitor}, then check the tree {@link #hoist(NodeProgram)}
+ * returns again so that the frames make room for the new variables.
+ * <p>
+ * An expression is invariant in a loop when it calls nothing and none of the
+ * variables and arrays it reads is declared, assigned to or read into by the
+ * loop, or may be assigned by a procedure the loop calls. The largest such
+ * expressions are hoisted, as long as they compute something: arithmetic and
+ * array elements. A lone variable is left alone, global or not, since reading
+ * the new variable costs the same load unless it gets a register, which it
+ * would take from the locals. Outer loops are done first, so an expression
+ * invariant in several nested loops moves out of all of them at once, and the
+ * loops inside only hoist what the outer loop changes.
+ * <p>
+ * Evaluating an expression that cannot trap early changes nothing, so those
+ * are hoisted from anywhere in the loop. One with + or -, which trap on
+ * overflow, or a divisor that may be zero, is only hoisted from the
+ * condition, up to its first call and outside the right side of &amp;&amp;
+ * and ||: the condition runs as soon as the loop starts, so the trap happens
+ * either way before anything else does. Such an expression in the body is
+ * left in place, since the body may not run at all; hoisting it would take
+ * testing the condition once more before the loop, which costs about as much
+ * as it saves in a loop that runs once or twice.
+ * <p>
+ * The new variables are named <code>loop.N</code>, which no Blaise
+ * identifier can clash with, and declared just before the loop.
+ */
+public class LoopInvariantVisitor implements Visitor {
+
+	private final Set<String> _globals; //names of the global variables
+	private Map<String, Set<String>> _writes; //globals each procedure may assign, through its callees too
+	private Node _result; //the rewritten version of the node just visited
+	private List<NodeInstr> _preheader; //what goes before the loop just rewritten
+	private int _hoisted; //expressions hoisted so far, which also numbers the variables
+
+	//set while hoisting from a loop
+	private Set<String> _variant; //names the loop may change
+	private Set<Node> _safe; //nodes the loop evaluates as soon as it starts
+	private Map<String, String> _temps; //variable holding each expression hoisted
+	private List<NodeInstr> _assigns; //that compute them
+
+	/**
+	 * Set up the hoisting of a program.
+	 *
+	 * @param semantic The semantic analysis of the program
+	 */
+	public LoopInvariantVisitor(SemanticVisitor semantic) {
+		_globals = semantic.getBlockSizes().keySet();
+		_preheader = Collections.emptyList();
+		_result = null;
+		_hoisted = 0;
+	}
+
+	/**
+	 * Hoists the invariant expressions out of the loops of a program.
+	 *
+	 * @param program A program that has passed semantic checking
+	 * @return The rewritten program
+	 */
+	public NodeProgram hoist(NodeProgram program) throws VisitorException {
+		return (NodeProgram) rewrite(program);
+	}
+
+	/**
+	 * Returns how many expressions have been hoisted.
+	 */
+	public int getHoistCount() {
+		return _hoisted;
+	}
+
+	private Node rewrite(Node node) throws VisitorException {
+		if (node == null)
+			throw new VisitorException("This is not supposed to happen, but a node is missing something");
+		node.visit(this);
+		return _result;
+	}
+
+	//while hoisting from a loop, an invariant expression is replaced by the
+	//variable that holds it
+	private NodeExpr rewrite(NodeExpr node) throws VisitorException {
+		if (_variant != null) {
+			String _temp = hoist(node);
+			if (_temp != null)
+				return new NodeExprVar(_temp);
+		}
+		return (NodeExpr) rewrite((Node) node);
+	}
+
+	private NodeInstr rewrite(NodeInstr node) throws VisitorException {
+		return (NodeInstr) rewrite((Node) node);
+	}
+
+	//rewrites a statement that is not in a list, putting it and what goes
+	//before it in a block if that is more than one statement
+	private NodeInstr statement(NodeInstr instr) throws VisitorException {
+		List<NodeInstr> _instrs = expand(instr);
+		return _instrs.size() == 1 ? _instrs.get(0) : new NodeInstrBlock(NodeListInstr.of(_instrs));
+	}
+
+	//the statements a statement becomes: what its loop needs computed first,
+	//then the rewritten statement
+	private List<NodeInstr> expand(NodeInstr instr) throws VisitorException {
+		_preheader = Collections.emptyList();
+		NodeInstr _instr = rewrite(instr);
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>(_preheader);
+		_preheader = Collections.emptyList();
+		_instrs.add(_instr);
+		return _instrs;
+	}
+
+	//The variable that is to hold the expression, if it can be hoisted out
+	//of the loop; null otherwise.
+	private String hoist(NodeExpr expr) {
+		if (!(expr instanceof NodeExprPlus || expr instanceof NodeExprMinus || expr instanceof NodeExprTimes
+				|| expr instanceof NodeExprDivide || expr instanceof NodeExprMod
+				|| expr instanceof NodeExprArrayVar))
+			return null;
+		String _key = key(expr);
+		if (_key == null)
+			return null;
+		String _temp = _temps.get(_key);
+		if (_temp != null)
+			return _temp;
+		if (!ConstantFoldingVisitor.isPure(expr) && !_safe.contains(expr))
+			return null;
+		_temp = "loop." + (++_hoisted);
+		_temps.put(_key, _temp);
+		_assigns.add(new NodeInstrAssignSingle(_temp, expr));
+		return _temp;
+	}
+
+	//A text that is the same for expressions that compute the same thing, if
+	//the expression is invariant in the loop; null otherwise.
+	private String key(NodeExpr expr) {
+		if (expr instanceof NodeExprInt) {
+			return Integer.toString(((NodeExprInt) expr).value());
+		} else if (expr instanceof NodeExprVar) {
+			String _id = ((NodeExprVar) expr).identifier();
+			return _variant.contains(_id) ? null : _id;
+		} else if (expr instanceof NodeExprArrayVar) {
+			String _id = ((NodeExprArrayVar) expr).identifier();
+			String _index = key(((NodeExprArrayVar) expr).index());
+			return _variant.contains(_id) || _index == null ? null : _id + "[" + _index + "]";
+		} else if (expr instanceof NodeExprPlus) {
+			return key("+", ((NodeExprPlus) expr).leftChild(), ((NodeExprPlus) expr).rightChild());
+		} else if (expr instanceof NodeExprMinus) {
+			return key("-", ((NodeExprMinus) expr).leftChild(), ((NodeExprMinus) expr).rightChild());
+		} else if (expr instanceof NodeExprTimes) {
+			return key("*", ((NodeExprTimes) expr).leftChild(), ((NodeExprTimes) expr).rightChild());
+		} else if (expr instanceof NodeExprDivide) {
+			return key("/", ((NodeExprDivide) expr).leftChild(), ((NodeExprDivide) expr).rightChild());
+		} else if (expr instanceof NodeExprMod) {
+			return key("%", ((NodeExprMod) expr).leftChild(), ((NodeExprMod) expr).rightChild());
+		}
+		return null; //calls, which are never invariant
+	}
+
+	private String key(String operator, NodeExpr left, NodeExpr right) {
+		String _left = key(left);
+		String _right = key(right);
+		return _left == null || _right == null ? null : "(" + _left + " " + operator + " " + _right + ")";
+	}
+
+	//Hoists what it can out of a loop, then out of the loops nested in it.
+	//Sets the result to the new loop, and the preheader to what goes before
+	//it.
+	private void hoistFrom(NodeInstrWhile loop) throws VisitorException {
+		InliningVisitor.Summary _summary = new InliningVisitor.Summary(loop);
+		_variant = new HashSet<String>(_summary.getAssigned());
+		_variant.addAll(_summary.getDeclared());
+		for (String callee : _summary.getCalls())
+			_variant.addAll(_writes.get(callee));
+		_safe = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+		_safe.addAll(new Unconditional(loop.relation()).getNodes());
+		_temps = new LinkedHashMap<String, String>();
+		_assigns = new ArrayList<NodeInstr>();
+		NodeExpr _relation;
+		NodeInstr _instr;
+		try {
+			_relation = rewrite(loop.relation());
+			_instr = statement(loop.instruction());
+		} finally {
+			_variant = null;
+			_safe = null;
+		}
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+		for (String temp : _temps.values())
+			_instrs.add(new NodeInstrDeclSingle(temp));
+		_instrs.addAll(_assigns);
+
+		_instr = statement(_instr); //the nested loops
+		_result = (_relation == loop.relation() && _instr == loop.instruction()) ? loop
+				: new NodeInstrWhile(_relation, _instr);
+		_preheader = _instrs;
+	}
+
+	/**
+	 * Collects the nodes of a condition that are sure to be evaluated before
+	 * it calls anything: those before the first call that are not on the
+	 * right of &amp;&amp; or ||.
+	 */
+	private static class Unconditional extends DepthFirstVisitor {
+		private List<Node> _nodes = new ArrayList<Node>();
+		private boolean _stopped;
+		private int _conditional; //how many right sides of && or || we are in
+
+		Unconditional(NodeExpr relation) throws VisitorException {
+			checkAndVisit(relation);
+		}
+
+		List<Node> getNodes() {
+			return _nodes;
+		}
+
+		protected void checkAndVisit(Node node) throws VisitorException {
+			if (_stopped)
+				return;
+			if (_conditional == 0)
+				_nodes.add(node);
+			super.checkAndVisit(node);
+		}
+
+		public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+			super.handleNodeExprProcCall(node);
+			_stopped = true;
+		}
+
+		public void handleNodeRelationAnd(NodeRelationAnd node) throws VisitorException {
+			checkAndVisit(node.leftChild());
+			_conditional++;
+			checkAndVisit(node.rightChild());
+			_conditional--;
+		}
+
+		public void handleNodeRelationOr(NodeRelationOr node) throws VisitorException {
+			checkAndVisit(node.leftChild());
+			_conditional++;
+			checkAndVisit(node.rightChild());
+			_conditional--;
+		}
+	}
+
+	public void handleNodeProgram(NodeProgram node) throws VisitorException {
+		_writes = InliningVisitor.globalWrites(node, _globals);
+		NodeListProc _procs = (NodeListProc) rewrite(node.listProc());
+		_result = (_procs == node.listProc()) ? node : new NodeProgram(node.listVarDecl(), _procs);
+	}
+
+	public void handleNodeListProcCons(NodeListProcCons node) throws VisitorException {
+		List<NodeProc> _procs = new ArrayList<NodeProc>();
+		boolean _changed = false;
+		for (NodeProc proc : node) {
+			NodeProc _proc = (NodeProc) rewrite(proc);
+			_changed |= _proc != proc;
+			_procs.add(_proc);
+		}
+		_result = _changed ? NodeListProc.of(_procs) : node;
+	}
+
+	public void handleNodeListProcNil(NodeListProcNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeProc(NodeProc node) throws VisitorException {
+		NodeInstr _instr = statement(node.instruction());
+		_result = (_instr == node.instruction()) ? node
+				: new NodeProc(node.identifier(), node.argumentList(), _instr);
+	}
+
+	public void handleNodeProcDeclArg(NodeProcDeclArg node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListProcDeclArgCons(NodeListProcDeclArgCons node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListProcDeclArgNil(NodeListProcDeclArgNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListVarDeclCons(NodeListVarDeclCons node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListVarDeclNil(NodeListVarDeclNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeVarDeclArray(NodeVarDeclArray node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeVarDeclSingle(NodeVarDeclSingle node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrDeclArray(NodeInstrDeclArray node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrDeclSingle(NodeInstrDeclSingle node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListInstrCons(NodeListInstrCons node) throws VisitorException {
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+		boolean _changed = false;
+		for (NodeInstr instr : node) {
+			List<NodeInstr> _expanded = expand(instr);
+			_changed |= _expanded.size() != 1 || _expanded.get(0) != instr;
+			_instrs.addAll(_expanded);
+		}
+		_result = _changed ? NodeListInstr.of(_instrs) : node;
+	}
+
+	public void handleNodeListInstrNil(NodeListInstrNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrBlock(NodeInstrBlock node) throws VisitorException {
+		NodeListInstr _list = (NodeListInstr) rewrite(node.instructions());
+		_result = (_list == node.instructions()) ? node : new NodeInstrBlock(_list);
+	}
+
+	public void handleNodeInstrAssignSingle(NodeInstrAssignSingle node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeInstrAssignSingle(node.identifier(), _expr);
+	}
+
+	public void handleNodeInstrAssignArray(NodeInstrAssignArray node) throws VisitorException {
+		NodeExpr _index = rewrite(node.index());
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_index == node.index() && _expr == node.expression()) ? node
+				: new NodeInstrAssignArray(node.identifier(), _index, _expr);
+	}
+
+	public void handleNodeInstrOutput(NodeInstrOutput node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeInstrOutput(_expr);
+	}
+
+	public void handleNodeInstrInputSingle(NodeInstrInputSingle node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrInputArray(NodeInstrInputArray node) throws VisitorException {
+		NodeExpr _index = rewrite(node.index());
+		_result = (_index == node.index()) ? node : new NodeInstrInputArray(node.identifier(), _index);
+	}
+
+	public void handleNodeInstrReturnExpr(NodeInstrReturnExpr node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeInstrReturnExpr(_expr);
+	}
+
+	public void handleNodeInstrProcCall(NodeInstrProcCall node) throws VisitorException {
+		NodeListProcCallArg _args = (NodeListProcCallArg) rewrite(node.arguments());
+		_result = (_args == node.arguments()) ? node
+				: new NodeInstrProcCall(node.identifier(), _args);
+	}
+
+	public void handleNodeInstrIfthen(NodeInstrIfthen node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _then = statement(node.thenInstruction());
+		_result = (_relation == node.relation() && _then == node.thenInstruction()) ? node
+				: new NodeInstrIfthen(_relation, _then);
+	}
+
+	public void handleNodeInstrIfthenelse(NodeInstrIfthenelse node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _then = statement(node.thenInstruction());
+		NodeInstr _else = statement(node.elseInstruction());
+		_result = (_relation == node.relation() && _then == node.thenInstruction()
+				&& _else == node.elseInstruction()) ? node
+				: new NodeInstrIfthenelse(_relation, _then, _else);
+	}
+
+	//A loop nested in the one being hoisted from is only rewritten here, and
+	//hoisted from once the outer loop is done.
+	public void handleNodeInstrWhile(NodeInstrWhile node) throws VisitorException {
+		if (_variant == null) {
+			hoistFrom(node);
+			return;
+		}
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _instr = statement(node.instruction());
+		_result = (_relation == node.relation() && _instr == node.instruction()) ? node
+				: new NodeInstrWhile(_relation, _instr);
+	}
+
+	public void handleNodeListProcCallArgCons(NodeListProcCallArgCons node) throws VisitorException {
+		List<NodeProcCallArg> _args = new ArrayList<NodeProcCallArg>();
+		boolean _changed = false;
+		for (NodeProcCallArg arg : node) {
+			NodeProcCallArg _arg = (NodeProcCallArg) rewrite(arg);
+			_changed |= _arg != arg;
+			_args.add(_arg);
+		}
+		_result = _changed ? NodeListProcCallArg.of(_args) : node;
+	}
+
+	public void handleNodeListProcCallArgNil(NodeListProcCallArgNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeProcCallArg(NodeProcCallArg node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeProcCallArg(_expr);
+	}
+
+	public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+		NodeListProcCallArg _args = (NodeListProcCallArg) rewrite(node.arguments());
+		_result = (_args == node.arguments()) ? node
+				: new NodeExprProcCall(node.identifier(), _args);
+	}
+
+	public void handleNodeExprArrayVar(NodeExprArrayVar node) throws VisitorException {
+		NodeExpr _index = rewrite(node.index());
+		_result = (_index == node.index()) ? node : new NodeExprArrayVar(node.identifier(), _index);
+	}
+
+	public void handleNodeExprVar(NodeExprVar node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprInt(NodeExprInt node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprTrue(NodeExprTrue node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprFalse(NodeExprFalse node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprPlus(NodeExprPlus node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprPlus(_left, _right);
+	}
+
+	public void handleNodeExprMinus(NodeExprMinus node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprMinus(_left, _right);
+	}
+
+	public void handleNodeExprTimes(NodeExprTimes node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprTimes(_left, _right);
+	}
+
+	public void handleNodeExprDivide(NodeExprDivide node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprDivide(_left, _right);
+	}
+
+	public void handleNodeExprMod(NodeExprMod node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprMod(_left, _right);
+	}
+
+	public void handleNodeRelationLessThan(NodeRelationLessThan node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationLessThan(_left, _right);
+	}
+
+	public void handleNodeRelationLessThanEqual(NodeRelationLessThanEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationLessThanEqual(_left, _right);
+	}
+
+	public void handleNodeRelationGreaterThan(NodeRelationGreaterThan node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationGreaterThan(_left, _right);
+	}
+
+	public void handleNodeRelationGreaterThanEqual(NodeRelationGreaterThanEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationGreaterThanEqual(_left, _right);
+	}
+
+	public void handleNodeRelationEqual(NodeRelationEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationEqual(_left, _right);
+	}
+
+	public void handleNodeRelationAnd(NodeRelationAnd node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationAnd(_left, _right);
+	}
+
+	public void handleNodeRelationOr(NodeRelationOr node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationOr(_left, _right);
+	}
+
+	public void handleNodeRelationNot(NodeRelationNot node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		_result = (_relation == node.relation()) ? node : new NodeRelationNot(_relation);
+	}
+}
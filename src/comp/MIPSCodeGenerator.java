@@ -1,27 +1,35 @@
 package comp;
 
 import java.io.*;
+import java.util.*;
 
 /**
- * This class encapsulates the process of writing MIPS instructions to an output
- * string. Once this string is created, you may output the string to either a
- * file or the java console (stdout). <p>
+ * This class encapsulates the process of writing MIPS instructions to a
+ * program. The program is kept as a list of {@link Instruction}s, which later
+ * passes may read and replace, and is rendered to text only when you output it
+ * to either a file or the java console (stdout). <p>
  * 
- * To write the string to a file, use {@link #writeToFile(String)}. To write it
+ * To write the program to a file, use {@link #writeToFile(String)}. To write it
  * to the console, use {@link #writeToConsole()}. <p>
  * 
  * Each <code>gen...</code> method corresponds to writing exactly one
- * instruction to the output string. The arguments to the methods specify the
+ * instruction to the program. The arguments to the methods specify the
  * variable parts of the instructions. (The one-instruction rule is relaxed for
  * the {@link #genOutput()} instruction, which also writes the text "syscall" and then
  * writes three instructions that serve to print a newline after the output
- * integer.)
+ * integer, and for {@link #genTimesI}, {@link #genDivideI} and {@link #genModI},
+ * which pick the cheapest sequence for their constant.)
  *
  * @version Fall 2007
  * @author The TAs
  */
 public class MIPSCodeGenerator {
-	private StringBuilder _codeString;
+	//the registers genSaveRegisters stores, from the top of the save area down
+	private static final Register[] SAVED_REGISTERS = { Register.RA,
+			Register.S0, Register.S1, Register.S2, Register.S3, Register.S4,
+			Register.S5, Register.S6, Register.S7, Register.FP };
+
+	private List<Instruction> _code;
 	private int _label; //This counter ensures we generate unique labels
     
 	/** 
@@ -29,7 +37,7 @@ public class MIPSCodeGenerator {
 	 */
 	public MIPSCodeGenerator() {
 		_label = 0;
-		_codeString = new StringBuilder();
+		_code = new ArrayList<Instruction>();
 	}
 	
 	/** 
@@ -65,7 +73,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genLabel( String label )
 	{
-		_codeString.append(label + ": \n");
+		_code.add(Instruction.label(label));
 	}
     
 	/** 
@@ -74,11 +82,11 @@ public class MIPSCodeGenerator {
 	 */
 	public void genOutput()
 	{
-		_codeString.append("\tli\t$v0, 1\n" +
-  		"\tsyscall\n" +
-  		"\tli\t$v0, 11\n" +
-  		"\tli\t$a0, 10\n" +
-  		"\tsyscall\n");
+		_code.add(Instruction.loadImmediate(Register.V0, 1));
+		_code.add(Instruction.syscall());
+		_code.add(Instruction.loadImmediate(Register.V0, 11));
+		_code.add(Instruction.loadImmediate(Register.A0, 10));
+		_code.add(Instruction.syscall());
 	}
 	 
 	/** 
@@ -86,8 +94,8 @@ public class MIPSCodeGenerator {
 	 */
 	public void genInput()
 	{
-		_codeString.append("\tli\t$v0, 5\n" +
-  		"\tsyscall\n");
+		_code.add(Instruction.loadImmediate(Register.V0, 5));
+		_code.add(Instruction.syscall());
 	}
 	 
 	/** 
@@ -95,7 +103,8 @@ public class MIPSCodeGenerator {
 	 */
 	public void genData()
 	{
-		_codeString.append(".data\n\n");
+		_code.add(Instruction.directive(Instruction.Opcode.DATA));
+		_code.add(Instruction.blank());
 	}
 	 
 	/** 
@@ -103,7 +112,9 @@ public class MIPSCodeGenerator {
 	 */
 	public void genText()
 	{
-		_codeString.append("\n.text\n\n");
+		_code.add(Instruction.blank());
+		_code.add(Instruction.directive(Instruction.Opcode.TEXT));
+		_code.add(Instruction.blank());
 	}
 	 
 	/** 
@@ -114,7 +125,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genMain()
 	{
-		_codeString.append("main:\n");
+		_code.add(Instruction.label("main"));
 	}
 	
 	/** 
@@ -124,17 +135,26 @@ public class MIPSCodeGenerator {
 	 */
 	public void genSaveRegisters()
 	{
-		_codeString.append("\tsub\t$sp, $sp, 40\n" +
-		"\tsw\t$ra, 40($sp)\n" +
-		"\tsw\t$s0, 36($sp)\n" +
-		"\tsw\t$s1, 32($sp)\n" +
-		"\tsw\t$s2, 28($sp)\n" +
-		"\tsw\t$s3, 24($sp)\n" +
-		"\tsw\t$s4, 20($sp)\n" +
-		"\tsw\t$s5, 16($sp)\n" +
-		"\tsw\t$s6, 12($sp)\n" +
-		"\tsw\t$s7, 8($sp)\n" +
-		"\tsw\t$fp, 4($sp)\n\n");
+		genSaveRegisters(getSavedRegisters());
+	}
+
+	/**
+	 * Write code to save only the given registers on the stack. They are
+	 * stored in the same order as by {@link #genSaveRegisters()}, packed so
+	 * that the save area takes four bytes per register.
+	 *
+	 * @param registers The registers to save; only the return address and
+	 *            s-registers are saved, anything else is ignored
+	 */
+	public void genSaveRegisters(Set<Register> registers)
+	{
+		List<Register> saved = savedInOrder(registers);
+		int size = 4 * saved.size();
+		if (size > 0)
+			genMinusI(Register.SP, size);
+		for (int i = 0; i < saved.size(); i++)
+			_code.add(Instruction.store(saved.get(i), size - 4 * i, Register.SP));
+		_code.add(Instruction.blank());
 	}
 	 
 	/** 
@@ -142,17 +162,41 @@ public class MIPSCodeGenerator {
 	 */
 	public void genRestoreRegisters()
 	{
-		_codeString.append("\tlw\t$fp, 4($sp)\n" +
-		"\tlw\t$s7, 8($sp)\n" +
-		"\tlw\t$s6, 12($sp)\n" +
-		"\tlw\t$s5, 16($sp)\n" +
-		"\tlw\t$s4, 20($sp)\n" +
-		"\tlw\t$s3, 24($sp)\n" +
-		"\tlw\t$s2, 28($sp)\n" +
-		"\tlw\t$s1, 32($sp)\n" +
-		"\tlw\t$s0, 36($sp)\n" +
-		"\tlw\t$ra, 40($sp)\n" +
-		"\tadd\t$sp, $sp, 40\n");
+		genRestoreRegisters(getSavedRegisters());
+	}
+
+	/**
+	 * Write code to restore registers saved by
+	 * {@link #genSaveRegisters(Set)} with the same set.
+	 */
+	public void genRestoreRegisters(Set<Register> registers)
+	{
+		List<Register> saved = savedInOrder(registers);
+		int size = 4 * saved.size();
+		for (int i = saved.size() - 1; i >= 0; i--)
+			_code.add(Instruction.load(saved.get(i), size - 4 * i, Register.SP));
+		if (size > 0)
+			genPlusI(Register.SP, size);
+	}
+
+	/**
+	 * Gets every register {@link #genSaveRegisters()} saves: the return
+	 * address, $s0-$s7 and the frame pointer.
+	 */
+	public static Set<Register> getSavedRegisters()
+	{
+		return new LinkedHashSet<Register>(Arrays.asList(SAVED_REGISTERS));
+	}
+
+	//the given registers that can be saved, in save order
+	private static List<Register> savedInOrder(Set<Register> registers)
+	{
+		List<Register> saved = new ArrayList<Register>();
+		for (Register reg : SAVED_REGISTERS) {
+			if (registers.contains(reg))
+				saved.add(reg);
+		}
+		return saved;
 	}
 
 	/**
@@ -160,7 +204,8 @@ public class MIPSCodeGenerator {
 	 */
 	public void genReturnFromProcedure()
 	{
-		_codeString.append("\tjr $ra\n\n");
+		_code.add(Instruction.jumpRegister(Register.RA));
+		_code.add(Instruction.blank());
 	}
 	 
 	/** 
@@ -173,8 +218,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genDecl( String id )
 	{
-		_codeString.append(id + "_" +
-  		":\t.word 0\n");
+		_code.add(Instruction.word(id + "_", 1));
 	}
 	 
 	/** 
@@ -188,9 +232,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genArrayDecl( int size, String id )
 	{
-		_codeString.append(id + "_" +
-  		":\t.word\t0:" +
-  		( size ) + "\n");
+		_code.add(Instruction.word(id + "_", size));
 	}
 
 	/** 
@@ -200,8 +242,8 @@ public class MIPSCodeGenerator {
 	 */
 	public void genPush(Register reg)
 	{
-		_codeString.append("\tsub\t$sp, $sp, 4\n"+
-			"\tsw\t$" + reg + ", 4($sp)\n");
+		genMinusI(Register.SP, 4);
+		genStoreWithOffset(reg, 4, Register.SP);
 	}
 
 	/**
@@ -211,8 +253,8 @@ public class MIPSCodeGenerator {
 	 */
 	public void genPop(Register reg)
 	{
-		_codeString.append("\tlw\t$" + reg + ", 4($sp)\n" +
-			"\tadd\t$sp, $sp, 4\n");
+		genLoadWithOffset(reg, 4, Register.SP);
+		genPlusI(Register.SP, 4);
 	}
 	 
 	/** 
@@ -226,10 +268,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genStore( Register reg, String label )
 	{
-		_codeString.append("\tsw\t$" +
-  		reg +
-  		", " +
-  		label + "_\n");
+		_code.add(Instruction.store(reg, label + "_", null));
 	}
 	 
 	/** 
@@ -245,13 +284,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genStoreIndirect( Register reg, String label, Register index )
 	{
-		_codeString.append("\tsw\t$" +
-  		reg +
-  		", " +
-  		label + "_" +
-  		"($" +
-  		index +
-  		")\n");
+		_code.add(Instruction.store(reg, label + "_", index));
 	}
 	
 	/** 
@@ -265,12 +298,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genStoreToLocation( Register reg, Register index )
 	{
-		_codeString.append("\tsw\t$" +
-  		reg +
-  		", " +
-  		"($" +
-  		index +
-  		")\n");
+		_code.add(Instruction.store(reg, index));
 	}
 	 
 	/** 
@@ -282,30 +310,25 @@ public class MIPSCodeGenerator {
 	 */
 	public void genLoad(Register reg, String label )
 	{
-		_codeString.append("\tlw\t$" +
-  		reg +
-  		", " +
-  		label + "_\n");
+		_code.add(Instruction.load(reg, label + "_", null));
 	}
 	
 	//this method generates a mips load instruction
 	//of the form lw reg1 offset(reg2)
 	public void genLoadWithOffset(Register reg1, int offset, Register reg2) {
-		_codeString.append("\tlw\t$" + 
-		reg1 + ", " + offset + "($" + reg2 + ")\n"); 
+		_code.add(Instruction.load(reg1, offset, reg2));
 	}
 	
 	//this method generates a mips store instruction 
 	//of the form sw reg1 offset(reg2)
 	public void genStoreWithOffset(Register reg1, int offset, Register reg2) {
-		_codeString.append("\tsw\t$" + 
-		reg1 + ", " + offset + "($" + reg2 + ")\n"); 
+		_code.add(Instruction.store(reg1, offset, reg2));
 	}
 	
 	//this method generates a mips jump instruction
 	//of the form jal label
 	public void genJumpLabel(String label) {
-		_codeString.append("\tjal\t" + label + "\n");
+		_code.add(Instruction.jump(Instruction.Opcode.JAL, label));
 	}
 	/** 
 	 * Write an lw instruction in the format <code>
@@ -320,13 +343,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genLoadIndirect(Register reg, String label, Register index )
 	{
-		_codeString.append("\tlw\t$" +
-  		reg +
-  		", " +
-  		label + "_" +
-  		"($" +
-  		index +
-  		")\n");
+		_code.add(Instruction.load(reg, label + "_", index));
 	}
 	
 	/** 
@@ -340,12 +357,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genLoadFromLocation(Register reg, Register index )
 	{
-		_codeString.append("\tlw\t$" +
-  		reg +
-  		", " +
-  		"($" +
-  		index +
-  		")\n");
+		_code.add(Instruction.load(reg, index));
 	}
 	 
 	/** 
@@ -355,10 +367,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genLoadI( Register reg, int val )
 	{
-		_codeString.append("\tli\t$" +
-  		reg +
-  		", " +
-  		val + "\n");
+		_code.add(Instruction.loadImmediate(reg, val));
 	}
 	 
 	/** 
@@ -368,11 +377,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genMove( Register reg1, Register reg2 )
 	{
-		_codeString.append("\tmove\t" +
-  		"$" +
-  		reg1 +
-  		", $" +
-  		reg2 + "\n");
+		_code.add(Instruction.move(reg1, reg2));
 	}
 	 
 	/** 
@@ -383,19 +388,13 @@ public class MIPSCodeGenerator {
 	 */
 	public void genPlus( Register reg1, Register reg2 )
 	{
-		_codeString.append("\tadd\t" +
-  		"$" +
-  		reg1 +
-  		", $" +
-  		reg1 +
-  		", $" +
-  		reg2 + "\n");
+		genThreeRegister(Instruction.Opcode.ADD, reg1, reg1, reg2);
 	}
 	
 	//this method creates a mips add instruction 
 	//of the form add $t0, $t0, 4
 	public void genPlusI(Register reg1, int val) {
-		_codeString.append("\tadd\t" + "$" + reg1 + ", $" + reg1 + ", " + val + "\n");
+		_code.add(Instruction.arithmetic(Instruction.Opcode.ADD, reg1, reg1, val));
 	}
 	 
 	/** 
@@ -407,19 +406,13 @@ public class MIPSCodeGenerator {
 	 */
 	public void genMinus( Register reg1, Register reg2 )
 	{
-		_codeString.append("\tsub\t" +
-  		"$" +
-  		reg1 +
-  		", $" +
-  		reg1 +
-  		", $" +
-  		reg2 + "\n");
+		genThreeRegister(Instruction.Opcode.SUB, reg1, reg1, reg2);
 	}
 	
 	//this method creates a mips subtract instruction 
 	//of the form sub $t0, $t0, 4
 	public void genMinusI(Register reg1, int val) {
-		_codeString.append("\tsub\t" + "$" + reg1 + ", $" + reg1 + ", " + val + "\n");
+		_code.add(Instruction.arithmetic(Instruction.Opcode.SUB, reg1, reg1, val));
 	}
 	 
 	/** 
@@ -431,13 +424,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genTimes( Register reg1, Register reg2 )
 	{
-		_codeString.append("\tmul\t" +
-  		"$" +
-  		reg1 +
-  		", $" +
-  		reg1 +
-  		", $" +
-  		reg2 + "\n");
+		genThreeRegister(Instruction.Opcode.MUL, reg1, reg1, reg2);
 	}
 	
 	/** 
@@ -449,13 +436,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genDivide( Register reg1, Register reg2 ) 
 	{
-		_codeString.append("\tdiv\t" +
-		"$" +
-		reg1 +
-		", $" +
-		reg1 +
-		", $" +
-		reg2 + "\n");
+		genThreeRegister(Instruction.Opcode.DIV, reg1, reg1, reg2);
 	}
 
 	/** 
@@ -467,13 +448,418 @@ public class MIPSCodeGenerator {
 	 */
 	public void genMod( Register reg1, Register reg2 )
 	{
-		_codeString.append("\trem\t" +
-		"$" +
-		reg1 +
-		", $" +
-		reg1 +
-		", $" +
-		reg2 + "\n");
+		genThreeRegister(Instruction.Opcode.REM, reg1, reg1, reg2);
+	}
+	 
+	/** 
+	 * Write an add instruction in the format <code>
+	 * add $t0, $t1, $t2
+	 * </code>
+	 * @param dest Destination register
+	 * @param reg1 Left-hand source register
+	 * @param reg2 Right-hand source register
+	 */
+	public void genPlus( Register dest, Register reg1, Register reg2 )
+	{
+		genThreeRegister(Instruction.Opcode.ADD, dest, reg1, reg2);
+	}
+
+	/** 
+	 * Write a sub instruction in the format <code>
+	 * sub $t0, $t1, $t2
+	 * </code>
+	 * @param dest Destination register
+	 * @param reg1 Minuend source register
+	 * @param reg2 Subtrahend source register
+	 */
+	public void genMinus( Register dest, Register reg1, Register reg2 )
+	{
+		genThreeRegister(Instruction.Opcode.SUB, dest, reg1, reg2);
+	}
+
+	/** 
+	 * Write a mul instruction in the format <code>
+	 * mul $t0, $t1, $t2
+	 * </code>
+	 * @param dest Destination register
+	 * @param reg1 Left-hand source register
+	 * @param reg2 Right-hand source register
+	 */
+	public void genTimes( Register dest, Register reg1, Register reg2 )
+	{
+		genThreeRegister(Instruction.Opcode.MUL, dest, reg1, reg2);
+	}
+
+	/** 
+	 * Write a div instruction in the format <code>
+	 * div $t0, $t1, $t2
+	 * </code>
+	 * @param dest Destination register
+	 * @param reg1 Dividend source register
+	 * @param reg2 Divisor source register
+	 */
+	public void genDivide( Register dest, Register reg1, Register reg2 )
+	{
+		genThreeRegister(Instruction.Opcode.DIV, dest, reg1, reg2);
+	}
+
+	/** 
+	 * Write a rem instruction in the format <code>
+	 * rem $t0, $t1, $t2
+	 * </code>
+	 * @param dest Destination register
+	 * @param reg1 Dividend source register
+	 * @param reg2 Divisor source register
+	 */
+	public void genMod( Register dest, Register reg1, Register reg2 )
+	{
+		genThreeRegister(Instruction.Opcode.REM, dest, reg1, reg2);
+	}
+
+	/** 
+	 * Write an addu instruction in the format <code>
+	 * addu $t0, $t1, $t2
+	 * </code>, which wraps around instead of trapping on overflow
+	 * @param dest Destination register
+	 * @param reg1 Left-hand source register
+	 * @param reg2 Right-hand source register
+	 */
+	public void genPlusUnsigned( Register dest, Register reg1, Register reg2 )
+	{
+		genThreeRegister(Instruction.Opcode.ADDU, dest, reg1, reg2);
+	}
+
+	/** 
+	 * Write a subu instruction in the format <code>
+	 * subu $t0, $t1, $t2
+	 * </code>, which wraps around instead of trapping on overflow
+	 * @param dest Destination register
+	 * @param reg1 Minuend source register
+	 * @param reg2 Subtrahend source register
+	 */
+	public void genMinusUnsigned( Register dest, Register reg1, Register reg2 )
+	{
+		genThreeRegister(Instruction.Opcode.SUBU, dest, reg1, reg2);
+	}
+
+	/** 
+	 * Write a sll instruction in the format <code>
+	 * sll $t0, $t1, 2
+	 * </code>
+	 * @param dest Destination register
+	 * @param reg Source register
+	 * @param amount Bits to shift by, from 0 to 31
+	 */
+	public void genShiftLeft( Register dest, Register reg, int amount )
+	{
+		_code.add(Instruction.arithmetic(Instruction.Opcode.SLL, dest, reg, amount));
+	}
+
+	/** 
+	 * Write a sra instruction in the format <code>
+	 * sra $t0, $t1, 2
+	 * </code>, which shifts copies of the sign bit in
+	 * @param dest Destination register
+	 * @param reg Source register
+	 * @param amount Bits to shift by, from 0 to 31
+	 */
+	public void genShiftRightArithmetic( Register dest, Register reg, int amount )
+	{
+		_code.add(Instruction.arithmetic(Instruction.Opcode.SRA, dest, reg, amount));
+	}
+
+	/** 
+	 * Write a srl instruction in the format <code>
+	 * srl $t0, $t1, 2
+	 * </code>, which shifts zeroes in
+	 * @param dest Destination register
+	 * @param reg Source register
+	 * @param amount Bits to shift by, from 0 to 31
+	 */
+	public void genShiftRightLogical( Register dest, Register reg, int amount )
+	{
+		_code.add(Instruction.arithmetic(Instruction.Opcode.SRL, dest, reg, amount));
+	}
+
+	/** 
+	 * Write an andi instruction in the format <code>
+	 * andi $t0, $t1, 255
+	 * </code>
+	 * @param dest Destination register
+	 * @param reg Source register
+	 * @param mask The mask, from 0 to 65535
+	 */
+	public void genAndI( Register dest, Register reg, int mask )
+	{
+		_code.add(Instruction.arithmetic(Instruction.Opcode.ANDI, dest, reg, mask));
+	}
+
+	/** 
+	 * Write a mult instruction in the format <code>
+	 * mult $t0, $t1
+	 * </code>, leaving the high word of the product for {@link #genMoveFromHi}
+	 * @param reg1 Left-hand source register
+	 * @param reg2 Right-hand source register
+	 */
+	public void genMult( Register reg1, Register reg2 )
+	{
+		_code.add(Instruction.multiply(reg1, reg2));
+	}
+
+	/** 
+	 * Write a mfhi instruction in the format <code>
+	 * mfhi $t0
+	 * </code>
+	 * @param dest Destination register
+	 */
+	public void genMoveFromHi( Register dest )
+	{
+		_code.add(Instruction.moveFromHi(dest));
+	}
+
+	/**
+	 * Multiplies a register by a constant, wrapping around on overflow like
+	 * <code>mul</code>. A constant of the form 2^a, 2^a(2^b + 1) or
+	 * 2^a(2^b - 1), or the negation of one, becomes shifts and additions when
+	 * that takes at most three instructions; any other is loaded into the
+	 * scratch register for a <code>mul</code>.
+	 *
+	 * @param dest Destination register, which may be reg
+	 * @param reg Source register
+	 * @param value The constant
+	 * @param scratch A register the sequence may overwrite, other than dest
+	 *            and reg
+	 */
+	public void genTimesI( Register dest, Register reg, int value, Register scratch )
+	{
+		if (value == 0) {
+			genLoadI(dest, 0);
+			return;
+		}
+		int _magnitude = value < 0 ? -value : value; //Integer.MIN_VALUE stays 2^31, read unsigned
+		int _shift = Integer.numberOfTrailingZeros(_magnitude);
+		int _odd = _magnitude >>> _shift;
+		boolean _plus = _odd != 1 && isPowerOfTwo(_odd - 1);
+		boolean _minus = _odd != 1 && !_plus && isPowerOfTwo(_odd + 1);
+		int _length = (_odd == 1 ? 0 : 2) + (_shift > 0 ? 1 : 0) + (value < 0 ? 1 : 0);
+		if ((_odd != 1 && !_plus && !_minus) || _length > 3) {
+			genLoadI(scratch, value);
+			genTimes(dest, reg, scratch);
+			return;
+		}
+		Register _from = reg;
+		if (_plus || _minus) { //x * (2^b +- 1) == (x << b) +- x
+			int _bits = Integer.numberOfTrailingZeros(_plus ? _odd - 1 : _odd + 1);
+			genShiftLeft(scratch, reg, _bits);
+			if (_plus) {
+				genPlusUnsigned(dest, scratch, reg);
+			} else {
+				genMinusUnsigned(dest, scratch, reg);
+			}
+			_from = dest;
+		}
+		if (_shift > 0) {
+			genShiftLeft(dest, _from, _shift);
+			_from = dest;
+		}
+		if (value < 0) {
+			genMinusUnsigned(dest, Register.ZERO, _from);
+			_from = dest;
+		}
+		if (_from != dest) {
+			genMove(dest, _from);
+		}
+	}
+
+	/**
+	 * Divides a register by a constant, rounding towards zero like
+	 * <code>div</code>. Powers of two become shifts, with a bias added to
+	 * negative dividends so they round the same way. Other constants are
+	 * divided by multiplying by a "magic number" close to 2^(32+s)/value and
+	 * keeping the high word, as in Hacker's Delight, chapter 10. Zero and
+	 * Integer.MIN_VALUE are left to <code>div</code>.
+	 *
+	 * @param dest Destination register, which may be reg
+	 * @param reg Dividend register
+	 * @param value The divisor
+	 * @param scratch A register the sequence may overwrite, other than dest
+	 *            and reg
+	 */
+	public void genDivideI( Register dest, Register reg, int value, Register scratch )
+	{
+		int _magnitude = Math.abs(value);
+		if (value == 0 || value == Integer.MIN_VALUE) {
+			genLoadI(scratch, value);
+			genDivide(dest, reg, scratch);
+		} else if (_magnitude == 1) {
+			if (value > 0) {
+				genMove(dest, reg);
+			} else {
+				genMinusUnsigned(dest, Register.ZERO, reg);
+			}
+		} else if (isPowerOfTwo(_magnitude)) {
+			int _shift = Integer.numberOfTrailingZeros(_magnitude);
+			genRoundingBias(scratch, reg, _shift);
+			genPlusUnsigned(scratch, reg, scratch);
+			genShiftRightArithmetic(dest, scratch, _shift);
+			if (value < 0) {
+				genMinusUnsigned(dest, Register.ZERO, dest);
+			}
+		} else {
+			int[] _magic = magic(value);
+			genLoadI(scratch, _magic[0]);
+			genMult(reg, scratch);
+			genMoveFromHi(scratch);
+			if (value > 0 && _magic[0] < 0) {
+				genPlusUnsigned(scratch, scratch, reg);
+			} else if (value < 0 && _magic[0] > 0) {
+				genMinusUnsigned(scratch, scratch, reg);
+			}
+			if (_magic[1] > 0) {
+				genShiftRightArithmetic(scratch, scratch, _magic[1]);
+			}
+			genShiftRightLogical(dest, scratch, 31); //add one to a negative quotient
+			genPlusUnsigned(dest, scratch, dest);
+		}
+	}
+
+	/**
+	 * Takes the remainder of a register and a constant, with the sign of the
+	 * dividend like <code>rem</code>. Powers of two become a mask, with the
+	 * same bias as {@link #genDivideI} for negative dividends. Other constants
+	 * subtract the divisor times the quotient from {@link #genDivideI}. Zero
+	 * and Integer.MIN_VALUE are left to <code>rem</code>.
+	 *
+	 * @param dest Destination register, which may be reg
+	 * @param reg Dividend register
+	 * @param value The divisor
+	 * @param scratch1 A register the sequence may overwrite, other than dest
+	 *            and reg
+	 * @param scratch2 Another one, only used when value is not a power of two
+	 */
+	public void genModI( Register dest, Register reg, int value, Register scratch1, Register scratch2 )
+	{
+		int _magnitude = Math.abs(value);
+		if (value == 0 || value == Integer.MIN_VALUE) {
+			genLoadI(scratch1, value);
+			genMod(dest, reg, scratch1);
+		} else if (_magnitude == 1) {
+			genLoadI(dest, 0);
+		} else if (isPowerOfTwo(_magnitude)) { //((x + bias) & (2^k - 1)) - bias
+			int _shift = Integer.numberOfTrailingZeros(_magnitude);
+			genRoundingBias(scratch1, reg, _shift);
+			genPlusUnsigned(dest, reg, scratch1);
+			if (_magnitude - 1 <= 0xffff) {
+				genAndI(dest, dest, _magnitude - 1);
+			} else { //too wide for andi, so shift the high bits out and back
+				genShiftLeft(dest, dest, 32 - _shift);
+				genShiftRightLogical(dest, dest, 32 - _shift);
+			}
+			genMinusUnsigned(dest, dest, scratch1);
+		} else {
+			genDivideI(scratch2, reg, value, scratch1);
+			genTimesI(scratch2, scratch2, value, scratch1);
+			genMinusUnsigned(dest, reg, scratch2);
+		}
+	}
+
+	//Loads 2^shift - 1 into dest if reg is negative and 0 otherwise, which
+	//makes a shift of reg plus dest round towards zero.
+	private void genRoundingBias( Register dest, Register reg, int shift )
+	{
+		if (shift == 1) {
+			genShiftRightLogical(dest, reg, 31);
+		} else {
+			genShiftRightArithmetic(dest, reg, 31);
+			genShiftRightLogical(dest, dest, 32 - shift);
+		}
+	}
+
+	//Whether value, read as unsigned, is a power of two
+	private static boolean isPowerOfTwo( int value )
+	{
+		return value != 0 && (value & (value - 1)) == 0;
+	}
+
+	//The magic number and shift for dividing by a constant other than 0, 1,
+	//-1 and Integer.MIN_VALUE, computed as in Hacker's Delight, figure 10-1.
+	//The arithmetic is on unsigned 32-bit values, kept in longs.
+	private static int[] magic( int divisor )
+	{
+		final long _twoTo31 = 0x80000000L;
+		final long _mask = 0xffffffffL;
+		long _absolute = Math.abs((long) divisor);
+		long _t = _twoTo31 + (divisor < 0 ? 1 : 0);
+		long _absoluteNc = _t - 1 - _t % _absolute; //absolute value of nc
+		int _p = 31;
+		long _q1 = _twoTo31 / _absoluteNc; //2^p / |nc|
+		long _r1 = _twoTo31 - _q1 * _absoluteNc;
+		long _q2 = _twoTo31 / _absolute; //2^p / |d|
+		long _r2 = _twoTo31 - _q2 * _absolute;
+		long _delta;
+		do {
+			_p++;
+			_q1 = (2 * _q1) & _mask;
+			_r1 = (2 * _r1) & _mask;
+			if (_r1 >= _absoluteNc) {
+				_q1++;
+				_r1 -= _absoluteNc;
+			}
+			_q2 = (2 * _q2) & _mask;
+			_r2 = (2 * _r2) & _mask;
+			if (_r2 >= _absolute) {
+				_q2++;
+				_r2 -= _absolute;
+			}
+			_delta = _absolute - _r2;
+		} while (_q1 < _delta || (_q1 == _delta && _r1 == 0));
+		int _magic = (int) (_q2 + 1);
+		return new int[] { divisor < 0 ? -_magic : _magic, _p - 32 };
+	}
+
+	/** 
+	 * Write a seq instruction in the format <code>
+	 * seq $t0, $t1, $t2
+	 * </code>
+	 * @param dest Destination register
+	 * @param reg1 Left-hand source register
+	 * @param reg2 Right-hand source register
+	 */
+	public void genStoreEq( Register dest, Register reg1, Register reg2 )
+	{
+		genThreeRegister(Instruction.Opcode.SEQ, dest, reg1, reg2);
+	}
+
+	/** 
+	 * Write a slt instruction in the format <code>
+	 * slt $t0, $t1, $t2
+	 * </code>
+	 * @param dest Destination register
+	 * @param reg1 Left-hand source register
+	 * @param reg2 Right-hand source register
+	 */
+	public void genStoreLessThan( Register dest, Register reg1, Register reg2 )
+	{
+		genThreeRegister(Instruction.Opcode.SLT, dest, reg1, reg2);
+	}
+
+	/** 
+	 * Write a sle instruction in the format <code>
+	 * sle $t0, $t1, $t2
+	 * </code>
+	 * @param dest Destination register
+	 * @param reg1 Left-hand source register
+	 * @param reg2 Right-hand source register
+	 */
+	public void genStoreLessEq( Register dest, Register reg1, Register reg2 )
+	{
+		genThreeRegister(Instruction.Opcode.SLE, dest, reg1, reg2);
+	}
+
+	//writes an instruction of the form op $dest, $reg1, $reg2
+	private void genThreeRegister(Instruction.Opcode op, Register dest, Register reg1, Register reg2)
+	{
+		_code.add(Instruction.arithmetic(op, dest, reg1, reg2));
 	}
 	 
 	/**  
@@ -482,8 +868,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genJump( String label )
 	{
-		_codeString.append("\tj\t" +
-  		label + "\n");
+		_code.add(Instruction.jump(Instruction.Opcode.J, label));
 	}
 	
 	/** 
@@ -492,8 +877,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genProcJumpAndLink( String label )
 	{
-		_codeString.append("\tjal\t" +
-  		label + "\n");
+		_code.add(Instruction.jump(Instruction.Opcode.JAL, label));
 	}
 	
 	/** 
@@ -503,10 +887,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genJumpEqualToZero( Register reg, String label )
 	{
-		_codeString.append("\tbeqz\t$" +
-		reg +
-		", " +
-		label + "\n");
+		_code.add(Instruction.branch(Instruction.Opcode.BEQZ, reg, label));
 	}
 	 
 	/** 
@@ -516,10 +897,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genJumpNotEqualToZero( Register reg, String label )
 	{
-		_codeString.append("\tbnez\t$" +
-		reg +
-		", " +
-		label + "\n");
+		_code.add(Instruction.branch(Instruction.Opcode.BNEZ, reg, label));
 	}
 	 
 	/** 
@@ -530,13 +908,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genStoreEq( Register reg1, Register reg2)
 	{
-		_codeString.append("\tseq\t" +
-  		"$" +
-  		reg1 +
-  		", $" +
-  		reg1 +
-  		", $" +
-  		reg2 + "\n");
+		genThreeRegister(Instruction.Opcode.SEQ, reg1, reg1, reg2);
 	}
 	 
 	/** 
@@ -547,13 +919,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genStoreGreaterEq( Register reg1, Register reg2)
 	{
-		_codeString.append("\tsge\t" +
-  		"$" +
-  		reg1 +
-  		", $" +
-  		reg1 +
-  		", $" +
-  		reg2 + "\n");
+		genThreeRegister(Instruction.Opcode.SGE, reg1, reg1, reg2);
 	}
 	 
 	/** 
@@ -564,13 +930,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genStoreGreaterThan( Register reg1, Register reg2)
 	{
-		_codeString.append("\tsgt\t" +
-  		"$" +
-  		reg1 +
-  		", $" +
-  		reg1 +
-  		", $" +
-  		reg2 + "\n");
+		genThreeRegister(Instruction.Opcode.SGT, reg1, reg1, reg2);
 	}
 	 
 	/** 
@@ -581,13 +941,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genStoreLessThan( Register reg1, Register reg2)
 	{
-		_codeString.append("\tslt\t" +
-  		"$" +
-  		reg1 +
-  		", $" +
-  		reg1 +
-  		", $" +
-  		reg2 + "\n");
+		genThreeRegister(Instruction.Opcode.SLT, reg1, reg1, reg2);
 	}
 	 
 	/** 
@@ -598,13 +952,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genStoreLessEq( Register reg1, Register reg2)
 	{
-		_codeString.append("\tsle\t" +
-  		"$" +
-  		reg1 +
-  		", $" +
-  		reg1 +
-  		", $" +
-  		reg2 + "\n");
+		genThreeRegister(Instruction.Opcode.SLE, reg1, reg1, reg2);
 	}
 
 	/** 
@@ -615,12 +963,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genJumpEq( Register reg1, Register reg2, String label )
 	{
-		_codeString.append("\tbeq\t$" +
-		reg1 +
-		", $" + 
-		reg2 +
-		", " +
-		label + "\n");
+		_code.add(Instruction.branch(Instruction.Opcode.BEQ, reg1, reg2, label));
 	}
 	 
 	/** 
@@ -631,12 +974,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genJumpGreaterEq( Register reg1, Register reg2, String label )
 	{
-		_codeString.append("\tbge\t$" +
-  		reg1 +
-  		", $" +
-  		reg2 +
-  		", " +
-  		label + "\n");
+		_code.add(Instruction.branch(Instruction.Opcode.BGE, reg1, reg2, label));
 	}
 	 
 	/** 
@@ -647,12 +985,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genJumpLessEq( Register reg1, Register reg2, String label )
 	{
-		_codeString.append("\tble\t$" +
-  		reg1 +
-  		", $" +
-  		reg2 +
-  		", " +
-  		label + "\n");
+		_code.add(Instruction.branch(Instruction.Opcode.BLE, reg1, reg2, label));
 	}
 	 
 	/** 
@@ -663,12 +996,7 @@ public class MIPSCodeGenerator {
 	 */
 	public void genJumpGreaterThan( Register reg1, Register reg2, String label )
 	{
-		_codeString.append("\tbgt\t$" +
-  		reg1 +
-  		", $" +
-  		reg2 +
-  		", " +
-  		label + "\n");
+		_code.add(Instruction.branch(Instruction.Opcode.BGT, reg1, reg2, label));
 	}
 	 
 	/** 
@@ -679,14 +1007,92 @@ public class MIPSCodeGenerator {
 	 */
 	public void genJumpLessThan( Register reg1, Register reg2, String label )
 	{
-		_codeString.append("\tblt\t$" +
-  		reg1 +
-  		", $" +
-  		reg2 +
-  		", " +
-  		label + "\n");
+		_code.add(Instruction.branch(Instruction.Opcode.BLT, reg1, reg2, label));
 	}
 	 
+	/** 
+	 * Write a bne instruction, with the label specified by label.
+	 * @param reg1 Left-hand register
+	 * @param reg2 Right-hand register
+	 * @param label Unique identifier for the label
+	 */
+	public void genJumpNotEq( Register reg1, Register reg2, String label )
+	{
+		_code.add(Instruction.branch(Instruction.Opcode.BNE, reg1, reg2, label));
+	}
+
+	/** 
+	 * Write a beq instruction comparing against a constant, as in
+	 * <code>beq $t0, 5, label</code>.
+	 * @param reg Left-hand register
+	 * @param val Right-hand constant
+	 * @param label Unique identifier for the label
+	 */
+	public void genJumpEq( Register reg, int val, String label )
+	{
+		_code.add(Instruction.branch(Instruction.Opcode.BEQ, reg, val, label));
+	}
+
+	/** 
+	 * Write a bne instruction comparing against a constant, as in
+	 * <code>bne $t0, 5, label</code>.
+	 * @param reg Left-hand register
+	 * @param val Right-hand constant
+	 * @param label Unique identifier for the label
+	 */
+	public void genJumpNotEq( Register reg, int val, String label )
+	{
+		_code.add(Instruction.branch(Instruction.Opcode.BNE, reg, val, label));
+	}
+
+	/** 
+	 * Write a bge instruction comparing against a constant, as in
+	 * <code>bge $t0, 5, label</code>.
+	 * @param reg Left-hand register
+	 * @param val Right-hand constant
+	 * @param label Unique identifier for the label
+	 */
+	public void genJumpGreaterEq( Register reg, int val, String label )
+	{
+		_code.add(Instruction.branch(Instruction.Opcode.BGE, reg, val, label));
+	}
+
+	/** 
+	 * Write a ble instruction comparing against a constant, as in
+	 * <code>ble $t0, 5, label</code>.
+	 * @param reg Left-hand register
+	 * @param val Right-hand constant
+	 * @param label Unique identifier for the label
+	 */
+	public void genJumpLessEq( Register reg, int val, String label )
+	{
+		_code.add(Instruction.branch(Instruction.Opcode.BLE, reg, val, label));
+	}
+
+	/** 
+	 * Write a bgt instruction comparing against a constant, as in
+	 * <code>bgt $t0, 5, label</code>.
+	 * @param reg Left-hand register
+	 * @param val Right-hand constant
+	 * @param label Unique identifier for the label
+	 */
+	public void genJumpGreaterThan( Register reg, int val, String label )
+	{
+		_code.add(Instruction.branch(Instruction.Opcode.BGT, reg, val, label));
+	}
+
+	/** 
+	 * Write a blt instruction comparing against a constant, as in
+	 * <code>blt $t0, 5, label</code>.
+	 * @param reg Left-hand register
+	 * @param val Right-hand constant
+	 * @param label Unique identifier for the label
+	 */
+	public void genJumpLessThan( Register reg, int val, String label )
+	{
+		_code.add(Instruction.branch(Instruction.Opcode.BLT, reg, val, label));
+	}
+
 	/** 
 	 * Write a comment introduced by a # sign.
 	 * Comments are nice but not required.
@@ -694,39 +1100,70 @@ public class MIPSCodeGenerator {
 	 */
 	public void genComment( String comment )
 	{
-		_codeString.append("# " + comment + "\n");
+		_code.add(Instruction.comment(comment));
+	}
+
+	/**
+	 * Returns the program so far as a list of {@link Instruction}s, one per
+	 * line, for passes such as the {@link PeepholeOptimizer}. The list is
+	 * read-only; use setInstructions to change the program.
+	 */
+	public List<Instruction> getInstructions()
+	{
+		return Collections.unmodifiableList(_code);
 	}
 
 	/**
-	 * Write the _codeString (your program so far) to the console
+	 * Replaces the program so far with the given instructions.
+	 * @param instructions Instructions, as returned by getInstructions()
+	 */
+	public void setInstructions(List<Instruction> instructions)
+	{
+		_code = new ArrayList<Instruction>(instructions);
+	}
+
+	/**
+	 * Renders the program so far as MAL text, one line per instruction.
+	 */
+	public String render()
+	{
+		StringBuilder text = new StringBuilder(_code.size() * 20);
+		for (Instruction instruction : _code) {
+			instruction.appendTo(text);
+			text.append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Write the program so far to the console
 	 */
 	public void writeToConsole()
 	{
-		System.out.println(_codeString.toString() + "\n");
+		System.out.println(render() + "\n");
 	}
 
 	/**
-	 * Write the _codeString (your program so far) to the file
+	 * Write the program so far to the file
+	 * 
+	 * @throws IOException If the file cannot be written
 	 */
-	public void writeToFile(String filename)
+	public void writeToFile(String filename) throws IOException
 	{
+		Writer out = new BufferedWriter(new FileWriter(filename));
 		try {
-			FileWriter out = new FileWriter(filename);
-			out.write(_codeString.toString() + "\n");
-			out.close();
+			out.write(render());
+			out.write("\n");
 		}
-		catch(java.io.IOException e)
-		{
-			System.err.println(e.getMessage() + "\n");
-			e.printStackTrace(System.err);
-			System.exit(1);
+		finally {
+			out.close();
 		}
 	}		
 
 	/**
 	 * A demonstration of the use of this class.
 	 */
-	public static void main(String argv[])
+	public static void main(String argv[]) throws IOException
 	{
 		MIPSCodeGenerator mcg = new MIPSCodeGenerator();
 		mcg.genPush(Register.S0);
@@ -4,6 +4,9 @@ package comp;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 
 import comp.nodes.*;
 
@@ -44,17 +47,35 @@ public class Parser {
      * 
      * @param name
      *           Name of file to parse
+     * @throws FileNotFoundException
+     *           If the file does not exist
      */
     public Parser(String name) throws LexicalException, IOException {
         try {
             _tokenizer = new Tokenizer(name);
         } catch (FileNotFoundException e) {
-            System.out.println("Error! File " + name + " not found!");
-            System.exit(1);
+            throw new FileNotFoundException("Error! File " + name + " not found!");
         }
         advanceTokenStream();
     }
 
+    /**
+     * Creates a Parser that reads the program from the given Reader.
+     */
+    public Parser(Reader input) throws LexicalException, IOException {
+        _tokenizer = new Tokenizer(input);
+        advanceTokenStream();
+    }
+
+    /**
+     * Creates a Parser that takes its tokens from the given Tokenizer, which
+     * may be a subclass replaying tokens read earlier.
+     */
+    public Parser(Tokenizer tokenizer) throws LexicalException, IOException {
+        _tokenizer = tokenizer;
+        advanceTokenStream();
+    }
+
     /**
      * Creates a Parser, presumably taking input from stdin.
      */
@@ -74,6 +95,13 @@ public class Parser {
 		return parseProgram();
     }
 
+    /**
+     * The number of tokens read from the input so far.
+     */
+    public int getTokenCount() {
+        return _tokenizer.getTokenCount();
+    }
+
     /**
      * Set _currentToken to _nextToken and set _nextToken to the next token from
      * _tokenizer.
@@ -181,9 +209,11 @@ public class Parser {
 	// of not starting a procedure correctly.
 	// The rule being followed here is:
 	// procedure int ID ( ProcArgs ) Instr ListProc
+	// Like the other list rules, it loops over the elements and builds
+	// the cons nodes at the end, so long lists do not use up the stack.
 	private NodeListProc listProc() throws LexicalException, IOException, SyntaxException {
-		NodeListProc _newListProc;
-		if (eatToken(TokenType.PROCEDURE)) {
+		List<NodeProc> _procs = new ArrayList<NodeProc>();
+		while (eatToken(TokenType.PROCEDURE)) {
 			expectToken(TokenType.INT);
 			expectToken(TokenType.ID); //need all of these tokens exactly
 			String id = _currentToken.getName();
@@ -191,15 +221,11 @@ public class Parser {
 			NodeListProcDeclArg arglist = procArgs();
 			expectToken(TokenType.RIGHTPAREN);
 			NodeInstr instr = instr();
-			NodeProc _head = new NodeProc(id, arglist, instr); //not in the empty case, so
-			_newListProc = new NodeListProcCons(_head, listProc()); //make a cons
-		} else if (eatToken(TokenType.EOF)) { //in the empty case, so make a nil
-			_newListProc = new NodeListProcNil();
-		} else { //error->throw syntax message
-			die("expected procedure");
-			_newListProc = null;
+			_procs.add(new NodeProc(id, arglist, instr));
 		}
-		return _newListProc;
+		if (!eatToken(TokenType.EOF)) //error->throw syntax message
+			die("expected procedure");
+		return NodeListProc.of(_procs);
 	}
 	
 	// this method processes procedure arguments.
@@ -207,41 +233,31 @@ public class Parser {
 	// int ID ProcArgsSfx
 	// it can also be whitespace
 	private NodeListProcDeclArg procArgs() throws LexicalException, IOException, SyntaxException { //works
-		NodeListProcDeclArg _newNodeListProcDeclArg;
+		List<NodeProcDeclArg> _args = new ArrayList<NodeProcDeclArg>();
 		if (eatToken(TokenType.INT)) {
 			expectToken(TokenType.ID);
-			String id = _currentToken.getName();
-			NodeProcDeclArg _head = new NodeProcDeclArg(id); //not empty case, so make cons
-			_newNodeListProcDeclArg = new NodeListProcDeclArgCons(_head, procArgsSfx());
-		} else if (_nextToken.getType() == TokenType.RIGHTPAREN) {
-			_newNodeListProcDeclArg = new NodeListProcDeclArgNil(); //empty case, so make nil
-		} else { //throw error
+			_args.add(new NodeProcDeclArg(_currentToken.getName()));
+			procArgsSfx(_args);
+		} else if (_nextToken.getType() != TokenType.RIGHTPAREN) { //throw error
 			die("expected int");
-			_newNodeListProcDeclArg = null;
 		}
-		return _newNodeListProcDeclArg;
+		return NodeListProcDeclArg.of(_args); //empty case makes a nil
 	}
 
 	// this method also helps process procedure arguments.
-	// it is called whenever the ProcArgsSfx rule is encountered.
+	// it is called whenever the ProcArgsSfx rule is encountered,
+	// and adds the arguments it finds to the list.
 	// it follows the rule:
 	// , int ID ProcArgsSfx
 	// it can also be whitespace
-	private NodeListProcDeclArg procArgsSfx() throws LexicalException, IOException, SyntaxException {
-		NodeListProcDeclArg _newNodeListProcDeclArg;
-		if (eatToken(TokenType.COMMA)) {
+	private void procArgsSfx(List<NodeProcDeclArg> args) throws LexicalException, IOException, SyntaxException {
+		while (eatToken(TokenType.COMMA)) {
 			expectToken(TokenType.INT);
 			expectToken(TokenType.ID);
-			String id = _currentToken.getName();
-			NodeProcDeclArg _head = new NodeProcDeclArg(id); //not empty, so make cons
-			_newNodeListProcDeclArg = new NodeListProcDeclArgCons(_head, procArgsSfx());
-		} else if (_nextToken.getType() == TokenType.RIGHTPAREN) { //empty, so make nil
-			_newNodeListProcDeclArg = new NodeListProcDeclArgNil();
-		} else { //throw error
-			die("expected comma");
-			_newNodeListProcDeclArg = null;
+			args.add(new NodeProcDeclArg(_currentToken.getName()));
 		}
-		return _newNodeListProcDeclArg;
+		if (_nextToken.getType() != TokenType.RIGHTPAREN) //throw error
+			die("expected comma");
 	}
 
 	//this method processes instructions.
@@ -383,22 +399,16 @@ public class Parser {
 	}
 
 	//this method handles a list of instructions (that come after
-	//a left brace). The method works by first checking if it is at
-	//the end of the list--if it is, it will make a nil node. If it 
-	//is not, it will make a new Cons node with instr() as the head
-	//and a recursive call as the tail. 
+	//a left brace). The method works by reading instructions until
+	//it gets to the end of the list, then making the cons nodes
+	//from the last one back, ending with a nil node.
 	//it follows the rule:
 	//{ ListInstr }
 	private NodeListInstr listInstr() throws LexicalException, IOException, SyntaxException {
-		NodeListInstr _toReturn;
-		if (eatToken(TokenType.RIGHTBRACE)) { //end of list--make nil node
-			_toReturn = new NodeListInstrNil();
-		} else { //non empty case, so recur and make a cons
-			NodeInstr _head = instr();
-			NodeListInstr _tail = listInstr();
-			_toReturn = new NodeListInstrCons(_head, _tail);
-		}
-		return _toReturn;
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+		while (!eatToken(TokenType.RIGHTBRACE)) //not yet the end of the list
+			_instrs.add(instr());
+		return NodeListInstr.of(_instrs);
 	}
 
 	//this method handles the declaration rule of an instruction.
@@ -442,124 +452,126 @@ public class Parser {
 	// Expr ProcCallArgsSfx
 	//it can also be whitespace, which indicates that a nil node should be made
 	private NodeListProcCallArg procCallArgs() throws LexicalException, IOException, SyntaxException {
-		NodeListProcCallArg _toReturn;
-		if (_nextToken.getType() == TokenType.RIGHTPAREN) { //empty case, so make nil
-			_toReturn = new NodeListProcCallArgNil();
-		} else {
-			NodeExpr _expr = expr(); //non-empty case, so make cons
-			NodeProcCallArg _head = new NodeProcCallArg(_expr);
-			_toReturn = new NodeListProcCallArgCons(_head, procCallArgsSfx());
+		List<NodeProcCallArg> _args = new ArrayList<NodeProcCallArg>();
+		if (_nextToken.getType() != TokenType.RIGHTPAREN) { //non-empty case
+			_args.add(new NodeProcCallArg(expr()));
+			procCallArgsSfx(_args);
 		}
-		return _toReturn;
+		return NodeListProcCallArg.of(_args); //empty case makes a nil
 	}
 	
-	//this method handles procedure call arguments sfx
+	//this method handles procedure call arguments sfx,
+	//adding the arguments it finds to the list
 	//it follows the rule
 	// , expr procCallArgsSfx
-	//it can also be whitespace, which indicates that a nil node should be made
-	private NodeListProcCallArg procCallArgsSfx() throws LexicalException, IOException, SyntaxException {
-		NodeListProcCallArg _toReturn;
-		if (eatToken(TokenType.COMMA)) { //non-empty case, so make cons and recur
-			NodeExpr _expr = expr();
-			NodeProcCallArg _head = new NodeProcCallArg(_expr);
-			_toReturn = new NodeListProcCallArgCons(_head, procCallArgsSfx());
-		} else { //empty case, so make nil
-			_toReturn = new NodeListProcCallArgNil();
-		}
-		return _toReturn;
+	//it can also be whitespace, which ends the list
+	private void procCallArgsSfx(List<NodeProcCallArg> args) throws LexicalException, IOException, SyntaxException {
+		while (eatToken(TokenType.COMMA))
+			args.add(new NodeProcCallArg(expr()));
 	}
 
-	//this node handles expressions.
-	//the way that the method works is creating an expression
-	//that will either be the expression that the method returns or
-	//will be the left child of an expression returned by calling 
-	//exprSfx on the rest of the expression. In either case, it makes
-	//the left child and calls exprSfx(). If that method call returns
-	//null, though, then we know we were in the whitespace case of
-	//exprSfx and we just want to return the expression that would
-	//have been the left child.
+	//this method handles expressions, by precedence climbing.
+	//the binary operators have these precedence levels, from the
+	//loosest to the tightest binding:
+	//  ||
+	//  &&
+	//  == < <= > >=
+	//  + -
+	//  * / %
+	//and all of them are left associative, so a - b - c means
+	//(a - b) - c. expr() takes operators of every level.
 	private NodeExpr expr() throws LexicalException, IOException, SyntaxException {
-		NodeExpr _left = null;
+		return binaryExpr(LOWEST_PRECEDENCE);
+	}
+
+	private static final int LOWEST_PRECEDENCE = 1;
+
+	//gives the precedence level of a binary operator token, or 0 if
+	//the token is not a binary operator (so it ends the expression)
+	private static int precedence(TokenType type) {
+		switch (type) {
+		case OR:
+			return 1;
+		case AND:
+			return 2;
+		case EQUAL: case LESSTHAN: case LESSEQ: case GREATERTHAN: case GREATEREQ:
+			return 3;
+		case PLUS: case MINUS:
+			return 4;
+		case TIMES: case DIVIDE: case MODULUS:
+			return 5;
+		default:
+			return 0;
+		}
+	}
+
+	//this method handles an expression whose operators all have at
+	//least the given precedence. it parses a factor, then loops while
+	//the next token is such an operator: the right operand is parsed
+	//by a call that only takes tighter-binding operators, and the
+	//result becomes the new left operand. so operators of the same
+	//level chain in the loop (left associative), and the recursion
+	//only goes as deep as the precedence rises (plus parentheses),
+	//however long the expression is.
+	private NodeExpr binaryExpr(int minPrecedence) throws LexicalException, IOException, SyntaxException {
+		NodeExpr _left = factor();
+		int _precedence;
+		while ((_precedence = precedence(_nextToken.getType())) >= minPrecedence) {
+			TokenType _operator = _nextToken.getType();
+			advanceTokenStream();
+			NodeExpr _right = binaryExpr(_precedence + 1);
+			_left = makeBinaryExpr(_operator, _left, _right);
+		}
+		return _left;
+	}
+
+	//makes the node for a binary operator token
+	private static NodeExpr makeBinaryExpr(TokenType operator, NodeExpr left, NodeExpr right) {
+		switch (operator) {
+		case PLUS: return new NodeExprPlus(left, right);
+		case MINUS: return new NodeExprMinus(left, right);
+		case TIMES: return new NodeExprTimes(left, right);
+		case DIVIDE: return new NodeExprDivide(left, right);
+		case MODULUS: return new NodeExprMod(left, right);
+		case LESSTHAN: return new NodeRelationLessThan(left, right);
+		case LESSEQ: return new NodeRelationLessThanEqual(left, right);
+		case GREATERTHAN: return new NodeRelationGreaterThan(left, right);
+		case GREATEREQ: return new NodeRelationGreaterThanEqual(left, right);
+		case EQUAL: return new NodeRelationEqual(left, right);
+		case AND: return new NodeRelationAnd(left, right);
+		case OR: return new NodeRelationOr(left, right);
+		default:
+			throw new InternalException("Not a binary operator: " + operator);
+		}
+	}
+
+	//this method handles the operands of binary operators: constants,
+	//parenthesized expressions, !( Expr ), variables, array elements
+	//and procedure calls.
+	private NodeExpr factor() throws LexicalException, IOException, SyntaxException {
+		NodeExpr _factor = null;
 		if (eatToken(TokenType.TRUE)) {
-			_left = new NodeExprTrue();
+			_factor = new NodeExprTrue();
 		} else if (eatToken(TokenType.FALSE)) {
-			_left = new NodeExprFalse();
+			_factor = new NodeExprFalse();
 		} else if (eatToken(TokenType.LEFTPAREN)) {
-			_left = expr();
+			_factor = expr();
 			expectToken(TokenType.RIGHTPAREN);
 		} else if (eatToken(TokenType.NOT)) {
 			expectToken(TokenType.LEFTPAREN);
-			_left = new NodeRelationNot(expr());
+			_factor = new NodeRelationNot(expr());
 			expectToken(TokenType.RIGHTPAREN);
 		} else if (eatToken(TokenType.INTEGER)) {
-			_left = new NodeExprInt(_currentToken.getValue());
+			_factor = new NodeExprInt(_currentToken.getValue());
 		} else if (eatToken(TokenType.ID)) {
 			String _id = _currentToken.getName();
-			_left = idFactorSfx(_id);
+			_factor = idFactorSfx(_id);
 		} else {
 			die("expected valid expression");
-			return null;
-		}
-		NodeExpr _fromExprSfx = exprSfx(_left); //try using _left as a child node
-		if (_fromExprSfx == null) { //there was no suffix, so just return _left
-			return _left;
-		} else {
-			return _fromExprSfx; //exprSfx() made a node with _left as a child
 		}
+		return _factor;
 	}
 
-	//this method handles expression suffixes.
-	//there are a number of rules that it could be
-	//that I won't enumerate here.
-	//if it is not in the whitespace case, it makes a node using the 
-	//procedure argument as the left child and the return from another
-	//call to expr() as the right child. If it is in the whitespace 
-	//case, it just returns null so that expr() knows what case it
-	//was in.
-	private NodeExpr exprSfx(NodeExpr left) throws LexicalException, IOException, SyntaxException {
-		NodeExpr _toReturn;
-		if (eatToken(TokenType.PLUS)) { 
-			NodeExpr _right = expr();
-			_toReturn = new NodeExprPlus(left, _right);
-		} else if (eatToken(TokenType.MINUS)) {
-			NodeExpr _right = expr();
-			_toReturn = new NodeExprMinus(left, _right);
-		} else if (eatToken(TokenType.TIMES)) {
-			NodeExpr _right = expr();
-			_toReturn = new NodeExprTimes(left, _right);
-		} else if (eatToken(TokenType.DIVIDE)) {
-			NodeExpr _right = expr();
-			_toReturn = new NodeExprDivide(left, _right);
-		} else if (eatToken(TokenType.MODULUS)) {
-			NodeExpr _right = expr();
-			_toReturn = new NodeExprMod(left, _right);
-		} else if (eatToken(TokenType.LESSTHAN)) {
-			NodeExpr _right = expr();
-			_toReturn = new NodeRelationLessThan(left, _right);
-		} else if (eatToken(TokenType.LESSEQ)) {
-			NodeExpr _right = expr();
-			_toReturn = new NodeRelationLessThanEqual(left, _right);
-		} else if (eatToken(TokenType.GREATERTHAN)) {
-			NodeExpr _right = expr();
-			_toReturn = new NodeRelationGreaterThan(left, _right);
-		} else if (eatToken(TokenType.GREATEREQ)) {
-			NodeExpr _right = expr();
-			_toReturn = new NodeRelationGreaterThanEqual(left, _right);
-		} else if (eatToken(TokenType.EQUAL)) {
-			NodeExpr _right = expr();
-			_toReturn = new NodeRelationEqual(left, _right);
-		} else if (eatToken(TokenType.AND)) {
-			NodeExpr _right = expr();
-			_toReturn = new NodeRelationAnd(left, _right);
-		} else if (eatToken(TokenType.OR)) {
-			NodeExpr _right = expr();
-			_toReturn = new NodeRelationOr(left, _right);
-		} else { //no suffix, so return null
-			_toReturn = null;
-		}
-		return _toReturn;
-	}
-	
 	//this method handles idFactorSfx.
 	//it can either be an IDSfx or a list of procedure call arguments
 	//in either case, it just makes an appropriate NodeExpr and returns
@@ -585,21 +597,17 @@ public class Parser {
 	// var int ID DeclSfx
 	//it can also be a whitespace, in which case it makes a nil node
 	private NodeListVarDecl listVar() throws LexicalException, SyntaxException, IOException {
-		NodeListVarDecl _newListVar;
-		if (eatToken(TokenType.VAR)) { //non-empty case, so make cons and recur
+		List<NodeVarDecl> _decls = new ArrayList<NodeVarDecl>();
+		while (eatToken(TokenType.VAR)) {
 			expectToken(TokenType.INT);
 			expectToken(TokenType.ID);
 			String id = _currentToken.getName();
-			NodeVarDecl _newVarDecl = listDeclSfx(id);
+			_decls.add(listDeclSfx(id));
 			expectToken(TokenType.SEMICOLON);
-			_newListVar = new NodeListVarDeclCons(_newVarDecl, listVar());
-		} else if (_nextToken.getType() == TokenType.PROCEDURE){ //base case, so make nil
-			_newListVar = new NodeListVarDeclNil();
-		} else {
-			die("expected variable"); //catch errors
-			_newListVar = null;
 		}
-		return _newListVar;
+		if (_nextToken.getType() != TokenType.PROCEDURE) //catch errors
+			die("expected variable");
+		return NodeListVarDecl.of(_decls);
 	}
 
 	//this class handles a list declaration suffix
@@ -0,0 +1,423 @@
+package comp;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Rewrites short windows of generated code into cheaper equivalents. Runs over
+ * the {@link Instruction} list of a {@link MIPSCodeGenerator} after code
+ * generation and before the code is written out.
+ * <p>
+ * Comments and blank lines are skipped when matching a window, but labels are
+ * not, since control may arrive at a label from elsewhere. Passes are repeated
+ * until no rule applies, and the number of instructions each rule removed is
+ * kept for {@link #printReport(PrintStream)}.
+ */
+public class PeepholeOptimizer {
+
+	/**
+	 * The rewrite rules. Each has a short name used to select it on the
+	 * command line.
+	 */
+	public enum Rule {
+		/**
+		 * A push immediately popped into a register becomes a move:
+		 * <code>sub $sp, $sp, 4; sw $a, 4($sp); lw $b, 4($sp); add $sp, $sp, 4</code>
+		 * becomes <code>move $b, $a</code>, or nothing when a and b agree.
+		 */
+		PUSH_POP("push-pop"),
+
+		/**
+		 * A pop immediately followed by a push leaves the stack pointer where
+		 * it was: <code>lw $a, 4($sp); add $sp, $sp, 4; sub $sp, $sp, 4;
+		 * sw $b, 4($sp)</code> becomes <code>lw $a, 4($sp); sw $b, 4($sp)</code>,
+		 * and the store is dropped too when a and b agree.
+		 */
+		POP_PUSH("pop-push"),
+
+		/**
+		 * A multiplication by a power of two loaded with <code>li</code>
+		 * becomes a shift. The <code>li</code> goes away when its register is
+		 * dead after the multiplication.
+		 */
+		MULTIPLY_TO_SHIFT("mul-shift"),
+
+		/**
+		 * A <code>j</code> to a label that immediately follows it is removed.
+		 */
+		JUMP_TO_NEXT("jump-next"),
+
+		/**
+		 * A value read back from where it was just put is taken from the
+		 * register that still holds it: <code>sw $a, x; lw $b, x</code> keeps
+		 * the store and becomes <code>move $b, $a</code>, or nothing when a
+		 * and b agree, and <code>move $a, $b; move $b, $a</code> loses its
+		 * second move. A global loaded again after only a push,
+		 * <code>lw $a, g; sw $a, 4($sp); lw $b, g</code>, is not loaded again
+		 * either.
+		 */
+		RELOAD("reload");
+
+		private final String _name;
+
+		Rule(String name) {
+			_name = name;
+		}
+
+		public String toString() {
+			return _name;
+		}
+
+		/**
+		 * Finds the rule with the given command-line name, or returns null.
+		 */
+		public static Rule fromString(String name) {
+			for (Rule rule : values()) {
+				if (rule._name.equals(name))
+					return rule;
+			}
+			return null;
+		}
+	}
+
+	private final Set<Rule> _rules;
+	private final Map<Rule, Integer> _removed;
+
+	/**
+	 * Create an optimizer that applies every rule.
+	 */
+	public PeepholeOptimizer() {
+		this(EnumSet.allOf(Rule.class));
+	}
+
+	/**
+	 * Create an optimizer that applies only the given rules.
+	 */
+	public PeepholeOptimizer(Set<Rule> rules) {
+		_rules = EnumSet.noneOf(Rule.class);
+		_rules.addAll(rules);
+		_removed = new EnumMap<Rule, Integer>(Rule.class);
+		for (Rule rule : Rule.values())
+			_removed.put(rule, 0);
+	}
+
+	/**
+	 * Runs the enabled rules over the code until none of them applies.
+	 *
+	 * @param code The code to optimize; it is not modified
+	 * @return The optimized code
+	 */
+	public List<Instruction> optimize(List<Instruction> code) {
+		List<Instruction> current = code;
+		boolean changed = true;
+		while (changed) {
+			List<Instruction> next = pass(current);
+			changed = next.size() != current.size() || !next.equals(current);
+			current = next;
+		}
+		return current;
+	}
+
+	/**
+	 * How many instructions the given rule has removed so far.
+	 */
+	public int getRemoved(Rule rule) {
+		return _removed.get(rule);
+	}
+
+	/**
+	 * How many instructions all rules together have removed so far.
+	 */
+	public int getTotalRemoved() {
+		int total = 0;
+		for (int count : _removed.values())
+			total += count;
+		return total;
+	}
+
+	/**
+	 * Prints the number of instructions removed by each enabled rule.
+	 */
+	public void printReport(PrintStream out) {
+		out.println("Peephole optimization removed " + getTotalRemoved() + " instructions:");
+		for (Rule rule : _rules)
+			out.println("\t" + rule + ": " + _removed.get(rule));
+	}
+
+	//one left-to-right pass; each window is rewritten at most once
+	private List<Instruction> pass(List<Instruction> code) {
+		int[] liveOut = _rules.contains(Rule.MULTIPLY_TO_SHIFT) ? liveness(code) : null;
+		List<Instruction> result = new ArrayList<Instruction>(code.size());
+		int i = 0;
+		while (i < code.size()) {
+			int end = -1;
+			if (code.get(i).isInstruction()) {
+				if (end < 0 && _rules.contains(Rule.PUSH_POP))
+					end = pushPop(code, i, result);
+				if (end < 0 && _rules.contains(Rule.POP_PUSH))
+					end = popPush(code, i, result);
+				if (end < 0 && _rules.contains(Rule.MULTIPLY_TO_SHIFT))
+					end = multiplyToShift(code, i, liveOut, result);
+				if (end < 0 && _rules.contains(Rule.JUMP_TO_NEXT))
+					end = jumpToNext(code, i);
+				if (end < 0 && _rules.contains(Rule.RELOAD))
+					end = reload(code, i, result);
+			}
+			if (end < 0) {
+				result.add(code.get(i));
+				i++;
+			} else {
+				//keep the comments the window stepped over
+				for (int j = i; j < end; j++) {
+					if (code.get(j).getOpcode() == Instruction.Opcode.COMMENT)
+						result.add(code.get(j));
+				}
+				i = end;
+			}
+		}
+		return result;
+	}
+
+	//push-pop: returns the index after the window, or -1 if it does not match
+	private int pushPop(List<Instruction> code, int i, List<Instruction> result) {
+		int[] window = window(code, i, 4);
+		if (window == null)
+			return -1;
+		Instruction store = code.get(window[1]);
+		Instruction load = code.get(window[2]);
+		if (!isStackAdjust(code.get(window[0]), Instruction.Opcode.SUB)
+				|| !isStackTop(store, Instruction.Opcode.SW)
+				|| !isStackTop(load, Instruction.Opcode.LW)
+				|| !isStackAdjust(code.get(window[3]), Instruction.Opcode.ADD))
+			return -1;
+		if (load.getDest() == store.getSource1()) {
+			count(Rule.PUSH_POP, 4);
+		} else {
+			result.add(Instruction.move(load.getDest(), store.getSource1()));
+			count(Rule.PUSH_POP, 3);
+		}
+		return window[3] + 1;
+	}
+
+	//pop-push: returns the index after the window, or -1 if it does not match
+	private int popPush(List<Instruction> code, int i, List<Instruction> result) {
+		int[] window = window(code, i, 4);
+		if (window == null)
+			return -1;
+		Instruction load = code.get(window[0]);
+		Instruction store = code.get(window[3]);
+		if (!isStackTop(load, Instruction.Opcode.LW)
+				|| !isStackAdjust(code.get(window[1]), Instruction.Opcode.ADD)
+				|| !isStackAdjust(code.get(window[2]), Instruction.Opcode.SUB)
+				|| !isStackTop(store, Instruction.Opcode.SW))
+			return -1;
+		result.add(load);
+		if (store.getSource1() == load.getDest()) {
+			count(Rule.POP_PUSH, 3);
+		} else {
+			result.add(store);
+			count(Rule.POP_PUSH, 2);
+		}
+		return window[3] + 1;
+	}
+
+	//mul-shift: returns the index after the window, or -1 if it does not match
+	private int multiplyToShift(List<Instruction> code, int i, int[] liveOut,
+			List<Instruction> result) {
+		int[] window = window(code, i, 2);
+		if (window == null)
+			return -1;
+		Instruction li = code.get(window[0]);
+		Instruction mul = code.get(window[1]);
+		if (li.getOpcode() != Instruction.Opcode.LI
+				|| mul.getOpcode() != Instruction.Opcode.MUL || mul.hasImmediate())
+			return -1;
+		int shift = log2(li.getImmediate());
+		if (shift < 0)
+			return -1;
+		Register constant = li.getDest();
+		Register other;
+		if (mul.getSource2() == constant && mul.getSource1() != constant)
+			other = mul.getSource1();
+		else if (mul.getSource1() == constant && mul.getSource2() != constant)
+			other = mul.getSource2();
+		else
+			return -1;
+
+		boolean dead = mul.getDest() == constant
+				|| (liveOut[window[1]] & Instruction.mask(constant)) == 0;
+		if (!dead)
+			result.add(li);
+		if (shift == 0)
+			result.add(Instruction.move(mul.getDest(), other));
+		else
+			result.add(Instruction.arithmetic(Instruction.Opcode.SLL, mul.getDest(), other, shift));
+		if (dead)
+			count(Rule.MULTIPLY_TO_SHIFT, 1);
+		return window[1] + 1;
+	}
+
+	//jump-next: returns the index after the jump, or -1 if it does not match
+	private int jumpToNext(List<Instruction> code, int i) {
+		Instruction jump = code.get(i);
+		if (jump.getOpcode() != Instruction.Opcode.J)
+			return -1;
+		for (int j = i + 1; j < code.size() && !code.get(j).isInstruction(); j++) {
+			Instruction line = code.get(j);
+			if (line.getOpcode() == Instruction.Opcode.LABEL
+					&& line.getLabel().equals(jump.getLabel())) {
+				count(Rule.JUMP_TO_NEXT, 1);
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	//reload: returns the index after the window, or -1 if it does not match
+	private int reload(List<Instruction> code, int i, List<Instruction> result) {
+		int[] window = window(code, i, 2);
+		if (window == null)
+			return -1;
+		Instruction first = code.get(window[0]);
+		Instruction second = code.get(window[1]);
+		if (first.getOpcode() == Instruction.Opcode.MOVE && second.getOpcode() == Instruction.Opcode.MOVE) {
+			if (second.getDest() != first.getSource1() || second.getSource1() != first.getDest())
+				return -1;
+			result.add(first);
+			count(Rule.RELOAD, 1);
+			return window[1] + 1;
+		}
+		if (first.getOpcode() == Instruction.Opcode.SW && second.getOpcode() == Instruction.Opcode.LW) {
+			if (!sameAddress(first, second))
+				return -1;
+			result.add(first);
+			reloaded(second, first.getSource1(), result);
+			return window[1] + 1;
+		}
+
+		//a push cannot write a global, which is addressed by its label alone
+		window = window(code, i, 3);
+		if (window == null)
+			return -1;
+		Instruction push = code.get(window[1]);
+		Instruction load = code.get(window[2]);
+		if (first.getOpcode() != Instruction.Opcode.LW || first.getLabel() == null
+				|| first.getSource1() != null || push.getOpcode() != Instruction.Opcode.SW
+				|| push.getSource2() != Register.SP || push.getLabel() != null
+				|| load.getOpcode() != Instruction.Opcode.LW || !sameAddress(first, load))
+			return -1;
+		result.add(first);
+		result.add(push);
+		reloaded(load, first.getDest(), result);
+		return window[2] + 1;
+	}
+
+	//replaces a load of a value the given register holds
+	private void reloaded(Instruction load, Register holder, List<Instruction> result) {
+		if (load.getDest() == holder) {
+			count(Rule.RELOAD, 1);
+		} else {
+			result.add(Instruction.move(load.getDest(), holder));
+		}
+	}
+
+	//whether two loads or stores access the same word
+	private static boolean sameAddress(Instruction a, Instruction b) {
+		return base(a) == base(b) && a.hasImmediate() == b.hasImmediate()
+				&& a.getImmediate() == b.getImmediate()
+				&& (a.getLabel() == null ? b.getLabel() == null : a.getLabel().equals(b.getLabel()));
+	}
+
+	private static Register base(Instruction access) {
+		return access.getOpcode() == Instruction.Opcode.LW ? access.getSource1() : access.getSource2();
+	}
+
+	/**
+	 * Finds the indices of the next <code>size</code> instructions starting at
+	 * <code>start</code>, skipping comments and blank lines. Returns null if a
+	 * label or directive comes first or the code runs out.
+	 */
+	private static int[] window(List<Instruction> code, int start, int size) {
+		int[] window = new int[size];
+		int j = start;
+		for (int k = 0; k < size; k++) {
+			while (j < code.size() && isFiller(code.get(j)))
+				j++;
+			if (j >= code.size() || !code.get(j).isInstruction())
+				return null;
+			window[k] = j++;
+		}
+		return window;
+	}
+
+	private static boolean isFiller(Instruction line) {
+		return line.getOpcode() == Instruction.Opcode.COMMENT
+				|| line.getOpcode() == Instruction.Opcode.BLANK;
+	}
+
+	//add/sub $sp, $sp, 4
+	private static boolean isStackAdjust(Instruction instr, Instruction.Opcode op) {
+		return instr.getOpcode() == op && instr.getDest() == Register.SP
+				&& instr.getSource1() == Register.SP && instr.hasImmediate()
+				&& instr.getImmediate() == 4;
+	}
+
+	//lw/sw $r, 4($sp)
+	private static boolean isStackTop(Instruction instr, Instruction.Opcode op) {
+		Register base = op == Instruction.Opcode.LW ? instr.getSource1() : instr.getSource2();
+		return instr.getOpcode() == op && base == Register.SP
+				&& instr.getLabel() == null && instr.hasImmediate()
+				&& instr.getImmediate() == 4
+				&& (op == Instruction.Opcode.SW || instr.getDest() != Register.SP);
+	}
+
+	//the k with 2^k == value, or -1
+	private static int log2(int value) {
+		if (value <= 0 || (value & (value - 1)) != 0)
+			return -1;
+		return Integer.numberOfTrailingZeros(value);
+	}
+
+	private void count(Rule rule, int removed) {
+		_removed.put(rule, _removed.get(rule) + removed);
+	}
+
+	/**
+	 * Computes the registers live after each line, as bit masks. Control
+	 * flow follows fall-through, <code>j</code> and branches to labels in the
+	 * same code; a <code>jr</code> ends the procedure.
+	 */
+	private static int[] liveness(List<Instruction> code) {
+		Map<String, Integer> labels = new HashMap<String, Integer>();
+		for (int i = 0; i < code.size(); i++) {
+			if (code.get(i).getOpcode() == Instruction.Opcode.LABEL)
+				labels.put(code.get(i).getLabel(), i);
+		}
+
+		int[] liveIn = new int[code.size() + 1];
+		int[] liveOut = new int[code.size()];
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = code.size() - 1; i >= 0; i--) {
+				Instruction instr = code.get(i);
+				int out = 0;
+				if (instr.fallsThrough())
+					out |= liveIn[i + 1];
+				String target = instr.getTarget();
+				if (target != null) {
+					Integer index = labels.get(target);
+					if (index != null)
+						out |= liveIn[index];
+				}
+				int in = instr.getUses() | (out & ~instr.getDefinitions());
+				if (in != liveIn[i] || out != liveOut[i]) {
+					liveIn[i] = in;
+					liveOut[i] = out;
+					changed = true;
+				}
+			}
+		}
+		return liveOut;
+	}
+}
@@ -0,0 +1,400 @@
+package comp;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Guards the quality of the generated code. It compiles every program in
+ * <code>tests/code_gen_tests</code>, and a few made up by the
+ * {@link ProgramGenerator}, under each of a fixed set of configurations, runs
+ * them on the {@link Simulator} and compares what it measures with a baseline
+ * checked in next to the tests:
+ * <ul>
+ * <li>instructions executed and estimated cycles,</li>
+ * <li>loads and stores,</li>
+ * <li>code size, in instructions,</li>
+ * <li>and a checksum of the output, so that a change which makes the code
+ * faster by making it wrong does not go unnoticed.</li>
+ * </ul>
+ * A program that reads input gets it from the file beside it with the same
+ * name and the extension <code>.in</code>.
+ * <p>
+ * The suite fails when a program executes more instructions than the baseline
+ * by more than the threshold, prints something different, or no longer
+ * compiles or runs. After a change that is meant to alter the numbers, run it
+ * with <code>--update</code> and check in the new baseline with the change.
+ * <pre>
+ * java comp.PerformanceSuite [--baseline=FILE] [--threshold=PCT] [--programs=DIR] [--update]
+ * </pre>
+ */
+public class PerformanceSuite {
+
+	/** The baseline the suite compares with unless told otherwise. */
+	public static final String DEFAULT_BASELINE = "tests/performance_baseline.txt";
+
+	/** Where the programs are unless told otherwise. */
+	public static final String DEFAULT_PROGRAMS = "tests/code_gen_tests";
+
+	/** How many percent more instructions a program may execute. */
+	public static final double DEFAULT_THRESHOLD = 1.0;
+
+	//the name of each configuration and its compiler options
+	private static final String[][] CONFIGURATIONS = {
+			{ "default" },
+			{ "optimized", "-a", "-i", "-f", "-l", "-c", "-O" } };
+
+	//seeds of the generated programs measured besides the directory's
+	private static final long[] GENERATED_SEEDS = { 1, 2, 3 };
+
+	private static final String HEADER = "# program configuration instructions cycles loads stores size output";
+
+	/**
+	 * What one program did under one configuration.
+	 */
+	public static class Measurement {
+		private final String _program;
+		private final String _configuration;
+		private long _instructions;
+		private long _cycles;
+		private long _loads;
+		private long _stores;
+		private int _size;
+		private String _output;
+		private String _error;
+
+		private Measurement(String program, String configuration) {
+			_program = program;
+			_configuration = configuration;
+		}
+
+		public String getProgram() {
+			return _program;
+		}
+
+		public String getConfiguration() {
+			return _configuration;
+		}
+
+		public long getInstructions() {
+			return _instructions;
+		}
+
+		public long getCycles() {
+			return _cycles;
+		}
+
+		public long getLoads() {
+			return _loads;
+		}
+
+		public long getStores() {
+			return _stores;
+		}
+
+		/**
+		 * The number of instructions in the code.
+		 */
+		public int getSize() {
+			return _size;
+		}
+
+		/**
+		 * A checksum of what the program printed.
+		 */
+		public String getOutput() {
+			return _output;
+		}
+
+		/**
+		 * Why the program could not be compiled or run, or null if it was.
+		 */
+		public String getError() {
+			return _error;
+		}
+
+		//how the measurement is found in the baseline
+		private String key() {
+			return _program + " " + _configuration;
+		}
+
+		private String toLine() {
+			return key() + " " + _instructions + " " + _cycles + " " + _loads + " " + _stores + " "
+					+ _size + " " + _output;
+		}
+
+		private static Measurement parse(String line) {
+			String[] fields = line.trim().split("\\s+");
+			if (fields.length != 8)
+				throw new IllegalArgumentException("Bad baseline line: " + line);
+			Measurement m = new Measurement(fields[0], fields[1]);
+			try {
+				m._instructions = Long.parseLong(fields[2]);
+				m._cycles = Long.parseLong(fields[3]);
+				m._loads = Long.parseLong(fields[4]);
+				m._stores = Long.parseLong(fields[5]);
+				m._size = Integer.parseInt(fields[6]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Bad baseline line: " + line);
+			}
+			m._output = fields[7];
+			return m;
+		}
+	}
+
+	private final String _programs;
+
+	/**
+	 * Create a suite over the programs in a directory.
+	 */
+	public PerformanceSuite(String programs) {
+		_programs = programs;
+	}
+
+	/**
+	 * Compiles and runs every program under every configuration.
+	 *
+	 * @return The measurements, by program and then configuration
+	 */
+	public List<Measurement> measure() throws IOException {
+		List<Measurement> _measurements = new ArrayList<Measurement>();
+		File[] files = new File(_programs).listFiles();
+		if (files == null)
+			throw new FileNotFoundException("Error! Directory " + _programs + " not found!");
+		Arrays.sort(files);
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.endsWith(".bl"))
+				continue;
+			String program = name.substring(0, name.length() - ".bl".length());
+			File input = new File(file.getParentFile(), program + ".in");
+			String text = read(file);
+			String inputText = input.isFile() ? read(input) : "";
+			for (String[] configuration : CONFIGURATIONS)
+				_measurements.add(measure(program, file.getPath(), text, inputText, configuration));
+		}
+		for (long seed : GENERATED_SEEDS) {
+			String text = new ProgramGenerator(seed).generate();
+			for (String[] configuration : CONFIGURATIONS)
+				_measurements.add(measure("generated-" + seed, "generated-" + seed, text, "", configuration));
+		}
+		return _measurements;
+	}
+
+	private static Measurement measure(String program, String source, String text, String input,
+			String[] configuration) {
+		Measurement m = new Measurement(program, configuration[0]);
+		CompilerOptions options = new CompilerOptions();
+		options.parse(configuration, 1);
+		Compilation compilation = new Compilation(source, null, options);
+		compilation.setSourceText(text);
+		compilation.setOutput(new PrintStream(new ByteArrayOutputStream()));
+		try {
+			compilation.run();
+			List<Instruction> code = compilation.getCodeGenerator().getInstructions();
+			m._size = CompileStats.countInstructions(code);
+
+			Simulator simulator = new Simulator(code);
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			simulator.setInput(new StringReader(input));
+			simulator.setOutput(new PrintStream(output));
+			simulator.run();
+			m._instructions = simulator.getInstructionCount();
+			m._cycles = simulator.getCycles();
+			m._loads = simulator.getLoads();
+			m._stores = simulator.getStores();
+			CRC32 crc = new CRC32();
+			crc.update(output.toByteArray());
+			m._output = String.format("%08x", crc.getValue());
+		} catch (LexicalException e) {
+			m._error = e.getMessage();
+		} catch (SyntaxException e) {
+			m._error = e.getMessage();
+		} catch (VisitorException e) {
+			m._error = e.getMessage();
+		} catch (SimulatorException e) {
+			m._error = e.getMessage();
+		} catch (IOException e) {
+			m._error = e.getMessage();
+		} catch (RuntimeException e) {
+			m._error = "Internal compiler error: " + e;
+		}
+		return m;
+	}
+
+	/**
+	 * Reads a baseline written by {@link #writeBaseline(String, List)}.
+	 *
+	 * @return The measurements, by program and configuration
+	 */
+	public static Map<String, Measurement> readBaseline(String file) throws IOException {
+		Map<String, Measurement> _baseline = new LinkedHashMap<String, Measurement>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().length() == 0 || line.startsWith("#"))
+					continue;
+				Measurement m = Measurement.parse(line);
+				_baseline.put(m.key(), m);
+			}
+		} finally {
+			in.close();
+		}
+		return _baseline;
+	}
+
+	/**
+	 * Writes measurements as a baseline, one line each.
+	 *
+	 * @throws IllegalArgumentException If a program could not be measured
+	 */
+	public static void writeBaseline(String file, List<Measurement> measurements) throws IOException {
+		for (Measurement m : measurements) {
+			if (m._error != null)
+				throw new IllegalArgumentException("Cannot record " + m.key() + ": " + m._error);
+		}
+		Writer out = new BufferedWriter(new FileWriter(file));
+		try {
+			out.write(HEADER + "\n");
+			for (Measurement m : measurements)
+				out.write(m.toLine() + "\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Prints each measurement next to its baseline, with the changes, and
+	 * says which ones fail.
+	 *
+	 * @param threshold How many percent more instructions are tolerated
+	 * @return Whether nothing failed
+	 */
+	public static boolean compare(List<Measurement> measurements, Map<String, Measurement> baseline,
+			double threshold, PrintStream out) {
+		int failed = 0;
+		out.println(String.format("%-26s %-10s %12s %8s %10s %8s %10s %8s %7s %6s",
+				"program", "config", "instructions", "change", "loads", "change",
+				"stores", "change", "size", "change"));
+		for (Measurement m : measurements) {
+			Measurement base = baseline.get(m.key());
+			if (m._error != null) {
+				failed++;
+				out.println(String.format("%-26s %-10s FAILED: %s", m._program, m._configuration, m._error.trim()));
+				continue;
+			}
+			String status = "";
+			if (base == null) {
+				status = "  new";
+				base = m;
+			} else if (!base._output.equals(m._output)) {
+				failed++;
+				status = "  OUTPUT CHANGED";
+			} else if (percent(base._instructions, m._instructions) > threshold) {
+				failed++;
+				status = "  REGRESSED";
+			}
+			out.println(String.format("%-26s %-10s %12d %+7.1f%% %10d %+8d %10d %+8d %7d %+6d%s",
+					m._program, m._configuration, m._instructions,
+					percent(base._instructions, m._instructions), m._loads, m._loads - base._loads,
+					m._stores, m._stores - base._stores, m._size, m._size - base._size, status));
+		}
+
+		Set<String> measured = new HashSet<String>();
+		for (Measurement m : measurements)
+			measured.add(m.key());
+		for (String key : baseline.keySet()) {
+			if (!measured.contains(key))
+				out.println(key + ": in the baseline but no longer measured");
+		}
+
+		long before = 0;
+		long after = 0;
+		for (Measurement m : measurements) {
+			Measurement base = baseline.get(m.key());
+			if (m._error == null && base != null) {
+				before += base._instructions;
+				after += m._instructions;
+			}
+		}
+		out.println(String.format("\n%d of %d measurements failed; %d instructions executed in all, %+.1f%%"
+				+ " against the baseline (threshold %.1f%% per program).", failed, measurements.size(),
+				after, percent(before, after), threshold));
+		return failed == 0;
+	}
+
+	//the change from before to after, in percent of before
+	private static double percent(long before, long after) {
+		if (before == 0)
+			return after == 0 ? 0 : 100;
+		return 100.0 * (after - before) / before;
+	}
+
+	private static String read(File file) throws IOException {
+		Reader in = new FileReader(file);
+		try {
+			StringBuilder text = new StringBuilder();
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+				text.append(buffer, 0, read);
+			return text.toString();
+		} finally {
+			in.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		String baselineFile = DEFAULT_BASELINE;
+		String programs = DEFAULT_PROGRAMS;
+		double threshold = DEFAULT_THRESHOLD;
+		boolean update = false;
+		for (String arg : args) {
+			if (arg.startsWith("--baseline=")) {
+				baselineFile = arg.substring("--baseline=".length());
+			} else if (arg.startsWith("--programs=")) {
+				programs = arg.substring("--programs=".length());
+			} else if (arg.startsWith("--threshold=")) {
+				try {
+					threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+				} catch (NumberFormatException e) {
+					threshold = -1;
+				}
+				if (threshold < 0)
+					usage("Bad threshold: " + arg);
+			} else if (arg.equals("--update")) {
+				update = true;
+			} else {
+				usage("Unknown option: " + arg);
+			}
+		}
+
+		List<Measurement> measurements = new PerformanceSuite(programs).measure();
+		Map<String, Measurement> baseline = new HashMap<String, Measurement>();
+		if (new File(baselineFile).isFile())
+			baseline = readBaseline(baselineFile);
+		else if (!update)
+			System.out.println("No baseline in " + baselineFile + "; run with --update to record one.\n");
+		boolean passed = compare(measurements, baseline, threshold, System.out);
+		if (update) {
+			try {
+				writeBaseline(baselineFile, measurements);
+			} catch (IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+				System.exit(1);
+			}
+			System.out.println("Baseline written to " + baselineFile);
+			return;
+		}
+		if (!passed)
+			System.exit(1);
+	}
+
+	private static void usage(String message) {
+		System.err.println("\n" + message);
+		System.err.println("\nUsage: java comp.PerformanceSuite [--baseline=FILE] [--threshold=PCT]"
+				+ " [--programs=DIR] [--update]");
+		System.exit(1);
+	}
+}
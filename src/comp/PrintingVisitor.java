@@ -2,6 +2,8 @@ package comp;
 
 import comp.nodes.*;
 
+import java.io.PrintStream;
+
 /**
  * Class that will print out the parsed syntax tree of a NodeProgram.
  * <p>
@@ -10,9 +12,18 @@ import comp.nodes.*;
 public class PrintingVisitor implements Visitor {
 	
 	private int _tab;
+	private PrintStream _out;
 	
 	public PrintingVisitor() {
+		this(System.out);
+	}
+	
+	/**
+	 * Prints the tree somewhere other than standard output.
+	 */
+	public PrintingVisitor(PrintStream out) {
 		_tab = 0;
+		_out = out;
 	}
 	
 	/**
@@ -28,7 +39,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeInstrDeclArray(NodeInstrDeclArray node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrDeclArray: " + node.identifier()
+		_out.println(tab(_tab) + "NodeInstrDeclArray: " + node.identifier()
 				+ " [" + node.size() + "]\n");
 		_tab--;
 	}
@@ -39,7 +50,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrDeclSingle(NodeInstrDeclSingle node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrDeclSingle: " + node.identifier()
+		_out.println(tab(_tab) + "NodeInstrDeclSingle: " + node.identifier()
 				+ "\n");
 		_tab--;
 	}
@@ -49,7 +60,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeVarDeclArray(NodeVarDeclArray node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeVarDeclArray: " + node.identifier()
+		_out.println(tab(_tab) + "NodeVarDeclArray: " + node.identifier()
 				+ " [" + node.size() + "]\n");
 		_tab--;
 	}
@@ -60,7 +71,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeVarDeclSingle(NodeVarDeclSingle node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeVarDeclSingle: " + node.identifier()
+		_out.println(tab(_tab) + "NodeVarDeclSingle: " + node.identifier()
 				+ "\n");
 		_tab--;
 	}
@@ -71,7 +82,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeExprArrayVar(NodeExprArrayVar node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeExprArrayVar: " + node.identifier()
+		_out.println(tab(_tab) + "NodeExprArrayVar: " + node.identifier()
 				+ " []");
 		checkAndVisit(node.index());
 		_tab--;
@@ -82,7 +93,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeExprInt(NodeExprInt node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeExprInt " + node.value() + "\n");
+		_out.println(tab(_tab) + "NodeExprInt " + node.value() + "\n");
 		_tab--;
 	}
 	
@@ -91,7 +102,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeExprMinus(NodeExprMinus node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeExprMinus");
+		_out.println(tab(_tab) + "NodeExprMinus");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -102,8 +113,8 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeExprProcCall: " + node.identifier());
-		System.out.println(tab(_tab) + "Arguments:");
+		_out.println(tab(_tab) + "NodeExprProcCall: " + node.identifier());
+		_out.println(tab(_tab) + "Arguments:");
 		checkAndVisit(node.arguments());
 		_tab--;
 	}
@@ -113,7 +124,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeProcCallArg(NodeProcCallArg node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeProcCallArg");
+		_out.println(tab(_tab) + "NodeProcCallArg");
 		checkAndVisit(node.expression());
 		_tab--;
 	}
@@ -123,8 +134,8 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeProcDeclArg(NodeProcDeclArg node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeProcDeclArg");
-		System.out.println(tab(_tab) + "ID: " + node.identifier());
+		_out.println(tab(_tab) + "NodeProcDeclArg");
+		_out.println(tab(_tab) + "ID: " + node.identifier());
 		_tab--;
 	}
 	
@@ -133,11 +144,11 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeProc(NodeProc node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeProc");
-		System.out.println(tab(_tab) + "ID: " + node.identifier());
-		System.out.println(tab(_tab) + "ArgList:");
+		_out.println(tab(_tab) + "NodeProc");
+		_out.println(tab(_tab) + "ID: " + node.identifier());
+		_out.println(tab(_tab) + "ArgList:");
 		checkAndVisit(node.argumentList());
-		System.out.println(tab(_tab) + "Instruction:");
+		_out.println(tab(_tab) + "Instruction:");
 		checkAndVisit(node.instruction());
 		_tab--;
 	}
@@ -147,7 +158,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeExprTrue(NodeExprTrue node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeExprTrue");
+		_out.println(tab(_tab) + "NodeExprTrue");
 		_tab--;
 	}
 	
@@ -156,7 +167,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeExprFalse(NodeExprFalse node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeExprFalse");
+		_out.println(tab(_tab) + "NodeExprFalse");
 		_tab--;
 	}
 	
@@ -165,7 +176,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeExprPlus(NodeExprPlus node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeExprPlus");
+		_out.println(tab(_tab) + "NodeExprPlus");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -176,7 +187,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeExprTimes(NodeExprTimes node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeExprTimes");
+		_out.println(tab(_tab) + "NodeExprTimes");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -187,7 +198,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeExprDivide(NodeExprDivide node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeExprDivide");
+		_out.println(tab(_tab) + "NodeExprDivide");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -198,7 +209,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeExprMod(NodeExprMod node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeExprMod");
+		_out.println(tab(_tab) + "NodeExprMod");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -209,7 +220,7 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeExprVar(NodeExprVar node) throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeExprVar: " + node.identifier() + 
+		_out.println(tab(_tab) + "NodeExprVar: " + node.identifier() + 
 		"\n");
 		_tab--;
 	}
@@ -220,11 +231,11 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrAssignArray(NodeInstrAssignArray node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrAssignArray: "
+		_out.println(tab(_tab) + "NodeInstrAssignArray: "
 				+ node.identifier() + " []");
-		System.out.println(tab(_tab) + "AssignArray Index:");
+		_out.println(tab(_tab) + "AssignArray Index:");
 		checkAndVisit(node.index());
-		System.out.println(tab(_tab) + "AssignArray Expr:");
+		_out.println(tab(_tab) + "AssignArray Expr:");
 		checkAndVisit(node.expression());
 		_tab--;
 	}
@@ -235,9 +246,9 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrAssignSingle(NodeInstrAssignSingle node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrAssignSingle: "
+		_out.println(tab(_tab) + "NodeInstrAssignSingle: "
 				+ node.identifier());
-		System.out.println(tab(_tab) + "Assign Expr:");
+		_out.println(tab(_tab) + "Assign Expr:");
 		checkAndVisit(node.expression());
 		_tab--;
 	}
@@ -248,8 +259,8 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrBlock(NodeInstrBlock node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrBlock");
-		System.out.println(tab(_tab) + "Block Body:");
+		_out.println(tab(_tab) + "NodeInstrBlock");
+		_out.println(tab(_tab) + "Block Body:");
 		checkAndVisit(node.instructions());
 		_tab--;
 	}
@@ -260,10 +271,10 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrIfthen(NodeInstrIfthen node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrIfthen");
-		System.out.println(tab(_tab) + "If Relation:");
+		_out.println(tab(_tab) + "NodeInstrIfthen");
+		_out.println(tab(_tab) + "If Relation:");
 		checkAndVisit(node.relation());
-		System.out.println(tab(_tab) + "Then Body:");
+		_out.println(tab(_tab) + "Then Body:");
 		checkAndVisit(node.thenInstruction());
 		_tab--;
 	}
@@ -274,12 +285,12 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrIfthenelse(NodeInstrIfthenelse node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrIfthenelse");
-		System.out.println(tab(_tab) + "If Relation:");
+		_out.println(tab(_tab) + "NodeInstrIfthenelse");
+		_out.println(tab(_tab) + "If Relation:");
 		checkAndVisit(node.relation());
-		System.out.println(tab(_tab) + "Then Body:");
+		_out.println(tab(_tab) + "Then Body:");
 		checkAndVisit(node.thenInstruction());
-		System.out.println(tab(_tab) + "Else Body:");
+		_out.println(tab(_tab) + "Else Body:");
 		checkAndVisit(node.elseInstruction());
 		_tab--;
 	}
@@ -290,7 +301,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrOutput(NodeInstrOutput node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrOutput:");
+		_out.println(tab(_tab) + "NodeInstrOutput:");
 		checkAndVisit(node.expression());
 		_tab--;
 	}
@@ -301,8 +312,8 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrInputArray(NodeInstrInputArray node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrInputArray: " + node.identifier() + "[]");
-		System.out.println(tab(_tab) + "NodeInstrInputArray Expr: ");
+		_out.println(tab(_tab) + "NodeInstrInputArray: " + node.identifier() + "[]");
+		_out.println(tab(_tab) + "NodeInstrInputArray Expr: ");
 		checkAndVisit(node.index());
 		_tab--;
 	}
@@ -313,7 +324,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrInputSingle(NodeInstrInputSingle node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrInputSingle: " + node.identifier());
+		_out.println(tab(_tab) + "NodeInstrInputSingle: " + node.identifier());
 		_tab--;
 	}
 	
@@ -323,8 +334,8 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrReturnExpr(NodeInstrReturnExpr node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrReturnExpr");
-		System.out.println(tab(_tab) + "Expression:");
+		_out.println(tab(_tab) + "NodeInstrReturnExpr");
+		_out.println(tab(_tab) + "Expression:");
 		checkAndVisit(node.expression());
 		_tab--;
 	}
@@ -335,10 +346,10 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrWhile(NodeInstrWhile node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrWhile");
-		System.out.println(tab(_tab) + "While Relation:");
+		_out.println(tab(_tab) + "NodeInstrWhile");
+		_out.println(tab(_tab) + "While Relation:");
 		checkAndVisit(node.relation());
-		System.out.println(tab(_tab) + "While Body:");
+		_out.println(tab(_tab) + "While Body:");
 		checkAndVisit(node.instruction());
 		_tab--;
 	}
@@ -349,8 +360,8 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeInstrProcCall(NodeInstrProcCall node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeInstrProcCall: " + node.identifier());
-		System.out.println(tab(_tab) + "Arguments:");
+		_out.println(tab(_tab) + "NodeInstrProcCall: " + node.identifier());
+		_out.println(tab(_tab) + "Arguments:");
 		checkAndVisit(node.arguments());
 		_tab--;
 	}
@@ -360,11 +371,19 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeListInstrCons(NodeListInstrCons node)
 	throws VisitorException {
-		_tab++;
-		System.out.println(tab(_tab) + "NodeListInstrCons");
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
-		_tab--;
+		//each cons is printed one level deeper than the one before, as if
+		//the tail were visited recursively
+		int _depth = _tab;
+		NodeListInstr _list = node;
+		while (_list instanceof NodeListInstrCons) {
+			NodeListInstrCons _cons = (NodeListInstrCons) _list;
+			_tab++;
+			_out.println(tab(_tab) + "NodeListInstrCons");
+			checkAndVisit(_cons.head());
+			_list = _cons.tail();
+		}
+		checkAndVisit(_list);
+		_tab = _depth;
 	}
 	
 	/**
@@ -373,7 +392,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeListInstrNil(NodeListInstrNil node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeListInstrNil\n");
+		_out.println(tab(_tab) + "NodeListInstrNil\n");
 		_tab--;
 	}
 	
@@ -382,11 +401,19 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeListProcCons(NodeListProcCons node)
 	throws VisitorException {
-		_tab++;
-		System.out.println(tab(_tab) + "NodeListProcCons");
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
-		_tab--;
+		//each cons is printed one level deeper than the one before, as if
+		//the tail were visited recursively
+		int _depth = _tab;
+		NodeListProc _list = node;
+		while (_list instanceof NodeListProcCons) {
+			NodeListProcCons _cons = (NodeListProcCons) _list;
+			_tab++;
+			_out.println(tab(_tab) + "NodeListProcCons");
+			checkAndVisit(_cons.head());
+			_list = _cons.tail();
+		}
+		checkAndVisit(_list);
+		_tab = _depth;
 	}
 	
 	/**
@@ -395,7 +422,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeListProcNil(NodeListProcNil node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeListProcNil\n");
+		_out.println(tab(_tab) + "NodeListProcNil\n");
 		_tab--;
 	}
 	
@@ -404,11 +431,19 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeListProcDeclArgCons(NodeListProcDeclArgCons node)
 	throws VisitorException {
-		_tab++;
-		System.out.println(tab(_tab) + "NodeListProcDeclArgCons");
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
-		_tab--;
+		//each cons is printed one level deeper than the one before, as if
+		//the tail were visited recursively
+		int _depth = _tab;
+		NodeListProcDeclArg _list = node;
+		while (_list instanceof NodeListProcDeclArgCons) {
+			NodeListProcDeclArgCons _cons = (NodeListProcDeclArgCons) _list;
+			_tab++;
+			_out.println(tab(_tab) + "NodeListProcDeclArgCons");
+			checkAndVisit(_cons.head());
+			_list = _cons.tail();
+		}
+		checkAndVisit(_list);
+		_tab = _depth;
 	}
 	
 	/**
@@ -417,7 +452,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeListProcDeclArgNil(NodeListProcDeclArgNil node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeListProcDeclArgNil\n");
+		_out.println(tab(_tab) + "NodeListProcDeclArgNil\n");
 		_tab--;
 	}
 	
@@ -426,11 +461,19 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeListProcCallArgCons(NodeListProcCallArgCons node)
 	throws VisitorException {
-		_tab++;
-		System.out.println(tab(_tab) + "NodeListProcCallArgCons");
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
-		_tab--;
+		//each cons is printed one level deeper than the one before, as if
+		//the tail were visited recursively
+		int _depth = _tab;
+		NodeListProcCallArg _list = node;
+		while (_list instanceof NodeListProcCallArgCons) {
+			NodeListProcCallArgCons _cons = (NodeListProcCallArgCons) _list;
+			_tab++;
+			_out.println(tab(_tab) + "NodeListProcCallArgCons");
+			checkAndVisit(_cons.head());
+			_list = _cons.tail();
+		}
+		checkAndVisit(_list);
+		_tab = _depth;
 	}
 	
 	/**
@@ -439,7 +482,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeListProcCallArgNil(NodeListProcCallArgNil node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeListProcCallArgNil\n");
+		_out.println(tab(_tab) + "NodeListProcCallArgNil\n");
 		_tab--;
 	}
 	
@@ -448,11 +491,19 @@ public class PrintingVisitor implements Visitor {
 	 */
 	public void handleNodeListVarDeclCons(NodeListVarDeclCons node)
 	throws VisitorException {
-		_tab++;
-		System.out.println(tab(_tab) + "NodeListVarDeclCons");
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
-		_tab--;
+		//each cons is printed one level deeper than the one before, as if
+		//the tail were visited recursively
+		int _depth = _tab;
+		NodeListVarDecl _list = node;
+		while (_list instanceof NodeListVarDeclCons) {
+			NodeListVarDeclCons _cons = (NodeListVarDeclCons) _list;
+			_tab++;
+			_out.println(tab(_tab) + "NodeListVarDeclCons");
+			checkAndVisit(_cons.head());
+			_list = _cons.tail();
+		}
+		checkAndVisit(_list);
+		_tab = _depth;
 	}
 	
 	/**
@@ -461,7 +512,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeListVarDeclNil(NodeListVarDeclNil node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeListVarDeclNil\n");
+		_out.println(tab(_tab) + "NodeListVarDeclNil\n");
 		_tab--;
 	}
 	
@@ -469,7 +520,7 @@ public class PrintingVisitor implements Visitor {
 	 * Handles visiting a NodeProgram
 	 */
 	public void handleNodeProgram(NodeProgram node) throws VisitorException {
-		System.out.println(tab(_tab) + "NodeProgram");
+		_out.println(tab(_tab) + "NodeProgram");
 		checkAndVisit(node.listVarDecl());
 		checkAndVisit(node.listProc());
 	}
@@ -480,7 +531,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeRelationLessThan(NodeRelationLessThan node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeRelationLessThan");
+		_out.println(tab(_tab) + "NodeRelationLessThan");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -493,7 +544,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeRelationLessThanEqual(NodeRelationLessThanEqual node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeRelationLessThanEqual");
+		_out.println(tab(_tab) + "NodeRelationLessThanEqual");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -505,7 +556,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeRelationEqual(NodeRelationEqual node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeRelationEqual");
+		_out.println(tab(_tab) + "NodeRelationEqual");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -517,7 +568,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeRelationGreaterThanEqual(NodeRelationGreaterThanEqual node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeRelationGreaterThanEqual");
+		_out.println(tab(_tab) + "NodeRelationGreaterThanEqual");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -529,7 +580,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeRelationGreaterThan(NodeRelationGreaterThan node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeRelationGreaterThan");
+		_out.println(tab(_tab) + "NodeRelationGreaterThan");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -541,7 +592,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeRelationAnd(NodeRelationAnd node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeRelationAnd");
+		_out.println(tab(_tab) + "NodeRelationAnd");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -553,7 +604,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeRelationOr(NodeRelationOr node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeRelationOr");
+		_out.println(tab(_tab) + "NodeRelationOr");
 		checkAndVisit(node.leftChild());
 		checkAndVisit(node.rightChild());
 		_tab--;
@@ -565,7 +616,7 @@ public class PrintingVisitor implements Visitor {
 	public void handleNodeRelationNot(NodeRelationNot node)
 	throws VisitorException {
 		_tab++;
-		System.out.println(tab(_tab) + "NodeRelationNot");
+		_out.println(tab(_tab) + "NodeRelationNot");
 		checkAndVisit(node.relation());
 		_tab--;
 	}
@@ -29,6 +29,8 @@ public class Procedure {
 	private int _lastSize; //contains the size of the most recently added variable, so we
 								  //know where to put the next one
 	private int _lastLocation; //contains the offset of the most recently added variable
+	private Map<String, Integer> _varOffsets; //contains the final offset of each variable from $fp
+	private int _savedBytes; //size of the registers saved below the variables
 	
 	/**
 	 * Make a new Procedure.
@@ -41,6 +43,8 @@ public class Procedure {
 		_varSizeList = new HashMap<String, Integer>();
 		_lastSize = 0;
 		_lastLocation = 0;
+		_varOffsets = new HashMap<String, Integer>();
+		_savedBytes = 40;
 	}
 	
 	/**
@@ -106,14 +110,35 @@ public class Procedure {
 	 * on each procedure call.
 	 */
 	public void finish() {
-	  //40 is the size of the pushed registers.
+	  finish(40);
+	}
+
+	/**
+	 * Finalizes the list of procedure vars like {@link #finish()}, for a frame
+	 * in which only <code>savedBytes</code> bytes of registers are pushed
+	 * between $fp and the variables. Code Generation calls this again once it
+	 * knows which registers the procedure needs to save; each call replaces
+	 * the offsets computed by the previous one.
+	 *
+	 * @param savedBytes The size of the saved registers, in bytes
+	 */
+	public void finish(int savedBytes) {
 	  //Ensure the stack goes the correct way and
 	  //that offsets are positive numbers and start at $fp.
-	  int offset = 40 + this.getSize();
+	  _savedBytes = savedBytes;
+	  int offset = savedBytes + this.getSize();
 	  for (String s : _varLocList.keySet()) {
-	     _varLocList.put(s, -(_varLocList.get(s) - offset + (_varSizeList.get(s) - 4)));
+	     _varOffsets.put(s, -(_varLocList.get(s) - offset + (_varSizeList.get(s) - 4)));
 	  }
 	}
+
+	/**
+	 * Gets the size in bytes of the registers saved between $fp and the
+	 * variables, as last passed to finish.
+	 */
+	public int getSavedBytes() {
+		return _savedBytes;
+	}
 	
 	/**
 	 * See if this variable is in the list and where it is
@@ -126,8 +151,8 @@ public class Procedure {
 	 * @return the offset of the variable from $fp, or -1 if it doesn't exist
 	 */
 	public int lookup(String name) {
-		if (_varLocList.keySet().contains(name)) {
-			return _varLocList.get(name);
+		if (_varOffsets.keySet().contains(name)) {
+			return _varOffsets.get(name);
 		}
 		return -1;
 	}
@@ -0,0 +1,585 @@
+package comp;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Makes up Blaise programs of any size, for seeing how the compiler scales
+ * and for stress testing it. The size and shape of a program are set by:
+ * <ul>
+ * <li>the number of procedures and of statements in each,</li>
+ * <li>how deeply if and while statements nest, and expressions,</li>
+ * <li>the number of global arrays and their largest size,</li>
+ * <li>and the {@link Shape} of the call graph.</li>
+ * </ul>
+ * The same seed and settings always give the same program.
+ * <p>
+ * Every program it makes compiles and runs to completion on the simulator:
+ * <ul>
+ * <li>loops count up to a small bound with counters nothing else assigns;</li>
+ * <li>every procedure but main spends one unit of a global <code>fuel</code>
+ * and returns at once when there is none left, so even recursive call graphs
+ * make a bounded number of calls;</li>
+ * <li>expressions are built knowing a bound on their value, and reduced
+ * modulo 1000 before they could overflow, since <code>add</code> traps;</li>
+ * <li>array indexes are reduced into the array, and only constants that are
+ * not zero are divided by.</li>
+ * </ul>
+ * <pre>
+ * java comp.ProgramGenerator [options] [&lt;blaise file&gt;]
+ * </pre>
+ * See {@link #getUsage()} for the options. Without a file the program is
+ * printed.
+ */
+public class ProgramGenerator {
+
+	/**
+	 * Which procedures call which. Procedures can only call those declared
+	 * before them (or themselves), so main comes last and calls the ones
+	 * nothing else calls.
+	 */
+	public enum Shape {
+		/** No procedure calls another; main calls them all. */
+		FLAT,
+		/** Each procedure calls the one before it. */
+		CHAIN,
+		/** A binary tree: each procedure calls two declared before it. */
+		TREE,
+		/** Each procedure calls a few picked at random from those before it. */
+		RANDOM,
+		/** Like RANDOM, but procedures also call themselves. */
+		RECURSIVE;
+
+		/**
+		 * Gets the shape with the given name, ignoring case, or null if there
+		 * is none.
+		 */
+		public static Shape fromString(String name) {
+			for (Shape shape : values()) {
+				if (shape.name().equalsIgnoreCase(name))
+					return shape;
+			}
+			return null;
+		}
+	}
+
+	//every variable holds a value no bigger than this in magnitude
+	private static final int VALUE_BOUND = 999;
+	//no expression may get bigger than this, so adding two never overflows
+	private static final long EXPR_BOUND = 1L << 29;
+
+	private final long _seed;
+	private int _procedures = 10;
+	private int _statements = 10;
+	private int _nestingDepth = 2;
+	private int _expressionDepth = 3;
+	private int _globals = 4;
+	private int _arrays = 2;
+	private int _arraySize = 16;
+	private int _locals = 4;
+	private int _loopTrips = 4;
+	private int _fanOut = 2;
+	private int _fuel = 1000;
+	private Shape _shape = Shape.RANDOM;
+
+	//state while generating
+	private Random _random;
+	private StringBuilder _text;
+	private int[] _argCounts;
+	private int[] _arraySizes;
+	private List<List<Integer>> _callees;
+	private int _depth; //if and while statements around the current one
+	private int _loops; //loops around the current statement; counter i<n> belongs to the n-th
+
+	/**
+	 * Create a generator with the default settings: ten procedures of ten
+	 * statements calling each other at random.
+	 *
+	 * @param seed Where the random choices start
+	 */
+	public ProgramGenerator(long seed) {
+		_seed = seed;
+	}
+
+	/** The number of procedures besides main. */
+	public void setProcedures(int procedures) {
+		_procedures = procedures;
+	}
+
+	/** The number of statements at the top level of each procedure. */
+	public void setStatements(int statements) {
+		_statements = statements;
+	}
+
+	/** How deeply if and while statements may nest. */
+	public void setNestingDepth(int depth) {
+		_nestingDepth = depth;
+	}
+
+	/** How deeply operators may nest in an expression. */
+	public void setExpressionDepth(int depth) {
+		_expressionDepth = depth;
+	}
+
+	/** The number of global int variables. */
+	public void setGlobals(int globals) {
+		_globals = globals;
+	}
+
+	/** The number of global arrays. */
+	public void setArrays(int arrays) {
+		_arrays = arrays;
+	}
+
+	/** The size of the largest global array; the others are smaller. */
+	public void setArraySize(int size) {
+		_arraySize = size;
+	}
+
+	/** The number of int locals in each procedure, besides loop counters. */
+	public void setLocals(int locals) {
+		_locals = locals;
+	}
+
+	/** The most times a loop runs. */
+	public void setLoopTrips(int trips) {
+		_loopTrips = trips;
+	}
+
+	/** How many procedures each calls in the RANDOM and RECURSIVE shapes. */
+	public void setFanOut(int fanOut) {
+		_fanOut = fanOut;
+	}
+
+	/** The most procedure calls a run of the program makes. */
+	public void setFuel(int fuel) {
+		_fuel = fuel;
+	}
+
+	public void setShape(Shape shape) {
+		_shape = shape;
+	}
+
+	/**
+	 * Makes up a program. Calling it again gives the same program.
+	 */
+	public String generate() {
+		_random = new Random(_seed);
+		_text = new StringBuilder();
+		_depth = 0;
+		_loops = 0;
+
+		_text.append("var int fuel;\n");
+		for (int g = 0; g < _globals; g++)
+			_text.append("var int g").append(g).append(";\n");
+		_arraySizes = new int[_arrays];
+		for (int a = 0; a < _arrays; a++) {
+			_arraySizes[a] = a == 0 ? Math.max(1, _arraySize) : 1 + _random.nextInt(Math.max(1, _arraySize));
+			_text.append("var int arr").append(a).append("[").append(_arraySizes[a]).append("];\n");
+		}
+		_text.append("\n");
+
+		_argCounts = new int[_procedures];
+		for (int p = 0; p < _procedures; p++)
+			_argCounts[p] = _random.nextInt(4);
+		_callees = buildCallGraph();
+		for (int p = 0; p < _procedures; p++)
+			procedure(p);
+		main();
+		return _text.toString();
+	}
+
+	//who each procedure calls; the entry at _procedures is main's
+	private List<List<Integer>> buildCallGraph() {
+		List<List<Integer>> callees = new ArrayList<List<Integer>>();
+		for (int p = 0; p <= _procedures; p++)
+			callees.add(new ArrayList<Integer>());
+		boolean[] called = new boolean[_procedures];
+		for (int p = 0; p < _procedures; p++) {
+			List<Integer> calls = callees.get(p);
+			switch (_shape) {
+			case FLAT:
+				break;
+			case CHAIN:
+				if (p > 0)
+					calls.add(p - 1);
+				break;
+			case TREE:
+				//the root is declared last; the children of rank r are 2r+1 and 2r+2
+				int rank = _procedures - 1 - p;
+				for (int child = 2 * rank + 1; child <= 2 * rank + 2; child++) {
+					if (child < _procedures)
+						calls.add(_procedures - 1 - child);
+				}
+				break;
+			case RECURSIVE:
+				calls.add(p);
+				addRandomCalls(p, calls);
+				break;
+			case RANDOM:
+				addRandomCalls(p, calls);
+				break;
+			}
+			for (int callee : calls) {
+				if (callee != p)
+					called[callee] = true;
+			}
+		}
+		for (int p = 0; p < _procedures; p++) {
+			if (!called[p])
+				callees.get(_procedures).add(p);
+		}
+		return callees;
+	}
+
+	//up to _fanOut calls to procedures declared before p
+	private void addRandomCalls(int p, List<Integer> calls) {
+		for (int c = 0; c < _fanOut && p > 0; c++) {
+			int callee = _random.nextInt(p);
+			if (!calls.contains(callee))
+				calls.add(callee);
+		}
+	}
+
+	private void procedure(int p) {
+		_text.append("procedure int p").append(p).append("(");
+		for (int a = 0; a < _argCounts[p]; a++)
+			_text.append(a > 0 ? ", " : "").append("int a").append(a);
+		_text.append(") {\n");
+		declareLocals();
+		line(1, "if (fuel <= 0)");
+		line(2, "return 0;");
+		line(1, "endif");
+		line(1, "fuel := fuel - 1;");
+		body(p, _argCounts[p]);
+		line(1, "return " + (_locals > 0 ? "v0" : "0") + ";");
+		_text.append("}\n\n");
+	}
+
+	private void main() {
+		_text.append("procedure int main() {\n");
+		declareLocals();
+		line(1, "fuel := " + _fuel + ";");
+		body(_procedures, 0);
+		//call whatever the body did not, so that every procedure is reached
+		for (int callee : _callees.get(_procedures))
+			line(1, "output(" + call(callee, 0) + ");");
+		for (int g = 0; g < _globals; g++)
+			line(1, "output(g" + g + ");");
+		_text.append("}\n");
+	}
+
+	private void declareLocals() {
+		for (int v = 0; v < _locals; v++)
+			line(1, "int v" + v + ";");
+		for (int i = 0; i < _nestingDepth; i++)
+			line(1, "int i" + i + ";");
+		for (int v = 0; v < _locals; v++)
+			line(1, "v" + v + " := 0;");
+	}
+
+	private void body(int p, int args) {
+		for (int s = 0; s < _statements; s++)
+			statement(p, args, 1);
+	}
+
+	//one statement at the given indentation, in procedure p with args arguments
+	private void statement(int p, int args, int indent) {
+		int choice = _random.nextInt(10);
+		if (choice < 2 && _depth < _nestingDepth) {
+			ifStatement(p, args, indent);
+		} else if (choice < 4 && _depth < _nestingDepth) {
+			whileStatement(p, args, indent);
+		} else if (choice < 5 && !_callees.get(p).isEmpty()) {
+			List<Integer> calls = _callees.get(p);
+			line(indent, call(calls.get(_random.nextInt(calls.size())), args) + ";");
+		} else if (choice < 6) {
+			line(indent, "output(" + expression(args, _expressionDepth).text + ");");
+		} else if (choice < 7 && _arrays > 0) {
+			int a = _random.nextInt(_arrays);
+			line(indent, "arr" + a + "[" + index(a, args) + "] := " + value(args, p) + ";");
+		} else if (_locals + _globals > 0) {
+			int v = _random.nextInt(_locals + _globals);
+			String name = v < _locals ? "v" + v : "g" + (v - _locals);
+			line(indent, name + " := " + value(args, p) + ";");
+		} else {
+			line(indent, "output(" + expression(args, _expressionDepth).text + ");");
+		}
+	}
+
+	private void ifStatement(int p, int args, int indent) {
+		line(indent, "if (" + condition(args, 2) + ") {");
+		block(p, args, indent);
+		if (_random.nextBoolean()) {
+			line(indent, "} else {");
+			block(p, args, indent);
+		}
+		line(indent, "}");
+		line(indent, "endif");
+	}
+
+	private void whileStatement(int p, int args, int indent) {
+		String counter = "i" + _loops;
+		line(indent, counter + " := 0;");
+		line(indent, "while (" + counter + " < " + (1 + _random.nextInt(Math.max(1, _loopTrips))) + ") {");
+		_loops++;
+		block(p, args, indent);
+		_loops--;
+		line(indent + 1, counter + " := " + counter + " + 1;");
+		line(indent, "}");
+	}
+
+	//the statements nested in an if or while
+	private void block(int p, int args, int indent) {
+		_depth++;
+		int count = 1 + _random.nextInt(Math.max(1, Math.min(4, _statements / 2)));
+		for (int s = 0; s < count; s++)
+			statement(p, args, indent + 1);
+		_depth--;
+	}
+
+	//an expression fit to store in a variable: within VALUE_BOUND
+	private String value(int args, int p) {
+		Expression e;
+		List<Integer> calls = _callees.get(p);
+		if (!calls.isEmpty() && _random.nextInt(8) == 0)
+			e = new Expression(call(calls.get(_random.nextInt(calls.size())), args), VALUE_BOUND);
+		else
+			e = expression(args, _expressionDepth);
+		return e.bound > VALUE_BOUND ? "(" + e.text + ") % " + (VALUE_BOUND + 1) : e.text;
+	}
+
+	private String call(int callee, int args) {
+		StringBuilder call = new StringBuilder("p").append(callee).append("(");
+		for (int a = 0; a < _argCounts[callee]; a++) {
+			Expression e = expression(args, 1);
+			call.append(a > 0 ? ", " : "").append(e.bound > VALUE_BOUND ? "(" + e.text + ") % " + (VALUE_BOUND + 1) : e.text);
+		}
+		return call.append(")").toString();
+	}
+
+	//an index into array a: ((e % n) + n) % n is in range even when e is negative
+	private String index(int a, int args) {
+		int size = _arraySizes[a];
+		if (_loops > 0 && _random.nextBoolean())
+			return "i" + _random.nextInt(_loops) + " % " + size;
+		return "((" + expression(args, 1).text + " % " + size + ") + " + size + ") % " + size;
+	}
+
+	private String condition(int args, int depth) {
+		int choice = depth > 0 ? _random.nextInt(6) : 0;
+		if (choice == 4)
+			return "(" + condition(args, depth - 1) + ") && (" + condition(args, depth - 1) + ")";
+		if (choice == 5)
+			return "(" + condition(args, depth - 1) + ") || (" + condition(args, depth - 1) + ")";
+		if (choice == 3)
+			return "!(" + condition(args, depth - 1) + ")";
+		String[] comparisons = { "<", "<=", ">", ">=", "==" };
+		return expression(args, 1).text + " " + comparisons[_random.nextInt(comparisons.length)] + " "
+				+ expression(args, 1).text;
+	}
+
+	//an expression and a bound on the magnitude of its value
+	private static class Expression {
+		final String text;
+		final long bound;
+
+		Expression(String text, long bound) {
+			this.text = text;
+			this.bound = bound;
+		}
+
+		//this expression reduced to within VALUE_BOUND
+		Expression reduce() {
+			return new Expression("(" + text + " % " + (VALUE_BOUND + 1) + ")", VALUE_BOUND);
+		}
+	}
+
+	private Expression expression(int args, int depth) {
+		if (depth == 0 || _random.nextInt(3) == 0)
+			return operand(args);
+		Expression left = expression(args, depth - 1);
+		switch (_random.nextInt(5)) {
+		case 3: {
+			int divisor = 1 + _random.nextInt(9);
+			return new Expression("(" + left.text + " / " + divisor + ")", left.bound);
+		}
+		case 4: {
+			int divisor = 1 + _random.nextInt(9);
+			return new Expression("(" + left.text + " % " + divisor + ")", Math.min(left.bound, divisor - 1));
+		}
+		}
+		String[] operators = { "+", "-", "*" };
+		int operator = _random.nextInt(3);
+		Expression right = expression(args, depth - 1);
+		while (combine(left.bound, right.bound, operator) > EXPR_BOUND) {
+			if (left.bound >= right.bound)
+				left = left.reduce();
+			else
+				right = right.reduce();
+		}
+		return new Expression("(" + left.text + " " + operators[operator] + " " + right.text + ")",
+				combine(left.bound, right.bound, operator));
+	}
+
+	private static long combine(long left, long right, int operator) {
+		return operator == 2 ? left * right : left + right;
+	}
+
+	//a constant, variable, argument, loop counter or array element
+	private Expression operand(int args) {
+		int choice = _random.nextInt(6);
+		if (choice == 1 && _locals > 0)
+			return new Expression("v" + _random.nextInt(_locals), VALUE_BOUND);
+		if (choice == 2 && _globals > 0)
+			return new Expression("g" + _random.nextInt(_globals), VALUE_BOUND);
+		if (choice == 3 && args > 0)
+			return new Expression("a" + _random.nextInt(args), VALUE_BOUND);
+		if (choice == 4 && _loops > 0)
+			return new Expression("i" + _random.nextInt(_loops), _loopTrips);
+		if (choice == 5 && _arrays > 0) {
+			int a = _random.nextInt(_arrays);
+			int size = _arraySizes[a];
+			String index = _loops > 0 ? "i" + _random.nextInt(_loops) + " % " + size : "" + _random.nextInt(size);
+			return new Expression("arr" + a + "[" + index + "]", VALUE_BOUND);
+		}
+		int constant = _random.nextInt(100);
+		return new Expression(Integer.toString(constant), constant);
+	}
+
+	private void line(int indent, String text) {
+		for (int i = 0; i < indent; i++)
+			_text.append("  ");
+		_text.append(text).append('\n');
+	}
+
+	/**
+	 * Describes the options of {@link #main(String[])}, one per line.
+	 */
+	public static String getUsage() {
+		return "  --seed=N               where the random choices start (default 0)\n"
+				+ "  --procedures=N         procedures besides main (default 10)\n"
+				+ "  --statements=N         statements at the top of each procedure (default 10)\n"
+				+ "  --depth=N              how deeply if and while nest (default 2)\n"
+				+ "  --expr-depth=N         how deeply expressions nest (default 3)\n"
+				+ "  --globals=N            global ints (default 4)\n"
+				+ "  --arrays=N             global arrays (default 2)\n"
+				+ "  --array-size=N         size of the largest array (default 16)\n"
+				+ "  --locals=N             locals in each procedure (default 4)\n"
+				+ "  --loop-trips=N         most times a loop runs (default 4)\n"
+				+ "  --shape=S              call graph: " + Arrays.toString(Shape.values()) + " (default RANDOM)\n"
+				+ "  --fan-out=N            calls per procedure for RANDOM and RECURSIVE (default 2)\n"
+				+ "  --fuel=N               most calls a run makes (default 1000)\n"
+				+ "  --count=N              write N programs, with seeds from --seed on, to --out-dir\n"
+				+ "  --out-dir=DIR          where --count writes gen<seed>.bl (default .)\n";
+	}
+
+	/**
+	 * Writes a made-up program to a file, or prints it; or, with
+	 * <code>--count</code>, writes several programs with consecutive seeds.
+	 */
+	public static void main(String[] args) throws IOException {
+		long seed = 0;
+		int count = 0;
+		String outDir = ".";
+		String file = null;
+		Map<String, Integer> numbers = new HashMap<String, Integer>();
+		Shape shape = Shape.RANDOM;
+		try {
+			for (String arg : args) {
+				if (arg.equals("--help")) {
+					System.out.println("Usage: java comp.ProgramGenerator [options] [<blaise file>]\n" + getUsage());
+					return;
+				} else if (!arg.startsWith("--")) {
+					if (file != null)
+						throw new IllegalArgumentException("More than one file: " + arg);
+					file = arg;
+				} else if (arg.startsWith("--seed=")) {
+					seed = Long.parseLong(arg.substring("--seed=".length()));
+				} else if (arg.startsWith("--shape=")) {
+					shape = Shape.fromString(arg.substring("--shape=".length()));
+					if (shape == null)
+						throw new IllegalArgumentException("Unknown shape: " + arg);
+				} else if (arg.startsWith("--out-dir=")) {
+					outDir = arg.substring("--out-dir=".length());
+				} else if (arg.startsWith("--count=")) {
+					count = Integer.parseInt(arg.substring("--count=".length()));
+				} else if (arg.indexOf('=') > 0) {
+					int value = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+					if (value < 0)
+						throw new IllegalArgumentException("Negative: " + arg);
+					numbers.put(arg.substring(2, arg.indexOf('=')), value);
+				} else {
+					throw new IllegalArgumentException("Unknown option: " + arg);
+				}
+			}
+		} catch (NumberFormatException e) {
+			usage("Not a number: " + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			usage(e.getMessage());
+		}
+
+		if (count == 0) {
+			String program = configure(seed, shape, numbers).generate();
+			if (file == null) {
+				System.out.print(program);
+			} else {
+				write(new File(file), program);
+			}
+			return;
+		}
+		new File(outDir).mkdirs();
+		for (long s = seed; s < seed + count; s++)
+			write(new File(outDir, "gen" + s + ".bl"), configure(s, shape, numbers).generate());
+	}
+
+	//a generator with the settings given on the command line
+	private static ProgramGenerator configure(long seed, Shape shape, Map<String, Integer> numbers) {
+		ProgramGenerator generator = new ProgramGenerator(seed);
+		generator.setShape(shape);
+		for (Map.Entry<String, Integer> number : numbers.entrySet()) {
+			String name = number.getKey();
+			int value = number.getValue();
+			if (name.equals("procedures"))
+				generator.setProcedures(value);
+			else if (name.equals("statements"))
+				generator.setStatements(value);
+			else if (name.equals("depth"))
+				generator.setNestingDepth(value);
+			else if (name.equals("expr-depth"))
+				generator.setExpressionDepth(value);
+			else if (name.equals("globals"))
+				generator.setGlobals(value);
+			else if (name.equals("arrays"))
+				generator.setArrays(value);
+			else if (name.equals("array-size"))
+				generator.setArraySize(value);
+			else if (name.equals("locals"))
+				generator.setLocals(value);
+			else if (name.equals("loop-trips"))
+				generator.setLoopTrips(value);
+			else if (name.equals("fan-out"))
+				generator.setFanOut(value);
+			else if (name.equals("fuel"))
+				generator.setFuel(value);
+			else
+				usage("Unknown option: --" + name);
+		}
+		return generator;
+	}
+
+	private static void usage(String message) {
+		System.err.println("\n" + message);
+		System.err.println("\nUsage: java comp.ProgramGenerator [options] [<blaise file>]\n" + getUsage());
+		System.exit(1);
+	}
+
+	private static void write(File file, String program) throws IOException {
+		Writer out = new BufferedWriter(new FileWriter(file));
+		try {
+			out.write(program);
+		} finally {
+			out.close();
+		}
+	}
+}
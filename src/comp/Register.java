@@ -9,6 +9,8 @@ package comp;
 public enum Register {
 	
 	//We associate each register with a String for printing in our final code.
+	ZERO("zero"),
+
 	V0("v0"),
 	V1("v1"),
 
@@ -53,6 +55,15 @@ public enum Register {
 	public String toString() {
 		return _name;
 	}
+
+	//finds the register printed as name (without the $), or null if there is none
+	public static Register fromString(String name) {
+		for (Register reg : values()) {
+			if (reg._name.equals(name))
+				return reg;
+		}
+		return null;
+	}
 	
 	
 }
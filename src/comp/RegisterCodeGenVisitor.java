@@ -0,0 +1,454 @@
+package comp;
+
+import comp.nodes.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link CodeGenVisitor} that evaluates expressions directly into the
+ * temporary registers instead of pushing every intermediate value on the
+ * stack.
+ * <p>
+ * Expression trees are labeled with Sethi-Ullman numbers (the number of
+ * registers needed to evaluate them without storing anything to memory).
+ * Children are evaluated in the order that needs the fewest registers, and
+ * a value is only spilled to the stack when a subtree needs more registers
+ * than are left. Subtrees that contain procedure calls are always evaluated
+ * left to right, so side effects happen in the same order as they would with
+ * a plain {@link CodeGenVisitor}.
+ * <p>
+ * Statements and procedure frames are generated exactly as in
+ * {@link CodeGenVisitor}; only the way expression values move around changes.
+ * <p>
+ * Optionally, the scalar locals and arguments of each procedure are also kept
+ * in the saved registers chosen by a {@link LinearScanAllocator}, and only
+ * the ones that do not fit live in the frame. Arguments are copied from the
+ * frame into their registers when the procedure is entered.
+ */
+public class RegisterCodeGenVisitor extends CodeGenVisitor {
+
+	//The registers expressions are evaluated into. An expression evaluated
+	//at base b leaves its value in TEMPS[b] and may use TEMPS[b+1] and up.
+	private static final Register[] TEMPS = { Register.T0, Register.T1,
+		Register.T2, Register.T3, Register.T4, Register.T5, Register.T6,
+		Register.T7, Register.T8, Register.T9 };
+
+	private int _base; //index in TEMPS that the expression being visited should end up in
+	private IdentityHashMap<NodeExpr, Integer> _need; //Sethi-Ullman number of each expression
+	private IdentityHashMap<NodeExpr, Boolean> _hasCall; //whether an expression contains a procedure call
+	private boolean _allocateLocals; //whether locals are kept in saved registers
+	private Map<String, Register> _allocation; //register of each local of the current procedure that has one
+
+	/**
+	 * Create a new <code>RegisterCodeGenVisitor</code> that keeps every local
+	 * in the frame. Takes the same arguments as {@link CodeGenVisitor}.
+	 */
+	public RegisterCodeGenVisitor(MIPSCodeGenerator codegen, HashMap<String,Integer> blockSizes,
+								 HashMap<String, Procedure> procedures) {
+		this(codegen, blockSizes, procedures, false);
+	}
+
+	/**
+	 * Create a new <code>RegisterCodeGenVisitor</code>.
+	 *
+	 * @param allocateLocals Whether to keep scalar locals and arguments in the
+	 *            saved registers
+	 */
+	public RegisterCodeGenVisitor(MIPSCodeGenerator codegen, HashMap<String,Integer> blockSizes,
+								 HashMap<String, Procedure> procedures, boolean allocateLocals) {
+		super(codegen, blockSizes, procedures);
+		_base = 0;
+		_need = new IdentityHashMap<NodeExpr, Integer>();
+		_hasCall = new IdentityHashMap<NodeExpr, Boolean>();
+		_allocateLocals = allocateLocals;
+		_allocation = Collections.emptyMap();
+	}
+
+	//Decides which locals go in registers before generating the procedure
+	public void handleNodeProc(NodeProc node) throws VisitorException {
+		if (_allocateLocals) {
+			_allocation = new LinearScanAllocator().allocate(node);
+		}
+		super.handleNodeProc(node);
+		_allocation = Collections.emptyMap();
+	}
+
+	//Expressions only use the temporaries, so the only saved registers
+	//written to are the ones holding locals.
+	protected Set<Register> getOverwrittenRegisters() {
+		return new HashSet<Register>(_allocation.values());
+	}
+
+	//Copies the arguments that have registers out of the frame
+	protected void genProcedureEntry(NodeProc node) throws VisitorException {
+		Procedure _thisProcedure = _procedures.get(node.identifier());
+		for (String arg : _thisProcedure.getArgList()) {
+			Register _reg = _allocation.get(arg);
+			if (_reg != null) {
+				_codegen.genLoadWithOffset(_reg, _thisProcedure.lookup(arg), Register.FP);
+			}
+		}
+	}
+
+	protected void genLoadVariable(String id, Register target) throws VisitorException {
+		Register _reg = _allocation.get(id);
+		if (_reg != null) {
+			_codegen.genMove(target, _reg);
+		} else {
+			super.genLoadVariable(id, target);
+		}
+	}
+
+	protected void genStoreVariable(String id, Register source) throws VisitorException {
+		Register _reg = _allocation.get(id);
+		if (_reg != null) {
+			_codegen.genMove(_reg, source);
+		} else {
+			super.genStoreVariable(id, source);
+		}
+	}
+
+	//Evaluates the expression into TEMPS[base] (registers below base are
+	//holding live values) and returns that register.
+	private Register genExpr(NodeExpr expr, int base) throws VisitorException {
+		int _savedBase = _base;
+		_base = base;
+		checkAndVisit(expr);
+		_base = _savedBase;
+		return TEMPS[base];
+	}
+
+	//Statements only ever evaluate one expression at a time, so they can
+	//start with every temporary free.
+	protected void genExpression(NodeExpr expr, Register target) throws VisitorException {
+		Register _result = genExpr(expr, 0);
+		if (_result != target) {
+			_codegen.genMove(target, _result);
+		}
+	}
+
+	//Comparisons in conditions are evaluated like any other binary expression
+	//at the start of a statement, leaving both operands in registers.
+	protected Register[] genComparison(NodeExpr left, NodeExpr right) throws VisitorException {
+		int _savedBase = _base;
+		_base = 0;
+		Register[] _regs = genOperands(left, right);
+		_base = _savedBase;
+		return _regs;
+	}
+
+	//Returns the operands of a binary expression, or null for anything else.
+	private NodeExpr[] operands(NodeExpr expr) {
+		if (expr instanceof NodeExprPlus) {
+			return new NodeExpr[] { ((NodeExprPlus) expr).leftChild(), ((NodeExprPlus) expr).rightChild() };
+		} else if (expr instanceof NodeExprMinus) {
+			return new NodeExpr[] { ((NodeExprMinus) expr).leftChild(), ((NodeExprMinus) expr).rightChild() };
+		} else if (expr instanceof NodeExprTimes) {
+			return new NodeExpr[] { ((NodeExprTimes) expr).leftChild(), ((NodeExprTimes) expr).rightChild() };
+		} else if (expr instanceof NodeExprDivide) {
+			return new NodeExpr[] { ((NodeExprDivide) expr).leftChild(), ((NodeExprDivide) expr).rightChild() };
+		} else if (expr instanceof NodeExprMod) {
+			return new NodeExpr[] { ((NodeExprMod) expr).leftChild(), ((NodeExprMod) expr).rightChild() };
+		} else if (expr instanceof NodeRelationLessThan) {
+			return new NodeExpr[] { ((NodeRelationLessThan) expr).leftChild(), ((NodeRelationLessThan) expr).rightChild() };
+		} else if (expr instanceof NodeRelationLessThanEqual) {
+			return new NodeExpr[] { ((NodeRelationLessThanEqual) expr).leftChild(), ((NodeRelationLessThanEqual) expr).rightChild() };
+		} else if (expr instanceof NodeRelationEqual) {
+			return new NodeExpr[] { ((NodeRelationEqual) expr).leftChild(), ((NodeRelationEqual) expr).rightChild() };
+		} else if (expr instanceof NodeRelationGreaterThan) {
+			return new NodeExpr[] { ((NodeRelationGreaterThan) expr).leftChild(), ((NodeRelationGreaterThan) expr).rightChild() };
+		} else if (expr instanceof NodeRelationGreaterThanEqual) {
+			return new NodeExpr[] { ((NodeRelationGreaterThanEqual) expr).leftChild(), ((NodeRelationGreaterThanEqual) expr).rightChild() };
+		} else if (expr instanceof NodeRelationAnd) {
+			return new NodeExpr[] { ((NodeRelationAnd) expr).leftChild(), ((NodeRelationAnd) expr).rightChild() };
+		} else if (expr instanceof NodeRelationOr) {
+			return new NodeExpr[] { ((NodeRelationOr) expr).leftChild(), ((NodeRelationOr) expr).rightChild() };
+		}
+		return null;
+	}
+
+	//Computes the Sethi-Ullman number of an expression: the number of
+	//registers needed to evaluate it without spilling. A binary node whose
+	//children need the same number of registers needs one more, since one
+	//child's value has to be held while the other is evaluated. And/Or only
+	//hold one value at a time because of short-circuiting, and array accesses
+	//need a second register to scale the index.
+	private int need(NodeExpr expr) {
+		Integer _cached = _need.get(expr);
+		if (_cached != null) {
+			return _cached;
+		}
+		int _result;
+		NodeExpr[] _operands = operands(expr);
+		NodeExprInt _constant = constantOperand(expr);
+		if (_constant != null) { //the constant goes in scratch registers, two for a remainder
+			_result = Math.max(need(otherOperand(expr, _constant)), expr instanceof NodeExprMod ? 3 : 2);
+		} else if (expr instanceof NodeRelationAnd || expr instanceof NodeRelationOr) {
+			_result = Math.max(need(_operands[0]), need(_operands[1]));
+		} else if (_operands != null) {
+			int _left = need(_operands[0]);
+			int _right = need(_operands[1]);
+			_result = (_left == _right) ? _left + 1 : Math.max(_left, _right);
+		} else if (expr instanceof NodeRelationNot) {
+			_result = need(((NodeRelationNot) expr).relation());
+		} else if (expr instanceof NodeExprArrayVar) {
+			_result = Math.max(need(((NodeExprArrayVar) expr).index()), 2);
+		} else { //constants, variables and procedure calls
+			_result = 1;
+		}
+		_need.put(expr, _result);
+		return _result;
+	}
+
+	//The constant operand of a multiplication, division or remainder, which
+	//MIPSCodeGenerator turns into cheaper instructions, or null. Only
+	//multiplication is commutative, so only it may have the constant on the left.
+	private NodeExprInt constantOperand(NodeExpr expr) {
+		if (expr instanceof NodeExprTimes || expr instanceof NodeExprDivide || expr instanceof NodeExprMod) {
+			NodeExpr[] _operands = operands(expr);
+			if (_operands[1] instanceof NodeExprInt) {
+				return (NodeExprInt) _operands[1];
+			} else if (expr instanceof NodeExprTimes && _operands[0] instanceof NodeExprInt) {
+				return (NodeExprInt) _operands[0];
+			}
+		}
+		return null;
+	}
+
+	//The operand of a binary expression that is not the given one
+	private NodeExpr otherOperand(NodeExpr expr, NodeExpr operand) {
+		NodeExpr[] _operands = operands(expr);
+		return _operands[0] == operand ? _operands[1] : _operands[0];
+	}
+
+	//Whether evaluating the expression calls a procedure. Those subtrees can
+	//have side effects, so they are never reordered.
+	private boolean hasCall(NodeExpr expr) {
+		Boolean _cached = _hasCall.get(expr);
+		if (_cached != null) {
+			return _cached;
+		}
+		boolean _result;
+		NodeExpr[] _operands = operands(expr);
+		if (expr instanceof NodeExprProcCall) {
+			_result = true;
+		} else if (_operands != null) {
+			_result = hasCall(_operands[0]) || hasCall(_operands[1]);
+		} else if (expr instanceof NodeRelationNot) {
+			_result = hasCall(((NodeRelationNot) expr).relation());
+		} else if (expr instanceof NodeExprArrayVar) {
+			_result = hasCall(((NodeExprArrayVar) expr).index());
+		} else {
+			_result = false;
+		}
+		_hasCall.put(expr, _result);
+		return _result;
+	}
+
+	//Evaluates both operands of a binary expression being generated at _base
+	//and returns the registers holding the left and right values. The result
+	//of the expression is expected to go in TEMPS[_base].
+	//If the right operand needs more registers it is evaluated first, so the
+	//left operand can use what is left over. When both operands need more
+	//registers than are available, the left value is spilled to the stack.
+	private Register[] genOperands(NodeExpr left, NodeExpr right) throws VisitorException {
+		int _available = TEMPS.length - _base;
+		int _leftNeed = need(left);
+		int _rightNeed = need(right);
+		boolean _inOrder = hasCall(left) || hasCall(right);
+		if (!_inOrder && _rightNeed > _leftNeed && _leftNeed < _available) {
+			Register _rightReg = genExpr(right, _base); //right first, then left in the next register
+			Register _leftReg = genExpr(left, _base + 1);
+			return new Register[] { _leftReg, _rightReg };
+		} else if ((_inOrder || _rightNeed <= _leftNeed) && _rightNeed < _available) {
+			Register _leftReg = genExpr(left, _base); //left first, then right in the next register
+			Register _rightReg = genExpr(right, _base + 1);
+			return new Register[] { _leftReg, _rightReg };
+		} else {
+			Register _leftReg = genExpr(left, _base); //not enough registers, so spill the left value
+			_codegen.genPush(_leftReg);
+			Register _rightReg = genExpr(right, _base);
+			_codegen.genPop(TEMPS[_base + 1]);
+			return new Register[] { TEMPS[_base + 1], _rightReg };
+		}
+	}
+
+	//Loads an array element into TEMPS[_base]. The index is scaled using the
+	//next register, which is why an array access needs at least two.
+	public void handleNodeExprArrayVar(NodeExprArrayVar node) throws VisitorException {
+		String _id = node.identifier();
+		Register _result = genExpr(node.index(), _base);
+		_codegen.genTimesI(_result, _result, 4, TEMPS[_base + 1]);
+		if (_blockSizes.containsKey(_id)) { //global, so index off the label
+			_codegen.genLoadIndirect(_result, _id, _result);
+		} else { //local, so index off the frame pointer
+			Procedure _thisProcedure = _procedures.get(_currentProcedure);
+			int _offset = _thisProcedure.lookup(_id);
+			_codegen.genPlus(_result, Register.FP);
+			_codegen.genLoadWithOffset(_result, _offset, _result);
+		}
+	}
+
+	//Loads a variable into TEMPS[_base]
+	public void handleNodeExprVar(NodeExprVar node) throws VisitorException {
+		genLoadVariable(node.identifier(), TEMPS[_base]);
+	}
+
+	public void handleNodeExprInt(NodeExprInt node) throws VisitorException {
+		_codegen.genLoadI(TEMPS[_base], node.value());
+	}
+
+	public void handleNodeExprTrue(NodeExprTrue node) throws VisitorException {
+		_codegen.genLoadI(TEMPS[_base], 1);
+	}
+
+	public void handleNodeExprFalse(NodeExprFalse node) throws VisitorException {
+		_codegen.genLoadI(TEMPS[_base], 0);
+	}
+
+	public void handleNodeExprMinus(NodeExprMinus node) throws VisitorException {
+		Register[] _regs = genOperands(node.leftChild(), node.rightChild());
+		_codegen.genMinus(TEMPS[_base], _regs[0], _regs[1]);
+	}
+
+	public void handleNodeExprPlus(NodeExprPlus node) throws VisitorException {
+		Register[] _regs = genOperands(node.leftChild(), node.rightChild());
+		_codegen.genPlus(TEMPS[_base], _regs[0], _regs[1]);
+	}
+
+	public void handleNodeExprTimes(NodeExprTimes node) throws VisitorException {
+		NodeExprInt _constant = constantOperand(node);
+		if (_constant != null) {
+			Register _reg = genExpr(otherOperand(node, _constant), _base);
+			_codegen.genTimesI(_reg, _reg, _constant.value(), TEMPS[_base + 1]);
+			return;
+		}
+		Register[] _regs = genOperands(node.leftChild(), node.rightChild());
+		_codegen.genTimes(TEMPS[_base], _regs[0], _regs[1]);
+	}
+
+	public void handleNodeExprDivide(NodeExprDivide node) throws VisitorException {
+		NodeExprInt _constant = constantOperand(node);
+		if (_constant != null) {
+			Register _reg = genExpr(node.leftChild(), _base);
+			_codegen.genDivideI(_reg, _reg, _constant.value(), TEMPS[_base + 1]);
+			return;
+		}
+		Register[] _regs = genOperands(node.leftChild(), node.rightChild());
+		_codegen.genDivide(TEMPS[_base], _regs[0], _regs[1]);
+	}
+
+	public void handleNodeExprMod(NodeExprMod node) throws VisitorException {
+		NodeExprInt _constant = constantOperand(node);
+		if (_constant != null) {
+			Register _reg = genExpr(node.leftChild(), _base);
+			_codegen.genModI(_reg, _reg, _constant.value(), TEMPS[_base + 1], TEMPS[_base + 2]);
+			return;
+		}
+		Register[] _regs = genOperands(node.leftChild(), node.rightChild());
+		_codegen.genMod(TEMPS[_base], _regs[0], _regs[1]);
+	}
+
+	public void handleNodeRelationLessThan(NodeRelationLessThan node) throws VisitorException {
+		Register[] _regs = genOperands(node.leftChild(), node.rightChild());
+		_codegen.genStoreLessThan(TEMPS[_base], _regs[0], _regs[1]);
+	}
+
+	public void handleNodeRelationLessThanEqual(NodeRelationLessThanEqual node) throws VisitorException {
+		Register[] _regs = genOperands(node.leftChild(), node.rightChild());
+		_codegen.genStoreLessEq(TEMPS[_base], _regs[0], _regs[1]);
+	}
+
+	public void handleNodeRelationEqual(NodeRelationEqual node) throws VisitorException {
+		Register[] _regs = genOperands(node.leftChild(), node.rightChild());
+		_codegen.genStoreEq(TEMPS[_base], _regs[0], _regs[1]);
+	}
+
+	//If the left side is false it is already the result, otherwise the
+	//result is whatever the right side evaluates to.
+	public void handleNodeRelationAnd(NodeRelationAnd node) throws VisitorException {
+		String _endLabel = _codegen.getNextLabel();
+		Register _result = genExpr(node.leftChild(), _base);
+		_codegen.genJumpEqualToZero(_result, _endLabel);
+		genExpr(node.rightChild(), _base);
+		_codegen.genLabel(_endLabel);
+	}
+
+	//If the left side is true it is already the result, otherwise the
+	//result is whatever the right side evaluates to.
+	public void handleNodeRelationOr(NodeRelationOr node) throws VisitorException {
+		String _endLabel = _codegen.getNextLabel();
+		Register _result = genExpr(node.leftChild(), _base);
+		_codegen.genJumpNotEqualToZero(_result, _endLabel);
+		genExpr(node.rightChild(), _base);
+		_codegen.genLabel(_endLabel);
+	}
+
+	//booleans are 0 or 1, so comparing against zero negates them
+	public void handleNodeRelationNot(NodeRelationNot node) throws VisitorException {
+		Register _result = genExpr(node.relation(), _base);
+		_codegen.genStoreEq(_result, _result, Register.ZERO);
+	}
+
+	//A procedure call clobbers the temporaries, so the ones holding live
+	//values are pushed before the arguments and popped after the result.
+	public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+		int _live = _base;
+		for (int i = 0; i < _live; i++) {
+			_codegen.genPush(TEMPS[i]);
+		}
+		checkAndVisit(node.arguments());
+		_codegen.genJumpLabel(_codegen.getProcLabel(node.identifier()));
+		_codegen.genPop(TEMPS[_live]); //the procedure leaves its result on the stack
+		for (int i = _live - 1; i >= 0; i--) {
+			_codegen.genPop(TEMPS[i]);
+		}
+	}
+
+	//Arguments are passed on the stack, so each one is pushed as soon as it
+	//has been evaluated.
+	public void handleNodeProcCallArg(NodeProcCallArg node) throws VisitorException {
+		Register _value = genExpr(node.expression(), 0);
+		_codegen.genPush(_value);
+	}
+
+	//The arguments of a tail call are evaluated into consecutive temporaries
+	//instead of the stack, as long as each fits in the ones left after it.
+	protected void genTailCallArguments(NodeExprProcCall call) throws VisitorException {
+		int i = 0;
+		for (NodeProcCallArg arg : call.arguments()) {
+			if (i + need(arg.expression()) > TEMPS.length) {
+				super.genTailCallArguments(call);
+				return;
+			}
+			i++;
+		}
+		i = 0;
+		for (NodeProcCallArg arg : call.arguments()) {
+			genExpr(arg.expression(), i++);
+		}
+		for (i = 0; i < call.arguments().size(); i++) {
+			genStoreTailCallArgument(call, i, TEMPS[i]);
+		}
+	}
+
+	//Evaluates the index into $t0 and the value into $t1 before storing
+	public void handleNodeInstrAssignArray(NodeInstrAssignArray node) throws VisitorException {
+		String _id = node.identifier();
+		Register _index = genExpr(node.index(), 0);
+		Register _value = genExpr(node.expression(), 1);
+		_codegen.genTimesI(_index, _index, 4, Register.T2);
+		if (_blockSizes.containsKey(_id)) { //global, so index off the label
+			_codegen.genStoreIndirect(_value, _id, _index);
+		} else { //local, so index off the frame pointer
+			Procedure _thisProcedure = _procedures.get(_currentProcedure);
+			_codegen.genPlus(_index, Register.FP);
+			_codegen.genStoreWithOffset(_value, _thisProcedure.lookup(_id), _index);
+		}
+	}
+}
@@ -96,8 +96,8 @@ public class SemanticVisitor implements Visitor {
 	
 	//no modifications
 	public void handleNodeListVarDeclCons(NodeListVarDeclCons node) throws VisitorException {
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		for (NodeVarDecl decl : node)
+			checkAndVisit(decl);
 	}
 	
 	//handles array global variable. checks to make sure a global variable with 
@@ -133,8 +133,8 @@ public class SemanticVisitor implements Visitor {
 	
 	//no modifications
 	public void handleNodeListProcCons(NodeListProcCons node) throws VisitorException {
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		for (NodeProc proc : node)
+			checkAndVisit(proc);
 	}
 	
 	//this handles a procedure. It first makes a new scope for the procedure and pushes
@@ -169,8 +169,8 @@ public class SemanticVisitor implements Visitor {
 	
 	//no modifications
 	public void handleNodeListProcDeclArgCons(NodeListProcDeclArgCons node) throws VisitorException {
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		for (NodeProcDeclArg arg : node)
+			checkAndVisit(arg);
 	}
 	
 	public void handleNodeListProcDeclArgNil(NodeListProcDeclArgNil node) throws VisitorException {
@@ -179,8 +179,8 @@ public class SemanticVisitor implements Visitor {
 	
 	//no modifications
 	public void handleNodeListProcCallArgCons(NodeListProcCallArgCons node) throws VisitorException {
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		for (NodeProcCallArg arg : node)
+			checkAndVisit(arg);
 	}
 	
 	public void handleNodeListProcCallArgNil(NodeListProcCallArgNil node) throws VisitorException {
@@ -539,8 +539,8 @@ public class SemanticVisitor implements Visitor {
 
 	//no modifications
 	public void handleNodeListInstrCons(NodeListInstrCons node) throws VisitorException {
-		checkAndVisit(node.head());
-		checkAndVisit(node.tail());
+		for (NodeInstr instr : node)
+			checkAndVisit(instr);
 	}
 
 	public void handleNodeListInstrNil(NodeListInstrNil node) throws VisitorException {
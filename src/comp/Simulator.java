@@ -0,0 +1,685 @@
+package comp;
+
+import java.io.*;
+import java.util.*;
+
+import comp.Instruction.Format;
+import comp.Instruction.Opcode;
+
+/**
+ * Runs the MIPS code the compiler generates, so that its output and its cost
+ * can be checked without SPIM. It understands the instructions in
+ * {@link Instruction.Opcode} with their SPIM meanings (including the traps of
+ * <code>add</code> and <code>sub</code> on overflow and of
+ * <code>div</code> and <code>rem</code> on a zero divisor), the
+ * <code>.data</code> and <code>.text</code> segments, zero-filled
+ * <code>.word</code>s, and syscalls 1 (print int), 5 (read int), 10 (exit)
+ * and 11 (print char).
+ * <p>
+ * Besides the output, a run counts the instructions executed, loads, stores,
+ * branches and how many were taken, and how many times each label was reached
+ * and the instructions executed after it. It also estimates cycles with a
+ * fixed cost per instruction (see {@link #getCost(Instruction)}): a crude model
+ * of a simple pipeline, good for comparing two versions of the code, not for
+ * predicting a real machine. The same program and input always give the same
+ * counts.
+ * <pre>
+ * java comp.Simulator [--profile] [--input=1,2,3] [--limit=N] &lt;mal file&gt;
+ * </pre>
+ * Without <code>--input</code> the program reads standard input. The counts
+ * are printed to standard error, so standard output only has the program's.
+ */
+public class Simulator {
+
+	/** The address of the first word of the .data segment, as in SPIM. */
+	public static final int DATA_BASE = 0x10010000;
+
+	/** The address of the first instruction, as in SPIM. */
+	public static final int TEXT_BASE = 0x00400000;
+
+	/** Where $sp starts, as in SPIM. The stack grows down from here. */
+	public static final int STACK_POINTER = 0x7fffeffc;
+
+	/** The most instructions a run executes unless told otherwise. */
+	public static final long DEFAULT_LIMIT = 100000000L;
+
+	//the stack ends at the top of user memory and may grow to this many words
+	private static final long STACK_END = 0x80000000L;
+	private static final int STACK_WORDS = 16 * 1024 * 1024;
+
+	//returning to this address ends the program; main is called from it
+	private static final int EXIT_ADDRESS = 0;
+
+	/**
+	 * How often one label was reached and what ran after it, up to the next
+	 * label.
+	 */
+	public static class Profile {
+		private final String _label;
+		private long _entries;
+		private long _instructions;
+		private long _cycles;
+
+		private Profile(String label) {
+			_label = label;
+		}
+
+		public String getLabel() {
+			return _label;
+		}
+
+		/**
+		 * How many times control reached the label, by a jump or by falling
+		 * into it.
+		 */
+		public long getEntries() {
+			return _entries;
+		}
+
+		/**
+		 * The instructions executed between the label and the next one.
+		 */
+		public long getInstructions() {
+			return _instructions;
+		}
+
+		/**
+		 * The estimated cycles of those instructions.
+		 */
+		public long getCycles() {
+			return _cycles;
+		}
+	}
+
+	private final List<Instruction> _code;
+	private final Map<String, Integer> _textLabels = new HashMap<String, Integer>(); //label -> index in _code
+	private final Map<String, Integer> _dataLabels = new HashMap<String, Integer>(); //label -> address
+	private final int[] _targets; //index in _code each jump or branch goes to
+	private final int[] _addresses; //address of the label each load or store names
+	private int[] _data;
+	private int[] _stack;
+	private final int[] _registers = new int[Register.values().length];
+	private int _hi; //high word of the last mult; nothing reads the low word
+
+	private Reader _input;
+	private PrintStream _output = System.out;
+	private long _limit = DEFAULT_LIMIT;
+
+	private long[] _executed; //times each line ran
+	private long[] _taken; //times each branch or jump line transferred control
+	private boolean _exited;
+
+	/**
+	 * Prepare to run some code, laying out its data and finding its labels.
+	 *
+	 * @param code The lines of a MAL file, as {@link MIPSCodeGenerator}
+	 *            produces them
+	 * @throws SimulatorException If a label is defined twice, or used but
+	 *             never defined, or there is no <code>main</code>
+	 */
+	public Simulator(List<Instruction> code) throws SimulatorException {
+		_code = new ArrayList<Instruction>(code);
+		_targets = new int[_code.size()];
+		_addresses = new int[_code.size()];
+
+		int words = 0;
+		boolean inData = false;
+		for (int i = 0; i < _code.size(); i++) {
+			Instruction line = _code.get(i);
+			Opcode op = line.getOpcode();
+			if (op == Opcode.DATA) {
+				inData = true;
+			} else if (op == Opcode.TEXT) {
+				inData = false;
+			} else if (op == Opcode.WORD) {
+				if (!inData)
+					throw new SimulatorException(i + 1, ".word outside .data");
+				define(_dataLabels, line.getLabel(), DATA_BASE + 4 * words, i);
+				words += line.getImmediate();
+			} else if (op == Opcode.LABEL) {
+				define(inData ? _dataLabels : _textLabels, line.getLabel(),
+						inData ? DATA_BASE + 4 * words : i, i);
+			}
+		}
+		_data = new int[words];
+		if (!_textLabels.containsKey("main"))
+			throw new SimulatorException(1, "no main label");
+
+		for (int i = 0; i < _code.size(); i++) {
+			Instruction line = _code.get(i);
+			Format format = line.getOpcode().getFormat();
+			if (format == Format.JUMP || format == Format.BRANCH || format == Format.BRANCH_ZERO) {
+				Integer target = _textLabels.get(line.getLabel());
+				if (target == null)
+					throw new SimulatorException(i + 1, "no such label: " + line.getLabel());
+				_targets[i] = target;
+			} else if ((format == Format.LOAD || format == Format.STORE) && line.getLabel() != null) {
+				Integer address = _dataLabels.get(line.getLabel());
+				if (address == null)
+					throw new SimulatorException(i + 1, "no such data label: " + line.getLabel());
+				_addresses[i] = address;
+			}
+		}
+	}
+
+	private static void define(Map<String, Integer> labels, String label, int value, int index)
+			throws SimulatorException {
+		if (labels.put(label, value) != null)
+			throw new SimulatorException(index + 1, "label defined twice: " + label);
+	}
+
+	/**
+	 * Reads a MAL file to run.
+	 *
+	 * @throws SimulatorException If a line is not one the compiler could have
+	 *             written, or the labels do not add up
+	 */
+	public static Simulator load(String file) throws IOException, SimulatorException {
+		List<Instruction> code = new ArrayList<Instruction>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				try {
+					code.add(Instruction.parse(line));
+				} catch (InternalException e) {
+					throw new SimulatorException(code.size() + 1, e.getMessage());
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return new Simulator(code);
+	}
+
+	/**
+	 * Where syscall 5 reads integers from; they may be separated by white
+	 * space or commas. By default it is standard input.
+	 */
+	public void setInput(Reader input) {
+		_input = input;
+	}
+
+	/**
+	 * Where syscalls 1 and 11 print. By default it is standard output.
+	 */
+	public void setOutput(PrintStream output) {
+		_output = output;
+	}
+
+	/**
+	 * Stops a run after this many instructions, so that a program that loops
+	 * forever cannot hang whoever runs it.
+	 */
+	public void setLimit(long limit) {
+		_limit = limit;
+	}
+
+	/**
+	 * Runs the program from <code>main</code> until it returns from main,
+	 * makes syscall 10 or runs off the end of the code. The counts of an
+	 * earlier run are forgotten, and memory and registers start out zeroed.
+	 *
+	 * @throws SimulatorException If the program traps, runs past the limit,
+	 *             or reads past the end of its input
+	 */
+	public void run() throws IOException, SimulatorException {
+		if (_input == null)
+			_input = new InputStreamReader(System.in);
+		Arrays.fill(_data, 0);
+		_stack = new int[1024];
+		Arrays.fill(_registers, 0);
+		_hi = 0;
+		_registers[Register.SP.ordinal()] = STACK_POINTER;
+		_registers[Register.RA.ordinal()] = EXIT_ADDRESS;
+		_executed = new long[_code.size()];
+		_taken = new long[_code.size()];
+		_exited = false;
+
+		int[] r = _registers;
+		int pc = _textLabels.get("main");
+		long steps = 0;
+		while (pc < _code.size() && !_exited) {
+			Instruction line = _code.get(pc);
+			Opcode op = line.getOpcode();
+			if (!op.isInstruction()) {
+				pc++;
+				continue;
+			}
+			if (++steps > _limit)
+				throw new SimulatorException(pc + 1, "more than " + _limit + " instructions executed");
+			_executed[pc]++;
+			int next = pc + 1;
+			int dest = line.getDest() == null ? 0 : line.getDest().ordinal();
+			int a = line.getSource1() == null ? 0 : r[line.getSource1().ordinal()];
+			int b = line.hasImmediate() ? line.getImmediate()
+					: line.getSource2() == null ? 0 : r[line.getSource2().ordinal()];
+			switch (op) {
+			case LI:
+				r[dest] = line.getImmediate();
+				break;
+			case MOVE:
+				r[dest] = a;
+				break;
+			case ADD:
+				r[dest] = add(a, b, pc);
+				break;
+			case SUB:
+				r[dest] = add(a, -(long) b, pc);
+				break;
+			case ADDU:
+				r[dest] = a + b;
+				break;
+			case SUBU:
+				r[dest] = a - b;
+				break;
+			case MUL:
+				r[dest] = a * b;
+				break;
+			case MULT:
+				_hi = (int) (((long) a * b) >> 32);
+				break;
+			case MFHI:
+				r[dest] = _hi;
+				break;
+			case DIV:
+				if (b == 0)
+					throw new SimulatorException(pc + 1, "division by zero");
+				r[dest] = a / b;
+				break;
+			case REM:
+				if (b == 0)
+					throw new SimulatorException(pc + 1, "division by zero");
+				r[dest] = a % b;
+				break;
+			case SLL:
+				r[dest] = a << b;
+				break;
+			case SRA:
+				r[dest] = a >> b;
+				break;
+			case SRL:
+				r[dest] = a >>> b;
+				break;
+			case ANDI:
+				r[dest] = a & b;
+				break;
+			case SEQ:
+				r[dest] = a == b ? 1 : 0;
+				break;
+			case SGE:
+				r[dest] = a >= b ? 1 : 0;
+				break;
+			case SGT:
+				r[dest] = a > b ? 1 : 0;
+				break;
+			case SLT:
+				r[dest] = a < b ? 1 : 0;
+				break;
+			case SLE:
+				r[dest] = a <= b ? 1 : 0;
+				break;
+			case LW:
+				r[dest] = load(address(line, pc, a), pc);
+				break;
+			case SW:
+				store(address(line, pc, line.getSource2() == null ? 0 : r[line.getSource2().ordinal()]), a, pc);
+				break;
+			case J:
+				next = jump(pc);
+				break;
+			case JAL:
+				r[Register.RA.ordinal()] = TEXT_BASE + 4 * (pc + 1);
+				next = jump(pc);
+				break;
+			case JR:
+				_taken[pc]++;
+				if (a == EXIT_ADDRESS)
+					return;
+				next = (a - TEXT_BASE) / 4;
+				if ((a & 3) != 0 || a < TEXT_BASE || next >= _code.size())
+					throw new SimulatorException(pc + 1, "jump to " + Integer.toHexString(a) + ", which is not code");
+				break;
+			case BEQZ:
+				next = branch(a == 0, pc);
+				break;
+			case BNEZ:
+				next = branch(a != 0, pc);
+				break;
+			case BEQ:
+				next = branch(a == b, pc);
+				break;
+			case BNE:
+				next = branch(a != b, pc);
+				break;
+			case BGE:
+				next = branch(a >= b, pc);
+				break;
+			case BLE:
+				next = branch(a <= b, pc);
+				break;
+			case BGT:
+				next = branch(a > b, pc);
+				break;
+			case BLT:
+				next = branch(a < b, pc);
+				break;
+			case SYSCALL:
+				syscall(pc);
+				break;
+			default:
+				throw new SimulatorException(pc + 1, "cannot execute " + line);
+			}
+			r[Register.ZERO.ordinal()] = 0;
+			pc = next;
+		}
+	}
+
+	private static int add(int a, long b, int pc) throws SimulatorException {
+		long sum = a + b;
+		if (sum != (int) sum)
+			throw new SimulatorException(pc + 1, "arithmetic overflow");
+		return (int) sum;
+	}
+
+	private int jump(int pc) {
+		_taken[pc]++;
+		return _targets[pc];
+	}
+
+	private int branch(boolean taken, int pc) {
+		if (!taken)
+			return pc + 1;
+		_taken[pc]++;
+		return _targets[pc];
+	}
+
+	//the address a load or store touches: its label or offset plus its base register
+	private int address(Instruction line, int pc, int base) {
+		return (line.getLabel() != null ? _addresses[pc] : line.getImmediate()) + base;
+	}
+
+	private int load(int address, int pc) throws SimulatorException {
+		int[] memory = segment(address, pc);
+		return memory == _data ? _data[(address - DATA_BASE) / 4] : _stack[stackIndex(address)];
+	}
+
+	private void store(int address, int value, int pc) throws SimulatorException {
+		int[] memory = segment(address, pc);
+		if (memory == _data)
+			_data[(address - DATA_BASE) / 4] = value;
+		else
+			_stack[stackIndex(address)] = value;
+	}
+
+	//the array holding an address, growing the stack if need be
+	private int[] segment(int address, int pc) throws SimulatorException {
+		if ((address & 3) != 0)
+			throw new SimulatorException(pc + 1, "unaligned address " + Integer.toHexString(address));
+		if (address >= DATA_BASE && address < DATA_BASE + 4L * _data.length)
+			return _data;
+		long index = (STACK_END - (address & 0xffffffffL)) / 4 - 1;
+		if (address < DATA_BASE || index < 0 || index >= STACK_WORDS)
+			throw new SimulatorException(pc + 1, "bad address " + Integer.toHexString(address));
+		if (index >= _stack.length)
+			_stack = Arrays.copyOf(_stack, (int) Math.min(STACK_WORDS, Math.max(index + 1, 2L * _stack.length)));
+		return _stack;
+	}
+
+	private static int stackIndex(int address) {
+		return (int) ((STACK_END - (address & 0xffffffffL)) / 4 - 1);
+	}
+
+	private void syscall(int pc) throws IOException, SimulatorException {
+		int a0 = _registers[Register.A0.ordinal()];
+		switch (_registers[Register.V0.ordinal()]) {
+		case 1:
+			_output.print(a0);
+			break;
+		case 5:
+			_registers[Register.V0.ordinal()] = readInt(pc);
+			break;
+		case 10:
+			_exited = true;
+			break;
+		case 11:
+			_output.print((char) a0);
+			break;
+		default:
+			throw new SimulatorException(pc + 1, "unknown syscall " + _registers[Register.V0.ordinal()]);
+		}
+	}
+
+	//the next integer on the input, skipping white space and commas
+	private int readInt(int pc) throws IOException, SimulatorException {
+		int c = _input.read();
+		while (c >= 0 && (Character.isWhitespace(c) || c == ','))
+			c = _input.read();
+		StringBuilder number = new StringBuilder();
+		while (c >= 0 && !Character.isWhitespace(c) && c != ',') {
+			number.append((char) c);
+			c = _input.read();
+		}
+		if (number.length() == 0)
+			throw new SimulatorException(pc + 1, "read past the end of the input");
+		try {
+			return Integer.parseInt(number.toString());
+		} catch (NumberFormatException e) {
+			throw new SimulatorException(pc + 1, "input is not an integer: " + number);
+		}
+	}
+
+	/**
+	 * The estimated cycles an instruction takes: 1, plus 1 more for a load
+	 * (whose result is usually used right away), 4 more for a multiplication
+	 * (<code>mul</code> or <code>mult</code>), 34 more for a division or
+	 * remainder, and 1 more when a branch or jump is taken (charged
+	 * separately, see {@link #getCycles()}). Pseudo-instructions count as one.
+	 */
+	public static int getCost(Instruction line) {
+		switch (line.getOpcode()) {
+		case LW:
+			return 2;
+		case MUL:
+		case MULT:
+			return 5;
+		case DIV:
+		case REM:
+			return 35;
+		default:
+			return line.isInstruction() ? 1 : 0;
+		}
+	}
+
+	/** The cycles added when a branch or jump transfers control. */
+	public static final int TAKEN_COST = 1;
+
+	public long getInstructionCount() {
+		long count = 0;
+		for (long executed : _executed)
+			count += executed;
+		return count;
+	}
+
+	/**
+	 * The estimated cycles of the last run; see {@link #getCost(Instruction)}.
+	 */
+	public long getCycles() {
+		long cycles = 0;
+		for (int i = 0; i < _code.size(); i++)
+			cycles += _executed[i] * getCost(_code.get(i)) + _taken[i] * TAKEN_COST;
+		return cycles;
+	}
+
+	public long getLoads() {
+		return count(Opcode.LW);
+	}
+
+	public long getStores() {
+		return count(Opcode.SW);
+	}
+
+	/**
+	 * The conditional branches executed, taken or not.
+	 */
+	public long getBranches() {
+		long count = 0;
+		for (int i = 0; i < _code.size(); i++) {
+			if (isBranch(_code.get(i)))
+				count += _executed[i];
+		}
+		return count;
+	}
+
+	/**
+	 * The conditional branches that were taken.
+	 */
+	public long getBranchesTaken() {
+		long count = 0;
+		for (int i = 0; i < _code.size(); i++) {
+			if (isBranch(_code.get(i)))
+				count += _taken[i];
+		}
+		return count;
+	}
+
+	/**
+	 * The j, jal and jr instructions executed.
+	 */
+	public long getJumps() {
+		return count(Opcode.J) + count(Opcode.JAL) + count(Opcode.JR);
+	}
+
+	/**
+	 * How many times each line of the code ran in the last run, by index.
+	 */
+	public long[] getExecutionCounts() {
+		return _executed.clone();
+	}
+
+	private long count(Opcode op) {
+		long count = 0;
+		for (int i = 0; i < _code.size(); i++) {
+			if (_code.get(i).getOpcode() == op)
+				count += _executed[i];
+		}
+		return count;
+	}
+
+	private static boolean isBranch(Instruction line) {
+		Format format = line.getOpcode().getFormat();
+		return format == Format.BRANCH || format == Format.BRANCH_ZERO;
+	}
+
+	/**
+	 * The profile of every label in the code, in the order they appear.
+	 */
+	public List<Profile> getProfiles() {
+		List<Profile> profiles = new ArrayList<Profile>();
+		Profile current = null;
+		boolean first = false; //whether the next instruction is the first after a label
+		List<Profile> waiting = new ArrayList<Profile>(); //labels whose first instruction is still to come
+		for (int i = 0; i < _code.size(); i++) {
+			Instruction line = _code.get(i);
+			if (line.getOpcode() == Opcode.LABEL && _textLabels.containsKey(line.getLabel())
+					&& _textLabels.get(line.getLabel()) == i) {
+				current = new Profile(line.getLabel());
+				profiles.add(current);
+				waiting.add(current);
+				first = true;
+			} else if (line.isInstruction()) {
+				if (first) {
+					for (Profile profile : waiting)
+						profile._entries = _executed[i];
+					waiting.clear();
+					first = false;
+				}
+				if (current != null) {
+					current._instructions += _executed[i];
+					current._cycles += _executed[i] * getCost(line) + _taken[i] * TAKEN_COST;
+				}
+			}
+		}
+		return profiles;
+	}
+
+	/**
+	 * Prints the counts of the last run, and with <code>profile</code> the
+	 * labels that ran, most instructions first.
+	 */
+	public void printReport(PrintStream out, boolean profile) {
+		out.println("instructions " + getInstructionCount() + ", cycles " + getCycles()
+				+ ", loads " + getLoads() + ", stores " + getStores() + ", branches "
+				+ getBranches() + " (" + getBranchesTaken() + " taken), jumps " + getJumps());
+		if (!profile)
+			return;
+		List<Profile> profiles = getProfiles();
+		Collections.sort(profiles, new Comparator<Profile>() {
+			public int compare(Profile a, Profile b) {
+				return a._instructions != b._instructions ? (a._instructions < b._instructions ? 1 : -1)
+						: a._label.compareTo(b._label);
+			}
+		});
+		out.println(String.format("%-20s %12s %14s %14s", "label", "entries", "instructions", "cycles"));
+		for (Profile p : profiles) {
+			if (p._entries > 0 || p._instructions > 0)
+				out.println(String.format("%-20s %12d %14d %14d", p._label, p._entries, p._instructions, p._cycles));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean profile = false;
+		String input = null;
+		long limit = DEFAULT_LIMIT;
+		String file = null;
+		for (String arg : args) {
+			if (arg.equals("--profile")) {
+				profile = true;
+			} else if (arg.startsWith("--input=")) {
+				input = arg.substring("--input=".length());
+			} else if (arg.startsWith("--limit=")) {
+				limit = Long.parseLong(arg.substring("--limit=".length()));
+			} else if (file == null && !arg.startsWith("--")) {
+				file = arg;
+			} else {
+				file = null;
+				break;
+			}
+		}
+		if (file == null) {
+			System.err.println("\nUsage: java comp.Simulator [--profile] [--input=1,2,3] [--limit=N] <mal file>\n"
+					+ "Runs the file, reading standard input unless --input is given, and\n"
+					+ "reports the instructions, cycles, loads, stores and branches executed.\n"
+					+ "--profile also reports them for each label.");
+			System.exit(1);
+		}
+
+		Simulator simulator;
+		try {
+			simulator = load(file);
+		} catch (FileNotFoundException e) {
+			System.err.println("Error! File " + file + " not found!");
+			System.exit(1);
+			return;
+		} catch (SimulatorException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		if (input != null)
+			simulator.setInput(new StringReader(input));
+		simulator.setLimit(limit);
+		boolean failed = false;
+		try {
+			simulator.run();
+		} catch (SimulatorException e) {
+			System.out.flush();
+			System.err.println(e.getMessage());
+			failed = true;
+		}
+		System.out.flush();
+		simulator.printReport(System.err, profile);
+		if (failed)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,14 @@
+package comp;
+
+/**
+ * Signals that a program run by the {@link Simulator} did something a MIPS
+ * machine would trap on or refuse to do: overflow, divide by zero, touch
+ * memory it does not have, jump somewhere that is not code, or run longer
+ * than it was allowed to. It requires the line of the MAL file being run.
+ */
+public class SimulatorException extends Exception {
+
+	public SimulatorException(int linenum, String message) {
+		super("SimulatorException: error at line " + linenum + ": " + message);
+	}
+}
@@ -1,7 +1,7 @@
 
 package comp;
  
-import java.io.*; // we use file-input and stream-parsing classes
+import java.io.*; // we use file-input classes
  
  
 /**
@@ -32,6 +32,17 @@ import java.io.*; // we use file-input and stream-parsing classes
  * <p>
  * You may find it useful to copy and paste the case statement in the
  * main(.) procedure for use in your code. 
+ * <p>
+ * The scanner reads the whole input into a character buffer and walks it
+ * with a table that sorts every character into a class (white space, line
+ * break, letter, digit, comment start or punctuation). Words start
+ * with a letter and continue with letters and digits, a number is a run of
+ * digits with at most one '.' in it whose fraction must be zero, '#' starts
+ * a comment that runs to the end of the line, and the two-character
+ * operators may have spaces or tabs between their characters. Integer
+ * literals are parsed exactly, and ones too large for an int are rejected.
+ * Keywords are found with a perfect hash on the first and last letter and the
+ * length, so a word is compared against at most one keyword.
  *   
  *
  * @version Sun Feb 20 14:35 EST 2011
@@ -39,21 +50,79 @@ import java.io.*; // we use file-input and stream-parsing classes
  */
 public class Tokenizer
 {
-	 
-	// minimal tokenizer provided by java - to be adapted for Blaise
-	private StreamTokenizer _tokenizer;
-	 
+
+	// character classes
+	private static final byte OTHER = 0; // punctuation, returned one character at a time
+	private static final byte SPACE = 1;
+	private static final byte NEWLINE = 2;
+	private static final byte LETTER = 3;
+	private static final byte DIGIT = 4;
+	private static final byte COMMENT = 5;
+
+	// class of every character below 256; everything above is a letter
+	private static final byte[] CLASSES = new byte[256];
+
+	static {
+		for (int c = 0; c <= ' '; c++) CLASSES[c] = SPACE;
+		CLASSES['\n'] = NEWLINE;
+		CLASSES['\r'] = NEWLINE;
+		for (int c = 'a'; c <= 'z'; c++) CLASSES[c] = LETTER;
+		for (int c = 'A'; c <= 'Z'; c++) CLASSES[c] = LETTER;
+		for (int c = 128 + 32; c < 256; c++) CLASSES[c] = LETTER;
+		for (int c = '0'; c <= '9'; c++) CLASSES[c] = DIGIT;
+		CLASSES['#'] = COMMENT;
+	}
+
+	// keywords by perfect hash: see keywordHash()
+	private static final char[][] KEYWORDS = new char[32][];
+	private static final TokenType[] KEYWORD_TYPES = new TokenType[32];
+
+	static {
+		keyword("if", TokenType.IF);
+		keyword("while", TokenType.WHILE);
+		keyword("int", TokenType.INT);
+		keyword("bool", TokenType.BOOL);
+		keyword("void", TokenType.VOID);
+		keyword("else", TokenType.ELSE);
+		keyword("endif", TokenType.ENDIF);
+		keyword("output", TokenType.OUTPUT);
+		keyword("input", TokenType.INPUT);
+		keyword("return", TokenType.RETURN);
+		keyword("true", TokenType.TRUE);
+		keyword("false", TokenType.FALSE);
+		keyword("procedure", TokenType.PROCEDURE);
+		keyword("var", TokenType.VAR);
+	}
+
+	private static void keyword(String word, TokenType type)
+	{
+		int hash = keywordHash(word.charAt(0), word.charAt(word.length() - 1), word.length());
+		if (KEYWORDS[hash] != null)
+			throw new InternalException("keyword hash collision: " + word);
+		KEYWORDS[hash] = word.toCharArray();
+		KEYWORD_TYPES[hash] = type;
+	}
+
+	// distinct for each keyword, so a word only has to be compared to one
+	private static int keywordHash(char first, char last, int length)
+	{
+		return (3 * first + 8 * last + length) & 31;
+	}
+
 	private Reader _inputStream;
-	 
+
+	private char[] _buffer; // the whole input, read on the first call to getToken()
+	private int _length; // number of characters in _buffer
+	private int _position; // index of the next character to scan
+
 	private int _lineCounter = 1; // we start on first line of file
-	 
-	// last token gotten from _tokenizer -- different from token type
-	// returned to client
-	private int _currentToken;
-	 
+	private int _lineStart = 0; // index of the first character of the current line
+	private int _tokenColumn = 1; // column of the first character of the last token
+	private int _tokenCount = 0; // tokens returned so far, not counting EOF
+
 	private boolean _done = false; // used to avoid reading past EOF
-    
-	 
+
+
 
     /**
      * Creates a {@link Tokenizer} from the given {@link Reader}.
@@ -62,24 +131,6 @@ public class Tokenizer
      */
     public Tokenizer( Reader input ) {
 	_inputStream = input;
-	_tokenizer = new StreamTokenizer( _inputStream );
-		 
-	// need to treat EOL (\n) separately in order to count lines.  After
-	// line-counting is handled, however, we treat EOL as just more
-	// white space
-	_tokenizer.eolIsSignificant( true );
-		 
-	// "ordinary characters" are those treated by the _tokenizer as single-
-	// character tokens; this includes the colon and equal sign, which
-	// we combine by hand (in getToken()) into a single token :=
-	_tokenizer.ordinaryChars( 33, 47 );
-	_tokenizer.ordinaryChars( 58, 64 );
-	_tokenizer.ordinaryChars( 91, 96 );
-	_tokenizer.ordinaryChars( 123, 126 );
-	_tokenizer.commentChar('#');
-		 
-	// in contrast, characters not specified above are considered parts
-	// of either "words" or "numbers,"
     }
     
     /**
@@ -94,53 +145,126 @@ public class Tokenizer
     {
 	this( new InputStreamReader( System.in ) );
     }
-	 
-	// auxiliary methods to getToken method
-	private boolean eof()
+
+	// reads the rest of the input into the buffer
+	private void fill() throws IOException
 	{
-		if( _currentToken != StreamTokenizer.TT_EOF ) return false;
-		_done = true; // getToken() will never work again
-		return true;
+		_buffer = new char[8192];
+		_length = 0;
+		int read;
+		while ((read = _inputStream.read(_buffer, _length, _buffer.length - _length)) >= 0)
+		{
+			_length += read;
+			if (_length == _buffer.length)
+				_buffer = java.util.Arrays.copyOf(_buffer, _buffer.length * 2);
+		}
+		_inputStream.close();
 	}
-	 
-	private boolean word()
-	{ // where "word" is as described in constructor
-		if( _currentToken == StreamTokenizer.TT_WORD ) return true;
-		return false;
+
+	private static byte classOf(char c)
+	{
+		return c < 256 ? CLASSES[c] : LETTER;
 	}
-	 
-	private boolean number() throws LexicalException {
-		// The _tokenizer accepts floating-point numbers, but the
-		// Tokenizer shouldn't, because Blaise doesn't.
-		if( _currentToken == StreamTokenizer.TT_NUMBER )
+
+	// skips spaces, line breaks and comments, counting lines
+	private void skipWhiteSpace()
+	{
+		while (_position < _length)
 		{
-			// make sure there is no difference between the value and the
-			// rounded value.
-			if( _tokenizer.nval == ( float )( ( int )_tokenizer.nval ) ) return true;
-			else throw new LexicalException
-				( currentLine(), "FLOATING POINT NUMBERS NOT PART OF LANGUAGE" );
+			char c = _buffer[_position];
+			switch (classOf(c))
+			{
+				case SPACE:
+					_position++;
+					break;
+				case NEWLINE: // \r\n is one line break
+					_position++;
+					if (c == '\r' && _position < _length && _buffer[_position] == '\n')
+						_position++;
+					_lineCounter++;
+					_lineStart = _position;
+					break;
+				case COMMENT:
+					while (_position < _length && classOf(_buffer[_position]) != NEWLINE)
+						_position++;
+					break;
+				default:
+					return;
+			}
+		}
+	}
+
+	// if the next character other than spaces on this line is c, consumes
+	// everything up to and including it
+	private boolean follows(char c)
+	{
+		int next = _position;
+		while (next < _length && classOf(_buffer[next]) == SPACE)
+			next++;
+		if (next < _length && _buffer[next] == c)
+		{
+			_position = next + 1;
+			return true;
 		}
 		return false;
 	}
-	 
-	private String sval()
+
+	private Token word()
 	{
-		// assumes that _tokenizer is currently looking at a "word" token
-		return _tokenizer.sval;
+		int start = _position;
+		do
+		{
+			_position++;
+		}
+		while (_position < _length
+				&& (classOf(_buffer[_position]) == LETTER || classOf(_buffer[_position]) == DIGIT));
+		int length = _position - start;
+		int hash = keywordHash(_buffer[start], _buffer[_position - 1], length);
+		char[] keyword = KEYWORDS[hash];
+		if (keyword != null && keyword.length == length)
+		{
+			int i = 0;
+			while (i < length && keyword[i] == _buffer[start + i])
+				i++;
+			if (i == length)
+				return new Token(KEYWORD_TYPES[hash]);
+		}
+		return new Token(TokenType.ID, new String(_buffer, start, length));
 	}
-	 
-	private int nval()
+
+	// digits with at most one '.'; the digits after it must all be zero
+	private Token number() throws LexicalException
 	{
-		// assumes that _tokenizer is currently looking at a "number" token --
-		// must call number() to make sure the "number" is an integer, BEFORE
-		// doing the cast below, which will work by rounding
-		return ( int )_tokenizer.nval;
+		long value = 0;
+		boolean seenDot = false;
+		boolean fraction = false;
+		while (_position < _length)
+		{
+			char c = _buffer[_position];
+			if (c == '.' && !seenDot)
+				seenDot = true;
+			else if (c >= '0' && c <= '9')
+			{
+				if (seenDot)
+					fraction |= c != '0';
+				else if (value <= Integer.MAX_VALUE)
+					value = value * 10 + (c - '0');
+			}
+			else
+				break;
+			_position++;
+		}
+		if (fraction)
+			throw new LexicalException
+				( currentLine(), "FLOATING POINT NUMBERS NOT PART OF LANGUAGE" );
+		if (value > Integer.MAX_VALUE)
+			throw new LexicalException
+				( currentLine(), "INTEGER TOO LARGE FOR AN INT" );
+		return new Token(TokenType.INTEGER, (int)value);
 	}
-	 
-	 
-	 
-	 
-	 
+
+
+
 	/**
 	 * A token is either a single significant character or a sequence of
 	 * characters that are significant only when taken together.  A left
@@ -154,101 +278,74 @@ public class Tokenizer
 		 
 		if ( _done ) throw new LexicalException
 			( currentLine(), "getToken() called after EOF reached." );
-		 
-		_currentToken = _tokenizer.nextToken();
-		 
-		// count lines -- while-loop to allow multiple blank lines
-		while ( _currentToken == StreamTokenizer.TT_EOL )
+
+		if ( _buffer == null ) fill();
+
+		skipWhiteSpace();
+		_tokenColumn = _position - _lineStart + 1;
+
+		if ( _position >= _length )
 		{
-			_lineCounter++;
-			_currentToken = _tokenizer.nextToken();
+			_done = true; // getToken() will never work again
+			return new Token( TokenType.EOF );
 		}
-		 
-		if( eof() ) return new Token( TokenType.EOF );
-		 
-		if( word() )
+
+		_tokenCount++;
+		char c = _buffer[_position];
+		switch ( classOf( c ) )
 		{
-			if( sval().equals( "if" ) ) return new Token( TokenType.IF );
-			if( sval().equals( "while" ) ) return new Token( TokenType.WHILE );
-			if( sval().equals( "int" ) ) return new Token( TokenType.INT );
-			if( sval().equals( "bool" ) ) return new Token( TokenType.BOOL );
-			if( sval().equals( "void" ) ) return new Token( TokenType.VOID );
-			if( sval().equals( "else" ) ) return new Token( TokenType.ELSE );
-			if( sval().equals( "endif" ) ) return new Token( TokenType.ENDIF );
-			if( sval().equals( "output" ) ) return new Token( TokenType.OUTPUT );
-			if( sval().equals( "input" ) ) return new Token( TokenType.INPUT );
-			if( sval().equals( "return" ) ) return new Token( TokenType.RETURN );
-			if( sval().equals( "true" ) ) return new Token( TokenType.TRUE );
-			if( sval().equals( "false" ) ) return new Token( TokenType.FALSE );
-			if( sval().equals( "procedure" ) ) return new Token( TokenType.PROCEDURE );
-			if( sval().equals( "var" ) ) return new Token( TokenType.VAR );
-			return new Token( TokenType.ID, sval() );
+			case LETTER : return word();
+			case DIGIT : return number();
 		}
-		 
-		if( number() ) return new Token( TokenType.INTEGER, nval() );
-		 
-		switch( _currentToken )
+
+		_position++;
+		switch( c )
 		{
-			case 33 : return new Token( TokenType.NOT );
-			case 37 : return new Token( TokenType.MODULUS );
-			case 40 : return new Token( TokenType.LEFTPAREN );
-			case 41 : return new Token( TokenType.RIGHTPAREN );
-			case 42 : return new Token( TokenType.TIMES );
-			case 43 : return new Token( TokenType.PLUS );
-			case 44 : return new Token( TokenType.COMMA );
-			case 45 : return new Token( TokenType.MINUS );
-			case 47 : return new Token( TokenType.DIVIDE );
-				 
-			case 58 : // 58 == ':' so need to make sure it's followed by =
-				_currentToken = _tokenizer.nextToken();
-				if ( _currentToken != 61 ) throw new LexicalException
+			case '!' : return new Token( TokenType.NOT );
+			case '%' : return new Token( TokenType.MODULUS );
+			case '(' : return new Token( TokenType.LEFTPAREN );
+			case ')' : return new Token( TokenType.RIGHTPAREN );
+			case '*' : return new Token( TokenType.TIMES );
+			case '+' : return new Token( TokenType.PLUS );
+			case ',' : return new Token( TokenType.COMMA );
+			case '-' : return new Token( TokenType.MINUS );
+			case '/' : return new Token( TokenType.DIVIDE );
+
+			case ':' : // need to make sure it's followed by =
+				if ( !follows( '=' ) ) throw new LexicalException
 					( currentLine(), "Character ':' not followed by character '='." );
 				return new Token ( TokenType.ASSIGN );
-				 
 
-			case 38 : // 38 == '&' so need to make sure it's followed by &
-				_currentToken = _tokenizer.nextToken();
-				if ( _currentToken != 38 ) throw new LexicalException
+			case '&' : // need to make sure it's followed by &
+				if ( !follows( '&' ) ) throw new LexicalException
 					( currentLine(), "Character '&' not followed by character '&'." );
 				return new Token ( TokenType.AND );
 
-			case 124 : // 124 == '|' so need to make sure it's followed by |
-				_currentToken = _tokenizer.nextToken();
-				if ( _currentToken != 124 ) throw new LexicalException
+			case '|' : // need to make sure it's followed by |
+				if ( !follows( '|' ) ) throw new LexicalException
 					( currentLine(), "Character '|' not followed by character '|'." );
 				return new Token ( TokenType.OR );
-				
-
-			case 60 : // 60 == '<' so see if it's followed by =
-				_currentToken = _tokenizer.nextToken();
-				if ( _currentToken != 61 ) {
-					_tokenizer.pushBack();
-					return new Token( TokenType.LESSTHAN );
-				}
-				return new Token ( TokenType.LESSEQ );
-
-
-			case 62 : // 62 == '>' so see if it's followed by =
-				_currentToken = _tokenizer.nextToken();
-				if ( _currentToken != 61 ) {
-					_tokenizer.pushBack();
-					return new Token( TokenType.GREATERTHAN );
-				}
-				return new Token ( TokenType.GREATEREQ );
-
-			case 61 : // 61 == '=' so need to make sure it's followed by =
-				_currentToken = _tokenizer.nextToken();
-				if ( _currentToken != 61 ) throw new LexicalException
+
+			case '<' : // see if it's followed by =
+				if ( follows( '=' ) ) return new Token ( TokenType.LESSEQ );
+				return new Token( TokenType.LESSTHAN );
+
+			case '>' : // see if it's followed by =
+				if ( follows( '=' ) ) return new Token ( TokenType.GREATEREQ );
+				return new Token( TokenType.GREATERTHAN );
+
+			case '=' : // need to make sure it's followed by =
+				if ( !follows( '=' ) ) throw new LexicalException
 					( currentLine(), "Character '=' not followed by character '='." );
 				return new Token ( TokenType.EQUAL );
-				
-			case 59 : return new Token( TokenType.SEMICOLON );
-			case 91 : return new Token( TokenType.LEFTBRACKET );
-			case 93 : return new Token( TokenType.RIGHTBRACKET );
-			case 123 : return new Token( TokenType.LEFTBRACE );
-			case 125 : return new Token( TokenType.RIGHTBRACE );
+
+			case ';' : return new Token( TokenType.SEMICOLON );
+			case '[' : return new Token( TokenType.LEFTBRACKET );
+			case ']' : return new Token( TokenType.RIGHTBRACKET );
+			case '{' : return new Token( TokenType.LEFTBRACE );
+			case '}' : return new Token( TokenType.RIGHTBRACE );
 			default : throw new LexicalException
-				( currentLine(), "ILLEGAL CHARACTER: " + ( char )_currentToken );
+				( currentLine(), "ILLEGAL CHARACTER: " + c );
 		}
 	}
 	 
@@ -262,6 +359,23 @@ public class Tokenizer
 	{
 		return _lineCounter;
 	}
+
+	/**
+	 * The number of tokens getToken() has returned, not counting EOF.
+	 */
+	public int getTokenCount()
+	{
+		return _tokenCount;
+	}
+
+	/**
+	 * The column of the first character of the token getToken() returned
+	 * last, counting from one.
+	 */
+	public int currentColumn()
+	{
+		return _tokenColumn;
+	}
 	 
 	 
 	/**
@@ -0,0 +1,810 @@
+package comp;
+
+import comp.nodes.*;
+
+import java.util.*;
+
+/**
+ * Rewrites a semantically checked syntax tree so that a value computed again
+ * in a straight run of statements is reused instead. Run it after
+ * {@link SemanticVisitor}, then check the tree {@link #number(NodeProgram)}
+ * returns again so that the frames make room for the new variables.
+ * <p>
+ * The statements of a list are numbered a block at a time. A block is a run
+ * of assignments, inputs, outputs and calls, up to and including the
+ * condition of an if or a return; a while loop or a nested block ends it, as
+ * do the branches of an if, which are blocks of their own. Every value an
+ * expression computes gets a number, so that expressions computing the same
+ * value get the same number: a variable keeps the number of what was last
+ * assigned to it, an array element that of what was last stored in it, and
+ * operands of + and * may come in either order. Storing into an array,
+ * reading into a variable or array, and calling a procedure, for the globals
+ * it may assign through its callees too, give what they change a new number.
+ * <p>
+ * Arithmetic and array elements whose value is already computed are then
+ * replaced:
+ * <ul>
+ * <li>by a variable that holds the value, such as the one it was assigned
+ * to. A global is replaced by a local that holds its value too.</li>
+ * <li>otherwise, when the value is computed often enough for that to be
+ * cheaper, by a new variable named <code>cse.N</code>, which no Blaise
+ * identifier can clash with. An array element read twice, for instance, is
+ * not worth a variable, as copying it out of one costs what reading it does.
+ * The variable is assigned just before the statement that computes the value
+ * first, which is only done when nothing that statement evaluates before it
+ * calls a procedure, and when it is sure to be evaluated, not on the right
+ * of &amp;&amp; or ||, unless it cannot trap.</li>
+ * </ul>
+ * The largest expressions are replaced first, so a variable is not made for
+ * a part of them that would only be computed once.
+ */
+public class ValueNumberingVisitor implements Visitor {
+
+	private final Set<String> _globals; //names of the global variables
+	private Map<String, Set<String>> _writes; //globals each procedure may assign, through its callees too
+	private Set<Node> _shared; //nodes that are in the tree more than once, which are left alone
+	private Node _result; //the rewritten version of the node just visited
+	private int _temps; //variables made so far, which also numbers them
+	private int _replaced; //expressions replaced so far
+
+	//for the list being rewritten: what to replace by a variable, and the
+	//expressions to keep in new variables before each statement
+	private Map<NodeExpr, String> _replacements;
+	private Map<NodeInstr, List<NodeExpr>> _definitions;
+
+	/**
+	 * Set up the numbering of a program.
+	 *
+	 * @param semantic The semantic analysis of the program
+	 */
+	public ValueNumberingVisitor(SemanticVisitor semantic) {
+		_globals = semantic.getBlockSizes().keySet();
+		_replacements = Collections.emptyMap();
+		_definitions = Collections.emptyMap();
+		_result = null;
+		_temps = 0;
+		_replaced = 0;
+	}
+
+	/**
+	 * Reuses the values computed more than once in the blocks of a program.
+	 *
+	 * @param program A program that has passed semantic checking
+	 * @return The rewritten program
+	 */
+	public NodeProgram number(NodeProgram program) throws VisitorException {
+		return (NodeProgram) rewrite(program);
+	}
+
+	/**
+	 * Returns how many expressions now reuse a value computed before.
+	 */
+	public int getReuseCount() {
+		return _replaced - _temps; //each new variable replaces the expression that computes it
+	}
+
+	private Node rewrite(Node node) throws VisitorException {
+		if (node == null)
+			throw new VisitorException("This is not supposed to happen, but a node is missing something");
+		node.visit(this);
+		return _result;
+	}
+
+	private NodeExpr rewrite(NodeExpr node) throws VisitorException {
+		String _name = _replacements.get(node);
+		if (_name != null) {
+			_replaced++;
+			return new NodeExprVar(_name);
+		}
+		return (NodeExpr) rewrite((Node) node);
+	}
+
+	private NodeInstr rewrite(NodeInstr node) throws VisitorException {
+		return (NodeInstr) rewrite((Node) node);
+	}
+
+	//Numbers the statements of a list and rewrites them, with the new
+	//variables assigned before the statements that need them.
+	private List<NodeInstr> rewrite(List<NodeInstr> instrs) throws VisitorException {
+		Map<NodeExpr, String> _outerReplacements = _replacements;
+		Map<NodeInstr, List<NodeExpr>> _outerDefinitions = _definitions;
+		_replacements = new IdentityHashMap<NodeExpr, String>();
+		_definitions = new IdentityHashMap<NodeInstr, List<NodeExpr>>();
+		try {
+			new Numbering().number(instrs);
+			List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+			for (NodeInstr instr : instrs) {
+				List<NodeExpr> _defined = _definitions.get(instr);
+				if (_defined != null) {
+					for (NodeExpr expr : _defined) {
+						String _name = _replacements.get(expr);
+						_instrs.add(new NodeInstrDeclSingle(_name));
+						_instrs.add(new NodeInstrAssignSingle(_name, (NodeExpr) rewrite((Node) expr)));
+					}
+				}
+				_instrs.add(rewrite(instr));
+			}
+			return _instrs;
+		} finally {
+			_replacements = _outerReplacements;
+			_definitions = _outerDefinitions;
+		}
+	}
+
+	//rewrites a statement that is not in a list, putting it and the
+	//variables it needs in a block if that is more than one statement
+	private NodeInstr statement(NodeInstr instr) throws VisitorException {
+		List<NodeInstr> _instrs = rewrite(Collections.singletonList(instr));
+		return _instrs.size() == 1 ? _instrs.get(0) : new NodeInstrBlock(NodeListInstr.of(_instrs));
+	}
+
+	/**
+	 * An expression a block computes, where it is in the block.
+	 */
+	private static class Occurrence {
+		final NodeExpr _expr;
+		final NodeInstr _statement;
+		final Occurrence _enclosing; //the occurrence it is part of, if any
+		final boolean _hoistable; //whether it can be computed before its statement
+		final boolean _shared; //whether it is somewhere else too, so cannot be replaced
+		int _number;
+		int _order; //when its value is known, counting from the start of the block
+		boolean _replaced;
+
+		Occurrence(NodeExpr expr, NodeInstr statement, Occurrence enclosing, boolean hoistable, boolean shared) {
+			_expr = expr;
+			_statement = statement;
+			_enclosing = enclosing;
+			_hoistable = hoistable;
+			_shared = shared;
+		}
+
+		//whether it is still evaluated, that is neither it nor what it is
+		//part of has been replaced
+		boolean isComputed() {
+			for (Occurrence o = this; o != null; o = o._enclosing) {
+				if (o._replaced)
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Numbers the values the statements of a list compute, a block at a
+	 * time, and decides which expressions to replace.
+	 */
+	private class Numbering extends DepthFirstVisitor {
+		private int _next; //the number the next new value gets
+		private Map<String, Integer> _values; //number of the value of each variable
+		private Map<String, Integer> _versions; //number of the contents of each array
+		private Map<String, Integer> _numbers; //number of each operation done
+		private List<Occurrence> _occurrences; //in the order they are reached
+
+		//where the walk is
+		private int _number; //of the expression just visited, or -1
+		private NodeInstr _statement;
+		private Occurrence _enclosing;
+		private boolean _called; //whether the statement has called a procedure yet
+		private int _conditional; //how many right sides of && or || we are in
+		private int _inShared; //how many shared nodes we are in
+		private int _order;
+
+		Numbering() {
+			startBlock();
+		}
+
+		void number(List<NodeInstr> instrs) throws VisitorException {
+			for (NodeInstr instr : instrs) {
+				_statement = instr;
+				_called = false;
+				checkAndVisit(instr);
+			}
+			endBlock();
+		}
+
+		private void startBlock() {
+			_values = new LinkedHashMap<String, Integer>();
+			_versions = new HashMap<String, Integer>();
+			_numbers = new HashMap<String, Integer>();
+			_occurrences = new ArrayList<Occurrence>();
+			_order = 0;
+		}
+
+		//Decides what to replace by a new variable in the block just numbered,
+		//largest expressions first, and starts the next block.
+		private void endBlock() throws VisitorException {
+			Map<Integer, List<Occurrence>> _byNumber = new LinkedHashMap<Integer, List<Occurrence>>();
+			final Map<Integer, Integer> _sizes = new HashMap<Integer, Integer>();
+			for (Occurrence o : _occurrences) {
+				if (o._replaced)
+					continue;
+				List<Occurrence> _list = _byNumber.get(o._number);
+				if (_list == null) {
+					_list = new ArrayList<Occurrence>();
+					_byNumber.put(o._number, _list);
+					_sizes.put(o._number, CompileStats.countNodes(o._expr));
+				}
+				_list.add(o);
+			}
+			List<Integer> _order = new ArrayList<Integer>(_byNumber.keySet());
+			Collections.sort(_order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return _sizes.get(b) - _sizes.get(a);
+				}
+			});
+			List<Occurrence> _kept = new ArrayList<Occurrence>();
+			for (Integer number : _order) {
+				Occurrence _first = reuse(_byNumber.get(number), _sizes.get(number));
+				if (_first != null)
+					_kept.add(_first);
+			}
+			//the variables a statement needs are assigned in the order their
+			//values are known, so that parts come before what they are part of
+			Collections.sort(_kept, new Comparator<Occurrence>() {
+				public int compare(Occurrence a, Occurrence b) {
+					return a._order - b._order;
+				}
+			});
+			for (Occurrence o : _kept) {
+				List<NodeExpr> _defined = _definitions.get(o._statement);
+				if (_defined == null) {
+					_defined = new ArrayList<NodeExpr>();
+					_definitions.put(o._statement, _defined);
+				}
+				_defined.add(o._expr);
+			}
+			startBlock();
+		}
+
+		//Keeps a value computed more than once in a new variable, if it can
+		//and that is not dearer: counting an instruction a node, n copies of
+		//an expression of the given size cost n * size, the variable size to
+		//compute, one to keep and n to read. Returns the occurrence that
+		//computes it, or null.
+		private Occurrence reuse(List<Occurrence> value, int size) {
+			List<Occurrence> _computed = new ArrayList<Occurrence>();
+			for (Occurrence o : value) {
+				if (o.isComputed() && !o._shared && (o._hoistable || !_computed.isEmpty()))
+					_computed.add(o);
+			}
+			int _n = _computed.size();
+			if (_n < 2 || _n * size < size + 1 + _n)
+				return null;
+			String _name = "cse." + (++_temps);
+			for (Occurrence o : _computed) {
+				_replacements.put(o._expr, _name);
+				o._replaced = o != _computed.get(0);
+			}
+			return _computed.get(0);
+		}
+
+		protected void checkAndVisit(Node node) throws VisitorException {
+			boolean _isShared = _shared.contains(node);
+			if (_isShared)
+				_inShared++;
+			super.checkAndVisit(node);
+			if (_isShared)
+				_inShared--;
+		}
+
+		//the number of a new value
+		private int fresh() {
+			return _next++;
+		}
+
+		private int number(String operation) {
+			Integer _n = _numbers.get(operation);
+			if (_n == null) {
+				_n = fresh();
+				_numbers.put(operation, _n);
+			}
+			return _n;
+		}
+
+		private int number(NodeExpr expr) throws VisitorException {
+			_number = -1;
+			checkAndVisit(expr);
+			return expr instanceof NodeRelation ? -1 : _number;
+		}
+
+		private int value(String id) {
+			Integer _n = _values.get(id);
+			if (_n == null) {
+				_n = fresh();
+				_values.put(id, _n);
+			}
+			return _n;
+		}
+
+		private int version(String array) {
+			Integer _n = _versions.get(array);
+			if (_n == null) {
+				_n = fresh();
+				_versions.put(array, _n);
+			}
+			return _n;
+		}
+
+		private String element(String array, int version, int index) {
+			return array + "@" + version + "[" + index + "]";
+		}
+
+		//a variable that holds the value, preferring locals; null if none does
+		private String holder(int number, boolean localsOnly) {
+			String _global = null;
+			for (Map.Entry<String, Integer> entry : _values.entrySet()) {
+				if (entry.getValue() != number)
+					continue;
+				if (!_globals.contains(entry.getKey()))
+					return entry.getKey();
+				if (_global == null)
+					_global = entry.getKey();
+			}
+			return localsOnly ? null : _global;
+		}
+
+		//what a call may assign gets a new value
+		private void call(String id) {
+			_called = true;
+			for (String global : _writes.get(id)) {
+				_values.put(global, fresh());
+				_versions.put(global, fresh());
+			}
+		}
+
+		//Starts an arithmetic expression or array element, before its
+		//operands are numbered.
+		private Occurrence start(NodeExpr expr) {
+			Occurrence _occurrence = new Occurrence(expr, _statement, _enclosing,
+					!_called && (_conditional == 0 || ConstantFoldingVisitor.isPure(expr)), _inShared > 0);
+			_occurrences.add(_occurrence);
+			_enclosing = _occurrence;
+			return _occurrence;
+		}
+
+		//Numbers the expression started from the key of its operation, and
+		//replaces it if a variable holds its value already.
+		private void finish(Occurrence occurrence, String operation) {
+			_enclosing = occurrence._enclosing;
+			occurrence._number = number(operation);
+			occurrence._order = _order++;
+			String _holder = holder(occurrence._number, false);
+			if (_holder != null && !occurrence._shared) {
+				_replacements.put(occurrence._expr, _holder);
+				occurrence._replaced = true;
+			}
+			_number = occurrence._number;
+		}
+
+		private void binary(NodeExpr expr, String operator, NodeExpr left, NodeExpr right, boolean commutative)
+				throws VisitorException {
+			Occurrence _occurrence = start(expr);
+			int _left = number(left);
+			int _right = number(right);
+			if (commutative && _left > _right)
+				finish(_occurrence, operator + " " + _right + " " + _left);
+			else
+				finish(_occurrence, operator + " " + _left + " " + _right);
+		}
+
+		public void handleNodeInstrDeclArray(NodeInstrDeclArray node) throws VisitorException {
+			_versions.put(node.identifier(), fresh());
+		}
+
+		public void handleNodeInstrDeclSingle(NodeInstrDeclSingle node) throws VisitorException {
+			_values.put(node.identifier(), fresh());
+		}
+
+		public void handleNodeInstrAssignSingle(NodeInstrAssignSingle node) throws VisitorException {
+			int _value = number(node.expression());
+			_values.put(node.identifier(), _value >= 0 ? _value : fresh());
+		}
+
+		//the element stored keeps the number of the value stored in it
+		public void handleNodeInstrAssignArray(NodeInstrAssignArray node) throws VisitorException {
+			int _index = number(node.index());
+			int _value = number(node.expression());
+			int _version = fresh();
+			_versions.put(node.identifier(), _version);
+			if (_index >= 0 && _value >= 0)
+				_numbers.put(element(node.identifier(), _version, _index), _value);
+		}
+
+		public void handleNodeInstrInputSingle(NodeInstrInputSingle node) throws VisitorException {
+			_values.put(node.identifier(), fresh());
+		}
+
+		public void handleNodeInstrInputArray(NodeInstrInputArray node) throws VisitorException {
+			super.handleNodeInstrInputArray(node);
+			_versions.put(node.identifier(), fresh());
+		}
+
+		public void handleNodeInstrProcCall(NodeInstrProcCall node) throws VisitorException {
+			super.handleNodeInstrProcCall(node);
+			call(node.identifier());
+		}
+
+		public void handleNodeInstrReturnExpr(NodeInstrReturnExpr node) throws VisitorException {
+			super.handleNodeInstrReturnExpr(node);
+			endBlock();
+		}
+
+		//the branches are blocks of their own
+		public void handleNodeInstrIfthen(NodeInstrIfthen node) throws VisitorException {
+			checkAndVisit(node.relation());
+			endBlock();
+		}
+
+		public void handleNodeInstrIfthenelse(NodeInstrIfthenelse node) throws VisitorException {
+			checkAndVisit(node.relation());
+			endBlock();
+		}
+
+		//the condition of a loop runs more than once, after its body
+		public void handleNodeInstrWhile(NodeInstrWhile node) throws VisitorException {
+			endBlock();
+		}
+
+		public void handleNodeInstrBlock(NodeInstrBlock node) throws VisitorException {
+			endBlock();
+		}
+
+		public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+			super.handleNodeExprProcCall(node);
+			call(node.identifier());
+			_number = fresh();
+		}
+
+		public void handleNodeExprArrayVar(NodeExprArrayVar node) throws VisitorException {
+			Occurrence _occurrence = start(node);
+			int _index = number(node.index());
+			finish(_occurrence, element(node.identifier(), version(node.identifier()), _index));
+		}
+
+		//a global is replaced by a local that holds its value
+		public void handleNodeExprVar(NodeExprVar node) throws VisitorException {
+			_number = value(node.identifier());
+			if (_globals.contains(node.identifier()) && _inShared == 0) {
+				String _holder = holder(_number, true);
+				if (_holder != null)
+					_replacements.put(node, _holder);
+			}
+		}
+
+		public void handleNodeExprInt(NodeExprInt node) throws VisitorException {
+			_number = number(Integer.toString(node.value()));
+		}
+
+		public void handleNodeExprPlus(NodeExprPlus node) throws VisitorException {
+			binary(node, "+", node.leftChild(), node.rightChild(), true);
+		}
+
+		public void handleNodeExprMinus(NodeExprMinus node) throws VisitorException {
+			binary(node, "-", node.leftChild(), node.rightChild(), false);
+		}
+
+		public void handleNodeExprTimes(NodeExprTimes node) throws VisitorException {
+			binary(node, "*", node.leftChild(), node.rightChild(), true);
+		}
+
+		public void handleNodeExprDivide(NodeExprDivide node) throws VisitorException {
+			binary(node, "/", node.leftChild(), node.rightChild(), false);
+		}
+
+		public void handleNodeExprMod(NodeExprMod node) throws VisitorException {
+			binary(node, "%", node.leftChild(), node.rightChild(), false);
+		}
+
+		public void handleNodeRelationAnd(NodeRelationAnd node) throws VisitorException {
+			checkAndVisit(node.leftChild());
+			_conditional++;
+			checkAndVisit(node.rightChild());
+			_conditional--;
+		}
+
+		public void handleNodeRelationOr(NodeRelationOr node) throws VisitorException {
+			checkAndVisit(node.leftChild());
+			_conditional++;
+			checkAndVisit(node.rightChild());
+			_conditional--;
+		}
+	}
+
+	/**
+	 * Finds the nodes a tree has in more than one place, as rewriting may
+	 * leave it with.
+	 */
+	private static class Sharing extends DepthFirstVisitor {
+		private final Set<Node> _seen = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+		private final Set<Node> _shared = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+
+		Set<Node> find(Node root) throws VisitorException {
+			checkAndVisit(root);
+			return _shared;
+		}
+
+		protected void checkAndVisit(Node node) throws VisitorException {
+			if (!_seen.add(node))
+				_shared.add(node);
+			super.checkAndVisit(node);
+		}
+	}
+
+	public void handleNodeProgram(NodeProgram node) throws VisitorException {
+		_writes = InliningVisitor.globalWrites(node, _globals);
+		_shared = new Sharing().find(node);
+		NodeListProc _procs = (NodeListProc) rewrite(node.listProc());
+		_result = (_procs == node.listProc()) ? node : new NodeProgram(node.listVarDecl(), _procs);
+	}
+
+	public void handleNodeListProcCons(NodeListProcCons node) throws VisitorException {
+		List<NodeProc> _procs = new ArrayList<NodeProc>();
+		boolean _changed = false;
+		for (NodeProc proc : node) {
+			NodeProc _proc = (NodeProc) rewrite(proc);
+			_changed |= _proc != proc;
+			_procs.add(_proc);
+		}
+		_result = _changed ? NodeListProc.of(_procs) : node;
+	}
+
+	public void handleNodeListProcNil(NodeListProcNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeProc(NodeProc node) throws VisitorException {
+		NodeInstr _instr = statement(node.instruction());
+		_result = (_instr == node.instruction()) ? node
+				: new NodeProc(node.identifier(), node.argumentList(), _instr);
+	}
+
+	public void handleNodeProcDeclArg(NodeProcDeclArg node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListProcDeclArgCons(NodeListProcDeclArgCons node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListProcDeclArgNil(NodeListProcDeclArgNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListVarDeclCons(NodeListVarDeclCons node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListVarDeclNil(NodeListVarDeclNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeVarDeclArray(NodeVarDeclArray node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeVarDeclSingle(NodeVarDeclSingle node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrDeclArray(NodeInstrDeclArray node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrDeclSingle(NodeInstrDeclSingle node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeListInstrCons(NodeListInstrCons node) throws VisitorException {
+		List<NodeInstr> _instrs = new ArrayList<NodeInstr>();
+		for (NodeInstr instr : node)
+			_instrs.add(instr);
+		List<NodeInstr> _rewritten = rewrite(_instrs);
+		_result = _rewritten.equals(_instrs) ? node : NodeListInstr.of(_rewritten);
+	}
+
+	public void handleNodeListInstrNil(NodeListInstrNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrBlock(NodeInstrBlock node) throws VisitorException {
+		NodeListInstr _list = (NodeListInstr) rewrite(node.instructions());
+		_result = (_list == node.instructions()) ? node : new NodeInstrBlock(_list);
+	}
+
+	public void handleNodeInstrAssignSingle(NodeInstrAssignSingle node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeInstrAssignSingle(node.identifier(), _expr);
+	}
+
+	public void handleNodeInstrAssignArray(NodeInstrAssignArray node) throws VisitorException {
+		NodeExpr _index = rewrite(node.index());
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_index == node.index() && _expr == node.expression()) ? node
+				: new NodeInstrAssignArray(node.identifier(), _index, _expr);
+	}
+
+	public void handleNodeInstrOutput(NodeInstrOutput node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeInstrOutput(_expr);
+	}
+
+	public void handleNodeInstrInputSingle(NodeInstrInputSingle node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeInstrInputArray(NodeInstrInputArray node) throws VisitorException {
+		NodeExpr _index = rewrite(node.index());
+		_result = (_index == node.index()) ? node : new NodeInstrInputArray(node.identifier(), _index);
+	}
+
+	public void handleNodeInstrReturnExpr(NodeInstrReturnExpr node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeInstrReturnExpr(_expr);
+	}
+
+	public void handleNodeInstrProcCall(NodeInstrProcCall node) throws VisitorException {
+		NodeListProcCallArg _args = (NodeListProcCallArg) rewrite(node.arguments());
+		_result = (_args == node.arguments()) ? node
+				: new NodeInstrProcCall(node.identifier(), _args);
+	}
+
+	public void handleNodeInstrIfthen(NodeInstrIfthen node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _then = statement(node.thenInstruction());
+		_result = (_relation == node.relation() && _then == node.thenInstruction()) ? node
+				: new NodeInstrIfthen(_relation, _then);
+	}
+
+	public void handleNodeInstrIfthenelse(NodeInstrIfthenelse node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _then = statement(node.thenInstruction());
+		NodeInstr _else = statement(node.elseInstruction());
+		_result = (_relation == node.relation() && _then == node.thenInstruction()
+				&& _else == node.elseInstruction()) ? node
+				: new NodeInstrIfthenelse(_relation, _then, _else);
+	}
+
+	public void handleNodeInstrWhile(NodeInstrWhile node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		NodeInstr _instr = statement(node.instruction());
+		_result = (_relation == node.relation() && _instr == node.instruction()) ? node
+				: new NodeInstrWhile(_relation, _instr);
+	}
+
+	public void handleNodeListProcCallArgCons(NodeListProcCallArgCons node) throws VisitorException {
+		List<NodeProcCallArg> _args = new ArrayList<NodeProcCallArg>();
+		boolean _changed = false;
+		for (NodeProcCallArg arg : node) {
+			NodeProcCallArg _arg = (NodeProcCallArg) rewrite(arg);
+			_changed |= _arg != arg;
+			_args.add(_arg);
+		}
+		_result = _changed ? NodeListProcCallArg.of(_args) : node;
+	}
+
+	public void handleNodeListProcCallArgNil(NodeListProcCallArgNil node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeProcCallArg(NodeProcCallArg node) throws VisitorException {
+		NodeExpr _expr = rewrite(node.expression());
+		_result = (_expr == node.expression()) ? node : new NodeProcCallArg(_expr);
+	}
+
+	public void handleNodeExprProcCall(NodeExprProcCall node) throws VisitorException {
+		NodeListProcCallArg _args = (NodeListProcCallArg) rewrite(node.arguments());
+		_result = (_args == node.arguments()) ? node
+				: new NodeExprProcCall(node.identifier(), _args);
+	}
+
+	public void handleNodeExprArrayVar(NodeExprArrayVar node) throws VisitorException {
+		NodeExpr _index = rewrite(node.index());
+		_result = (_index == node.index()) ? node : new NodeExprArrayVar(node.identifier(), _index);
+	}
+
+	public void handleNodeExprVar(NodeExprVar node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprInt(NodeExprInt node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprTrue(NodeExprTrue node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprFalse(NodeExprFalse node) throws VisitorException {
+		_result = node;
+	}
+
+	public void handleNodeExprPlus(NodeExprPlus node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprPlus(_left, _right);
+	}
+
+	public void handleNodeExprMinus(NodeExprMinus node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprMinus(_left, _right);
+	}
+
+	public void handleNodeExprTimes(NodeExprTimes node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprTimes(_left, _right);
+	}
+
+	public void handleNodeExprDivide(NodeExprDivide node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprDivide(_left, _right);
+	}
+
+	public void handleNodeExprMod(NodeExprMod node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeExprMod(_left, _right);
+	}
+
+	public void handleNodeRelationLessThan(NodeRelationLessThan node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationLessThan(_left, _right);
+	}
+
+	public void handleNodeRelationLessThanEqual(NodeRelationLessThanEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationLessThanEqual(_left, _right);
+	}
+
+	public void handleNodeRelationGreaterThan(NodeRelationGreaterThan node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationGreaterThan(_left, _right);
+	}
+
+	public void handleNodeRelationGreaterThanEqual(NodeRelationGreaterThanEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationGreaterThanEqual(_left, _right);
+	}
+
+	public void handleNodeRelationEqual(NodeRelationEqual node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationEqual(_left, _right);
+	}
+
+	public void handleNodeRelationAnd(NodeRelationAnd node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationAnd(_left, _right);
+	}
+
+	public void handleNodeRelationOr(NodeRelationOr node) throws VisitorException {
+		NodeExpr _left = rewrite(node.leftChild());
+		NodeExpr _right = rewrite(node.rightChild());
+		_result = (_left == node.leftChild() && _right == node.rightChild()) ? node
+				: new NodeRelationOr(_left, _right);
+	}
+
+	public void handleNodeRelationNot(NodeRelationNot node) throws VisitorException {
+		NodeExpr _relation = rewrite(node.relation());
+		_result = (_relation == node.relation()) ? node : new NodeRelationNot(_relation);
+	}
+}
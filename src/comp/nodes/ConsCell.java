@@ -0,0 +1,12 @@
+package comp.nodes;
+
+/**
+ * A *Cons node, seen the same way whatever its list holds, so that one
+ * iterator serves every kind of list.
+ */
+interface ConsCell<T extends Node>
+{
+	T head();
+
+	Node tail();
+}
@@ -0,0 +1,50 @@
+package comp.nodes;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks a chain of ConsCells from the given node up to the node that ends it.
+ */
+class ConsIterator<T extends Node> implements Iterator<T>
+{
+	private Node _next;
+
+	ConsIterator(Node list)
+	{
+		_next = list;
+	}
+
+	public boolean hasNext()
+	{
+		return _next instanceof ConsCell;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+		ConsCell<T> cell = (ConsCell<T>) _next;
+		_next = cell.tail();
+		return cell.head();
+	}
+
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Counts the cells of the chain starting at the given node.
+	 */
+	static int size(Node list)
+	{
+		int size = 0;
+		while (list instanceof ConsCell) {
+			list = ((ConsCell<?>) list).tail();
+			size++;
+		}
+		return size;
+	}
+}
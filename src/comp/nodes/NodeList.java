@@ -0,0 +1,15 @@
+package comp.nodes;
+
+/**
+ * What the lists of the syntax tree (NodeListInstr and friends) have in
+ * common. A list is a chain of *Cons nodes ended by a *Nil node; walking it
+ * with the iterator, instead of recursing down head() and tail(), takes the
+ * same stack however long the list is.
+ */
+public interface NodeList<T extends Node> extends Iterable<T>
+{
+	/**
+	 * Returns the number of elements, that is of *Cons nodes, in the list.
+	 */
+	public int size();
+}
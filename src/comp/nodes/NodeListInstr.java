@@ -2,9 +2,36 @@
  
 package comp.nodes;
 
+import java.util.Iterator;
+import java.util.List;
+
 /**
 * A typing superclass to ensure that items that go in a linked list of instructions are indeed instructions.
 */
  
-public abstract class NodeListInstr extends Node
-{ }
+public abstract class NodeListInstr extends Node implements NodeList<NodeInstr>
+{
+	/**
+	 * Iterates over the instructions of the list, first to last.
+	 */
+	public Iterator<NodeInstr> iterator()
+	{
+		return new ConsIterator<NodeInstr>(this);
+	}
+
+	public int size()
+	{
+		return ConsIterator.size(this);
+	}
+
+	/**
+	 * Builds the list of the given instructions, in the same order.
+	 */
+	public static NodeListInstr of(List<? extends NodeInstr> elements)
+	{
+		NodeListInstr list = new NodeListInstrNil();
+		for (int i = elements.size() - 1; i >= 0; i--)
+			list = new NodeListInstrCons(elements.get(i), list);
+		return list;
+	}
+}
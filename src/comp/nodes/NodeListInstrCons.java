@@ -14,7 +14,7 @@ import comp.VisitorException;
  * Typing class that represents a non-null entry in a linked list of instructions.
  */
  
-public class NodeListInstrCons extends NodeListInstr
+public class NodeListInstrCons extends NodeListInstr implements ConsCell<NodeInstr>
 {
 	private NodeInstr _head;
 	private NodeListInstr _tail;
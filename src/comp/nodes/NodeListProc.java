@@ -2,10 +2,37 @@
  
 package comp.nodes;
 
+import java.util.Iterator;
+import java.util.List;
+
 /**
 * A typing superclass to ensure that items that go in a linked list of procedures
 * are indeed procedures.
 */
  
-public abstract class NodeListProc extends Node
-{ }
+public abstract class NodeListProc extends Node implements NodeList<NodeProc>
+{
+	/**
+	 * Iterates over the procedures of the list, first to last.
+	 */
+	public Iterator<NodeProc> iterator()
+	{
+		return new ConsIterator<NodeProc>(this);
+	}
+
+	public int size()
+	{
+		return ConsIterator.size(this);
+	}
+
+	/**
+	 * Builds the list of the given procedures, in the same order.
+	 */
+	public static NodeListProc of(List<? extends NodeProc> elements)
+	{
+		NodeListProc list = new NodeListProcNil();
+		for (int i = elements.size() - 1; i >= 0; i--)
+			list = new NodeListProcCons(elements.get(i), list);
+		return list;
+	}
+}
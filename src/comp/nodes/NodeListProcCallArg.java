@@ -2,11 +2,38 @@
  
 package comp.nodes;
 
+import java.util.Iterator;
+import java.util.List;
+
 /**
 * A typing superclass to ensure that items that go in a linked list of
 * procedure call arguments are indeed
 * procedure call arguments.
 */
  
-public abstract class NodeListProcCallArg extends Node
-{ }
+public abstract class NodeListProcCallArg extends Node implements NodeList<NodeProcCallArg>
+{
+	/**
+	 * Iterates over the arguments of the list, first to last.
+	 */
+	public Iterator<NodeProcCallArg> iterator()
+	{
+		return new ConsIterator<NodeProcCallArg>(this);
+	}
+
+	public int size()
+	{
+		return ConsIterator.size(this);
+	}
+
+	/**
+	 * Builds the list of the given arguments, in the same order.
+	 */
+	public static NodeListProcCallArg of(List<? extends NodeProcCallArg> elements)
+	{
+		NodeListProcCallArg list = new NodeListProcCallArgNil();
+		for (int i = elements.size() - 1; i >= 0; i--)
+			list = new NodeListProcCallArgCons(elements.get(i), list);
+		return list;
+	}
+}
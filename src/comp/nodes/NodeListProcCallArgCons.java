@@ -11,7 +11,7 @@ package comp.nodes;
 import comp.Visitor;
 import comp.VisitorException;
  
-public class NodeListProcCallArgCons extends NodeListProcCallArg
+public class NodeListProcCallArgCons extends NodeListProcCallArg implements ConsCell<NodeProcCallArg>
 {
 	private NodeProcCallArg _head;
 	private NodeListProcCallArg _tail;
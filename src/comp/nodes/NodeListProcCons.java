@@ -10,7 +10,7 @@ package comp.nodes;
 import comp.Visitor;
 import comp.VisitorException;
  
-public class NodeListProcCons extends NodeListProc
+public class NodeListProcCons extends NodeListProc implements ConsCell<NodeProc>
 {
 	private NodeProc _head;
 	private NodeListProc _tail;
@@ -2,11 +2,38 @@
  
 package comp.nodes;
 
+import java.util.Iterator;
+import java.util.List;
+
 /**
 * A typing superclass to ensure that items that go in a linked list of procedure
 * declaration arguments are indeed
 * procedure declaration arguments.
 */
  
-public abstract class NodeListProcDeclArg extends Node
-{ }
+public abstract class NodeListProcDeclArg extends Node implements NodeList<NodeProcDeclArg>
+{
+	/**
+	 * Iterates over the arguments of the list, first to last.
+	 */
+	public Iterator<NodeProcDeclArg> iterator()
+	{
+		return new ConsIterator<NodeProcDeclArg>(this);
+	}
+
+	public int size()
+	{
+		return ConsIterator.size(this);
+	}
+
+	/**
+	 * Builds the list of the given arguments, in the same order.
+	 */
+	public static NodeListProcDeclArg of(List<? extends NodeProcDeclArg> elements)
+	{
+		NodeListProcDeclArg list = new NodeListProcDeclArgNil();
+		for (int i = elements.size() - 1; i >= 0; i--)
+			list = new NodeListProcDeclArgCons(elements.get(i), list);
+		return list;
+	}
+}
@@ -11,7 +11,7 @@ package comp.nodes;
 import comp.Visitor;
 import comp.VisitorException;
  
-public class NodeListProcDeclArgCons extends NodeListProcDeclArg
+public class NodeListProcDeclArgCons extends NodeListProcDeclArg implements ConsCell<NodeProcDeclArg>
 {
 	private NodeProcDeclArg _head;
 	private NodeListProcDeclArg _tail;
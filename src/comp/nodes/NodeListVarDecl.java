@@ -2,9 +2,36 @@
  
 package comp.nodes;
 
+import java.util.Iterator;
+import java.util.List;
+
 /**
 * A typing superclass to ensure that items that go in a linked list of global variable declarations are indeed declarations.
 */
  
-public abstract class NodeListVarDecl extends Node
-{ }
+public abstract class NodeListVarDecl extends Node implements NodeList<NodeVarDecl>
+{
+	/**
+	 * Iterates over the declarations of the list, first to last.
+	 */
+	public Iterator<NodeVarDecl> iterator()
+	{
+		return new ConsIterator<NodeVarDecl>(this);
+	}
+
+	public int size()
+	{
+		return ConsIterator.size(this);
+	}
+
+	/**
+	 * Builds the list of the given declarations, in the same order.
+	 */
+	public static NodeListVarDecl of(List<? extends NodeVarDecl> elements)
+	{
+		NodeListVarDecl list = new NodeListVarDeclNil();
+		for (int i = elements.size() - 1; i >= 0; i--)
+			list = new NodeListVarDeclCons(elements.get(i), list);
+		return list;
+	}
+}
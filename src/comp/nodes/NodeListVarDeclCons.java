@@ -10,7 +10,7 @@ package comp.nodes;
 import comp.Visitor;
 import comp.VisitorException;
  
-public class NodeListVarDeclCons extends NodeListVarDecl
+public class NodeListVarDeclCons extends NodeListVarDecl implements ConsCell<NodeVarDecl>
 {
 	private NodeVarDecl _head;
 	private NodeListVarDecl _tail;